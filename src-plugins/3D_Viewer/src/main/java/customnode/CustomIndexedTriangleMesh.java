@@ -19,6 +19,7 @@
 import javax.vecmath.Point3f;
 import javax.vecmath.Vector3f;
 
+import marchingcubes.IndexedMesh;
 import vib.InterpolatedImage;
 
 public class CustomIndexedTriangleMesh extends CustomMesh {
@@ -37,6 +38,18 @@ public CustomIndexedTriangleMesh(Point3f[] vertices, int[] faces) {
 		this(vertices, faces, DEFAULT_COLOR, 0);
 	}
 
+	/**
+	 * Creates a mesh from the output of MCCube.getIndexedMesh(),
+	 * with one Point3f per shared vertex.
+	 */
+	public CustomIndexedTriangleMesh(IndexedMesh mesh) {
+		this(mesh, DEFAULT_COLOR, 0);
+	}
+
+	public CustomIndexedTriangleMesh(IndexedMesh mesh, Color3f color, float transp) {
+		this(mesh.getVertices(), mesh.getFaces(), color, transp);
+	}
+
 	public CustomIndexedTriangleMesh(Point3f[] vertices, int[] faces, Color3f color, float transp) {
 		this.nVertices = vertices.length;
 		this.nFaces = faces.length;
@@ -0,0 +1,67 @@
+package marchingcubes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.vecmath.Point3f;
+
+/**
+ * A triangle mesh in which vertices are shared between triangles.
+ *
+ * The coordinates of vertex i are stored at coordinates[3*i],
+ * coordinates[3*i+1] and coordinates[3*i+2]; every three consecutive
+ * entries of faces are the vertex indices of one triangle.
+ */
+public final class IndexedMesh {
+
+	private final float[] coordinates;
+	private final int[] faces;
+
+	public IndexedMesh(float[] coordinates, int[] faces) {
+		if(coordinates.length % 3 != 0 || faces.length % 3 != 0)
+			throw new IllegalArgumentException(
+				"Coordinates and faces must come in triples");
+		this.coordinates = coordinates;
+		this.faces = faces;
+	}
+
+	public float[] getCoordinates() {
+		return coordinates;
+	}
+
+	public int[] getFaces() {
+		return faces;
+	}
+
+	public int getVertexCount() {
+		return coordinates.length / 3;
+	}
+
+	public int getTriangleCount() {
+		return faces.length / 3;
+	}
+
+	/**
+	 * Creates one Point3f per vertex.
+	 */
+	public Point3f[] getVertices() {
+		Point3f[] vertices = new Point3f[getVertexCount()];
+		for(int i = 0; i < vertices.length; i++)
+			vertices[i] = new Point3f(coordinates[3 * i],
+				coordinates[3 * i + 1],
+				coordinates[3 * i + 2]);
+		return vertices;
+	}
+
+	/**
+	 * Expands the mesh to a list with three points per triangle,
+	 * as returned by MCCube.getTriangles().
+	 */
+	public List<Point3f> getTriangles() {
+		Point3f[] vertices = getVertices();
+		List<Point3f> list = new ArrayList<Point3f>(faces.length);
+		for(int i = 0; i < faces.length; i++)
+			list.add(new Point3f(vertices[faces[i]]));
+		return list;
+	}
+}
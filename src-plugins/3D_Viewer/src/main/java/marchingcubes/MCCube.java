@@ -11,7 +11,9 @@
 import java.awt.Shape;
 import java.awt.geom.Area;
 import java.awt.geom.PathIterator;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import mpicbg.imglib.container.shapelist.ShapeList;
 import ij3d.ImgLibVolume;
 
@@ -219,6 +221,320 @@ public static final List<Point3f> getTriangles(Volume volume, int thresh){
 		return tri;
 	}
 
+	/**
+	 * Create an indexed mesh from the specified image data and the
+	 * given isovalue, using one thread per processor. The triangles
+	 * are the same as those of getTriangles(), but every vertex is
+	 * stored only once and shared by all triangles that meet there.
+	 * @param volume
+	 * @param thresh
+	 * @return
+	 */
+	public static final IndexedMesh getIndexedMesh(Volume volume, int thresh) {
+		return getIndexedMesh(volume, thresh,
+			Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create an indexed mesh from the specified image data and the
+	 * given isovalue.
+	 *
+	 * The volume is split into slabs along z which are processed in
+	 * parallel. Within a slab, the vertex on each edge of the voxel
+	 * grid is created once and looked up by the edge it lies on;
+	 * vertices on the plane between two slabs are merged afterwards.
+	 * The loaders of a Volume are not thread-safe (the averaging one
+	 * reads the channels into a shared buffer), so the slabs read
+	 * their planes one at a time and only the cubes are processed
+	 * in parallel. ImgLibVolumes are read through a single cursor
+	 * and are always processed in one thread.
+	 * @param volume
+	 * @param thresh
+	 * @param numThreads
+	 * @return
+	 */
+	public static final IndexedMesh getIndexedMesh(final Volume volume,
+			int thresh, int numThreads) {
+		final float threshold = thresh + 0.5f;
+		if(volume instanceof ImgLibVolume)
+			numThreads = 1;
+
+		// cube layers -1 .. d-1, as in getTriangles()
+		final int nLayers = volume.zDim + 1;
+		final int nSlabs = Math.max(1, Math.min(nLayers, 4 * numThreads));
+		final Slab[] slabs = new Slab[nSlabs];
+		for(int s = 0; s < nSlabs; s++)
+			slabs[s] = new Slab(volume, threshold,
+				-1 + s * nLayers / nSlabs,
+				-1 + (s + 1) * nLayers / nSlabs);
+
+		final AtomicInteger nextSlab = new AtomicInteger(0);
+		final AtomicInteger layersDone = new AtomicInteger(0);
+		final Thread[] threads = new Thread[Math.max(1, Math.min(numThreads, nSlabs))];
+		for(int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					int s;
+					while((s = nextSlab.getAndIncrement()) < nSlabs) {
+						slabs[s].run();
+						IJ.showProgress(layersDone.addAndGet(
+							slabs[s].zEnd - slabs[s].zStart), nLayers);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		try {
+			for(int t = 0; t < threads.length; t++)
+				threads[t].join();
+		} catch(InterruptedException e) {
+			throw new RuntimeException("Interrupted while meshing", e);
+		}
+
+		// Merge the slabs: vertices on the bottom plane of a slab
+		// are the same as those on the top plane of the one before
+		int nVertices = 0, nIndices = 0;
+		int[] previousTopX = null, previousTopY = null;
+		for(int s = 0; s < nSlabs; s++) {
+			Slab slab = slabs[s];
+			int[] remap = new int[slab.nVertices];
+			Arrays.fill(remap, -1);
+			if(previousTopX != null) {
+				for(int i = 0; i < previousTopX.length; i++) {
+					if(slab.bottomX[i] >= 0 && previousTopX[i] >= 0)
+						remap[slab.bottomX[i]] = previousTopX[i];
+					if(slab.bottomY[i] >= 0 && previousTopY[i] >= 0)
+						remap[slab.bottomY[i]] = previousTopY[i];
+				}
+			}
+			for(int i = 0; i < remap.length; i++)
+				if(remap[i] == -1)
+					remap[i] = nVertices++;
+			slab.remap = remap;
+			previousTopX = slab.toGlobal(slab.topX);
+			previousTopY = slab.toGlobal(slab.topY);
+			nIndices += slab.nIndices;
+		}
+
+		float[] coordinates = new float[3 * nVertices];
+		int[] faces = new int[nIndices];
+		int f = 0;
+		for(int s = 0; s < nSlabs; s++) {
+			Slab slab = slabs[s];
+			for(int i = 0; i < slab.nVertices; i++)
+				System.arraycopy(slab.coordinates, 3 * i,
+					coordinates, 3 * slab.remap[i], 3);
+			for(int i = 0; i < slab.nIndices; i++)
+				faces[f++] = slab.remap[slab.faces[i]];
+			slabs[s] = null;
+		}
+		return new IndexedMesh(coordinates, faces);
+	}
+
+	/**
+	 * The cubes of the layers zStart (inclusive) to zEnd (exclusive),
+	 * with vertex indices local to the slab.
+	 *
+	 * Grid points are indexed as (x + 1) + (y + 1) * stride for
+	 * x in [-1, w] and y in [-1, h]; for each of them the index of
+	 * the vertex on the edge to the next point in x, y and z is
+	 * stored (or -1 if there is none yet).
+	 */
+	private static final class Slab {
+		final Volume volume;
+		final float threshold;
+		final int zStart, zEnd;
+		final int w, h, d, stride, rows;
+
+		float[] coordinates = new float[3 * 1024];
+		int nVertices = 0;
+		int[] faces = new int[3 * 1024];
+		int nIndices = 0;
+
+		// vertex indices on the bottom and top plane of the slab
+		int[] bottomX, bottomY, topX, topY;
+		int[] remap;
+
+		Slab(Volume volume, float threshold, int zStart, int zEnd) {
+			this.volume = volume;
+			this.threshold = threshold;
+			this.zStart = zStart;
+			this.zEnd = zEnd;
+			this.w = volume.xDim;
+			this.h = volume.yDim;
+			this.d = volume.zDim;
+			this.stride = w + 2;
+			this.rows = h + 2;
+		}
+
+		int[] toGlobal(int[] local) {
+			int[] global = new int[local.length];
+			for(int i = 0; i < local.length; i++)
+				global[i] = local[i] < 0 ? -1 : remap[local[i]];
+			return global;
+		}
+
+		/**
+		 * Reads plane z, with a border of zeros around it. The
+		 * volume is locked while reading, as its loader is shared
+		 * by all slabs.
+		 */
+		void loadPlane(int z, int[] plane) {
+			Arrays.fill(plane, 0);
+			if(z < 0 || z >= d)
+				return;
+			synchronized(volume) {
+				for(int y = 0; y < h; y++)
+					for(int x = 0; x < w; x++)
+						plane[(x + 1) + (y + 1) * stride] =
+							volume.load(x, y, z);
+			}
+		}
+
+		void run() {
+			int[] below = new int[stride * rows];
+			int[] above = new int[stride * rows];
+			int[] xBelow = new int[stride * rows];
+			int[] yBelow = new int[stride * rows];
+			int[] xAbove = new int[stride * rows];
+			int[] yAbove = new int[stride * rows];
+			int[] zEdges = new int[stride * rows];
+			int[] values = new int[8];
+			int[] edges = new int[12];
+
+			loadPlane(zStart, below);
+			Arrays.fill(xBelow, -1);
+			Arrays.fill(yBelow, -1);
+			bottomX = xBelow;
+			bottomY = yBelow;
+
+			for(int z = zStart; z < zEnd; z++) {
+				loadPlane(z + 1, above);
+				Arrays.fill(xAbove, -1);
+				Arrays.fill(yAbove, -1);
+				Arrays.fill(zEdges, -1);
+
+				for(int y = -1; y < h; y++) {
+					for(int x = -1; x < w; x++) {
+						int i = (x + 1) + (y + 1) * stride;
+						values[0] = below[i];
+						values[1] = below[i + 1];
+						values[2] = below[i + 1 + stride];
+						values[3] = below[i + stride];
+						values[4] = above[i];
+						values[5] = above[i + 1];
+						values[6] = above[i + 1 + stride];
+						values[7] = above[i + stride];
+
+						int cn = 0;
+						for(int v = 0; v < 8; v++)
+							if(values[v] - threshold > 0)
+								cn |= 1 << v;
+						if(cn == 0 || cn == 255)
+							continue;
+
+						Arrays.fill(edges, -1);
+						int offset = cn * 15;
+						for(int t = 0; t < 5; t++, offset += 3) {
+							if(MCCube.faces[offset] == -1)
+								continue;
+							for(int k = 0; k < 3; k++) {
+								int e = MCCube.faces[offset + k];
+								if(edges[e] == -1)
+									edges[e] = vertex(e, x, y, z, i, values,
+										xBelow, yBelow, xAbove, yAbove, zEdges);
+								addIndex(edges[e]);
+							}
+						}
+					}
+				}
+
+				// the top of this layer is the bottom of the next one
+				int[] tmp = below; below = above; above = tmp;
+				if(z + 1 < zEnd) {
+					tmp = xBelow; xBelow = xAbove; xAbove = tmp;
+					tmp = yBelow; yBelow = yAbove; yAbove = tmp;
+					if(xAbove == bottomX) {
+						// keep the bottom plane for merging
+						xAbove = new int[stride * rows];
+						yAbove = new int[stride * rows];
+					}
+				}
+			}
+			topX = xAbove;
+			topY = yAbove;
+		}
+
+		/**
+		 * Returns the index of the vertex on edge e of the cube at
+		 * (x, y, z), creating it if necessary. Edges are numbered as
+		 * in computeEdges().
+		 */
+		int vertex(int e, int x, int y, int z, int i, int[] values,
+				int[] xBelow, int[] yBelow,
+				int[] xAbove, int[] yAbove, int[] zEdges) {
+			int[] edgeArray;
+			int index, v1, v2;
+			switch(e) {
+				case 0: edgeArray = xBelow; index = i; v1 = 0; v2 = 1; break;
+				case 1: edgeArray = yBelow; index = i + 1; v1 = 1; v2 = 2; break;
+				case 2: edgeArray = xBelow; index = i + stride; v1 = 3; v2 = 2; break;
+				case 3: edgeArray = yBelow; index = i; v1 = 0; v2 = 3; break;
+				case 4: edgeArray = xAbove; index = i; v1 = 4; v2 = 5; break;
+				case 5: edgeArray = yAbove; index = i + 1; v1 = 5; v2 = 6; break;
+				case 6: edgeArray = xAbove; index = i + stride; v1 = 7; v2 = 6; break;
+				case 7: edgeArray = yAbove; index = i; v1 = 4; v2 = 7; break;
+				case 8: edgeArray = zEdges; index = i; v1 = 0; v2 = 4; break;
+				case 9: edgeArray = zEdges; index = i + 1; v1 = 1; v2 = 5; break;
+				case 10: edgeArray = zEdges; index = i + stride; v1 = 3; v2 = 7; break;
+				default: edgeArray = zEdges; index = i + 1 + stride; v1 = 2; v2 = 6; break;
+			}
+			if(edgeArray[index] >= 0)
+				return edgeArray[index];
+
+			// as in computeEdge(): interpolate from the lower to
+			// the higher intensity, so that the result does not
+			// depend on which cube creates the vertex
+			int i1 = values[v1], i2 = values[v2];
+			if(i2 < i1) {
+				int tmp = v1; v1 = v2; v2 = tmp;
+				tmp = i1; i1 = i2; i2 = tmp;
+			}
+			float t = (threshold - i1) / (float) (i2 - i1);
+			float px1 = x + CORNER_X[v1], py1 = y + CORNER_Y[v1], pz1 = z + CORNER_Z[v1];
+			float px2 = x + CORNER_X[v2], py2 = y + CORNER_Y[v2], pz2 = z + CORNER_Z[v2];
+			float px = (px2 - px1) * t + px1;
+			float py = (py2 - py1) * t + py1;
+			float pz = (pz2 - pz1) * t + pz1;
+
+			if(3 * nVertices + 3 > coordinates.length) {
+				float[] grown = new float[2 * coordinates.length];
+				System.arraycopy(coordinates, 0, grown, 0, coordinates.length);
+				coordinates = grown;
+			}
+			// convert pixel coordinates
+			coordinates[3 * nVertices]     = (float) (px * volume.pw + volume.minCoord.x);
+			coordinates[3 * nVertices + 1] = (float) (py * volume.ph + volume.minCoord.y);
+			coordinates[3 * nVertices + 2] = (float) (pz * volume.pd + volume.minCoord.z);
+			edgeArray[index] = nVertices;
+			return nVertices++;
+		}
+
+		void addIndex(int vertex) {
+			if(nIndices == faces.length) {
+				int[] grown = new int[2 * faces.length];
+				System.arraycopy(faces, 0, grown, 0, faces.length);
+				faces = grown;
+			}
+			faces[nIndices++] = vertex;
+		}
+	}
+
+	// offsets of the cube vertices, see init()
+	private static final int[] CORNER_X = {0, 1, 1, 0, 0, 1, 1, 0};
+	private static final int[] CORNER_Y = {0, 0, 1, 1, 0, 0, 1, 1};
+	private static final int[] CORNER_Z = {0, 0, 0, 0, 1, 1, 1, 1};
+
 	/** Identical to getTriangles, but iterates only the minimal necessary bounding box, by asking the shapes objects. */
 	private static final void getShapeListImageTriangles(final ImgLibVolume volume, final Carrier car, final List<Point3f> tri) {
 		final ShapeList sli = (ShapeList) volume.getImage().getContainer();
@@ -0,0 +1,163 @@
+package marchingcubes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import ij3d.Volume;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.vecmath.Point3f;
+
+import org.junit.Test;
+
+/**
+ * Checks that the indexed mesh built by slabs in parallel has the same
+ * triangles as the one built by MCCube.getTriangles().
+ */
+public class MCCubeTest {
+
+	@Test
+	public void testGrayImage() {
+		ImagePlus imp = createBlobs(false, 48, 40, 36, new Random(1));
+		for(int numThreads : new int[] {1, 2, 4, 8})
+			assertSameTriangles(imp, numThreads);
+	}
+
+	@Test
+	public void testColorImage() {
+		ImagePlus imp = createBlobs(true, 48, 40, 36, new Random(2));
+		for(int numThreads : new int[] {1, 2, 4, 8})
+			assertSameTriangles(imp, numThreads);
+	}
+
+	@Test
+	public void testThinImages() {
+		Random random = new Random(3);
+		assertSameTriangles(createBlobs(true, 20, 18, 1, random), 4);
+		assertSameTriangles(createBlobs(true, 20, 18, 2, random), 4);
+		assertSameTriangles(createBlobs(false, 20, 18, 3, random), 8);
+	}
+
+	/**
+	 * Volume loaders keep their state in the instance, so the slabs
+	 * must never read the volume at the same time.
+	 */
+	@Test
+	public void testNoConcurrentLoads() {
+		ImagePlus imp = createBlobs(true, 48, 40, 36, new Random(4));
+		CheckedVolume volume = new CheckedVolume(imp);
+		volume.setAverage(true);
+		MCCube.getIndexedMesh(volume, 100, 4);
+		assertTrue(volume.loads.get() > 0);
+		assertFalse("The volume was read by several threads at once",
+			volume.concurrent);
+	}
+
+	/**
+	 * Meshes the image as MCTriangulator does, reading the average
+	 * of the channels, and compares the triangles regardless of
+	 * their order.
+	 */
+	private static void assertSameTriangles(ImagePlus imp, int numThreads) {
+		Volume volume = new Volume(imp, new boolean[] {true, true, true});
+		volume.setAverage(true);
+		List<Point3f> expected = MCCube.getTriangles(volume, 100);
+		IndexedMesh mesh = MCCube.getIndexedMesh(volume, 100, numThreads);
+
+		String message = imp.getTitle() + ", " + numThreads + " thread(s)";
+		assertTrue(message + ": no triangles", expected.size() > 0);
+		assertEquals(message, toSortedTriangles(expected),
+			toSortedTriangles(mesh.getTriangles()));
+	}
+
+	/**
+	 * Records whether load() is entered by a thread while another one
+	 * is still in there, yielding on each call to let that happen.
+	 */
+	private static final class CheckedVolume extends Volume {
+		final AtomicInteger busy = new AtomicInteger();
+		final AtomicInteger loads = new AtomicInteger();
+		volatile boolean concurrent = false;
+
+		CheckedVolume(ImagePlus imp) {
+			super(imp, new boolean[] {true, true, true});
+		}
+
+		@Override
+		public int load(int x, int y, int z) {
+			loads.incrementAndGet();
+			if(busy.incrementAndGet() > 1)
+				concurrent = true;
+			try {
+				Thread.yield();
+				return super.load(x, y, z);
+			} finally {
+				busy.decrementAndGet();
+			}
+		}
+	}
+
+	private static List<String> toSortedTriangles(List<Point3f> points) {
+		List<String> triangles = new ArrayList<String>(points.size() / 3);
+		for(int i = 0; i < points.size(); i += 3)
+			triangles.add(points.get(i) + " " + points.get(i + 1)
+				+ " " + points.get(i + 2));
+		Collections.sort(triangles);
+		return triangles;
+	}
+
+	/**
+	 * Creates a calibrated stack with a few noisy blobs. In color
+	 * images, the channels differ so that their average matters.
+	 */
+	private static ImagePlus createBlobs(boolean color, int w, int h,
+			int d, Random random) {
+		float[][] centers = new float[5][];
+		for(int i = 0; i < centers.length; i++)
+			centers[i] = new float[] {w * random.nextFloat(),
+				h * random.nextFloat(), d * random.nextFloat(),
+				4 + 8 * random.nextFloat()};
+
+		ImageStack stack = new ImageStack(w, h);
+		for(int z = 0; z < d; z++) {
+			ImageProcessor ip = color
+				? new ColorProcessor(w, h)
+				: new ByteProcessor(w, h);
+			for(int y = 0; y < h; y++) {
+				for(int x = 0; x < w; x++) {
+					float v = 0;
+					for(float[] c : centers) {
+						float dx = x - c[0], dy = y - c[1], dz = z - c[2];
+						v = Math.max(v, 200 * (1 - (dx * dx + dy * dy + dz * dz) / (c[3] * c[3])));
+					}
+					int value = Math.min(255, Math.max(0, (int)v + random.nextInt(40)));
+					if(color) {
+						int r = value, g = random.nextInt(256), b = Math.max(0, Math.min(255, 2 * value - g));
+						ip.set(x, y, (r << 16) | (g << 8) | b);
+					} else
+						ip.set(x, y, value);
+				}
+			}
+			stack.addSlice("", ip);
+		}
+		ImagePlus imp = new ImagePlus(color ? "color blobs" : "gray blobs", stack);
+		Calibration cal = imp.getCalibration();
+		cal.pixelWidth = 0.7;
+		cal.pixelHeight = 1.3;
+		cal.pixelDepth = 2.1;
+		cal.xOrigin = 3;
+		return imp;
+	}
+}
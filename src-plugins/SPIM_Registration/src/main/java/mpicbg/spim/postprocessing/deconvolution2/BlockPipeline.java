@@ -0,0 +1,242 @@
+package mpicbg.spim.postprocessing.deconvolution2;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import mpicbg.imglib.algorithm.fft.FourierConvolution;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+import mpicbg.imglib.type.numeric.complex.ComplexFloatType;
+import mpicbg.imglib.type.numeric.real.FloatType;
+import mpicbg.spim.io.IOFunctions;
+
+/**
+ * Convolves an image block-wise on the CPU, processing several {@link Block}s at the same time.
+ * Every worker thread has its own block image and {@link FourierConvolution}, so copying, convolving
+ * and pasting of different blocks overlap. The number of workers is bounded by the number of processors
+ * and by a memory budget.
+ *
+ * The Fourier spectrum of the kernel is computed once and shared by all workers; it is kept for
+ * all subsequent calls, i.e. across all iterations of the deconvolution.
+ *
+ * If any block fails, the convolution is aborted and a {@link RuntimeException} is thrown.
+ */
+public class BlockPipeline
+{
+	/**
+	 * Print the time spent in each stage after every convolution
+	 */
+	public static boolean printTimings = false;
+
+	final Block[] blocks;
+	final int[] blockSize;
+	final ImageFactory< FloatType > factory;
+	final Image< FloatType > kernel;
+	final String name;
+
+	// the memory (in bytes) the workers may use, if <= 0 half of the currently free memory is used
+	long memoryBudget = 0;
+
+	// the spectrum of the kernel, computed by the first block that is convolved
+	Image< ComplexFloatType > kernelFFT = null;
+	final Object kernelFFTLock = new Object();
+
+	// summed over all workers, in ms
+	long copyTime, computeTime, pasteTime;
+	int numWorkers;
+
+	public BlockPipeline( final Block[] blocks, final int[] blockSize, final ImageFactory< FloatType > factory, final Image< FloatType > kernel, final String name )
+	{
+		this.blocks = blocks;
+		this.blockSize = blockSize;
+		this.factory = factory;
+		this.kernel = kernel;
+		this.name = name;
+	}
+
+	/**
+	 * @param memoryBudget - the memory (in bytes) the workers may use, if <= 0 half of the currently free memory is used
+	 */
+	public void setMemoryBudget( final long memoryBudget ) { this.memoryBudget = memoryBudget; }
+
+	/**
+	 * @return the memory (in bytes) the workers may use, if <= 0 half of the currently free memory is used
+	 */
+	public long getMemoryBudget() { return memoryBudget; }
+
+	/**
+	 * @return the time spent copying blocks during the last convolution, summed over all workers (ms)
+	 */
+	public long getCopyTime() { return copyTime; }
+
+	/**
+	 * @return the time spent in the FFT convolution during the last convolution, summed over all workers (ms)
+	 */
+	public long getComputeTime() { return computeTime; }
+
+	/**
+	 * @return the time spent pasting blocks during the last convolution, summed over all workers (ms)
+	 */
+	public long getPasteTime() { return pasteTime; }
+
+	/**
+	 * @return the number of workers used for the last convolution
+	 */
+	public int getNumWorkers() { return numWorkers; }
+
+	/**
+	 * Estimates the memory one worker needs: the block, the convolved block and the spectrum of the
+	 * block which is extended by the kernel size.
+	 *
+	 * @return bytes
+	 */
+	public long getMemoryPerWorker()
+	{
+		long blockPixels = 1, extendedPixels = 1;
+
+		for ( int d = 0; d < blockSize.length; ++d )
+		{
+			blockPixels *= blockSize[ d ];
+			extendedPixels *= blockSize[ d ] + kernel.getDimension( d ) - 1;
+		}
+
+		return 4 * blockPixels * 2 + 8 * extendedPixels;
+	}
+
+	protected int computeNumWorkers()
+	{
+		final long budget;
+
+		if ( memoryBudget > 0 )
+		{
+			budget = memoryBudget;
+		}
+		else
+		{
+			final Runtime runtime = Runtime.getRuntime();
+			budget = ( runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory() ) / 2;
+		}
+
+		final long fit = budget / getMemoryPerWorker();
+
+		return (int)Math.max( 1, Math.min( Math.min( Runtime.getRuntime().availableProcessors(), blocks.length ), fit ) );
+	}
+
+	/**
+	 * Convolves the image with the kernel.
+	 *
+	 * @param image - the image to convolve
+	 * @return the convolved image
+	 * @throws RuntimeException if the convolution of a block failed
+	 */
+	public Image< FloatType > convolve( final Image< FloatType > image )
+	{
+		final long time = System.currentTimeMillis();
+
+		final Image< FloatType > result = image.createNewImage();
+
+		this.numWorkers = computeNumWorkers();
+		final int threadsPerWorker = Math.max( 1, Runtime.getRuntime().availableProcessors() / numWorkers );
+
+		final AtomicLong copy = new AtomicLong(), compute = new AtomicLong(), paste = new AtomicLong();
+		final AtomicReference< String > error = new AtomicReference< String >();
+		final AtomicInteger ai = new AtomicInteger();
+
+		final Thread[] threads = SimpleMultiThreading.newThreads( numWorkers );
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				public void run()
+				{
+					final Image< FloatType > block = factory.createImage( blockSize );
+					final FourierConvolution< FloatType, FloatType > fftConvolution = new FourierConvolution< FloatType, FloatType >( block, kernel );
+					fftConvolution.setNumThreads( threadsPerWorker );
+					fftConvolution.setKeepImgFFT( false );
+
+					int i = -1;
+
+					try
+					{
+						while ( error.get() == null && ( i = ai.getAndIncrement() ) < blocks.length )
+						{
+							long t = System.currentTimeMillis();
+							blocks[ i ].copyBlock( image, block );
+							copy.addAndGet( System.currentTimeMillis() - t );
+
+							t = System.currentTimeMillis();
+							fftConvolution.replaceImage( block );
+
+							if ( !convolveBlock( fftConvolution ) )
+							{
+								error.compareAndSet( null, name + ": convolution of block " + i + " failed: " + fftConvolution.getErrorMessage() );
+								break;
+							}
+
+							compute.addAndGet( System.currentTimeMillis() - t );
+
+							t = System.currentTimeMillis();
+							final Image< FloatType > convolved = fftConvolution.getResult();
+							blocks[ i ].pasteBlock( result, convolved );
+							convolved.close();
+							paste.addAndGet( System.currentTimeMillis() - t );
+						}
+					}
+					catch ( final Throwable e )
+					{
+						error.compareAndSet( null, name + ": convolution of block " + i + " failed: " + e );
+					}
+					finally
+					{
+						block.close();
+					}
+				}
+			});
+
+		SimpleMultiThreading.startAndJoin( threads );
+
+		this.copyTime = copy.get();
+		this.computeTime = compute.get();
+		this.pasteTime = paste.get();
+
+		if ( error.get() != null )
+		{
+			result.close();
+			throw new RuntimeException( error.get() );
+		}
+
+		if ( printTimings )
+			IOFunctions.println( " " + name + ": " + blocks.length + " blocks on " + numWorkers + " workers, copy " + copyTime + " ms, compute " + computeTime +
+					" ms, paste " + pasteTime + " ms (summed), total " + (System.currentTimeMillis() - time) + " ms" );
+
+		return result;
+	}
+
+	/**
+	 * Runs one convolution, using the cached spectrum of the kernel if it is available.
+	 * The first convolution computes it while holding the lock, so that it is computed only once.
+	 */
+	protected boolean convolveBlock( final FourierConvolution< FloatType, FloatType > fftConvolution )
+	{
+		if ( fftConvolution.getKernelFFT() == null )
+		{
+			synchronized ( kernelFFTLock )
+			{
+				if ( kernelFFT == null )
+				{
+					if ( !fftConvolution.process() )
+						return false;
+
+					kernelFFT = fftConvolution.getKernelFFT();
+					return true;
+				}
+
+				fftConvolution.setKernelFFT( kernelFFT );
+			}
+		}
+
+		return fftConvolution.process();
+	}
+}
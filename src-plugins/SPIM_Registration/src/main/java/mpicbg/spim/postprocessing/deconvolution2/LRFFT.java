@@ -29,6 +29,10 @@ public static enum PSFTYPE { OPTIMIZATION_II, OPTIMIZATION_I, EFFICIENT_BAYESIAN
 	private Image<FloatType> image, weight, kernel1, kernel2;
 	Image<FloatType> viewContribution = null;
 	FourierConvolution<FloatType, FloatType> fftConvolution1, fftConvolution2;
+	// the CPU-only block convolutions, they keep the kernel spectra across iterations
+	BlockPipeline blockPipeline1, blockPipeline2;
+	// the memory (in bytes) the block convolutions may use, if <= 0 half of the currently free memory is used
+	long blockMemoryBudget = 0;
 	protected int numViews = 0;
 	
 	PSFTYPE iterationType;
@@ -236,8 +240,9 @@ else if ( iterationType == PSFTYPE.OPTIMIZATION_I )
 		
 		if ( useCPU )
 		{
-			if ( useBlocks )
+			if ( useBlocks && useCUDA )
 			{
+				// the CPU shares the blocks with the CUDA devices
 				final Image< FloatType > block = factory.createImage( blockSize );
 				
 				this.fftConvolution1 = new FourierConvolution<FloatType, FloatType>( block, this.kernel1 );				
@@ -250,6 +255,14 @@ else if ( iterationType == PSFTYPE.OPTIMIZATION_I )
 				//this.fftConvolution2.setExtendImageByKernelSize( false );
 				this.fftConvolution2.setKeepImgFFT( false );
 			}
+			else if ( useBlocks )
+			{
+				// the CPU convolves all blocks, every worker of the pipelines has its own FourierConvolution
+				this.fftConvolution1 = null;
+				this.fftConvolution2 = null;
+				
+				createBlockPipelines();
+			}
 			else
 			{
 				this.fftConvolution1 = new FourierConvolution<FloatType, FloatType>( this.image, this.kernel1 );	
@@ -268,6 +281,14 @@ else if ( iterationType == PSFTYPE.OPTIMIZATION_I )
 		}
 	}
 	
+	protected void createBlockPipelines()
+	{
+		this.blockPipeline1 = new BlockPipeline( blocks, blockSize, factory, this.kernel1, "convolve1" );
+		this.blockPipeline1.setMemoryBudget( blockMemoryBudget );
+		this.blockPipeline2 = new BlockPipeline( blocks, blockSize, factory, this.kernel2, "convolve2" );
+		this.blockPipeline2.setMemoryBudget( blockMemoryBudget );
+	}
+	
 	public static Image<FloatType> computeExponentialKernel( final Image<FloatType> kernel, final int numViews )
 	{
 		final Image<FloatType> exponentialKernel = kernel.clone();
@@ -321,6 +342,21 @@ public void setKernel( final Image<FloatType> kernel )
 	public Image<FloatType> getKernel1() { return kernel1; }
 	public Image<FloatType> getKernel2() { return kernel2; }
 	
+	/**
+	 * @param blockMemoryBudget - the memory (in bytes) the CPU block convolutions may use, if <= 0 half of the currently free memory is used
+	 */
+	public void setBlockMemoryBudget( final long blockMemoryBudget )
+	{
+		this.blockMemoryBudget = blockMemoryBudget;
+		
+		if ( blockPipeline1 != null )
+			blockPipeline1.setMemoryBudget( blockMemoryBudget );
+		
+		if ( blockPipeline2 != null )
+			blockPipeline2.setMemoryBudget( blockMemoryBudget );
+	}
+	public long getBlockMemoryBudget() { return blockMemoryBudget; }
+	
 	public void setCurrentIteration( final int i ) { this.i = i; }
 	public int getCurrentIteration() { return i; }
 
@@ -337,32 +373,7 @@ public Image< FloatType > convolve1( final Image< FloatType > image )
 			if ( useBlocks )
 			{
 				//IJ.log( "Using CPU only on blocks ... " );
-				
-				final Image< FloatType > result = image.createNewImage();
-				final Image< FloatType > block = factory.createImage( blockSize );
-				
-				for ( int i = 0; i < blocks.length; ++i )
-				{
-					/*
-					long time = System.currentTimeMillis();
-					blocks[ i ].copyBlock( image, block );
-					System.out.println( " block " + i + ": copy " + (System.currentTimeMillis() - time) );
-
-					time = System.currentTimeMillis();				
-					fftConvolution1.replaceImage( block );
-					fftConvolution1.process();
-					System.out.println( " block " + i + ": compute " + (System.currentTimeMillis() - time) );
-					
-					time = System.currentTimeMillis();				
-					blocks[ i ].pasteBlock( result, fftConvolution1.getResult() );					
-					System.out.println( " block " + i + ": paste " + (System.currentTimeMillis() - time) );
-					*/
-					LRFFTThreads.convolve1BlockCPU( blocks[ i ], i, image, result, block, fftConvolution1 );
-				}
-				
-				block.close();
-				
-				return result;
+				return blockPipeline1.convolve( image );
 			}
 			else
 			{
@@ -463,25 +474,7 @@ public Image< FloatType > convolve2( final Image< FloatType > image )
 		{
 			if ( useBlocks )
 			{
-				final Image< FloatType > result = image.createNewImage();
-				final Image< FloatType > block = factory.createImage( blockSize );
-				
-				for ( int i = 0; i < blocks.length; ++i )
-				{
-					/*
-					blocks[ i ].copyBlock( image, block );
-
-					fftConvolution2.replaceImage( block );
-					fftConvolution2.process();
-					
-					blocks[ i ].pasteBlock( result, fftConvolution2.getResult() );
-					*/
-					LRFFTThreads.convolve2BlockCPU( blocks[ i ], image, result, block, fftConvolution2 );
-				}
-				
-				block.close();
-				
-				return result;
+				return blockPipeline2.convolve( image );
 			}
 			else
 			{
@@ -544,6 +537,7 @@ public LRFFT clone()
 		viewClone.iterationType = iterationType;
 		viewClone.views = views;
 		viewClone.i = i;
+		viewClone.blockMemoryBudget = blockMemoryBudget;
 		
 		if ( this.kernel2 != null )
 			viewClone.kernel2 = kernel2.clone();
@@ -562,6 +556,9 @@ public LRFFT clone()
 			viewClone.fftConvolution2 = new FourierConvolution<FloatType, FloatType>( fftConvolution2.getImage(), fftConvolution2.getKernel() );
 			viewClone.fftConvolution2.process();
 		}
+		
+		if ( this.blockPipeline1 != null )
+			viewClone.createBlockPipelines();
 
 		return viewClone;
 	}	
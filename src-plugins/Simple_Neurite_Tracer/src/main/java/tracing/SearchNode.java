@@ -61,6 +61,11 @@ public void setPredecessor( SearchNode p ) {
 
 	public byte searchStatus;
 
+	/* The position of this node in the SearchNodeHeap it is in,
+	   or -1 if it's not in one. */
+
+	int heapIndex = -1;
+
 	public SearchNode( int x, int y, int z,
 			   float g, float h,
 			   SearchNode predecessor,
@@ -103,7 +108,18 @@ public void setFrom( SearchNode another ) {
 		this.searchStatus = another.searchStatus;
 	}
 
-	/* This is used by PriorityQueue: */
+	/* Sets the cost of a new path to this node, found via
+	   predecessor.  (If the node is in a SearchNodeHeap, you must
+	   call update() afterwards.) */
+
+	public void setCost( float g, float h, SearchNode predecessor ) {
+		this.g = g;
+		this.h = h;
+		this.f = g + h;
+		this.predecessor = predecessor;
+	}
+
+	/* This is used by SearchNodeHeap: */
 
 	public int compareTo( Object other ) {
 
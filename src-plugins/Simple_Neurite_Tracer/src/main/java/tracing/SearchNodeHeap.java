@@ -0,0 +1,171 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*
+  This file is part of the ImageJ plugin "Simple Neurite Tracer".
+
+  The ImageJ plugin "Simple Neurite Tracer" is free software; you
+  can redistribute it and/or modify it under the terms of the GNU
+  General Public License as published by the Free Software
+  Foundation; either version 3 of the License, or (at your option)
+  any later version.
+
+  The ImageJ plugin "Simple Neurite Tracer" is distributed in the
+  hope that it will be useful, but WITHOUT ANY WARRANTY; without
+  even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+  PARTICULAR PURPOSE.  See the GNU General Public License for more
+  details.
+
+  In addition, as a special exception, the copyright holders give
+  you permission to combine this program with free software programs or
+  libraries that are released under the Apache Public License.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package tracing;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/* A binary heap of SearchNodes, ordered by SearchNode.compareTo(),
+   which stores the position of each node in the node itself.  This
+   means that a node can be removed, or moved after its f value has
+   decreased, in O(log n) time - PriorityQueue.remove(Object) has to
+   search through the whole queue, which made these updates the
+   bottleneck of the search on large stacks.
+
+   A node can only be in one SearchNodeHeap at a time.  Since the
+   nodes are ordered by f and then by position, the nodes are polled
+   in exactly the same order as from a PriorityQueue. */
+
+public class SearchNodeHeap implements Iterable<SearchNode> {
+
+	SearchNode [] heap = new SearchNode[256];
+	int size = 0;
+
+	public int size( ) {
+		return size;
+	}
+
+	public void add( SearchNode n ) {
+		if( size == heap.length ) {
+			SearchNode [] newHeap = new SearchNode[ heap.length * 2 ];
+			System.arraycopy( heap, 0, newHeap, 0, size );
+			heap = newHeap;
+		}
+		heap[size] = n;
+		n.heapIndex = size;
+		++ size;
+		siftUp( n.heapIndex );
+	}
+
+	public SearchNode peek( ) {
+		return size == 0 ? null : heap[0];
+	}
+
+	public SearchNode poll( ) {
+		if( size == 0 )
+			return null;
+		SearchNode result = heap[0];
+		removeAt( 0 );
+		return result;
+	}
+
+	public boolean contains( SearchNode n ) {
+		int i = n.heapIndex;
+		return i >= 0 && i < size && heap[i] == n;
+	}
+
+	/* Returns false if the node wasn't in this heap. */
+
+	public boolean remove( SearchNode n ) {
+		if( ! contains( n ) )
+			return false;
+		removeAt( n.heapIndex );
+		return true;
+	}
+
+	/* Call this after changing the f value of a node that is in
+	   the heap, to move it to its new position.  (This is the
+	   "decrease-key" operation, but it works for increases too.) */
+
+	public void update( SearchNode n ) {
+		if( ! contains( n ) )
+			throw new IllegalArgumentException( "BUG: updating a node that isn't in the heap: " + n );
+		int i = siftUp( n.heapIndex );
+		siftDown( i );
+	}
+
+	void removeAt( int i ) {
+		heap[i].heapIndex = -1;
+		-- size;
+		if( i == size ) {
+			heap[size] = null;
+			return;
+		}
+		heap[i] = heap[size];
+		heap[i].heapIndex = i;
+		heap[size] = null;
+		i = siftUp( i );
+		siftDown( i );
+	}
+
+	int siftUp( int i ) {
+		SearchNode n = heap[i];
+		while( i > 0 ) {
+			int parent = (i - 1) >>> 1;
+			if( heap[parent].compareTo( n ) <= 0 )
+				break;
+			heap[i] = heap[parent];
+			heap[i].heapIndex = i;
+			i = parent;
+		}
+		heap[i] = n;
+		n.heapIndex = i;
+		return i;
+	}
+
+	int siftDown( int i ) {
+		SearchNode n = heap[i];
+		int half = size >>> 1;
+		while( i < half ) {
+			int child = 2 * i + 1;
+			int right = child + 1;
+			if( right < size && heap[right].compareTo( heap[child] ) < 0 )
+				child = right;
+			if( n.compareTo( heap[child] ) <= 0 )
+				break;
+			heap[i] = heap[child];
+			heap[i].heapIndex = i;
+			i = child;
+		}
+		heap[i] = n;
+		n.heapIndex = i;
+		return i;
+	}
+
+	/* The iteration is in no particular order.  (As with the
+	   PriorityQueues used before, you should synchronize if the
+	   search might be running.) */
+
+	public Iterator<SearchNode> iterator( ) {
+		final SearchNode [] nodes = heap;
+		final int n = Math.min( size, nodes.length );
+		return new Iterator<SearchNode>() {
+			int i = 0;
+			public boolean hasNext( ) {
+				return i < n;
+			}
+			public SearchNode next( ) {
+				if( i >= n )
+					throw new NoSuchElementException();
+				return nodes[i++];
+			}
+			public void remove( ) {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
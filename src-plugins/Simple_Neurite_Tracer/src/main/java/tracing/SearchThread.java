@@ -340,11 +340,11 @@ public SearchThread( ImagePlus imagePlus,
 		this.timeoutSeconds = timeoutSeconds;
 		this.reportEveryMilliseconds = reportEveryMilliseconds;
 
-		closed_from_start = new PriorityQueue<SearchNode>();
-		open_from_start = new PriorityQueue<SearchNode>();
+		closed_from_start = new SearchNodeHeap();
+		open_from_start = new SearchNodeHeap();
 		if( bidirectional ) {
-			closed_from_goal = new PriorityQueue<SearchNode>();
-			open_from_goal = new PriorityQueue<SearchNode>();
+			closed_from_goal = new SearchNodeHeap();
+			open_from_goal = new SearchNodeHeap();
 		}
 
 		nodes_as_image_from_start = new SearchNode[depth][];
@@ -356,12 +356,12 @@ public SearchThread( ImagePlus imagePlus,
 		progressListeners = new ArrayList< SearchProgressCallback >();
 	}
 
-	PriorityQueue<SearchNode> closed_from_start;
-	PriorityQueue<SearchNode> open_from_start;
+	SearchNodeHeap closed_from_start;
+	SearchNodeHeap open_from_start;
 
 	// The next two are null if the search is not bidirectional
-	PriorityQueue<SearchNode> closed_from_goal;
-	PriorityQueue<SearchNode> open_from_goal;
+	SearchNodeHeap closed_from_goal;
+	SearchNodeHeap open_from_goal;
 
 	SearchNode [][] nodes_as_image_from_start;
 	SearchNode [][] nodes_as_image_from_goal;
@@ -458,8 +458,8 @@ public void run( ) {
 				if( bidirectional )
 					fromStart = open_from_goal.size() > open_from_start.size();
 
-				PriorityQueue<SearchNode> open_queue = fromStart ? open_from_start : open_from_goal;
-				PriorityQueue<SearchNode> closed_queue = fromStart ? closed_from_start : closed_from_goal;
+				SearchNodeHeap open_queue = fromStart ? open_from_start : open_from_goal;
+				SearchNodeHeap closed_queue = fromStart ? closed_from_start : closed_from_goal;
 
 				SearchNode [][] nodes_as_image_this_search = fromStart ? nodes_as_image_from_start : nodes_as_image_from_goal;
 				SearchNode [][] nodes_as_image_other_search = fromStart ? nodes_as_image_from_goal : nodes_as_image_from_start;
@@ -533,16 +533,14 @@ public void run( ) {
 
 							float f_for_new_point = h_for_new_point + g_for_new_point;
 
-							SearchNode newNode = createNewNode( new_x, new_y, new_z,
-											    g_for_new_point, h_for_new_point,
-											    p, FREE );
-
-							// Is this newNode really new?
+							// Is this point really new?
 							SearchNode alreadyThereInThisSearch = nodes_as_image_this_search[new_z][new_y*width+new_x];
 
 							if( alreadyThereInThisSearch == null ) {
 
-								newNode.searchStatus = fromStart ? OPEN_FROM_START : OPEN_FROM_GOAL;
+								SearchNode newNode = createNewNode( new_x, new_y, new_z,
+												    g_for_new_point, h_for_new_point,
+												    p, fromStart ? OPEN_FROM_START : OPEN_FROM_GOAL );
 								open_queue.add( newNode );
 								addingNode( newNode );
 								nodes_as_image_this_search[new_z][new_y*width+new_x] = newNode;
@@ -553,19 +551,22 @@ public void run( ) {
 								// of the lists working from the start but has a better way
 								// of getting to that point.
 
+								// The node is updated in place, so
+								// that it keeps its position in the
+								// open heap, or moves there from the
+								// closed one, in O(log n):
+
 								if( alreadyThereInThisSearch.f > f_for_new_point ) {
 
 									if( alreadyThereInThisSearch.searchStatus == (fromStart ? OPEN_FROM_START : OPEN_FROM_GOAL) ) {
 
-										open_queue.remove( alreadyThereInThisSearch );
-										alreadyThereInThisSearch.setFrom( newNode );
-										alreadyThereInThisSearch.searchStatus = fromStart ? OPEN_FROM_START : OPEN_FROM_GOAL;
-										open_queue.add( alreadyThereInThisSearch );
+										alreadyThereInThisSearch.setCost( g_for_new_point, h_for_new_point, p );
+										open_queue.update( alreadyThereInThisSearch );
 
 									} else if( alreadyThereInThisSearch.searchStatus == (fromStart ? CLOSED_FROM_START : CLOSED_FROM_GOAL) ) {
 
 										closed_queue.remove( alreadyThereInThisSearch );
-										alreadyThereInThisSearch.setFrom( newNode );
+										alreadyThereInThisSearch.setCost( g_for_new_point, h_for_new_point, p );
 										alreadyThereInThisSearch.searchStatus = fromStart ? OPEN_FROM_START : OPEN_FROM_GOAL;
 										open_queue.add( alreadyThereInThisSearch );
 									}
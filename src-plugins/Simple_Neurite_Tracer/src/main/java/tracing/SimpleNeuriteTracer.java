@@ -825,6 +825,9 @@ synchronized void testPathTo( double world_x, double world_y, double world_z, Po
 				tubeness,
 				hessianEnabled );
 
+			if( hessianEnabled && tubeness == null )
+				currentSearchThread.setTubenessCache( getTubenessCache() );
+
 			addThreadToDraw( currentSearchThread );
 
 			currentSearchThread.setDrawingColors( Color.CYAN, null );
@@ -1286,18 +1289,76 @@ public void startHessian() {
 			resultsDialog.changeState(NeuriteTracerResultsDialog.CALCULATING_GAUSSIAN);
 			hessianSigma = resultsDialog.getSigma();
 			hessian = new ComputeCurvatures( xy, hessianSigma, this, true );
-			new Thread(hessian).start();
+			startTubenessCache( hessian, hessianSigma );
 		} else {
 			double newSigma = resultsDialog.getSigma();
 			if( newSigma != hessianSigma ) {
 				resultsDialog.changeState(NeuriteTracerResultsDialog.CALCULATING_GAUSSIAN);
 				hessianSigma = newSigma;
 				hessian = new ComputeCurvatures( xy, hessianSigma, this, true );
-				new Thread(hessian).start();
+				startTubenessCache( hessian, hessianSigma );
 			}
 		}
 	}
 
+	/* The Hessian-based measure for every voxel at hessianSigma is
+	   calculated in the background once the Gaussian is
+	   available; until then (or if that fails) TracerThread
+	   calculates it at each point it reaches.  The cache is saved
+	   to a file next to the image, and if a file for the same image
+	   and sigma is already there we load that and skip the Gaussian
+	   altogether. */
+
+	volatile TubenessCache tubenessCache = null;
+
+	public File getTubenessCacheFile( double sigma ) {
+		if( file_info == null || file_info.directory == null || file_info.fileName == null )
+			return null;
+		String beforeExtension = stripExtension(file_info.fileName);
+		if( beforeExtension == null )
+			beforeExtension = file_info.fileName;
+		return new File( file_info.directory, beforeExtension + ".sigma-" + sigma + ".tubeness-cache" );
+	}
+
+	protected synchronized void startTubenessCache( final ComputeCurvatures newHessian, final double sigma ) {
+		if( tubenessCache != null )
+			tubenessCache.cancel();
+		final TubenessCache cache = new TubenessCache( xy, sigma );
+		tubenessCache = cache;
+		final File cacheFile = getTubenessCacheFile( sigma );
+		new Thread( new Runnable() {
+				public void run() {
+					if( cacheFile != null && cache.load( cacheFile ) ) {
+						IJ.showStatus( "Loaded the tubeness cache from " + cacheFile.getName() );
+						proportionDone( 1.0 );
+						return;
+					}
+					newHessian.run();
+					synchronized( SimpleNeuriteTracer.this ) {
+						// The Gaussian failed, was cancelled or was superseded:
+						if( hessian != newHessian || cache.isCancelled() )
+							return;
+					}
+					IJ.showStatus( "Calculating the tubeness cache..." );
+					if( ! cache.calculate( newHessian, Runtime.getRuntime().availableProcessors() ) )
+						return;
+					IJ.showStatus( "Finished calculating the tubeness cache" );
+					if( cacheFile != null )
+						cache.save( cacheFile );
+				}
+			} ).start();
+	}
+
+	/* Returns the tubeness cache if it is complete and matches the
+	   current Hessian, otherwise null: */
+
+	public TubenessCache getTubenessCache() {
+		TubenessCache cache = tubenessCache;
+		if( cache != null && cache.isComplete() && cache.getSigma() == hessianSigma )
+			return cache;
+		return null;
+	}
+
 	// Even better, we might have a "tubeness" file already there.
 	// If this is non-null then we found the "tubeness" file
 	// (called foo.tubes.tif) on startup and loaded it
@@ -1337,6 +1398,9 @@ public synchronized void cancelGaussian( ) {
 		if( hessian != null ) {
 			hessian.cancelGaussianGeneration();
 		}
+		if( tubenessCache != null ) {
+			tubenessCache.cancel();
+		}
 	}
 
 	// This is the implementation of GaussianGenerationCallback
@@ -1346,6 +1410,9 @@ public void proportionDone( double proportion ) {
 			hessianEnabled = false;
 			hessian = null;
 			hessianSigma = -1;
+			if( tubenessCache != null )
+				tubenessCache.cancel();
+			tubenessCache = null;
 			resultsDialog.gaussianCalculated(false);
 			IJ.showProgress(1.0);
 			return;
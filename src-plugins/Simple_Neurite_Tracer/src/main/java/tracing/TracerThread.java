@@ -82,6 +82,19 @@ protected double minimumCostPerUnitDistance( ) {
 	float [][] tubeness;
 	boolean useHessian;
 
+	/* If this is set (and complete) the Hessian-based measure is
+	   looked up here rather than calculated at each point: */
+	TubenessCache tubenessCache;
+
+	// Scratch space for the eigenvalues when there's no cache:
+	double [] hessianEigenValues = new double[3];
+
+	public void setTubenessCache( TubenessCache tubenessCache ) {
+		if( tubenessCache != null && ! tubenessCache.isComplete() )
+			throw new IllegalArgumentException( "The tubeness cache hasn't been calculated yet" );
+		this.tubenessCache = tubenessCache;
+	}
+
 	boolean singleSlice;
 
         /* If you specify 0 for timeoutSeconds then there is no timeout. */
@@ -201,74 +214,27 @@ protected double costMovingTo( int new_x, int new_y, int new_z ) {
 
 			if( tubeness == null ) {
 
-				if( singleSlice ) {
-
-					double [] hessianEigenValues = new double[2];
-
-					boolean real = hessian.hessianEigenvaluesAtPoint2D( new_x, new_y,
-											    true, hessianEigenValues, false, true, x_spacing, y_spacing );
+				double measure;
+				if( tubenessCache != null )
+					measure = tubenessCache.get( new_x, new_y, new_z );
+				else
+					measure = TubenessCache.measureAt( hessian, new_x, new_y, new_z, singleSlice,
+									   x_spacing, y_spacing, z_spacing, hessianEigenValues );
 
-					// Just use the absolute value
-					// of the largest eigenvalue
-					// (if it's < 0)
+				if( measure > 0 ) {
 
-					if( real && (hessianEigenValues[1] < 0) ) {
+					measure *= multiplier;
+					if( measure > 256 )
+						measure = 256;
 
-						double measure = Math.abs( hessianEigenValues[1] );
-						if( measure == 0 ) // This should never happen in practice...
-							measure = 0.2;
-
-						measure *= multiplier;
-						if( measure > 256 )
-							measure = 256;
-
-						cost = 1 / measure;
-
-					} else {
-
-						cost = 1 / 0.2;
-
-					}
+					cost = 1 / measure;
 
 				} else {
 
-					double [] hessianEigenValues = new double[3];
-
-					boolean real = hessian.hessianEigenvaluesAtPoint3D( new_x, new_y, new_z,
-											    true, hessianEigenValues, false, true, x_spacing, y_spacing, z_spacing );
-
-					/* FIXME: there's lots of literature on how to
-					   pick this rule (see Sato et al,
-					   "Three-dimensional multi-scale line filter
-					   for segmentation and visualization of
-					   curvilinear structures in medical images".
-					   The rule I'm using here probably isn't optimal. */
-
-					double e1 = hessianEigenValues[1];
-					double e2 = hessianEigenValues[2];
-
-					if( real && (e1 < 0) && (e2 < 0) ) {
-
-						double measure = Math.sqrt( e1 * e2 );
-
-						if( measure == 0 ) // This should never happen in practice...
-							measure = 0.2;
-
-						measure *= multiplier;
-						if( measure > 256 )
-							measure = 256;
-
-						cost = 1 / measure;
-
-					} else {
-
-						cost = 1 / 0.2;
-
-					}
+					cost = 1 / 0.2;
 
 				}
 
-
 			} else {
 
 				// Then this saves a lot of time:
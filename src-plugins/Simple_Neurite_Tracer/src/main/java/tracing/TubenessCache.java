@@ -0,0 +1,360 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/*
+  This file is part of the ImageJ plugin "Simple Neurite Tracer".
+
+  The ImageJ plugin "Simple Neurite Tracer" is free software; you
+  can redistribute it and/or modify it under the terms of the GNU
+  General Public License as published by the Free Software
+  Foundation; either version 3 of the License, or (at your option)
+  any later version.
+
+  The ImageJ plugin "Simple Neurite Tracer" is distributed in the
+  hope that it will be useful, but WITHOUT ANY WARRANTY; without
+  even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+  PARTICULAR PURPOSE.  See the GNU General Public License for more
+  details.
+
+  In addition, as a special exception, the copyright holders give
+  you permission to combine this program with free software programs or
+  libraries that are released under the Apache Public License.
+
+  You should have received a copy of the GNU General Public License
+  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package tracing;
+
+import features.ComputeCurvatures;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* This holds the Hessian-based measure that TracerThread uses as
+   its cost for every voxel of an image, so that the eigenvalues at
+   each point are only calculated once rather than in every search.
+
+   The measure is calculated in parallel from a ComputeCurvatures
+   whose Gaussian has been generated, and can be saved to and loaded
+   from a file.  The file records a hash of the pixel data and
+   calibration of the image and the sigma, so a file that doesn't
+   match the current image is never used.  The multiplier isn't part
+   of the cached values - TracerThread applies it afterwards. */
+
+public class TubenessCache {
+
+	static final String MAGIC = "SNT tubeness cache";
+	static final int VERSION = 1;
+
+	protected int width;
+	protected int height;
+	protected int depth;
+	protected double sigma;
+
+	protected ImagePlus imagePlus;
+	// Calculated on first use, since it has to read every pixel:
+	protected long imageHash;
+	protected boolean imageHashed = false;
+
+	protected float x_spacing;
+	protected float y_spacing;
+	protected float z_spacing;
+
+	/* The measure for each voxel, indexed as [z][y*width+x], or
+	   null until it has been calculated or loaded: */
+	protected volatile float [][] measures;
+
+	protected volatile boolean cancelled = false;
+
+	public TubenessCache( ImagePlus imagePlus, double sigma ) {
+		this.imagePlus = imagePlus;
+		this.width = imagePlus.getWidth();
+		this.height = imagePlus.getHeight();
+		this.depth = imagePlus.getStackSize();
+		this.sigma = sigma;
+		Calibration calibration = imagePlus.getCalibration();
+		x_spacing = (float)calibration.pixelWidth;
+		y_spacing = (float)calibration.pixelHeight;
+		z_spacing = (float)calibration.pixelDepth;
+	}
+
+	public double getSigma( ) {
+		return sigma;
+	}
+
+	public synchronized long getImageHash( ) {
+		if( ! imageHashed ) {
+			imageHash = hash( imagePlus );
+			imageHashed = true;
+		}
+		return imageHash;
+	}
+
+	/* True once the measure is available for every voxel: */
+	public boolean isComplete( ) {
+		return measures != null;
+	}
+
+	public void cancel( ) {
+		cancelled = true;
+	}
+
+	public boolean isCancelled( ) {
+		return cancelled;
+	}
+
+	/* Only valid if isComplete() returns true: */
+	public float get( int x, int y, int z ) {
+		return measures[z][y*width+x];
+	}
+
+	/* The measure at one point, as it was calculated in
+	   TracerThread: 0 if the point doesn't look like it's on a tube
+	   (i.e. the eigenvalues are complex or the relevant ones aren't
+	   negative), or otherwise a positive value that is larger for
+	   brighter, more tube-like structures.  eigenValues is used as
+	   scratch space and must have at least 3 elements. */
+
+	public static double measureAt( ComputeCurvatures hessian,
+					int x,
+					int y,
+					int z,
+					boolean singleSlice,
+					float x_spacing,
+					float y_spacing,
+					float z_spacing,
+					double [] eigenValues ) {
+
+		double measure = 0;
+
+		if( singleSlice ) {
+
+			boolean real = hessian.hessianEigenvaluesAtPoint2D( x, y,
+									    true, eigenValues, false, true, x_spacing, y_spacing );
+
+			// Just use the absolute value of the largest
+			// eigenvalue (if it's < 0)
+
+			if( real && (eigenValues[1] < 0) )
+				measure = Math.abs( eigenValues[1] );
+			else
+				return 0;
+
+		} else {
+
+			boolean real = hessian.hessianEigenvaluesAtPoint3D( x, y, z,
+									    true, eigenValues, false, true, x_spacing, y_spacing, z_spacing );
+
+			/* FIXME: there's lots of literature on how to
+			   pick this rule (see Sato et al,
+			   "Three-dimensional multi-scale line filter
+			   for segmentation and visualization of
+			   curvilinear structures in medical images".
+			   The rule I'm using here probably isn't optimal. */
+
+			double e1 = eigenValues[1];
+			double e2 = eigenValues[2];
+
+			if( real && (e1 < 0) && (e2 < 0) )
+				measure = Math.sqrt( e1 * e2 );
+			else
+				return 0;
+		}
+
+		if( measure == 0 ) // This should never happen in practice...
+			measure = 0.2;
+
+		return measure;
+	}
+
+	/* Calculate the measure for every voxel using numberOfThreads
+	   threads.  The Gaussian in 'hessian' must already have been
+	   generated.  Returns false if cancel() was called before it
+	   finished, in which case the cache stays incomplete. */
+
+	public boolean calculate( final ComputeCurvatures hessian, int numberOfThreads ) {
+
+		final boolean singleSlice = depth == 1;
+		final float [][] result = new float[depth][width*height];
+
+		// Each thread takes the next unprocessed row:
+		final AtomicInteger nextRow = new AtomicInteger(0);
+		final int rows = depth * height;
+
+		Thread [] threads = new Thread[Math.max(1,numberOfThreads)];
+		for( int t = 0; t < threads.length; ++t ) {
+			threads[t] = new Thread( new Runnable() {
+					public void run() {
+						double [] eigenValues = new double[3];
+						int row;
+						while( ! cancelled && (row = nextRow.getAndIncrement()) < rows ) {
+							int z = row / height;
+							int y = row % height;
+							float [] slice = result[z];
+							for( int x = 0; x < width; ++x )
+								slice[y*width+x] = (float)measureAt( hessian, x, y, z, singleSlice,
+												     x_spacing, y_spacing, z_spacing, eigenValues );
+						}
+					}
+				});
+			threads[t].start();
+		}
+
+		try {
+			for( int t = 0; t < threads.length; ++t )
+				threads[t].join();
+		} catch( InterruptedException e ) {
+			cancelled = true;
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		if( cancelled )
+			return false;
+
+		measures = result;
+		return true;
+	}
+
+	/* A hash of everything in the image that affects the measure:
+	   the dimensions, the calibration and the pixel values. */
+
+	public static long hash( ImagePlus imagePlus ) {
+
+		long h = 0xcbf29ce484222325L;
+		h = mix( h, imagePlus.getWidth() );
+		h = mix( h, imagePlus.getHeight() );
+		h = mix( h, imagePlus.getStackSize() );
+		h = mix( h, imagePlus.getType() );
+
+		Calibration calibration = imagePlus.getCalibration();
+		h = mix( h, Double.doubleToLongBits( calibration.pixelWidth ) );
+		h = mix( h, Double.doubleToLongBits( calibration.pixelHeight ) );
+		h = mix( h, Double.doubleToLongBits( calibration.pixelDepth ) );
+
+		ImageStack stack = imagePlus.getStack();
+		for( int z = 1; z <= stack.getSize(); ++z ) {
+			Object pixels = stack.getPixels( z );
+			if( pixels instanceof byte[] ) {
+				byte [] p = (byte[])pixels;
+				for( int i = 0; i < p.length; ++i )
+					h = mix( h, p[i] );
+			} else if( pixels instanceof short[] ) {
+				short [] p = (short[])pixels;
+				for( int i = 0; i < p.length; ++i )
+					h = mix( h, p[i] );
+			} else if( pixels instanceof float[] ) {
+				float [] p = (float[])pixels;
+				for( int i = 0; i < p.length; ++i )
+					h = mix( h, Float.floatToIntBits( p[i] ) );
+			} else if( pixels instanceof int[] ) {
+				int [] p = (int[])pixels;
+				for( int i = 0; i < p.length; ++i )
+					h = mix( h, p[i] );
+			}
+		}
+
+		return h;
+	}
+
+	// One step of 64 bit FNV-1a, taking a whole value at a time:
+	static long mix( long h, long value ) {
+		return (h ^ value) * 0x100000001b3L;
+	}
+
+	/* Write the cache to a temporary file next to 'file' and then
+	   rename it, so that an interrupted save never leaves a partial
+	   file behind.  Returns false if it couldn't be saved. */
+
+	public boolean save( File file ) {
+
+		if( measures == null )
+			return false;
+
+		File temporary = new File( file.getAbsolutePath() + ".tmp" );
+		try {
+			DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream( new FileOutputStream( temporary ) ) );
+			try {
+				out.writeUTF( MAGIC );
+				out.writeInt( VERSION );
+				out.writeInt( width );
+				out.writeInt( height );
+				out.writeInt( depth );
+				out.writeDouble( sigma );
+				out.writeLong( getImageHash() );
+				byte [] bytes = new byte[width*height*4];
+				for( int z = 0; z < depth; ++z ) {
+					ByteBuffer.wrap( bytes ).asFloatBuffer().put( measures[z] );
+					out.write( bytes );
+				}
+			} finally {
+				out.close();
+			}
+		} catch( IOException e ) {
+			temporary.delete();
+			IJ.log( "Failed to save the tubeness cache to "+file.getAbsolutePath()+": "+e );
+			return false;
+		}
+
+		file.delete();
+		if( ! temporary.renameTo( file ) ) {
+			temporary.delete();
+			return false;
+		}
+		return true;
+	}
+
+	/* Load the measures from 'file' if it exists and was written
+	   for an image with the same hash and the same sigma.  Returns
+	   true if the cache is now complete. */
+
+	public boolean load( File file ) {
+
+		if( ! file.exists() )
+			return false;
+
+		try {
+			DataInputStream in = new DataInputStream(
+				new BufferedInputStream( new FileInputStream( file ) ) );
+			try {
+				if( ! MAGIC.equals( in.readUTF() ) ||
+				    in.readInt() != VERSION ||
+				    in.readInt() != width ||
+				    in.readInt() != height ||
+				    in.readInt() != depth ||
+				    in.readDouble() != sigma ||
+				    in.readLong() != getImageHash() )
+					return false;
+				float [][] result = new float[depth][width*height];
+				byte [] bytes = new byte[width*height*4];
+				for( int z = 0; z < depth; ++z ) {
+					if( cancelled )
+						return false;
+					in.readFully( bytes );
+					ByteBuffer.wrap( bytes ).asFloatBuffer().get( result[z] );
+				}
+				measures = result;
+				return true;
+			} finally {
+				in.close();
+			}
+		} catch( IOException e ) {
+			IJ.log( "Failed to load the tubeness cache from "+file.getAbsolutePath()+": "+e );
+			return false;
+		}
+	}
+}
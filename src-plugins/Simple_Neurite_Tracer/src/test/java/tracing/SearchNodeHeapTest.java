@@ -0,0 +1,74 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/* Checks that SearchNodeHeap polls nodes in the same order as a
+   PriorityQueue, with updates and removals in between */
+
+package tracing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SearchNodeHeapTest {
+
+	@Test
+	public void testSameOrderAsPriorityQueue() {
+
+		Random random = new Random(1);
+		SearchNodeHeap heap = new SearchNodeHeap();
+		PriorityQueue<SearchNode> queue = new PriorityQueue<SearchNode>();
+		ArrayList<SearchNode> nodes = new ArrayList<SearchNode>();
+
+		for( int i = 0; i < 20000; ++i ) {
+			int operation = random.nextInt(10);
+			if( operation < 5 || nodes.isEmpty() ) {
+				// Few distinct values of f, so that the order
+				// of ties is tested as well.  (As in the search,
+				// the positions are unique, since SearchNode.equals()
+				// compares them.)
+				SearchNode n = new SearchNode( i, random.nextInt(50), random.nextInt(50),
+							       random.nextInt(20), 0, null, SearchThread.OPEN_FROM_START );
+				heap.add( n );
+				queue.add( n );
+				nodes.add( n );
+			} else if( operation < 7 ) {
+				SearchNode n = nodes.get( random.nextInt( nodes.size() ) );
+				queue.remove( n );
+				n.setCost( n.g - random.nextInt(5), 0, null );
+				heap.update( n );
+				queue.add( n );
+			} else if( operation < 8 ) {
+				SearchNode n = nodes.remove( random.nextInt( nodes.size() ) );
+				assertTrue( heap.remove( n ) );
+				assertFalse( heap.remove( n ) );
+				queue.remove( n );
+			} else {
+				SearchNode n = heap.poll();
+				assertSame( queue.poll(), n );
+				nodes.remove( n );
+				assertFalse( heap.contains( n ) );
+			}
+			assertEquals( queue.size(), heap.size() );
+			assertSame( queue.peek(), heap.peek() );
+		}
+
+		int n = 0;
+		for( SearchNode node : heap ) {
+			assertTrue( heap.contains( node ) );
+			++ n;
+		}
+		assertEquals( heap.size(), n );
+
+		while( heap.size() > 0 )
+			assertSame( queue.poll(), heap.poll() );
+		assertNull( heap.poll() );
+	}
+}
@@ -0,0 +1,98 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/* Times the A* search of TracerThread and the Dijkstra search of
+   FillerThread along a synthetic tube winding through a noisy
+   256x256x64 stack.  Run this before and after changes to
+   SearchThread; it prints the best of several runs. */
+
+package tracing;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class TracerThreadBenchmark {
+
+	static final int width = 256;
+	static final int height = 256;
+	static final int depth = 64;
+	static final int RUNS = 3;
+
+	static int tubeY( int x ) {
+		return (int)Math.round( height / 2 + 60 * Math.sin( x * 4 * Math.PI / width ) );
+	}
+
+	static int tubeZ( int x ) {
+		return (int)Math.round( depth / 2 + 20 * Math.cos( x * 4 * Math.PI / width ) );
+	}
+
+	static ImagePlus makeTube( ) {
+		Random random = new Random(1);
+		ImageStack stack = new ImageStack( width, height );
+		for( int z = 0; z < depth; ++z ) {
+			byte [] pixels = new byte[width*height];
+			for( int y = 0; y < height; ++y )
+				for( int x = 0; x < width; ++x ) {
+					double dy = y - ( height / 2 + 60 * Math.sin( x * 4 * Math.PI / width ) );
+					double dz = z - ( depth / 2 + 20 * Math.cos( x * 4 * Math.PI / width ) );
+					int value = (int)( 200 * Math.exp( - (dy * dy + dz * dz) / 18 ) ) + random.nextInt(20);
+					pixels[y*width+x] = (byte)Math.min( 255, value );
+				}
+			stack.addSlice( null, new ByteProcessor( width, height, pixels, null ) );
+		}
+		return new ImagePlus( "tube", stack );
+	}
+
+	public static void main( String [] args ) {
+
+		ImagePlus image = makeTube();
+		int startX = 10, goalX = 240;
+
+		long bestTrace = Long.MAX_VALUE;
+		long bestFill = Long.MAX_VALUE;
+		int points = 0;
+		Path path = null;
+
+		for( int i = 0; i < RUNS; ++i ) {
+			TracerThread tracer = new TracerThread( image,
+								0,
+								255,
+								-1, // timeoutSeconds
+								0, // reportEveryMilliseconds
+								startX, tubeY(startX), tubeZ(startX),
+								goalX, tubeY(goalX), tubeZ(goalX),
+								true, // reciprocal
+								false, // singleSlice
+								null,
+								1, // multiplier
+								null,
+								false );
+			long start = System.currentTimeMillis();
+			tracer.run();
+			bestTrace = Math.min( bestTrace, System.currentTimeMillis() - start );
+			points = tracer.pointsConsideredInSearch();
+			path = tracer.getResult();
+
+			FillerThread filler = new FillerThread( image,
+								0,
+								255,
+								false, // startPaused
+								true, // reciprocal
+								0.1, // threshold
+								0 ); // reportEveryMilliseconds
+			Set<Path> sourcePaths = new HashSet<Path>();
+			sourcePaths.add( path );
+			filler.setSourcePaths( sourcePaths );
+			start = System.currentTimeMillis();
+			filler.run();
+			bestFill = Math.min( bestFill, System.currentTimeMillis() - start );
+		}
+
+		System.out.println( "Tracing: " + bestTrace + " ms, " + points + " points in the search, path length " + path.getRealLength() );
+		System.out.println( "Filling the whole stack from the path: " + bestFill + " ms" );
+	}
+}
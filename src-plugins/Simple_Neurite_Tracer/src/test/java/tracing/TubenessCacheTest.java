@@ -0,0 +1,99 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/* Check that the tubeness cache agrees with the measure calculated
+   point by point, and that a saved cache is only loaded for the
+   same image and sigma. */
+
+package tracing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import features.ComputeCurvatures;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TubenessCacheTest {
+
+	static final int width = 40, height = 30, depth = 12;
+	static final double sigma = 1.5;
+
+	ImagePlus image;
+	File cacheFile;
+
+	@Before public void setUp() throws IOException {
+		// A bright tube running diagonally through the stack:
+		ImageStack stack = new ImageStack( width, height );
+		for( int z = 0; z < depth; ++z ) {
+			byte [] pixels = new byte[width*height];
+			for( int y = 0; y < height; ++y )
+				for( int x = 0; x < width; ++x ) {
+					double dy = y - height * (0.2 + 0.6 * x / width);
+					double dz = z - depth / 2.0;
+					double value = 200 * Math.exp( - (dy * dy + dz * dz) / 8 ) + ( (x * 7 + y * 13 + z * 5) % 11 );
+					pixels[y*width+x] = (byte)value;
+				}
+			stack.addSlice( null, new ByteProcessor( width, height, pixels, null ) );
+		}
+		image = new ImagePlus( "tube", stack );
+		cacheFile = File.createTempFile( "tubeness", ".cache" );
+	}
+
+	@After
+	public void tearDown() {
+		if( cacheFile != null ) cacheFile.delete();
+	}
+
+	@Test
+	public void testCalculateMatchesPointwise() {
+		ComputeCurvatures hessian = new ComputeCurvatures( image, sigma, null, true );
+		hessian.run();
+
+		TubenessCache cache = new TubenessCache( image, sigma );
+		assertFalse( cache.isComplete() );
+		assertTrue( cache.calculate( hessian, 3 ) );
+		assertTrue( cache.isComplete() );
+
+		double [] eigenValues = new double[3];
+		int onTube = 0;
+		for( int z = 0; z < depth; ++z )
+			for( int y = 0; y < height; ++y )
+				for( int x = 0; x < width; ++x ) {
+					float expected = (float)TubenessCache.measureAt( hessian, x, y, z, false, 1, 1, 1, eigenValues );
+					assertEquals( expected, cache.get( x, y, z ), 0 );
+					if( expected > 0 )
+						++onTube;
+				}
+		assertTrue( onTube > 0 );
+	}
+
+	@Test
+	public void testSaveAndLoad() {
+		ComputeCurvatures hessian = new ComputeCurvatures( image, sigma, null, true );
+		hessian.run();
+
+		TubenessCache cache = new TubenessCache( image, sigma );
+		assertTrue( cache.calculate( hessian, 2 ) );
+		assertTrue( cache.save( cacheFile ) );
+
+		TubenessCache loaded = new TubenessCache( image, sigma );
+		assertTrue( loaded.load( cacheFile ) );
+		for( int z = 0; z < depth; ++z )
+			for( int y = 0; y < height; ++y )
+				for( int x = 0; x < width; ++x )
+					assertEquals( cache.get( x, y, z ), loaded.get( x, y, z ), 0 );
+
+		// A different sigma or different pixels mustn't use the file:
+		assertFalse( new TubenessCache( image, sigma * 2 ).load( cacheFile ) );
+		image.getStack().getProcessor( 3 ).putPixel( 5, 5, 17 );
+		assertFalse( new TubenessCache( image, sigma ).load( cacheFile ) );
+	}
+}
@@ -20,10 +20,13 @@
  */
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.Prefs;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.ImageProcessor;
 
@@ -59,6 +62,8 @@ public class Skeletonize3D_ implements PlugInFilter
 	private int depth = 0;
 	/** working image stack*/
 	private ImageStack inputImage = null;
+	/** use the queue-driven thinning instead of scanning the whole image */
+	public boolean queued = true;
 	
 	/* -----------------------------------------------------------------------*/
 	/**
@@ -98,7 +103,10 @@ public void run(ImageProcessor ip)
 		prepareData(this.inputImage);
 		
 		// Compute Thinning	
-		computeThinImage(this.inputImage);
+		if( this.queued )
+			computeThinImageQueued(this.inputImage);
+		else
+			computeThinImage(this.inputImage);
 		
 		// Convert image to binary 0-255
 		for(int i = 1; i <= this.inputImage.getSize(); i++)
@@ -385,6 +393,275 @@ public void computeThinImage(ImageStack outputImage)
 		//IJ.write("Compute Thin Image End");
 		IJ.showStatus("Computed thin image.");
 	} /* end computeThinImage */	
+
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Compute the same thinning as {@link #computeThinImage(ImageStack)},
+	 * but without scanning the whole stack in every subiteration.
+	 * <p>
+	 * The image is copied into a flat byte array with a border of one
+	 * background voxel, so neighborhoods are read with precomputed offsets.
+	 * Only foreground voxels with a background 6-neighbor (border voxels)
+	 * are kept in a list, and a voxel is only examined again for a border
+	 * type when one of its 26 neighbors has been deleted since it was last
+	 * examined for that type. The candidates are tested in parallel on the
+	 * unchanged image; in the sequential pass that follows, only those
+	 * candidates whose neighborhood was changed by a deletion earlier in the
+	 * same pass need to be checked again. The candidates are deleted in the
+	 * same order as in computeThinImage, so the result is identical.
+	 * 
+	 * @param outputImage output image stack
+	 */
+	public void computeThinImageQueued(ImageStack outputImage) 
+	{
+		computeThinImageQueued(outputImage, Prefs.getThreads());
+	}
+
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Queue-driven thinning, see {@link #computeThinImageQueued(ImageStack)}.
+	 * 
+	 * @param outputImage output image stack
+	 * @param numThreads number of threads testing the candidates
+	 */
+	public void computeThinImageQueued(ImageStack outputImage, int numThreads) 
+	{
+		IJ.showStatus("Computing thin image ...");
+
+		final int[] eulerLUT = new int[256]; 
+		fillEulerLUT( eulerLUT );
+
+		// padded image, 1 = foreground
+		final int w = this.width + 2;
+		final int h = this.height + 2;
+		final int wh = w * h;
+		final byte[] image = new byte[ wh * (this.depth + 2) ];
+		for (int z = 0; z < this.depth; z++)
+		{
+			final byte[] pixels = (byte[]) outputImage.getPixels(z + 1);
+			for (int y = 0; y < this.height; y++)
+				for (int x = 0; x < this.width; x++)
+					if( pixels[x + y * this.width] == 1 )
+						image[ (x + 1) + (y + 1) * w + (z + 1) * wh ] = 1;
+		}
+
+		// offsets of the 27 neighbors, in the order of getNeighborhood
+		final int[] offsets = new int[27];
+		for (int n = 0; n < 27; n++)
+			offsets[n] = (n % 3 - 1) + (n / 3 % 3 - 1) * w + (n / 9 - 1) * wh;
+		// offsets of the 6-neighbor that has to be background for each border
+		// type (there are no up or bottom borders in 2D images)
+		final int[] borderOffsets = this.depth > 1 ?
+				new int[] { -w, w, 1, -1, wh, -wh } : new int[] { -w, w, 1, -1 };
+
+		// per voxel: bit (b - 1) is set if the voxel has to be examined
+		// for border type b, IN_LIST is set if it is in the border list
+		final byte[] state = new byte[ image.length ];
+		int[] borderList = new int[1024];
+		int borderSize = 0;
+		for (int i = wh; i < image.length - wh; i++)
+			if( image[i] == 1 && isBorderVoxel(image, i, borderOffsets) )
+			{
+				if( borderSize == borderList.length )
+					borderList = Arrays.copyOf(borderList, 2 * borderSize);
+				borderList[borderSize++] = i;
+				state[i] = IN_LIST | ALL_BORDERS;
+			}
+
+		int[] candidates = new int[Math.max(1, borderSize)];
+
+		int iter = 1;
+		int unchangedBorders = 0;
+		while( unchangedBorders < 6 )  // loop until no change for all the six border types
+		{
+			unchangedBorders = 0;
+			for( int currentBorder = 1; currentBorder <= 6; currentBorder++)
+			{
+				IJ.showStatus("Thinning iteration " + iter + " (" + currentBorder +"/6 borders) ...");
+
+				if( currentBorder > borderOffsets.length )
+				{
+					unchangedBorders++;
+					continue;
+				}
+
+				final byte borderBit = (byte) (1 << (currentBorder - 1));
+
+				// collect the voxels to examine and drop deleted ones from the list
+				int nCandidates = 0;
+				int kept = 0;
+				for (int j = 0; j < borderSize; j++)
+				{
+					final int i = borderList[j];
+					if( image[i] != 1 )
+					{
+						state[i] &= ~IN_LIST;
+						continue;
+					}
+					borderList[kept++] = i;
+					if( (state[i] & borderBit) != 0 )
+					{
+						if( nCandidates == candidates.length )
+							candidates = Arrays.copyOf(candidates, 2 * nCandidates);
+						candidates[nCandidates++] = i;
+					}
+				}
+				borderSize = kept;
+				// raster order, as in computeThinImage
+				Arrays.sort(candidates, 0, nCandidates);
+
+				final boolean[] deletable = findSimpleBorderPoints(image, candidates, nCandidates,
+						offsets, borderOffsets[currentBorder - 1], eulerLUT, numThreads);
+				for (int j = 0; j < nCandidates; j++)
+					state[candidates[j]] &= ~borderBit;
+
+				// sequential re-checking to preserve connectivity; a candidate
+				// only has to be checked again if a neighbor has been deleted
+				// since it was tested, which sets its border bit again
+				boolean noChange = true;
+				final byte[] neighborhood = new byte[27];
+				for (int j = 0; j < nCandidates; j++)
+				{
+					if( !deletable[j] )
+						continue;
+					final int i = candidates[j];
+					if( (state[i] & borderBit) != 0 )
+					{
+						for (int n = 0; n < 27; n++)
+							neighborhood[n] = image[i + offsets[n]];
+						if( !isSimplePoint( neighborhood ) )
+							continue;
+					}
+
+					image[i] = 0;
+					noChange = false;
+					for (int n = 0; n < 27; n++)
+					{
+						final int k = i + offsets[n];
+						if( image[k] != 1 )
+							continue;
+						state[k] |= ALL_BORDERS;
+						if( (state[k] & IN_LIST) == 0 && isBorderVoxel(image, k, borderOffsets) )
+						{
+							if( borderSize == borderList.length )
+								borderList = Arrays.copyOf(borderList, 2 * borderSize);
+							borderList[borderSize++] = k;
+							state[k] |= IN_LIST;
+						}
+					}
+				}
+
+				if( noChange )
+					unchangedBorders++;
+			}
+
+			iter++;
+		}
+
+		// copy the result back
+		for (int z = 0; z < this.depth; z++)
+		{
+			final byte[] pixels = (byte[]) outputImage.getPixels(z + 1);
+			for (int y = 0; y < this.height; y++)
+				for (int x = 0; x < this.width; x++)
+					pixels[x + y * this.width] = image[ (x + 1) + (y + 1) * w + (z + 1) * wh ];
+		}
+
+		IJ.showStatus("Computed thin image.");
+	} /* end computeThinImageQueued */
+
+	/** state bit of voxels in the border list */
+	private static final byte IN_LIST = (byte) 0x40;
+	/** state bits of all six border types */
+	private static final byte ALL_BORDERS = 0x3f;
+
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Check if a voxel of the padded image has a background 6-neighbor.
+	 */
+	private static boolean isBorderVoxel(byte[] image, int i, int[] borderOffsets)
+	{
+		for (int b = 0; b < borderOffsets.length; b++)
+			if( image[i + borderOffsets[b]] != 1 )
+				return true;
+		return false;
+	}
+
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Test the candidates of one subiteration in parallel. The image is not
+	 * modified.
+	 * 
+	 * @param image padded image
+	 * @param candidates indices of the voxels to test
+	 * @param nCandidates number of candidates
+	 * @param offsets offsets of the 27 neighbors
+	 * @param borderOffset offset of the neighbor defining the border type
+	 * @param eulerLUT Euler LUT
+	 * @param numThreads number of threads
+	 * @return for each candidate, whether it is a simple border point
+	 */
+	private boolean[] findSimpleBorderPoints(final byte[] image, final int[] candidates,
+			final int nCandidates, final int[] offsets, final int borderOffset,
+			final int[] eulerLUT, int numThreads)
+	{
+		final boolean[] deletable = new boolean[nCandidates];
+		final int chunkSize = 4096;
+		final AtomicInteger nextChunk = new AtomicInteger(0);
+
+		final Thread[] threads = new Thread[Math.max(1, Math.min(numThreads, (nCandidates + chunkSize - 1) / chunkSize))];
+		for (int t = 0; t < threads.length; t++)
+		{
+			threads[t] = new Thread()
+			{
+				public void run()
+				{
+					final byte[] neighborhood = new byte[27];
+					int start;
+					while( (start = nextChunk.getAndAdd(chunkSize)) < nCandidates )
+					{
+						final int end = Math.min(start + chunkSize, nCandidates);
+						for (int j = start; j < end; j++)
+						{
+							final int i = candidates[j];
+							if( image[i + borderOffset] == 1 )
+								continue;         // not a border point of this type
+							int numberOfNeighbors = 0;
+							for (int n = 0; n < 27; n++)
+							{
+								neighborhood[n] = image[i + offsets[n]];
+								numberOfNeighbors += neighborhood[n];
+							}
+							if( numberOfNeighbors == 2 )
+								continue;         // end point (the center is counted as well)
+							if( !isEulerInvariant( neighborhood, eulerLUT ) )
+								continue;
+							deletable[j] = isSimplePoint( neighborhood );
+						}
+					}
+				}
+			};
+		}
+		if( threads.length == 1 )
+			threads[0].run();
+		else
+		{
+			for (int t = 0; t < threads.length; t++)
+				threads[t].start();
+			try
+			{
+				for (int t = 0; t < threads.length; t++)
+					threads[t].join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while thinning", e);
+			}
+		}
+		return deletable;
+	} /* end findSimpleBorderPoints */
+
 	
 	
 	/**
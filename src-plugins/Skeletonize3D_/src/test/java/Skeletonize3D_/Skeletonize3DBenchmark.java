@@ -0,0 +1,101 @@
+package Skeletonize3D_;
+
+import java.util.Random;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+/**
+ * Compares the queue-driven thinning of {@link Skeletonize3D_} with the
+ * thinning that scans the whole image in every subiteration, on a random
+ * set of thick tubes and balls.
+ *
+ * Usage: Skeletonize3DBenchmark [width height depth [repetitions]]
+ */
+public class Skeletonize3DBenchmark
+{
+	public static void main(String[] args)
+	{
+		final int width = args.length > 2 ? Integer.parseInt(args[0]) : 128;
+		final int height = args.length > 2 ? Integer.parseInt(args[1]) : 128;
+		final int depth = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+		final int repetitions = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+		final ImagePlus image = createImage(width, height, depth, new Random(42));
+
+		for (int r = 0; r < repetitions; r++)
+		{
+			final ImagePlus scanned = image.duplicate();
+			final long scanTime = skeletonize(scanned, false);
+
+			final ImagePlus queued = image.duplicate();
+			final long queueTime = skeletonize(queued, true);
+
+			System.out.println(width + "x" + height + "x" + depth + ": scanning " + scanTime + " ms, queue " + queueTime
+					+ " ms, results " + (equal(scanned.getStack(), queued.getStack()) ? "identical" : "DIFFER"));
+		}
+	}
+
+	static long skeletonize(ImagePlus image, boolean queued)
+	{
+		final Skeletonize3D_ skeletonize = new Skeletonize3D_();
+		skeletonize.queued = queued;
+		skeletonize.setup("", image);
+		final long start = System.currentTimeMillis();
+		skeletonize.run(image.getProcessor());
+		return System.currentTimeMillis() - start;
+	}
+
+	static boolean equal(ImageStack a, ImageStack b)
+	{
+		for (int z = 1; z <= a.getSize(); z++)
+		{
+			final byte[] pa = (byte[]) a.getPixels(z);
+			final byte[] pb = (byte[]) b.getPixels(z);
+			for (int i = 0; i < pa.length; i++)
+				if( pa[i] != pb[i] )
+					return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Create a binary image (0/255) of random tubes and balls.
+	 */
+	static ImagePlus createImage(int width, int height, int depth, Random random)
+	{
+		final ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < depth; z++)
+			stack.addSlice("", new ByteProcessor(width, height));
+
+		final int numberOfTubes = Math.max(1, width * height * depth / 20000);
+		for (int t = 0; t < numberOfTubes; t++)
+		{
+			final double x0 = random.nextDouble() * width, y0 = random.nextDouble() * height, z0 = random.nextDouble() * depth;
+			final double x1 = random.nextDouble() * width, y1 = random.nextDouble() * height, z1 = random.nextDouble() * depth;
+			final double radius = 2 + 4 * random.nextDouble();
+			final int steps = (int) Math.ceil(Math.sqrt((x1 - x0) * (x1 - x0) + (y1 - y0) * (y1 - y0) + (z1 - z0) * (z1 - z0)));
+			for (int s = 0; s <= steps; s++)
+			{
+				final double f = steps == 0 ? 0 : s / (double) steps;
+				fillBall(stack, x0 + f * (x1 - x0), y0 + f * (y1 - y0), z0 + f * (z1 - z0), radius);
+			}
+			fillBall(stack, x1, y1, z1, 2 * radius);
+		}
+		return new ImagePlus("tubes", stack);
+	}
+
+	static void fillBall(ImageStack stack, double cx, double cy, double cz, double radius)
+	{
+		final int width = stack.getWidth(), height = stack.getHeight(), depth = stack.getSize();
+		for (int z = Math.max(0, (int) (cz - radius)); z <= Math.min(depth - 1, (int) (cz + radius)); z++)
+		{
+			final byte[] pixels = (byte[]) stack.getPixels(z + 1);
+			for (int y = Math.max(0, (int) (cy - radius)); y <= Math.min(height - 1, (int) (cy + radius)); y++)
+				for (int x = Math.max(0, (int) (cx - radius)); x <= Math.min(width - 1, (int) (cx + radius)); x++)
+					if( (x - cx) * (x - cx) + (y - cy) * (y - cy) + (z - cz) * (z - cz) <= radius * radius )
+						pixels[x + y * width] = (byte) 255;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package Skeletonize3D_;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.process.ByteProcessor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the queue-driven thinning of {@link Skeletonize3D_} gives the
+ * same skeleton as the thinning that scans the whole image.
+ */
+public class Skeletonize3DTest
+{
+	private int threads;
+
+	@Before
+	public void saveThreads()
+	{
+		threads = Prefs.getThreads();
+	}
+
+	@After
+	public void restoreThreads()
+	{
+		Prefs.setThreads(threads);
+	}
+
+	@Test
+	public void testTubes()
+	{
+		final Random random = new Random(17);
+		for (int i = 0; i < 10; i++)
+			assertSameSkeleton("tubes " + i, Skeletonize3DBenchmark.createImage(24 + random.nextInt(16), 24 + random.nextInt(16), 8 + random.nextInt(16), random));
+	}
+
+	@Test
+	public void testNoise()
+	{
+		final Random random = new Random(42);
+		for (int i = 0; i < 10; i++)
+			assertSameSkeleton("noise " + i, createNoise(16 + random.nextInt(8), 16 + random.nextInt(8), 4 + random.nextInt(8), 0.2 + 0.5 * random.nextDouble(), random));
+	}
+
+	@Test
+	public void testSingleSlice()
+	{
+		final Random random = new Random(3);
+		assertSameSkeleton("2D tubes", Skeletonize3DBenchmark.createImage(48, 40, 1, random));
+		assertSameSkeleton("2D noise", createNoise(32, 32, 1, 0.6, random));
+	}
+
+	@Test
+	public void testFullAndEmpty()
+	{
+		final Random random = new Random(5);
+		assertSameSkeleton("full", createNoise(12, 10, 8, 1, random));
+		assertSameSkeleton("empty", createNoise(12, 10, 8, 0, random));
+	}
+
+	/**
+	 * Skeletonizes copies of the image by scanning, then from the queue with
+	 * one and several threads, and compares the results.
+	 */
+	private static void assertSameSkeleton(String message, ImagePlus image)
+	{
+		final ImagePlus scanned = image.duplicate();
+		Skeletonize3DBenchmark.skeletonize(scanned, false);
+
+		for (int numThreads : new int[] { 1, 4 })
+		{
+			Prefs.setThreads(numThreads);
+			final ImagePlus queued = image.duplicate();
+			Skeletonize3DBenchmark.skeletonize(queued, true);
+			assertTrue(message + ", " + numThreads + " thread(s)", Skeletonize3DBenchmark.equal(scanned.getStack(), queued.getStack()));
+		}
+	}
+
+	/**
+	 * Create a binary image (0/255) where each voxel is set with the given
+	 * probability.
+	 */
+	private static ImagePlus createNoise(int width, int height, int depth, double density, Random random)
+	{
+		final ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < depth; z++)
+		{
+			final byte[] pixels = new byte[width * height];
+			for (int i = 0; i < pixels.length; i++)
+				if( random.nextDouble() < density )
+					pixels[i] = (byte) 255;
+			stack.addSlice("", new ByteProcessor(width, height, pixels, null));
+		}
+		return new ImagePlus("noise", stack);
+	}
+}
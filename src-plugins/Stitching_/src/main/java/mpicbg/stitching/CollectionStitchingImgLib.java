@@ -1,10 +1,16 @@
 package mpicbg.stitching;
 
 import ij.IJ;
+import ij.ImagePlus;
 import ij.gui.Roi;
 
 import java.awt.Rectangle;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -43,6 +49,25 @@ public static ArrayList< ImagePlusTimePoint > stitchCollection( final ArrayList<
 			else
 				numThreads = Runtime.getRuntime().availableProcessors();
 			
+			// when streaming, tiles are opened on demand and the pairs are processed so that
+			// consecutive pairs share tiles, otherwise all images are already open
+			final TileCache cache;
+			final int[] order;
+			
+			if ( isStreaming( elements, params ) )
+			{
+				cache = new TileCache( params.tileCacheSize, params.virtual );
+				order = neighbourOrder( pairs );
+				IJ.log( "Streaming tiles from disk (tile cache of " + ( cache.getMaxBytes() / ( 1024 * 1024 ) ) + " MB)" );
+			}
+			else
+			{
+				cache = null;
+				order = new int[ pairs.size() ];
+				for ( int i = 0; i < order.length; ++i )
+					order[ i ] = i;
+			}
+			
 	        final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
 	    	
 	        for ( int ithread = 0; ithread < threads.length; ++ithread )
@@ -50,37 +75,71 @@ public static ArrayList< ImagePlusTimePoint > stitchCollection( final ArrayList<
 	            {
 	                public void run()
 	                {		
-	                   	final int myNumber = ai.getAndIncrement();
-	                    
-	                    for ( int i = 0; i < pairs.size(); i++ )
+	                	// all threads take the next pair from a shared queue so that none of them runs idle
+	                    for ( int i = ai.getAndIncrement(); i < order.length; i = ai.getAndIncrement() )
 	                    {
-	                    	if ( i % numThreads == myNumber )
-	                    	{
-	                    		final ComparePair pair = pairs.get( i );
-	                    		
-	                    		long start = System.currentTimeMillis();			
+	                		final ComparePair pair = pairs.get( order[ i ] );
+	                		final ImageCollectionElement e1 = pair.getTile1().getElement();
+	                		final ImageCollectionElement e2 = pair.getTile2().getElement();
+	                		
+	                		long start = System.currentTimeMillis();			
+	            			
+	                		final ImagePlus imp1, imp2;
+	                		
+	                		if ( cache == null )
+	                		{
+	                			imp1 = pair.getImagePlus1();
+	                			imp2 = pair.getImagePlus2();
+	                		}
+	                		else
+	                		{
+	                			imp1 = cache.acquire( e1 );
+	                			imp2 = imp1 == null ? null : cache.acquire( e2 );
 	                			
+	                			if ( imp2 == null )
+	                			{
+	                				if ( imp1 != null )
+	                					cache.release( e1 );
+	                				
+	                				IJ.log( "Collection stitching failed" );
+	                				return;
+	                			}
+	                		}
+	                		
+	                		final PairWiseStitchingResult result;
+	                		
+	                		try
+	                		{
 	                    		// where do we approximately overlap?
-	                			final Roi roi1 = getROI( pair.getTile1().getElement(), pair.getTile2().getElement() );
-	                			final Roi roi2 = getROI( pair.getTile2().getElement(), pair.getTile1().getElement() );
+	                			final Roi roi1 = getROI( e1, e2 );
+	                			final Roi roi2 = getROI( e2, e1 );
 	                			
-	            				final PairWiseStitchingResult result = PairWiseStitchingImgLib.stitchPairwise( pair.getImagePlus1(), pair.getImagePlus2(), roi1, roi2, pair.getTimePoint1(), pair.getTimePoint2(), params );			
-	            				if ( result == null )
-	            				{
-	            					IJ.log( "Collection stitching failed" );
-	            					return;
-	            				}
+	                			result = PairWiseStitchingImgLib.stitchPairwise( imp1, imp2, roi1, roi2, pair.getTimePoint1(), pair.getTimePoint2(), params );
+	                		}
+	                		finally
+	                		{
+	                			if ( cache != null )
+	                			{
+	                				cache.release( e1 );
+	                				cache.release( e2 );
+	                			}
+	                		}
+	                		
+	        				if ( result == null )
+	        				{
+	        					IJ.log( "Collection stitching failed" );
+	        					return;
+	        				}
 	
-	            				if ( params.dimensionality == 2 )
-	            					pair.setRelativeShift( new float[]{ result.getOffset( 0 ), result.getOffset( 1 ) } );
-	            				else
-	            					pair.setRelativeShift( new float[]{ result.getOffset( 0 ), result.getOffset( 1 ), result.getOffset( 2 ) } );
-	            				
-	            				pair.setCrossCorrelation( result.getCrossCorrelation() );
+	        				if ( params.dimensionality == 2 )
+	        					pair.setRelativeShift( new float[]{ result.getOffset( 0 ), result.getOffset( 1 ) } );
+	        				else
+	        					pair.setRelativeShift( new float[]{ result.getOffset( 0 ), result.getOffset( 1 ), result.getOffset( 2 ) } );
+	        				
+	        				pair.setCrossCorrelation( result.getCrossCorrelation() );
 	
-	            				IJ.log( pair.getImagePlus1().getTitle() + "[" + pair.getTimePoint1() + "]" + " <- " + pair.getImagePlus2().getTitle() + "[" + pair.getTimePoint2() + "]" + ": " + 
-	            						Util.printCoordinates( result.getOffset() ) + " correlation (R)=" + result.getCrossCorrelation() + " (" + (System.currentTimeMillis() - start) + " ms)");
-	                    	}
+	        				IJ.log( imp1.getTitle() + "[" + pair.getTimePoint1() + "]" + " <- " + imp2.getTitle() + "[" + pair.getTimePoint2() + "]" + ": " + 
+	        						Util.printCoordinates( result.getOffset() ) + " correlation (R)=" + result.getCrossCorrelation() + " (" + (System.currentTimeMillis() - start) + " ms)");
 	                    }
 	                }
 	            });
@@ -88,6 +147,9 @@ public void run()
 	        final long time = System.currentTimeMillis();
 	        SimpleMultiThreading.startAndJoin( threads );
 	        
+	        if ( cache != null )
+	        	cache.clear();
+	        
 	        // get the final positions of all tiles
 			optimized = GlobalOptimization.optimize( pairs, pairs.get( 0 ).getTile1(), params );
 			IJ.log( "Finished registration process (" + (System.currentTimeMillis() - time) + " ms)." );
@@ -96,10 +158,12 @@ public void run()
 		{
 			// all ImagePlusTimePoints, each of them needs its own model
 			optimized = new ArrayList< ImagePlusTimePoint >();
+			final boolean streaming = isStreaming( elements, params );
 			
 			for ( final ImageCollectionElement element : elements )
 			{
-				final ImagePlusTimePoint imt = new ImagePlusTimePoint( element.open( params.virtual ), element.getIndex(), 1, element.getModel(), element );
+				final ImagePlus imp = streaming ? null : element.open( params.virtual );
+				final ImagePlusTimePoint imt = new ImagePlusTimePoint( imp, element.getIndex(), 1, element.getModel(), element );
 				
 				// set the models to the offset
 				if ( params.dimensionality == 2 )
@@ -153,18 +217,142 @@ else if ( e2.offset[ dim ] + e2.size[ dim ] <= e1.offset[ dim ] + e1.size[ dim ]
 		return new Roi( new Rectangle( start[ 0 ], start[ 1 ], end[ 0 ] - start[ 0 ], end[ 1 ] - start[ 1 ] ) );
 	}
 
+	/**
+	 * Tiles are only streamed if all of them can be opened again from their files,
+	 * multi-series files set the images directly.
+	 */
+	protected static boolean isStreaming( final ArrayList< ImageCollectionElement > elements, final StitchingParameters params )
+	{
+		if ( !params.streamTiles )
+			return false;
+		
+		for ( final ImageCollectionElement element : elements )
+			if ( !element.canReopen() )
+				return false;
+		
+		return true;
+	}
+	
+	/**
+	 * Orders the pairs by a serpentine sweep over the approximate layout (row by row, alternating the
+	 * direction), so that consecutive pairs share a tile and the tiles of a pair were mostly used just
+	 * before. A cache holding about one row (or plane) of tiles then opens every tile only once.
+	 * 
+	 * @param pairs - the pairs
+	 * @return the indices of the pairs in the order they should be computed
+	 */
+	protected static int[] neighbourOrder( final Vector< ComparePair > pairs )
+	{
+		final LinkedHashSet< ImagePlusTimePoint > tiles = new LinkedHashSet< ImagePlusTimePoint >();
+		
+		for ( final ComparePair pair : pairs )
+		{
+			tiles.add( pair.getTile1() );
+			tiles.add( pair.getTile2() );
+		}
+		
+		final ArrayList< ImagePlusTimePoint > sweep = new ArrayList< ImagePlusTimePoint >();
+		sweep( new ArrayList< ImagePlusTimePoint >( tiles ), pairs.get( 0 ).getTile1().getElement().getOffset().length - 1, false, sweep );
+		
+		final HashMap< ImagePlusTimePoint, Integer > rank = new HashMap< ImagePlusTimePoint, Integer >();
+		for ( final ImagePlusTimePoint tile : sweep )
+			rank.put( tile, rank.size() );
+		
+		// sort the pairs by the rank of their earlier and then their later tile
+		final long[] keys = new long[ pairs.size() ];
+		
+		for ( int i = 0; i < keys.length; ++i )
+		{
+			final int r1 = rank.get( pairs.get( i ).getTile1() );
+			final int r2 = rank.get( pairs.get( i ).getTile2() );
+			
+			keys[ i ] = ( (long)Math.min( r1, r2 ) << 32 ) | Math.max( r1, r2 );
+		}
+		
+		final Integer[] order = new Integer[ keys.length ];
+		for ( int i = 0; i < order.length; ++i )
+			order[ i ] = i;
+		
+		Arrays.sort( order, new Comparator< Integer >()
+		{
+			public int compare( final Integer o1, final Integer o2 )
+			{
+				final long k1 = keys[ o1 ], k2 = keys[ o2 ];
+				return k1 < k2 ? -1 : ( k1 > k2 ? 1 : 0 );
+			}
+		} );
+		
+		final int[] result = new int[ order.length ];
+		for ( int i = 0; i < order.length; ++i )
+			result[ i ] = order[ i ];
+		
+		return result;
+	}
+	
+	/**
+	 * Appends the tiles in sweep order: they are split into slabs along dimension d (a new slab starts
+	 * once a tile is shifted by more than half of its size), each slab is swept along d-1 in alternating
+	 * direction.
+	 */
+	protected static void sweep( final ArrayList< ImagePlusTimePoint > tiles, final int d, final boolean reverse, final ArrayList< ImagePlusTimePoint > result )
+	{
+		// stable, so tiles at the same position stay in the order of the collection
+		Collections.sort( tiles, new Comparator< ImagePlusTimePoint >()
+		{
+			public int compare( final ImagePlusTimePoint o1, final ImagePlusTimePoint o2 )
+			{
+				final int c = Float.compare( o1.getElement().getOffset( d ), o2.getElement().getOffset( d ) );
+				return reverse ? -c : c;
+			}
+		} );
+		
+		if ( d == 0 )
+		{
+			result.addAll( tiles );
+			return;
+		}
+		
+		boolean reverseSlab = false;
+		int start = 0;
+		
+		for ( int i = 1; i <= tiles.size(); ++i )
+		{
+			if ( i == tiles.size() || Math.abs( tiles.get( i ).getElement().getOffset( d ) - tiles.get( start ).getElement().getOffset( d ) ) > tiles.get( start ).getElement().getDimension( d ) / 2.0 )
+			{
+				sweep( new ArrayList< ImagePlusTimePoint >( tiles.subList( start, i ) ), d - 1, reverseSlab, result );
+				reverseSlab = !reverseSlab;
+				start = i;
+			}
+		}
+	}
+
 	protected static Vector< ComparePair > findOverlappingTiles( final ArrayList< ImageCollectionElement > elements, final StitchingParameters params )
 	{		
+		final boolean streaming = isStreaming( elements, params );
+		
+		if ( params.streamTiles && !streaming )
+			IJ.log( "Cannot stream tiles that are not read from individual files, keeping all of them open." );
+		
 		for ( final ImageCollectionElement element : elements )
 		{
-			if ( element.open( params.virtual ) == null )
+			// when streaming we only need the size, the tile is opened again when it is registered
+			if ( streaming )
+			{
+				if ( element.size == null && element.open( params.virtual ) == null )
+					return null;
+				
+				element.close();
+			}
+			else if ( element.open( params.virtual ) == null )
+			{
 				return null;
+			}
 		}
 		
 		// all ImagePlusTimePoints, each of them needs its own model
 		final ArrayList< ImagePlusTimePoint > listImp = new ArrayList< ImagePlusTimePoint >();
 		for ( final ImageCollectionElement element : elements )
-			listImp.add( new ImagePlusTimePoint( element.open( params.virtual ), element.getIndex(), 1, element.getModel(), element ) );
+			listImp.add( new ImagePlusTimePoint( streaming ? null : element.open( params.virtual ), element.getIndex(), 1, element.getModel(), element ) );
 	
 		// get the connecting tiles
 		final Vector< ComparePair > overlappingTiles = new Vector< ComparePair >();
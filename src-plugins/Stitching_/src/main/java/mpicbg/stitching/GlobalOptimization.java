@@ -185,8 +185,12 @@ public static ArrayList< ImagePlusTimePoint > optimize( final Vector< ComparePai
 					*/
 					final ComparePair pair = ((PointMatchStitching)worstMatch).getPair();
 					
-					IJ.log( "Identified link between " + pair.getImagePlus1().getTitle() + "[" + pair.getTile1().getTimePoint() + "] and " + 
-							pair.getImagePlus2().getTitle() + "[" + pair.getTile2().getTimePoint() + "] (R=" + pair.getCrossCorrelation() +") to be bad. Reoptimizing.");
+					// streamed tiles are named after their file, getImagePlus() would open them again
+					final String name1 = params.streamTiles ? pair.getTile1().getElement().getFile().getName() : pair.getImagePlus1().getTitle();
+					final String name2 = params.streamTiles ? pair.getTile2().getElement().getFile().getName() : pair.getImagePlus2().getTitle();
+
+					IJ.log( "Identified link between " + name1 + "[" + pair.getTile1().getTimePoint() + "] and " + 
+							name2 + "[" + pair.getTile2().getTimePoint() + "] (R=" + pair.getCrossCorrelation() +") to be bad. Reoptimizing.");
 					
 					((PointMatchStitching)worstMatch).getPair().setIsValidOverlap( false );
 					redo = true;
@@ -18,6 +18,9 @@ public class ImageCollectionElement
 	int dimensionality;
 	boolean virtual = false;
 	
+	// false if the image was set directly and cannot be opened from the file again
+	boolean reopenable = true;
+	
 	//2d or 3d offset
 	float[] offset;	
 	
@@ -47,6 +50,7 @@ public ImageCollectionElement( final File file, final int index )
 	
 	public File getFile() { return file; }
 	public boolean isVirtual() { return virtual; }
+	public boolean canReopen() { return reopenable; }
 	
 	/**
 	 * Used by the multi-series stitching
@@ -56,6 +60,7 @@ public ImageCollectionElement( final File file, final int index )
 	public void setImagePlus( final ImagePlus imp ) 
 	{ 
 		this.imp = imp; 
+		this.reopenable = false;
 		
 		if ( imp.getNSlices() == 1 )
 			size = new int[] { imp.getWidth(), imp.getHeight() };
@@ -135,7 +140,8 @@ public ImagePlus open( final boolean virtual )
 
 	public void close() 
 	{
-		imp.close();
+		if ( imp != null )
+			imp.close();
 		imp = null;
 	}
 }
@@ -29,7 +29,18 @@ public ImagePlusTimePoint( final ImagePlus imp, final int impId, final int timep
 	}
 	
 	public int getImpId() { return impId; }
-	public ImagePlus getImagePlus() { return imp; }
+	
+	/**
+	 * @return the image, tiles that are streamed from disk (no image was given) are opened on demand through their element
+	 */
+	public ImagePlus getImagePlus()
+	{
+		if ( imp == null && element != null )
+			return element.open( element.isVirtual() );
+		
+		return imp;
+	}
+	
 	public int getTimePoint() { return timePoint; }
 	public ImageCollectionElement getElement() { return element; }
 
@@ -34,6 +34,12 @@ public class StitchingParameters
 	public int timeSelect;
 	
 	public int cpuMemChoice = 0;
+	
+	// load the tiles on demand while registering a collection instead of keeping them all open
+	public boolean streamTiles = false;
+	// memory budget of the tile cache in bytes, 0 == half of the maximal heap size
+	public long tileCacheSize = 0;
+	
 	// 0 == fuse&display, 1 == writeToDisk
 	public int outputVariant = 0;
 	public String outputDirectory = null;
@@ -0,0 +1,204 @@
+package mpicbg.stitching;
+
+import ij.ImagePlus;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the images of {@link ImageCollectionElement}s open as long as they fit
+ * into a memory budget. Tiles are opened on demand by {@link #acquire(ImageCollectionElement)}
+ * and stay pinned until {@link #release(ImageCollectionElement)} is called; unpinned
+ * tiles are closed in least-recently-used order whenever the budget is exceeded.
+ *
+ * Only elements that can be re-opened from their file (see {@link ImageCollectionElement#canReopen()})
+ * may be managed by the cache.
+ */
+public class TileCache
+{
+	final long maxBytes;
+	final boolean virtual;
+
+	// in access order, the eldest entry is the least recently used one
+	final LinkedHashMap< ImageCollectionElement, Entry > entries = new LinkedHashMap< ImageCollectionElement, Entry >( 16, 0.75f, true );
+	long usedBytes = 0;
+
+	/**
+	 * @param maxBytes - the memory budget in bytes, if <= 0 half of the maximal heap size is used
+	 * @param virtual - open the tiles as virtual stacks
+	 */
+	public TileCache( final long maxBytes, final boolean virtual )
+	{
+		if ( maxBytes > 0 )
+			this.maxBytes = maxBytes;
+		else
+			this.maxBytes = Runtime.getRuntime().maxMemory() / 2;
+
+		this.virtual = virtual;
+	}
+
+	public long getMaxBytes() { return maxBytes; }
+	public synchronized long getUsedBytes() { return usedBytes; }
+
+	/**
+	 * Opens the image of an element (or returns it if it is still cached) and pins it
+	 * until {@link #release(ImageCollectionElement)} is called.
+	 *
+	 * @param element - the tile
+	 * @return the image, or null if it could not be opened (the element is not pinned then)
+	 */
+	public ImagePlus acquire( final ImageCollectionElement element )
+	{
+		final Entry entry;
+
+		synchronized ( this )
+		{
+			Entry e = entries.get( element );
+
+			if ( e == null )
+			{
+				e = new Entry();
+				entries.put( element, e );
+			}
+
+			++e.pins;
+			entry = e;
+		}
+
+		final ImagePlus imp;
+
+		// load outside of the cache lock so that other tiles can be opened at the same time
+		synchronized ( entry )
+		{
+			if ( entry.imp == null )
+			{
+				entry.imp = element.open( virtual );
+
+				if ( entry.imp != null )
+				{
+					final long bytes = sizeOf( entry.imp );
+
+					synchronized ( this )
+					{
+						entry.bytes = bytes;
+						usedBytes += bytes;
+					}
+				}
+			}
+
+			imp = entry.imp;
+		}
+
+		if ( imp == null )
+			release( element );
+		else
+			synchronized ( this ) { evict(); }
+
+		return imp;
+	}
+
+	/**
+	 * Unpins the image of an element, it stays open until it has to make room for other tiles.
+	 *
+	 * @param element - a tile previously returned by {@link #acquire(ImageCollectionElement)}
+	 */
+	public synchronized void release( final ImageCollectionElement element )
+	{
+		final Entry entry = entries.get( element );
+
+		if ( entry == null )
+			return;
+
+		--entry.pins;
+		evict();
+	}
+
+	/**
+	 * Closes all images that are not pinned.
+	 */
+	public synchronized void clear()
+	{
+		for ( final Iterator< Map.Entry< ImageCollectionElement, Entry > > i = entries.entrySet().iterator(); i.hasNext(); )
+		{
+			final Map.Entry< ImageCollectionElement, Entry > e = i.next();
+			final ImageCollectionElement element = e.getKey();
+			final Entry entry = e.getValue();
+
+			if ( entry.pins == 0 )
+			{
+				close( element, entry );
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Closes unpinned images in least-recently-used order until the budget is met,
+	 * also drops the entries of images that failed to open. Needs the cache lock.
+	 */
+	protected void evict()
+	{
+		for ( final Iterator< Map.Entry< ImageCollectionElement, Entry > > i = entries.entrySet().iterator(); i.hasNext(); )
+		{
+			final Map.Entry< ImageCollectionElement, Entry > e = i.next();
+			final ImageCollectionElement element = e.getKey();
+			final Entry entry = e.getValue();
+
+			if ( entry.pins > 0 )
+				continue;
+
+			if ( entry.imp == null )
+			{
+				i.remove();
+			}
+			else if ( usedBytes > maxBytes )
+			{
+				close( element, entry );
+				i.remove();
+			}
+		}
+	}
+
+	protected void close( final ImageCollectionElement element, final Entry entry )
+	{
+		if ( entry.imp != null )
+		{
+			element.close();
+			entry.imp = null;
+			usedBytes -= entry.bytes;
+			entry.bytes = 0;
+		}
+	}
+
+	/**
+	 * @param imp - an image
+	 * @return the approximate number of bytes it occupies in memory
+	 */
+	public static long sizeOf( final ImagePlus imp )
+	{
+		final int bytesPerPixel;
+
+		if ( imp.getBitDepth() == 24 )
+			bytesPerPixel = 4;
+		else
+			bytesPerPixel = Math.max( 1, imp.getBitDepth() / 8 );
+
+		// virtual stacks only keep the current plane
+		final long planes;
+
+		if ( imp.getStack().isVirtual() )
+			planes = 1;
+		else
+			planes = imp.getStackSize();
+
+		return (long)imp.getWidth() * imp.getHeight() * planes * bytesPerPixel;
+	}
+
+	protected static class Entry
+	{
+		ImagePlus imp = null;
+		long bytes = 0;
+		int pins = 0;
+	}
+}
@@ -0,0 +1,417 @@
+package mpicbg.stitching.fusion;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.io.FileSaver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.imglib.container.imageplus.ImagePlusContainer;
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.exception.ImgLibException;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.interpolation.Interpolator;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+import mpicbg.imglib.type.numeric.RealType;
+import mpicbg.models.InvertibleBoundable;
+import mpicbg.models.NoninvertibleModelException;
+
+/**
+ * Fuses the tiles block by block, which gives the same result as
+ * {@link Fusion#fuseBlock} and {@link Fusion#writeBlock}, but much faster for
+ * large mosaics.
+ *
+ * The output is partitioned into blocks, and the bounding box of every tile in
+ * the output is computed once. Each tile is then registered in the blocks its
+ * bounding box intersects, so that the pixels of a block are only transformed
+ * into the few tiles that may contain them instead of into all tiles. The
+ * blocks are processed in parallel, each thread taking the next block from a
+ * shared queue.
+ *
+ * When writing to disk, the output is fused in slabs of slices as thick as a
+ * block, and every slice of a slab is saved as soon as the slab is finished,
+ * so that only one slab is ever held in memory.
+ */
+public class BlockFusion
+{
+	/** The default size of the blocks, in pixels along each dimension */
+	public static final int DEFAULT_BLOCK_SIZE_2D = 256, DEFAULT_BLOCK_SIZE_3D = 64;
+
+	/**
+	 * @param numDimensions - the dimensionality of the output (2 or 3)
+	 * @return - the default block size for this dimensionality
+	 */
+	public static int[] defaultBlockSize( final int numDimensions )
+	{
+		final int[] blockSize = new int[ numDimensions ];
+
+		for ( int d = 0; d < numDimensions; ++d )
+			blockSize[ d ] = numDimensions == 2 ? DEFAULT_BLOCK_SIZE_2D : DEFAULT_BLOCK_SIZE_3D;
+
+		return blockSize;
+	}
+
+	/**
+	 * Fuse one slice/volume (one channel)
+	 *
+	 * @param output - same the type of the ImagePlus input
+	 * @param input - FloatType, because of Interpolation that needs to be done
+	 * @param offset - the offset of the output image in the global coordinates
+	 * @param transform - the transformation
+	 * @param fusion - the fusion method
+	 * @param blockSize - the size of the blocks
+	 */
+	public static < T extends RealType< T > > void fuse( final Image< T > output, final ArrayList< ? extends ImageInterpolation< ? extends RealType< ? > > > input,
+			final float[] offset, final ArrayList< InvertibleBoundable > transform, final PixelFusion fusion, final int[] blockSize )
+	{
+		IJ.showProgress( 0 );
+		fuseRegion( output, new int[ output.getNumDimensions() ], input, offset, transform, fusion, blockSize, computeBounds( input, offset, transform ), 0, 1 );
+		IJ.showProgress( 1.0 );
+	}
+
+	/**
+	 * Fuse one slice/volume (one channel) and write it to the output directory, one file per slice.
+	 *
+	 * @param factory - creates the slabs, must create images with an {@link ImagePlusContainer}
+	 * @param size - the size of the output image
+	 * @param input - FloatType, because of Interpolation that needs to be done
+	 * @param offset - the offset of the output image in the global coordinates
+	 * @param transform - the transformation
+	 * @param fusion - the fusion method
+	 * @param blockSize - the size of the blocks, the last dimension of 3d blocks being the thickness of the slabs
+	 * @param outputDirectory - where to write the slices
+	 */
+	public static < T extends RealType< T > > void write( final ImageFactory< T > factory, final int[] size, final int t, final int numTimePoints, final int c, final int numChannels,
+			final ArrayList< ? extends ImageInterpolation< ? extends RealType< ? > > > input, final float[] offset,
+			final ArrayList< InvertibleBoundable > transform, final PixelFusion fusion, final int[] blockSize, final String outputDirectory )
+	{
+		final int numDimensions = offset.length;
+		final int numSlices = numDimensions == 3 ? size[ 2 ] : 1;
+		final int slabSize = numDimensions == 3 ? blockSize[ 2 ] : 1;
+		final float[][][] bounds = computeBounds( input, offset, transform );
+
+		IJ.showProgress( 0 );
+
+		for ( int z0 = 0; z0 < numSlices; z0 += slabSize )
+		{
+			final int depth = Math.min( slabSize, numSlices - z0 );
+
+			IJ.showStatus("Fusing time point: " + t + " of " + numTimePoints + ", " +
+					"channel: " + c + " of " + numChannels + ", slices: " + (z0 + 1) + "-" + (z0 + depth) + " of " +
+					numSlices + "...");
+
+			final Image< T > slab;
+			final int[] origin = new int[ numDimensions ];
+
+			if ( numDimensions == 3 )
+			{
+				slab = factory.createImage( new int[] { size[ 0 ], size[ 1 ], depth } );
+				origin[ 2 ] = z0;
+			}
+			else
+			{
+				slab = factory.createImage( new int[] { size[ 0 ], size[ 1 ] } );
+			}
+
+			if ( !fuseRegion( slab, origin, input, offset, transform, fusion, blockSize, bounds, z0 / (double)numSlices, depth / (double)numSlices ) )
+			{
+				slab.close();
+				return;
+			}
+
+			// write the slices of the slab
+			try
+			{
+				final ImagePlus slabImp = ((ImagePlusContainer<?,?>)slab.getContainer()).getImagePlus();
+
+				for ( int z = 0; z < depth; ++z )
+				{
+					final FileSaver fs = new FileSaver( new ImagePlus( "", slabImp.getStack().getProcessor( z + 1 ) ) );
+					fs.saveAsTiff( new File( outputDirectory, "img_t" + Fusion.lz( t, numTimePoints ) + "_z" + Fusion.lz( z0 + z + 1, numSlices ) + "_c" + Fusion.lz( c, numChannels ) ).getAbsolutePath() );
+				}
+			}
+			catch ( ImgLibException e )
+			{
+				IJ.log( "Output image has no ImageJ type: " + e );
+				return;
+			}
+			finally
+			{
+				slab.close();
+			}
+		}
+
+		IJ.showProgress( 1.0 );
+	}
+
+	/**
+	 * Computes the bounding box of each tile in the coordinates of the output image,
+	 * enlarged by one pixel to account for rounding errors.
+	 *
+	 * @return - bounds[ tile ][ 0 ] is the min, bounds[ tile ][ 1 ] the max corner of the box
+	 */
+	protected static float[][][] computeBounds( final ArrayList< ? extends ImageInterpolation< ? extends RealType< ? > > > input,
+			final float[] offset, final ArrayList< InvertibleBoundable > transform )
+	{
+		final int numDimensions = offset.length;
+		final float[][][] bounds = new float[ input.size() ][ 2 ][ numDimensions ];
+
+		for ( int i = 0; i < input.size(); ++i )
+		{
+			final float[] min = bounds[ i ][ 0 ];
+			final float[] max = bounds[ i ][ 1 ];
+
+			for ( int d = 0; d < numDimensions; ++d )
+				max[ d ] = input.get( i ).getImage().getDimension( d ) - 1;
+
+			transform.get( i ).estimateBounds( min, max );
+
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				// the model might rotate the image so that min is actually max
+				final float lo = Math.min( min[ d ], max[ d ] );
+				final float hi = Math.max( min[ d ], max[ d ] );
+				min[ d ] = lo - offset[ d ] - 1;
+				max[ d ] = hi - offset[ d ] + 1;
+			}
+		}
+
+		return bounds;
+	}
+
+	/**
+	 * Builds the index of the tiles that intersect each block of a region.
+	 *
+	 * @param origin - the position of the region in the output image
+	 * @param size - the size of the region
+	 * @param numBlocks - the number of blocks along each dimension of the region
+	 * @param bounds - the bounding boxes of the tiles, see {@link #computeBounds}
+	 * @return - for each block, the indices of the tiles that intersect it in increasing order
+	 */
+	protected static int[][] indexTiles( final int[] origin, final int[] size, final int[] blockSize, final int[] numBlocks, final float[][][] bounds )
+	{
+		final int numDimensions = origin.length;
+
+		int totalBlocks = 1;
+		for ( int d = 0; d < numDimensions; ++d )
+			totalBlocks *= numBlocks[ d ];
+
+		final int[] counts = new int[ totalBlocks ];
+		final int[][] tiles = new int[ totalBlocks ][];
+		final int[] from = new int[ numDimensions ];
+		final int[] to = new int[ numDimensions ];
+		final int[] b = new int[ numDimensions ];
+
+		// two passes: count the tiles of each block, then fill them in
+		for ( int pass = 0; pass < 2; ++pass )
+		{
+			if ( pass == 1 )
+				for ( int k = 0; k < totalBlocks; ++k )
+				{
+					tiles[ k ] = new int[ counts[ k ] ];
+					counts[ k ] = 0;
+				}
+
+A:			for ( int i = 0; i < bounds.length; ++i )
+			{
+				// the range of blocks covered by the bounding box of the tile
+				for ( int d = 0; d < numDimensions; ++d )
+				{
+					final double min = Math.floor( bounds[ i ][ 0 ][ d ] ) - origin[ d ];
+					final double max = Math.ceil( bounds[ i ][ 1 ][ d ] ) - origin[ d ];
+
+					if ( max < 0 || min > size[ d ] - 1 )
+						continue A;
+
+					from[ d ] = (int)Math.max( 0, min ) / blockSize[ d ];
+					to[ d ] = (int)Math.min( size[ d ] - 1, max ) / blockSize[ d ];
+					b[ d ] = from[ d ];
+				}
+
+				// add the tile to all of them
+				while ( true )
+				{
+					int k = 0;
+					for ( int d = numDimensions - 1; d >= 0; --d )
+						k = k * numBlocks[ d ] + b[ d ];
+
+					if ( pass == 0 )
+						++counts[ k ];
+					else
+						tiles[ k ][ counts[ k ]++ ] = i;
+
+					int d = 0;
+					while ( d < numDimensions && b[ d ] == to[ d ] )
+					{
+						b[ d ] = from[ d ];
+						++d;
+					}
+
+					if ( d == numDimensions )
+						break;
+
+					++b[ d ];
+				}
+			}
+		}
+
+		return tiles;
+	}
+
+	/**
+	 * Fuses a region of the output image into an image of the size of the region.
+	 *
+	 * @param output - the image to fill, as large as the region
+	 * @param origin - the position of the region in the output image
+	 * @param bounds - the bounding boxes of the tiles, see {@link #computeBounds}
+	 * @param progressStart - the progress of the fusion before this region, from 0 to 1
+	 * @param progressRange - the fraction of the fusion this region accounts for
+	 * @return - false if a model could not be inverted
+	 */
+	protected static < T extends RealType< T > > boolean fuseRegion( final Image< T > output, final int[] origin,
+			final ArrayList< ? extends ImageInterpolation< ? extends RealType< ? > > > input, final float[] offset,
+			final ArrayList< InvertibleBoundable > transform, final PixelFusion fusion, final int[] blockSize, final float[][][] bounds,
+			final double progressStart, final double progressRange )
+	{
+		final int numDimensions = output.getNumDimensions();
+		final int numImages = input.size();
+		final int[] size = output.getDimensions();
+
+		// the maximal dimensions of each image
+		final int[][] max = new int[ numImages ][ numDimensions ];
+		for ( int i = 0; i < numImages; ++i )
+			for ( int d = 0; d < numDimensions; ++d )
+				max[ i ][ d ] = input.get( i ).getImage().getDimension( d ) - 1;
+
+		final int[] numBlocks = new int[ numDimensions ];
+		int totalBlocks = 1;
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			numBlocks[ d ] = ( size[ d ] + blockSize[ d ] - 1 ) / blockSize[ d ];
+			totalBlocks *= numBlocks[ d ];
+		}
+		final int numBlocksTotal = totalBlocks;
+
+		final int[][] tiles = indexTiles( origin, size, blockSize, numBlocks, bounds );
+
+		// run multithreaded, every thread takes the next block
+		final AtomicInteger nextBlock = new AtomicInteger( 0 );
+		final AtomicInteger blocksDone = new AtomicInteger( 0 );
+		final AtomicBoolean failed = new AtomicBoolean( false );
+		final Thread[] threads = SimpleMultiThreading.newThreads();
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				public void run()
+				{
+					final LocalizableByDimCursor< T > out = output.createLocalizableByDimCursor();
+					// created on demand, most tiles are not needed by the blocks of a thread
+					final Interpolator< ? extends RealType< ? > >[] in = newInterpolatorArray( numImages );
+					final float[] tmp = new float[ numDimensions ];
+					final PixelFusion myFusion = fusion.copy();
+
+					final int[] blockMin = new int[ numDimensions ];
+					final int[] blockMax = new int[ numDimensions ];
+					final int[] pos = new int[ numDimensions ];
+
+					try
+					{
+						for ( int block = nextBlock.getAndIncrement(); block < numBlocksTotal && !failed.get(); block = nextBlock.getAndIncrement() )
+						{
+							final int[] myTiles = tiles[ block ];
+
+							int k = block;
+							for ( int d = 0; d < numDimensions; ++d )
+							{
+								blockMin[ d ] = ( k % numBlocks[ d ] ) * blockSize[ d ];
+								blockMax[ d ] = Math.min( size[ d ], blockMin[ d ] + blockSize[ d ] ) - 1;
+								k /= numBlocks[ d ];
+								pos[ d ] = blockMin[ d ];
+							}
+
+							// fill the block line by line
+							while ( true )
+							{
+								pos[ 0 ] = blockMin[ 0 ];
+								out.setPosition( pos );
+
+								for ( int x = blockMin[ 0 ]; x <= blockMax[ 0 ]; ++x )
+								{
+									myFusion.clear();
+
+									// loop over the tiles that may contain this output location
+A:									for ( final int i : myTiles )
+									{
+										tmp[ 0 ] = ( origin[ 0 ] + x ) + offset[ 0 ];
+										for ( int d = 1; d < numDimensions; ++d )
+											tmp[ d ] = ( origin[ d ] + pos[ d ] ) + offset[ d ];
+
+										transform.get( i ).applyInverseInPlace( tmp );
+
+										// test if inside
+										for ( int d = 0; d < numDimensions; ++d )
+											if ( tmp[ d ] < 0 || tmp[ d ] > max[ i ][ d ] )
+												continue A;
+
+										if ( in[ i ] == null )
+											in[ i ] = input.get( i ).createInterpolator();
+
+										in[ i ].setPosition( tmp );
+										myFusion.addValue( in[ i ].getType().getRealFloat(), i, tmp );
+									}
+
+									// set value
+									out.getType().setReal( myFusion.getValue() );
+
+									if ( x < blockMax[ 0 ] )
+										out.fwd( 0 );
+								}
+
+								// next line of the block
+								int d = 1;
+								while ( d < numDimensions && pos[ d ] == blockMax[ d ] )
+								{
+									pos[ d ] = blockMin[ d ];
+									++d;
+								}
+
+								if ( d >= numDimensions )
+									break;
+
+								++pos[ d ];
+							}
+
+							IJ.showProgress( progressStart + progressRange * blocksDone.incrementAndGet() / numBlocksTotal );
+						}
+					}
+					catch ( NoninvertibleModelException e )
+					{
+						if ( !failed.getAndSet( true ) )
+							IJ.log( "Cannot invert model, quitting." );
+					}
+					finally
+					{
+						out.close();
+						for ( final Interpolator< ? extends RealType< ? > > interpolator : in )
+							if ( interpolator != null )
+								interpolator.close();
+					}
+				}
+			});
+
+		SimpleMultiThreading.startAndJoin( threads );
+
+		return !failed.get();
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private static Interpolator< ? extends RealType< ? > >[] newInterpolatorArray( final int n )
+	{
+		return new Interpolator[ n ];
+	}
+}
@@ -91,11 +91,11 @@ public static < T extends RealType< T > > ImagePlus fuse( final T targetType, fi
 				// create the 2d/3d target image for the current channel and timepoint 
 				final Image< T > out;
 				
-				// we just create one slice if we write to disk
+				// the slices are created while fusing if we write to disk
 				if ( outputDirectory == null )
 					out = f.createImage( size );
 				else
-					out = f.createImage( new int[] { size[ 0 ], size[ 1 ] } ); // just create a slice
+					out = null;
 
 				// init the fusion
 				PixelFusion fusion = null;
@@ -125,21 +125,9 @@ else if ( fusionType == 4)
 						fusion = new BlendingPixelFusion( blockData );
 					
 					if ( outputDirectory == null )
-					{
-						fuseBlock( out, blockData, offset, models, fusion );
-					}
+						BlockFusion.fuse( out, blockData, offset, models, fusion, BlockFusion.defaultBlockSize( dimensionality ) );
 					else
-					{
-						final int numSlices;
-						
-						if ( dimensionality == 2 )
-							numSlices = 1;
-						else
-							numSlices = size[ 2 ];
-						
-						writeBlock( out, numSlices, t, numTimePoints, c, numChannels, blockData, offset, models, fusion, outputDirectory );
-						out.close();
-					}
+						BlockFusion.write( f, size, t, numTimePoints, c, numChannels, blockData, offset, models, fusion, BlockFusion.defaultBlockSize( dimensionality ), outputDirectory );
 				}
 				else
 				{
@@ -169,19 +157,11 @@ else if ( imp.getType() == ImagePlus.GRAY16 )
 						if ( noOverlap )
 							fuseBlockNoOverlap( out, blockData, offset, models );
 						else
-							fuseBlock( out, blockData, offset, models, fusion );
+							BlockFusion.fuse( out, blockData, offset, models, fusion, BlockFusion.defaultBlockSize( dimensionality ) );
 					}
 					else
 					{
-						final int numSlices;
-						
-						if ( dimensionality == 2 )
-							numSlices = 1;
-						else
-							numSlices = size[ 2 ];
-						
-						writeBlock( out, numSlices, t, numTimePoints, c, numChannels, blockData, offset, models, fusion, outputDirectory );
-						out.close();
+						BlockFusion.write( f, size, t, numTimePoints, c, numChannels, blockData, offset, models, fusion, BlockFusion.defaultBlockSize( dimensionality ), outputDirectory );
 					}
 				}
 				
@@ -233,7 +213,8 @@ else if ( imp.getType() == ImagePlus.GRAY16 )
 	}
 	
 	/**
-	 * Fuse one slice/volume (one channel)
+	 * Fuse one slice/volume (one channel), transforming every output pixel into
+	 * every image. See {@link BlockFusion} for the faster version used by {@link #fuse}.
 	 * 
 	 * @param output - same the type of the ImagePlus input
 	 * @param input - FloatType, because of Interpolation that needs to be done
@@ -431,7 +412,8 @@ public void run()
 	}
 
 	/**
-	 * Fuse one slice/volume (one channel)
+	 * Fuse one slice/volume (one channel), transforming every output pixel into
+	 * every image. See {@link BlockFusion} for the faster version used by {@link #fuse}.
 	 * 
 	 * @param outputSlice - same the type of the ImagePlus input, just one slice which will be written to the output directory
 	 * @param input - FloatType, because of Interpolation that needs to be done
@@ -543,7 +525,7 @@ protected static <T extends RealType<T>> void writeBlock( final Image<T> outputS
 		}
 	}
 
-	private static final String lz( final int num, final int max )
+	static final String lz( final int num, final int max )
 	{
 		String out = "" + num;
 		String outMax = "" + max;
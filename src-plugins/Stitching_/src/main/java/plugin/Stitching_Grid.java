@@ -192,7 +192,7 @@ else if ( gridType == 6 && gridOrder == 1 )
 		gd.addCheckbox( "Subpixel_accuracy", defaultSubpixelAccuracy );
 		gd.addCheckbox( "Downsample_tiles", defaultDownSample);
 		gd.addCheckbox( "Use_virtual_input_images (Slow! Even slower when combined with subpixel accuracy during fusion!)", defaultVirtualInput );
-		gd.addChoice( "Computation_parameters", CommonFunctions.cpuMemSelect, CommonFunctions.cpuMemSelect[ defaultMemorySpeedChoice ] );
+		gd.addChoice( "Computation_parameters", CommonFunctions.cpuMemSelectGrid, CommonFunctions.cpuMemSelectGrid[ defaultMemorySpeedChoice ] );
 		gd.addChoice( "Image_output", resultChoices, resultChoices[ defaultResult ] );
 		gd.addMessage("");
 		gd.addMessage( "This Plugin is developed by Stephan Preibisch\n" + myURL);
@@ -317,6 +317,7 @@ else if ( gridType == 6 && gridOrder == 1 )
 		final boolean downSample = params.downSample = defaultDownSample = gd.getNextBoolean();
 		params.virtual = defaultVirtualInput = gd.getNextBoolean();
 		params.cpuMemChoice = defaultMemorySpeedChoice = gd.getNextChoiceIndex();
+		params.streamTiles = params.cpuMemChoice == 2;
 		params.outputVariant = defaultResult = gd.getNextChoiceIndex();
 		
 		if ( params.virtual )
@@ -452,6 +453,10 @@ else if ( gridType == 6 )
 				return;					
 			}
 			
+			// when streaming, the tile is opened again once it is needed
+			if ( params.streamTiles && element.canReopen() )
+				element.close();
+			
 		// John Lapage changed this: copying setup for Unknown Positions
 		if ( gridType == 5 || gridType == 7)
 			{
@@ -493,7 +498,7 @@ else if ( gridType == 6 )
     	
     	// output the result
 		for ( final ImagePlusTimePoint imt : optimized )
-			IJ.log( imt.getImagePlus().getTitle() + ": " + imt.getModel() );
+			IJ.log( ( params.streamTiles ? imt.getElement().getFile().getName() : imt.getImagePlus().getTitle() ) + ": " + imt.getModel() );
 		
     	// write the file tileconfiguration
 		if ( params.computeOverlap && outputFile != null )
@@ -61,6 +61,7 @@
 	public static String[] fusionMethodListGrid = { "Linear Blending", "Average", "Median", "Max. Intensity", "Min. Intensity", /* "Overlay into composite image", */ "Do not fuse images (only write TileConfiguration)" };	
 	public static String[] timeSelect = { "Apply registration of first time-point to all other time-points", "Register images adjacently over time", "Register all images over all time-points globally (expensive!)" };
 	public static String[] cpuMemSelect = { "Save memory (but be slower)", "Save computation time (but use more RAM)" };
+	public static String[] cpuMemSelectGrid = { "Save memory (but be slower)", "Save computation time (but use more RAM)", "Stream tiles from disk (for large collections)" };
 	
 	public static ImagePlus loadImage(String directory, String file, int seriesNumber) { return loadImage(directory, file, seriesNumber, "rgb"); }
 	public static ImagePlus loadImage(String directory, String file, int seriesNumber, String rgb)
@@ -0,0 +1,156 @@
+package mpicbg.stitching;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+
+import java.io.File;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link TileCache} keeps pinned tiles open and closes the others
+ * in least-recently-used order once its budget is exceeded.
+ */
+public class TileCacheTest
+{
+	// every tile is 10x10 8-bit, i.e. 100 bytes, the budget holds two of them
+	final static long budget = 250;
+
+	@Test
+	public void testPinnedTilesStayOpen()
+	{
+		final TileCache cache = new TileCache( budget, false );
+		final TestElement a = new TestElement( 0 ), b = new TestElement( 1 ), c = new TestElement( 2 );
+
+		assertNotNull( cache.acquire( a ) );
+		assertNotNull( cache.acquire( b ) );
+		assertNotNull( cache.acquire( c ) );
+
+		// over budget, but nothing can be closed
+		assertEquals( 300, cache.getUsedBytes() );
+		assertNotNull( a.imp );
+		assertNotNull( b.imp );
+		assertNotNull( c.imp );
+
+		// a tile pinned twice stays open until it is released twice
+		assertSame( a.imp, cache.acquire( a ) );
+		cache.release( a );
+		assertNotNull( a.imp );
+		cache.release( a );
+		assertNull( a.imp );
+		assertEquals( 200, cache.getUsedBytes() );
+
+		cache.release( b );
+		cache.release( c );
+		assertEquals( 200, cache.getUsedBytes() );
+		assertEquals( 1, a.opened );
+		assertEquals( 1, b.opened );
+		assertEquals( 1, c.opened );
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsClosed()
+	{
+		final TileCache cache = new TileCache( budget, false );
+		final TestElement a = new TestElement( 0 ), b = new TestElement( 1 ), c = new TestElement( 2 );
+
+		cache.acquire( a );
+		cache.release( a );
+		cache.acquire( b );
+		cache.release( b );
+
+		// using a again makes b the least recently used tile, a is not reopened
+		final ImagePlus imp = a.imp;
+		assertSame( imp, cache.acquire( a ) );
+		cache.release( a );
+		assertEquals( 1, a.opened );
+
+		cache.acquire( c );
+		assertNull( b.imp );
+		assertSame( imp, a.imp );
+		assertNotNull( c.imp );
+		assertEquals( 200, cache.getUsedBytes() );
+		cache.release( c );
+
+		// b is opened again on demand, a is now the least recently used one
+		assertNotNull( cache.acquire( b ) );
+		assertEquals( 2, b.opened );
+		assertNull( a.imp );
+		assertNotNull( c.imp );
+		cache.release( b );
+		assertEquals( 200, cache.getUsedBytes() );
+	}
+
+	@Test
+	public void testClear()
+	{
+		final TileCache cache = new TileCache( budget, false );
+		final TestElement a = new TestElement( 0 ), b = new TestElement( 1 );
+
+		cache.acquire( a );
+		cache.acquire( b );
+		cache.release( b );
+		cache.clear();
+
+		assertNotNull( a.imp );
+		assertNull( b.imp );
+		assertEquals( 100, cache.getUsedBytes() );
+
+		cache.release( a );
+		cache.clear();
+		assertNull( a.imp );
+		assertEquals( 0, cache.getUsedBytes() );
+	}
+
+	@Test
+	public void testFailedOpen()
+	{
+		final TileCache cache = new TileCache( budget, false );
+		final TestElement a = new TestElement( 0 );
+		a.fail = true;
+
+		assertNull( cache.acquire( a ) );
+		assertEquals( 0, cache.getUsedBytes() );
+
+		// the element is not remembered, it is tried again
+		a.fail = false;
+		assertNotNull( cache.acquire( a ) );
+		assertEquals( 2, a.opened );
+		assertEquals( 100, cache.getUsedBytes() );
+		cache.release( a );
+	}
+
+	/**
+	 * A tile that creates its image instead of reading a file, and counts how often it was opened.
+	 */
+	static class TestElement extends ImageCollectionElement
+	{
+		int opened = 0;
+		boolean fail = false;
+
+		public TestElement( final int index )
+		{
+			super( new File( "tile" + index + ".tif" ), index );
+		}
+
+		@Override
+		public ImagePlus open( final boolean virtual )
+		{
+			if ( imp != null )
+				return imp;
+
+			++opened;
+
+			if ( fail )
+				return null;
+
+			imp = new ImagePlus( getFile().getName(), new ByteProcessor( 10, 10 ) );
+			return imp;
+		}
+	}
+}
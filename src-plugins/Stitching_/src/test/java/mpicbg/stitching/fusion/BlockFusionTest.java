@@ -0,0 +1,125 @@
+package mpicbg.stitching.fusion;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.cursor.Cursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.interpolation.InterpolatorFactory;
+import mpicbg.imglib.interpolation.linear.LinearInterpolatorFactory;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyMirrorFactory;
+import mpicbg.imglib.type.numeric.real.FloatType;
+import mpicbg.models.InvertibleBoundable;
+import mpicbg.models.TranslationModel2D;
+import mpicbg.models.TranslationModel3D;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link BlockFusion} gives the same result as the per-pixel
+ * {@link Fusion#fuseBlock} on small mosaics of overlapping tiles.
+ */
+public class BlockFusionTest
+{
+	final ImageFactory< FloatType > factory = new ImageFactory< FloatType >( new FloatType(), new ArrayContainerFactory() );
+	final InterpolatorFactory< FloatType > interpolatorFactory = new LinearInterpolatorFactory< FloatType >( new OutOfBoundsStrategyMirrorFactory< FloatType >() );
+
+	@Test
+	public void testFuse2d()
+	{
+		final Random random = new Random( 1 );
+		final ArrayList< ImageInterpolation< FloatType > > tiles = new ArrayList< ImageInterpolation< FloatType > >();
+		final ArrayList< InvertibleBoundable > models = new ArrayList< InvertibleBoundable >();
+
+		for ( int y = 0; y < 3; ++y )
+			for ( int x = 0; x < 4; ++x )
+			{
+				tiles.add( createTile( new int[] { 40, 30 }, random ) );
+				final TranslationModel2D model = new TranslationModel2D();
+				model.set( x * 36 + 3 * random.nextFloat(), y * 27 + 3 * random.nextFloat() );
+				models.add( model );
+			}
+
+		assertSameFusion( tiles, models, new int[] { 5, 7 } );
+		assertSameFusion( tiles, models, new int[] { 16, 16 } );
+		assertSameFusion( tiles, models, BlockFusion.defaultBlockSize( 2 ) );
+	}
+
+	@Test
+	public void testFuse3d()
+	{
+		final Random random = new Random( 2 );
+		final ArrayList< ImageInterpolation< FloatType > > tiles = new ArrayList< ImageInterpolation< FloatType > >();
+		final ArrayList< InvertibleBoundable > models = new ArrayList< InvertibleBoundable >();
+
+		for ( int y = 0; y < 2; ++y )
+			for ( int x = 0; x < 2; ++x )
+			{
+				tiles.add( createTile( new int[] { 20, 18, 12 }, random ) );
+				final TranslationModel3D model = new TranslationModel3D();
+				model.set( x * 17 + 2 * random.nextFloat(), y * 15 + 2 * random.nextFloat(), 4 * random.nextFloat() );
+				models.add( model );
+			}
+
+		assertSameFusion( tiles, models, new int[] { 3, 4, 5 } );
+		assertSameFusion( tiles, models, new int[] { 8, 8, 5 } );
+	}
+
+	/**
+	 * Fuses the tiles with {@link Fusion#fuseBlock} and with {@link BlockFusion#fuse}
+	 * for average, linear blending and max fusion, and compares the results pixel by pixel.
+	 */
+	protected void assertSameFusion( final ArrayList< ImageInterpolation< FloatType > > tiles, final ArrayList< InvertibleBoundable > models, final int[] blockSize )
+	{
+		final int numDimensions = blockSize.length;
+		final int[][] tileSizes = new int[ tiles.size() ][];
+		for ( int i = 0; i < tiles.size(); ++i )
+			tileSizes[ i ] = tiles.get( i ).getImage().getDimensions();
+
+		final float[] offset = new float[ numDimensions ];
+		final int[] size = new int[ numDimensions ];
+		Fusion.estimateBounds( offset, size, tileSizes, models, numDimensions );
+		for ( int d = 0; d < numDimensions; ++d )
+			++size[ d ];
+
+		final PixelFusion[] fusions = new PixelFusion[] { new AveragePixelFusion(), new BlendingPixelFusion( tiles ), new MaxPixelFusion() };
+
+		for ( final PixelFusion fusion : fusions )
+		{
+			final Image< FloatType > expected = factory.createImage( size );
+			final Image< FloatType > actual = factory.createImage( size );
+
+			Fusion.fuseBlock( expected, tiles, offset, models, fusion );
+			BlockFusion.fuse( actual, tiles, offset, models, fusion, blockSize );
+
+			final Cursor< FloatType > e = expected.createCursor();
+			final Cursor< FloatType > a = actual.createCursor();
+			int i = 0;
+			while ( e.hasNext() )
+			{
+				e.fwd();
+				a.fwd();
+				assertEquals( fusion.getClass().getSimpleName() + " at pixel " + i, e.getType().get(), a.getType().get(), 0 );
+				++i;
+			}
+
+			e.close();
+			a.close();
+			expected.close();
+			actual.close();
+		}
+	}
+
+	protected ImageInterpolation< FloatType > createTile( final int[] size, final Random random )
+	{
+		final Image< FloatType > image = factory.createImage( size );
+		for ( final FloatType t : image )
+			t.set( 1 + 1000 * random.nextFloat() );
+
+		return new ImageInterpolation< FloatType >( image, interpolatorFactory );
+	}
+}
@@ -390,6 +390,17 @@ public FeatureModel getFeatureModel() {
 		return featureModel;
 	}
 
+	/**
+	 * Notifies the listeners of this model that some features were
+	 * recomputed, by firing a {@link ModelChangeEvent#FEATURES_COMPUTED}
+	 * event.
+	 */
+	public void notifyFeaturesComputed() {
+		final ModelChangeEvent event = new ModelChangeEvent(this, ModelChangeEvent.FEATURES_COMPUTED);
+		for (ModelChangeListener listener : modelChangeListeners)
+			listener.modelChanged(event);
+	}
+
 	
 
 	/*
@@ -522,6 +533,7 @@ public synchronized Spot removeSpot(final Spot spotToRemove) {
 	 */
 	public synchronized void updateFeatures(final Spot spotToUpdate) {
 		spotsUpdated.add(spotToUpdate); // Enlist for feature update when transaction is marked as finished
+		spots.spotGeometryChanged(spotToUpdate); // Its position or radius may have changed
 		Set<DefaultWeightedEdge> touchingEdges = trackModel.edgesOf(spotToUpdate);
 		if (null != touchingEdges) {
 			trackModel.edgesModified.addAll(touchingEdges);
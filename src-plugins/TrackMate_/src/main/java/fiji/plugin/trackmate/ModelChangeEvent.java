@@ -71,6 +71,12 @@ public class ModelChangeEvent extends EventObject {
 	 * and for the tracks: {@link #getEdges()} and {@link #getEdgeFlags()}.
 	 */
 	public static final int 	MODEL_MODIFIED = 8;
+	/**
+	 * Event type indicating that the features of some spots, edges or tracks
+	 * were recomputed after the model was modified, for instance by a
+	 * {@link fiji.plugin.trackmate.features.ModelFeatureUpdater}.
+	 */
+	public static final int 	FEATURES_COMPUTED = 9;
 
 	/** Spots affected by this event. */
 	private final HashSet<Spot> spots = new HashSet<Spot>();
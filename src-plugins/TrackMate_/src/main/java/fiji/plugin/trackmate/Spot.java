@@ -1,10 +1,16 @@
 package fiji.plugin.trackmate;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -15,6 +21,14 @@
 
 /**
  * Plain implementation of the {@link Spot} interface.
+ * <p>
+ * Feature values are not stored in a map, but in a primitive
+ * <code>double</code> array, indexed by a feature index shared by all the
+ * spots (see {@link #featureIndex(String)}), plus a bit mask recording what
+ * features are set. This avoids storing a map, its entries and a boxed value
+ * per feature for every spot, which matters for models with millions of
+ * spots. The {@link #getFeatures()} method still offers a {@link Map} view on
+ * these values.
  * @author Jean-Yves Tinevez <jeanyves.tinevez@gmail.com> Sep 16, 2010, 2012
  *
  */
@@ -26,8 +40,15 @@ public class Spot extends AbstractEuclideanSpace implements RealLocalizable {
 
 	public static AtomicInteger IDcounter = new AtomicInteger(-1);
 
-	/** Store the individual features, and their values. */
-	private final ConcurrentHashMap<String, Double> features = new ConcurrentHashMap<String, Double>();
+	/** The index of each feature name in the feature value arrays of all spots. */
+	private static final ConcurrentHashMap<String, Integer> FEATURE_INDICES = new ConcurrentHashMap<String, Integer>();
+	/** The feature names, by feature index. */
+	private static volatile String[] featureNames = new String[0];
+
+	/** The feature values, indexed by feature index. */
+	private volatile double[] values = new double[0];
+	/** Bit mask of the feature values that are set. */
+	private volatile long[] present = new long[0];
 	/** A user-supplied name for this spot. */
 	private String name;
 	/** This spot ID */
@@ -142,7 +163,8 @@ public String echo() {
 		s.append("Position: "+Util.printCoordinates(coordinates)+"\n");
 
 		// Feature list
-		if (null == features || features.size() < 1)
+		final Map<String, Double> features = getFeatures();
+		if (features.size() < 1)
 			s.append("No features calculated\n");
 		else {
 			s.append("Feature list:\n");
@@ -165,10 +187,37 @@ public String echo() {
 	 */
 
 	/**
-	 * @return and exposes the storage Map of features for this spot.
+	 * Returns the index of the specified feature in the feature storage of
+	 * spots, registering this feature if it is not known yet. This index is
+	 * shared by all spots, and can be used with {@link #getFeatureValue(int)}
+	 * to avoid looking up the feature name for each spot in tight loops.
+	 */
+	public static final int featureIndex(final String feature) {
+		final Integer index = FEATURE_INDICES.get(feature);
+		if (null != index) {
+			return index.intValue();
+		}
+		synchronized (FEATURE_INDICES) {
+			final Integer existing = FEATURE_INDICES.get(feature);
+			if (null != existing) {
+				return existing.intValue();
+			}
+			final int newIndex = featureNames.length;
+			final String[] names = Arrays.copyOf(featureNames, newIndex + 1);
+			names[newIndex] = feature;
+			featureNames = names;
+			FEATURE_INDICES.put(feature, Integer.valueOf(newIndex));
+			return newIndex;
+		}
+	}
+
+	/**
+	 * @return a {@link Map} view of the features of this spot. The view is
+	 * backed by this spot: changes made through {@link #putFeature(String, Double)}
+	 * are reflected in the map, and conversely.
 	 */
 	public Map<String,Double> getFeatures() {
-		return features;
+		return new FeatureMap();
 	}
 
 	/**
@@ -177,14 +226,81 @@ public Map<String,Double> getFeatures() {
 	 * <code>null</code> if it has not been set.
 	 */
 	public final Double getFeature(final String feature) {
-		return features.get(feature);
+		final Integer index = FEATURE_INDICES.get(feature);
+		if (null == index) {
+			return null;
+		}
+		final int i = index.intValue();
+		if (!isSet(i)) {
+			return null;
+		}
+		return Double.valueOf(values[i]);
+	}
+
+	/**
+	 * Returns the value of the feature with the specified index, without boxing.
+	 *
+	 * @param featureIndex  the feature index, as returned by {@link #featureIndex(String)}.
+	 * @return the feature value, or {@link Double#NaN} if it has not been set.
+	 */
+	public final double getFeatureValue(final int featureIndex) {
+		// Read the mask before the values: they are published in the reverse order.
+		if (!isSet(featureIndex)) {
+			return Double.NaN;
+		}
+		return values[featureIndex];
 	}
 
 	/**
 	 * Store the specified feature value for this spot.
 	 */
 	public final void putFeature(final String feature, final Double value) {
-		features.put(feature, value);
+		if (null == value) {
+			throw new NullPointerException("Cannot store a null value for feature " + feature + ".");
+		}
+		putFeatureValue(featureIndex(feature), value.doubleValue());
+	}
+
+	/**
+	 * Store the value of the feature with the specified index for this spot.
+	 *
+	 * @param featureIndex  the feature index, as returned by {@link #featureIndex(String)}.
+	 * @param value  the value to store.
+	 */
+	public final synchronized void putFeatureValue(final int featureIndex, final double value) {
+		double[] v = values;
+		long[] p = present;
+		if (featureIndex >= v.length) {
+			v = Arrays.copyOf(v, Math.max(featureIndex + 1, featureNames.length));
+			p = Arrays.copyOf(p, (v.length + 63) >>> 6);
+		}
+		v[featureIndex] = value;
+		p[featureIndex >>> 6] |= 1L << featureIndex;
+		// Volatile writes, in this order, publish the new value.
+		values = v;
+		present = p;
+	}
+
+	/**
+	 * Removes the specified feature from this spot.
+	 * @return the value that was stored for this feature, or <code>null</code>
+	 * if it was not set.
+	 */
+	private synchronized Double removeFeature(final int featureIndex) {
+		if (!isSet(featureIndex)) {
+			return null;
+		}
+		final Double previous = Double.valueOf(values[featureIndex]);
+		final long[] p = present;
+		p[featureIndex >>> 6] &= ~(1L << featureIndex);
+		present = p;
+		return previous;
+	}
+
+	private final boolean isSet(final int featureIndex) {
+		final long[] p = present;
+		final int word = featureIndex >>> 6;
+		return word < p.length && (p[word] & (1L << featureIndex)) != 0;
 	}
 
 	/**
@@ -192,7 +308,7 @@ public final void putFeature(final String feature, final Double value) {
 	 * By construction, this operation is anti-symmetric (A.diffTo(B) = - B.diffTo(A)).
 	 */
 	public double diffTo(Spot s, String feature) {
-		double f1 = features.get(feature).doubleValue();
+		double f1 = getFeature(feature).doubleValue();
 		double f2 = s.getFeature(feature).doubleValue();
 		return f1 - f2;
 	}
@@ -207,7 +323,7 @@ public double diffTo(Spot s, String feature) {
 	 * By construction, this operation is symmetric (A.normalizeDiffTo(B) = B.normalizeDiffTo(A)).
 	 */
 	public double normalizeDiffTo(Spot s, String feature) {
-		final double a = features.get(feature).doubleValue();
+		final double a = getFeature(feature).doubleValue();
 		final double b = s.getFeature(feature).doubleValue();
 		if (a == -b)
 			return 0d;
@@ -222,9 +338,9 @@ public double squareDistanceTo(Spot s) {
 		double sumSquared = 0d;
 		double thisVal, otherVal;
 
-		for (String f : POSITION_FEATURES) {
-			thisVal = features.get(f).doubleValue();
-			otherVal = s.getFeature(f).doubleValue();
+		for (int i = 0; i < POSITION_FEATURE_INDICES.length; i++) {
+			thisVal = getFeatureValue(POSITION_FEATURE_INDICES[i]);
+			otherVal = s.getFeatureValue(POSITION_FEATURE_INDICES[i]);
 			sumSquared += ( otherVal - thisVal ) * ( otherVal - thisVal );
 		}
 		return sumSquared;
@@ -258,6 +374,10 @@ public double squareDistanceTo(Spot s) {
 
 	/** The position features. */
 	public final static String[] POSITION_FEATURES = new String[] { POSITION_X, POSITION_Y, POSITION_Z };
+	/** The feature indices of the position features. */
+	private final static int[] POSITION_FEATURE_INDICES = new int[] { featureIndex(POSITION_X), featureIndex(POSITION_Y), featureIndex(POSITION_Z) };
+	/** The feature index of the radius feature. */
+	final static int RADIUS_FEATURE_INDEX = featureIndex(RADIUS);
 	/** The 7 privileged spot features that must be set by a spot detector: {@link #QUALITY},
 	 * {@link #POSITION_X}, {@link #POSITION_Y}, {@link #POSITION_Z}, {@link #POSITION_Z},
 	 * {@link #RADIUS}, {@link #FRAME}. */
@@ -329,7 +449,7 @@ public float getFloatPosition(final int d)
 	public double getDoublePosition(final int d)
 	{
 		assert ( d > 0 && d < n );
-		return getFeature( POSITION_FEATURES[ d ] );
+		return getFeatureValue( POSITION_FEATURE_INDICES[ d ] );
 	}
 
 	/*
@@ -375,4 +495,115 @@ public int compare(Spot o1, Spot o2) {
 		}
 	};
 
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * A {@link Map} view of the features set in this spot.
+	 */
+	private final class FeatureMap extends AbstractMap<String, Double> {
+
+		@Override
+		public Double get(final Object key) {
+			if (!(key instanceof String)) {
+				return null;
+			}
+			return getFeature((String) key);
+		}
+
+		@Override
+		public boolean containsKey(final Object key) {
+			return null != get(key);
+		}
+
+		@Override
+		public Double put(final String key, final Double value) {
+			final Double previous = getFeature(key);
+			putFeature(key, value);
+			return previous;
+		}
+
+		@Override
+		public Double remove(final Object key) {
+			if (!(key instanceof String)) {
+				return null;
+			}
+			final Integer index = FEATURE_INDICES.get(key);
+			if (null == index) {
+				return null;
+			}
+			return removeFeature(index.intValue());
+		}
+
+		@Override
+		public Set<Map.Entry<String, Double>> entrySet() {
+			return new AbstractSet<Map.Entry<String,Double>>() {
+
+				@Override
+				public Iterator<Map.Entry<String, Double>> iterator() {
+					return new FeatureIterator();
+				}
+
+				@Override
+				public int size() {
+					int size = 0;
+					for (final long word : present) {
+						size += Long.bitCount(word);
+					}
+					return size;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Iterates over the features set in this spot, in feature index order.
+	 */
+	private final class FeatureIterator implements Iterator<Map.Entry<String, Double>> {
+
+		private final long[] mask = present.clone();
+		private final String[] names = featureNames;
+		private int next = -1;
+		private int current = -1;
+
+		private FeatureIterator() {
+			advance();
+		}
+
+		private void advance() {
+			for (int i = next + 1; i < mask.length * 64; i++) {
+				if ((mask[i >>> 6] & (1L << i)) != 0) {
+					next = i;
+					return;
+				}
+			}
+			next = mask.length * 64;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < mask.length * 64;
+		}
+
+		@Override
+		public Map.Entry<String, Double> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			current = next;
+			advance();
+			return new AbstractMap.SimpleImmutableEntry<String, Double>(names[current], Double.valueOf(values[current]));
+		}
+
+		@Override
+		public void remove() {
+			if (current < 0) {
+				throw new IllegalStateException();
+			}
+			removeFeature(current);
+			current = -1;
+		}
+	}
+
 }
\ No newline at end of file
@@ -9,12 +9,12 @@
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.imglib2.algorithm.MultiThreaded;
 import fiji.plugin.trackmate.features.FeatureFilter;
@@ -29,6 +29,15 @@
  * This class is {@link MultiThreaded}. There are a few processes that can
  * benefit from multithreaded computation ({@link #filter(Collection)},
  * {@link #filter(FeatureFilter)}
+ * <p>
+ * Closest spot queries ({@link #getClosestSpot(Spot, int, boolean)},
+ * {@link #getSpotAt(Spot, int, boolean)} and
+ * {@link #getNClosestSpots(Spot, int, int, boolean)}) rely on a KD-tree per
+ * frame, built on first use. It is rebuilt when spots are added to or
+ * removed from the frame, or after {@link #spotGeometryChanged(Spot)} is
+ * called for one of its spots; {@link Model#updateFeatures(Spot)} does that
+ * for spots moved or resized within a model transaction. Spot visibility is
+ * checked at query time, so filtering does not invalidate it.
  * 
  * @author Jean-Yves Tinevez <jeanyves.tinevez@gmail.com> - Feb 2011 - 2013
  * 
@@ -53,6 +62,15 @@ public class SpotCollection implements MultiThreaded {
 
 	/** The frame by frame list of spot this object wrap. */
 	private ConcurrentSkipListMap<Integer, Set<Spot>> content = new ConcurrentSkipListMap<Integer, Set<Spot>>();
+	/**
+	 * The KD-trees used for the closest spot queries, per frame. They are
+	 * built lazily, and rebuilt when the frame content changes.
+	 */
+	private final ConcurrentHashMap<Integer, SpotKDTree> kdTrees = new ConcurrentHashMap<Integer, SpotKDTree>();
+	/** Counts the modifications of the frame contents and spot geometries. */
+	private final AtomicLong modificationCount = new AtomicLong();
+	/** The value of {@link #modificationCount} when each frame was last modified. */
+	private final ConcurrentHashMap<Integer, Long> frameModifications = new ConcurrentHashMap<Integer, Long>();
 	private int numThreads;
 
 	/*
@@ -116,6 +134,7 @@ public void add(final Spot spot, final Integer frame) {
 			content.put(frame, spots);
 		}
 		spots.add(spot);
+		frameModified(frame);
 		spot.putFeature(Spot.FRAME, Double.valueOf(frame));
 		spot.putFeature(VISIBLITY, ONE);
 	}
@@ -132,6 +151,7 @@ public boolean remove(final Spot spot, final Integer frame) {
 		if (null == spots) {
 			return false;
 		}
+		frameModified(frame);
 		return spots.remove(spot);
 	}
 
@@ -177,6 +197,9 @@ public final void filter(final FeatureFilter featurefilter) {
 
 		final Collection<Integer> frames = content.keySet();
 		final ExecutorService executors = Executors.newFixedThreadPool(numThreads);
+		final int featureIndex = Spot.featureIndex(featurefilter.feature);
+		final int visibilityIndex = Spot.featureIndex(VISIBLITY);
+		final double tval = featurefilter.value;
 
 		for (final Integer frame : frames) {
 
@@ -184,30 +207,29 @@ public final void filter(final FeatureFilter featurefilter) {
 				@Override
 				public void run() {
 
-					Double val, tval;
+					double val;
 
 					final Set<Spot> spots = content.get(frame);
-					tval = featurefilter.value;
 
 					if (featurefilter.isAbove) {
 
 						for (final Spot spot : spots) {
-							val = spot.getFeature(featurefilter.feature);
-							if (val.compareTo(tval) < 0) {
-								spot.putFeature(VISIBLITY, ZERO);
+							val = spot.getFeatureValue(featureIndex);
+							if (Double.compare(val, tval) < 0) {
+								spot.putFeatureValue(visibilityIndex, 0d);
 							} else {
-								spot.putFeature(VISIBLITY, ONE);
+								spot.putFeatureValue(visibilityIndex, 1d);
 							}
 						}
 
 					} else {
 
 						for (final Spot spot : spots) {
-							val = spot.getFeature(featurefilter.feature);
-							if (val.compareTo(tval) > 0) {
-								spot.putFeature(VISIBLITY, ZERO);
+							val = spot.getFeatureValue(featureIndex);
+							if (Double.compare(val, tval) > 0) {
+								spot.putFeatureValue(visibilityIndex, 0d);
 							} else {
-								spot.putFeature(VISIBLITY, ONE);
+								spot.putFeatureValue(visibilityIndex, 1d);
 							}
 						}
 					}
@@ -232,33 +254,47 @@ public final void filter(final Collection<FeatureFilter> filters) {
 		final Collection<Integer> frames = content.keySet();
 		final ExecutorService executors = Executors.newFixedThreadPool(numThreads);
 
+		// Resolve feature indices once for all spots.
+		final int nFilters = filters.size();
+		final int[] featureIndices = new int[nFilters];
+		final double[] tvals = new double[nFilters];
+		final boolean[] isAboves = new boolean[nFilters];
+		int f = 0;
+		for (final FeatureFilter featureFilter : filters) {
+			featureIndices[f] = Spot.featureIndex(featureFilter.feature);
+			tvals[f] = featureFilter.value;
+			isAboves[f] = featureFilter.isAbove;
+			f++;
+		}
+		final int visibilityIndex = Spot.featureIndex(VISIBLITY);
+
 		for (final Integer frame : frames) {
 			final Runnable command = new Runnable() {
 				@Override
 				public void run() {
 					final Set<Spot> spots = content.get(frame);
 
-					Double val, tval;
+					double val, tval;
 					boolean isAbove, shouldNotBeVisible;
 					for (final Spot spot : spots) {
 
 						shouldNotBeVisible = false;
-						for (final FeatureFilter featureFilter : filters) {
+						for (int i = 0; i < nFilters; i++) {
 
-							val = spot.getFeature(featureFilter.feature);
-							tval = featureFilter.value;
-							isAbove = featureFilter.isAbove;
+							val = spot.getFeatureValue(featureIndices[i]);
+							tval = tvals[i];
+							isAbove = isAboves[i];
 
-							if (isAbove && val.compareTo(tval) < 0 || !isAbove && val.compareTo(tval) > 0) {
+							if (isAbove && Double.compare(val, tval) < 0 || !isAbove && Double.compare(val, tval) > 0) {
 								shouldNotBeVisible = true;
 								break;
 							}
 						} // loop over filters
 
 						if (shouldNotBeVisible) {
-							spot.putFeature(VISIBLITY, ZERO);
+							spot.putFeatureValue(visibilityIndex, 0d);
 						} else {
-							spot.putFeature(VISIBLITY, ONE);
+							spot.putFeatureValue(visibilityIndex, 1d);
 						}
 					} // loop over spots
 
@@ -295,26 +331,11 @@ public void run() {
 	 *         collection.
 	 */
 	public final Spot getClosestSpot(final Spot location, final int frame, final boolean visibleSpotsOnly) {
-		final Set<Spot> spots = content.get(frame);
-		if (null == spots)
+		final SpotKDTree tree = getKDTree(frame);
+		if (null == tree) {
 			return null;
-		double d2;
-		double minDist = Double.POSITIVE_INFINITY;
-		Spot target = null;
-		for (final Spot s : spots) {
-
-			if (visibleSpotsOnly && (s.getFeature(VISIBLITY).compareTo(ZERO) <= 0)) {
-				continue;
-			}
-
-			d2 = s.squareDistanceTo(location);
-			if (d2 < minDist) {
-				minDist = d2;
-				target = s;
-			}
-
 		}
-		return target;
+		return tree.closest(localize(location), visibleSpotsOnly);
 	}
 
 	/**
@@ -335,29 +356,11 @@ public final Spot getClosestSpot(final Spot location, final int frame, final boo
 	 *         spots cannot be found.
 	 */
 	public final Spot getSpotAt(final Spot location, final int frame, final boolean visibleSpotsOnly) {
-		final Set<Spot> spots = content.get(frame);
-		if (null == spots || spots.isEmpty()) {
+		final SpotKDTree tree = getKDTree(frame);
+		if (null == tree) {
 			return null;
 		}
-
-		final TreeMap<Double, Spot> distanceToSpot = new TreeMap<Double, Spot>();
-		double d2;
-		for (final Spot s : spots) {
-
-			if (visibleSpotsOnly && (s.getFeature(VISIBLITY).compareTo(ZERO) <= 0)) {
-				continue;
-			}
-
-			d2 = s.squareDistanceTo(location);
-			if (d2 < s.getFeature(Spot.RADIUS) * s.getFeature(Spot.RADIUS)) {
-				distanceToSpot.put(d2, s);
-			}
-		}
-		if (distanceToSpot.isEmpty()) {
-			return null;
-		} else {
-			return distanceToSpot.firstEntry().getValue();
-		}
+		return tree.spotAt(localize(location), visibleSpotsOnly);
 	}
 
 	/**
@@ -379,28 +382,58 @@ public final Spot getSpotAt(final Spot location, final int frame, final boolean
 	 * @return a new list, with of at most <code>n</code> spots, ordered by
 	 *         increasing distance from the specified location.
 	 */
-	public final List<Spot> getNClosestSpots(final Spot location, final int frame, int n, final boolean visibleSpotsOnly) {
-		final Set<Spot> spots = content.get(frame);
-		final TreeMap<Double, Spot> distanceToSpot = new TreeMap<Double, Spot>();
-
-		double d2;
-		for (final Spot s : spots) {
-
-			if (visibleSpotsOnly && (s.getFeature(VISIBLITY).compareTo(ZERO) <= 0)) {
-				continue;
-			}
+	public final List<Spot> getNClosestSpots(final Spot location, final int frame, final int n, final boolean visibleSpotsOnly) {
+		final SpotKDTree tree = getKDTree(frame);
+		if (null == tree) {
+			return new ArrayList<Spot>(0);
+		}
+		return tree.nClosest(localize(location), n, visibleSpotsOnly);
+	}
 
-			d2 = s.squareDistanceTo(location);
-			distanceToSpot.put(d2, s);
+	/**
+	 * Returns the KD-tree of the specified frame, building it if it does not
+	 * exist or if it is out of date. Returns <code>null</code> if the frame
+	 * has no spot.
+	 */
+	SpotKDTree getKDTree(final int frame) {
+		final Set<Spot> spots = content.get(frame);
+		if (null == spots || spots.isEmpty()) {
+			return null;
+		}
+		final Long lastModification = frameModifications.get(frame);
+		SpotKDTree tree = kdTrees.get(frame);
+		if (null == tree || !tree.isValid(spots.size(), null == lastModification ? 0 : lastModification.longValue())) {
+			// Read the count before the spots, so that a concurrent change makes the new tree invalid.
+			tree = new SpotKDTree(spots, modificationCount.get());
+			kdTrees.put(frame, tree);
 		}
+		return tree;
+	}
 
-		final List<Spot> selectedSpots = new ArrayList<Spot>(n);
-		final Iterator<Double> it = distanceToSpot.keySet().iterator();
-		while (n > 0 && it.hasNext()) {
-			selectedSpots.add(distanceToSpot.get(it.next()));
-			n--;
+	/**
+	 * Notifies this collection that the position or radius of the specified
+	 * spot changed, so that the next closest spot query on its frame does not
+	 * use an outdated KD-tree. Only the frame of the spot, as given by its
+	 * {@link Spot#FRAME} feature, is affected.
+	 * 
+	 * @param spot
+	 *            the spot that was moved or resized.
+	 */
+	public void spotGeometryChanged(final Spot spot) {
+		final Double frame = spot.getFeature(Spot.FRAME);
+		if (null != frame) {
+			frameModified(frame.intValue());
 		}
-		return selectedSpots;
+	}
+
+	private void frameModified(final int frame) {
+		frameModifications.put(frame, modificationCount.incrementAndGet());
+	}
+
+	private static final double[] localize(final Spot location) {
+		final double[] pos = new double[location.numDimensions()];
+		location.localize(pos);
+		return pos;
 	}
 
 	/**
@@ -514,9 +547,10 @@ public void run() {
 	 */
 	public final double[] collectValues(final String feature, final boolean visibleOnly) {
 		final double[] values = new double[getNSpots(visibleOnly)];
+		final int featureIndex = Spot.featureIndex(feature);
 		int index = 0;
 		for (final Spot spot : iterable(visibleOnly)) {
-			values[index] = spot.getFeature(feature);
+			values[index] = spot.getFeatureValue(featureIndex);
 			index++;
 		}
 		return values;
@@ -623,6 +657,7 @@ public void put(final int frame, final Collection<Spot> spots) {
 			spot.putFeature(VISIBLITY, ZERO);
 		}
 		content.put(frame, value);
+		frameModified(frame);
 	}
 
 	/**
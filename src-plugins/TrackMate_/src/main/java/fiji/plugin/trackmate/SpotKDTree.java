@@ -0,0 +1,252 @@
+package fiji.plugin.trackmate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import net.imglib2.collection.KDTree;
+import net.imglib2.collection.KDTreeNode;
+
+/**
+ * A KD-tree on the spots of a single frame, used by {@link SpotCollection} to
+ * answer closest-spot queries without scanning the whole frame.
+ * <p>
+ * The tree stores a copy of the spot positions taken when it is built. It is
+ * therefore only valid as long as the frame content and the spot positions
+ * and radii do not change. {@link SpotCollection} discards it when spots are
+ * added to or removed from the frame, and when it is told that spots of the
+ * frame were moved or resized. The visibility of spots is not part of the index: it is read from the spots at
+ * query time, so that filtering the collection does not require rebuilding
+ * the tree.
+ */
+final class SpotKDTree {
+
+	private static final int VISIBILITY_INDEX = Spot.featureIndex(SpotCollection.VISIBLITY);
+
+	private final KDTree<Spot> tree;
+	/** The number of spots in the tree. */
+	private final int size;
+	/** The modification count of the collection when this tree was built. */
+	private final long modificationCount;
+	/** The largest spot radius in the tree. */
+	private final double maxRadius;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Builds a tree on the specified spots, which must not be empty.
+	 * 
+	 * @param spots
+	 *            the spots of the frame.
+	 * @param modificationCount
+	 *            the modification count of the collection, read before the
+	 *            spots.
+	 */
+	SpotKDTree(final Collection<Spot> spots, final long modificationCount) {
+		this.modificationCount = modificationCount;
+		final List<Spot> list = new ArrayList<Spot>(spots);
+		this.size = list.size();
+		this.tree = new KDTree<Spot>(list, list);
+		double max = 0;
+		for (final Spot spot : list) {
+			final double radius = spot.getFeatureValue(Spot.RADIUS_FEATURE_INDEX);
+			if (radius > max) {
+				max = radius;
+			}
+		}
+		this.maxRadius = max;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns <code>true</code> if this tree can still be used for a frame
+	 * holding the specified number of spots, and last modified when the
+	 * modification count of the collection was the specified value.
+	 */
+	boolean isValid(final int nSpots, final long lastModification) {
+		return nSpots == size && modificationCount >= lastModification;
+	}
+
+	/**
+	 * Returns the spot closest to the specified position, or <code>null</code>
+	 * if there is none.
+	 */
+	Spot closest(final double[] pos, final boolean visibleSpotsOnly) {
+		final NearestSearch search = new NearestSearch(pos, visibleSpotsOnly);
+		search.searchNode(tree.getRoot());
+		return search.best;
+	}
+
+	/**
+	 * Returns the closest spot such that the specified position is strictly
+	 * within its radius, or <code>null</code> if there is none.
+	 */
+	Spot spotAt(final double[] pos, final boolean visibleSpotsOnly) {
+		final SpotAtSearch search = new SpotAtSearch(pos, visibleSpotsOnly);
+		search.searchNode(tree.getRoot());
+		return search.best;
+	}
+
+	/**
+	 * Returns at most <code>n</code> spots closest to the specified position,
+	 * ordered by increasing distance.
+	 */
+	List<Spot> nClosest(final double[] pos, final int n, final boolean visibleSpotsOnly) {
+		if (n <= 0) {
+			return new ArrayList<Spot>(0);
+		}
+		final NClosestSearch search = new NClosestSearch(pos, Math.min(n, size), visibleSpotsOnly);
+		search.searchNode(tree.getRoot());
+		final List<Spot> selectedSpots = new ArrayList<Spot>(search.found);
+		for (int i = 0; i < search.found; i++) {
+			selectedSpots.add(search.spots[i]);
+		}
+		return selectedSpots;
+	}
+
+	private static final boolean isVisible(final Spot spot) {
+		return Double.compare(spot.getFeatureValue(VISIBILITY_INDEX), 0d) > 0;
+	}
+
+	/*
+	 * PRIVATE CLASSES
+	 */
+
+	/**
+	 * Nearest neighbor search, ignoring invisible spots if required.
+	 */
+	private static final class NearestSearch {
+
+		private final double[] pos;
+		private final boolean visibleSpotsOnly;
+		private double bestSquDistance = Double.POSITIVE_INFINITY;
+		private Spot best = null;
+
+		private NearestSearch(final double[] pos, final boolean visibleSpotsOnly) {
+			this.pos = pos;
+			this.visibleSpotsOnly = visibleSpotsOnly;
+		}
+
+		private void searchNode(final KDTreeNode<Spot> current) {
+			final double distance = current.squDistanceTo(pos);
+			if (distance < bestSquDistance && (!visibleSpotsOnly || isVisible(current.get()))) {
+				bestSquDistance = distance;
+				best = current.get();
+			}
+
+			final double axisDiff = pos[current.getSplitDimension()] - current.getSplitCoordinate();
+			final boolean leftIsNearBranch = axisDiff < 0;
+			final KDTreeNode<Spot> nearChild = leftIsNearBranch ? current.left : current.right;
+			final KDTreeNode<Spot> awayChild = leftIsNearBranch ? current.right : current.left;
+			if (nearChild != null) {
+				searchNode(nearChild);
+			}
+			if (awayChild != null && axisDiff * axisDiff <= bestSquDistance) {
+				searchNode(awayChild);
+			}
+		}
+	}
+
+	/**
+	 * Searches for the closest spot containing the target position. Only the
+	 * spots within the largest radius of the tree have to be inspected.
+	 */
+	private final class SpotAtSearch {
+
+		private final double[] pos;
+		private final boolean visibleSpotsOnly;
+		private final double maxSquRadius;
+		private double bestSquDistance = Double.POSITIVE_INFINITY;
+		private Spot best = null;
+
+		private SpotAtSearch(final double[] pos, final boolean visibleSpotsOnly) {
+			this.pos = pos;
+			this.visibleSpotsOnly = visibleSpotsOnly;
+			this.maxSquRadius = maxRadius * maxRadius;
+		}
+
+		private void searchNode(final KDTreeNode<Spot> current) {
+			final double distance = current.squDistanceTo(pos);
+			if (distance < bestSquDistance) {
+				final Spot spot = current.get();
+				final double radius = spot.getFeatureValue(Spot.RADIUS_FEATURE_INDEX);
+				if (distance < radius * radius && (!visibleSpotsOnly || isVisible(spot))) {
+					bestSquDistance = distance;
+					best = spot;
+				}
+			}
+
+			final double axisDiff = pos[current.getSplitDimension()] - current.getSplitCoordinate();
+			final double axisSquDistance = axisDiff * axisDiff;
+			final boolean leftIsNearBranch = axisDiff < 0;
+			final KDTreeNode<Spot> nearChild = leftIsNearBranch ? current.left : current.right;
+			final KDTreeNode<Spot> awayChild = leftIsNearBranch ? current.right : current.left;
+			if (nearChild != null) {
+				searchNode(nearChild);
+			}
+			if (awayChild != null && axisSquDistance <= bestSquDistance && axisSquDistance < maxSquRadius) {
+				searchNode(awayChild);
+			}
+		}
+	}
+
+	/**
+	 * K nearest neighbors search. The candidates found so far are kept sorted
+	 * by increasing distance in primitive arrays.
+	 */
+	private static final class NClosestSearch {
+
+		private final double[] pos;
+		private final boolean visibleSpotsOnly;
+		private final int n;
+		private final double[] squDistances;
+		private final Spot[] spots;
+		private int found = 0;
+
+		private NClosestSearch(final double[] pos, final int n, final boolean visibleSpotsOnly) {
+			this.pos = pos;
+			this.n = n;
+			this.visibleSpotsOnly = visibleSpotsOnly;
+			this.squDistances = new double[n];
+			this.spots = new Spot[n];
+		}
+
+		private double worstSquDistance() {
+			return found < n ? Double.POSITIVE_INFINITY : squDistances[n - 1];
+		}
+
+		private void insert(final double distance, final Spot spot) {
+			int i = found < n ? found++ : n - 1;
+			while (i > 0 && squDistances[i - 1] > distance) {
+				squDistances[i] = squDistances[i - 1];
+				spots[i] = spots[i - 1];
+				i--;
+			}
+			squDistances[i] = distance;
+			spots[i] = spot;
+		}
+
+		private void searchNode(final KDTreeNode<Spot> current) {
+			final double distance = current.squDistanceTo(pos);
+			if (distance < worstSquDistance() && (!visibleSpotsOnly || isVisible(current.get()))) {
+				insert(distance, current.get());
+			}
+
+			final double axisDiff = pos[current.getSplitDimension()] - current.getSplitCoordinate();
+			final boolean leftIsNearBranch = axisDiff < 0;
+			final KDTreeNode<Spot> nearChild = leftIsNearBranch ? current.left : current.right;
+			final KDTreeNode<Spot> awayChild = leftIsNearBranch ? current.right : current.left;
+			if (nearChild != null) {
+				searchNode(nearChild);
+			}
+			if (awayChild != null && axisDiff * axisDiff <= worstSquDistance()) {
+				searchNode(awayChild);
+			}
+		}
+	}
+}
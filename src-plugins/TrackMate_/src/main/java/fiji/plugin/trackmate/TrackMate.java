@@ -206,6 +206,9 @@ public boolean execTracking() {
 		logger.log("Starting tracking process.\n");
 		final SpotTracker tracker =  settings.tracker;
 		tracker.setTarget(model.getSpots(), settings.trackerSettings);
+		if (tracker instanceof MultiThreaded) {
+			((MultiThreaded) tracker).setNumThreads(numThreads);
+		}
 		if (tracker.checkInput() && tracker.process()) {
 			model.getTrackModel().setGraph(tracker.getResult());
 			return true;
@@ -303,6 +306,11 @@ public boolean execDetection() {
 		factory.setTarget(img, settings.detectorSettings);
 
 		final int numFrames = settings.tend - settings.tstart + 1;
+		// Split the threads between the frames and, within each frame, the detector
+		final int nFramesInFlight = Math.max(1, Math.min(numThreads, numFrames));
+		if (factory instanceof MultiThreaded) {
+			((MultiThreaded) factory).setNumThreads(Math.max(1, numThreads / nFramesInFlight));
+		}
 		// Final results holder, for all frames
 		final SpotCollection spots = new SpotCollection();
 		spots.setNumThreads(numThreads);
@@ -315,7 +323,7 @@ public boolean execDetection() {
 		final double dy = settings.ystart * calibration[1];
 		final double dz = settings.zstart * calibration[2];
 
-		final Thread[] threads = SimpleMultiThreading.newThreads(numThreads);
+		final Thread[] threads = SimpleMultiThreading.newThreads(nFramesInFlight);
 		final AtomicBoolean ok = new AtomicBoolean(true);
 
 		// Prepare the thread array
@@ -97,4 +97,19 @@ public class DetectorKeys {
 	/** A default value for the {@link #KEY_DO_SUBPIXEL_LOCALIZATION} parameter. */
 	public static final boolean DEFAULT_DO_SUBPIXEL_LOCALIZATION = true;
 
+	/** The key identifying the optional parameter that sets the size, in pixels, of
+	 * the blocks each frame is split in for detection. A value of 0 means that frames
+	 * are processed at once. Expected values are {@link Integer}s.
+	 * <p>
+	 * Currently used by:
+	 * <ul>
+	 * 	<li> {@link LogDetector}
+	 * 	<li> {@link DogDetector}
+	 * </ul>
+	 */
+	public static final String KEY_BLOCK_SIZE = "BLOCK_SIZE";
+	
+	/** A default value for the {@link #KEY_BLOCK_SIZE} parameter. */
+	public static final int DEFAULT_BLOCK_SIZE = 0;
+
 }
@@ -44,6 +44,9 @@ public DogDetector(final ImgPlus<T> img, final double radius, final double thres
 
 	@Override
 	public boolean process() {
+		if (isTiled()) {
+			return processBlocks();
+		}
 
 		long start = System.currentTimeMillis();
 		
@@ -144,4 +147,23 @@ public boolean process() {
 		
 		return true;
 	}
+
+	/*
+	 * PROTECTED METHODS
+	 */
+
+	@Override
+	protected LogDetector<T> createBlockDetector(final ImgPlus<T> block) {
+		return new DogDetector<T>(block, radius, threshold, doSubPixelLocalization, doMedianFilter);
+	}
+
+	/**
+	 * Returns the support of the largest Gaussian kernel, plus the distance
+	 * under which overlapping spots are suppressed.
+	 */
+	@Override
+	protected double getBlockMargin() {
+		final double sigma2 = Math.sqrt(img.numDimensions()) * 2 / (1 + Math.sqrt(img.numDimensions())) * radius;
+		return 3 * sigma2 + 2 * radius;
+	}
 }
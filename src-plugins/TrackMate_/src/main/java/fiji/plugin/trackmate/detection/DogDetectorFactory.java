@@ -45,7 +45,10 @@ public SpotDetector<T> getDetector(final int frame) {
 		final double threshold = (Double) settings.get(KEY_THRESHOLD);
 		final boolean doMedian = (Boolean) settings.get(KEY_DO_MEDIAN_FILTERING);
 		final boolean doSubpixel = (Boolean) settings.get(KEY_DO_SUBPIXEL_LOCALIZATION);
-		return new DogDetector<T>(imgT, radius, threshold, doSubpixel, doMedian);
+		final DogDetector<T> detector = new DogDetector<T>(imgT, radius, threshold, doSubpixel, doMedian);
+		detector.setNumThreads(numThreads);
+		detector.setBlockSize(getBlockSize());
+		return detector;
 	}
 	
 	@Override
@@ -1,8 +1,12 @@
 package fiji.plugin.trackmate.detection;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import net.imglib2.Cursor;
 import net.imglib2.RandomAccess;
 import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.algorithm.fft.FourierConvolution;
@@ -12,6 +16,7 @@
 import net.imglib2.img.ImgFactory;
 import net.imglib2.img.array.ArrayImgFactory;
 import net.imglib2.meta.ImgPlus;
+import net.imglib2.multithreading.SimpleMultiThreading;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
@@ -41,6 +46,8 @@ public class LogDetector <T extends RealType<T>  & NativeType<T>> implements Spo
 	protected List<Spot> spots = new ArrayList<Spot>(); // because this implementation is fast to add elements at the end of the list
 	/** The processing time in ms. */
 	protected long processingTime;
+	/** The size of the blocks the image is split in, in pixels. If 0, the image is processed at once. */
+	protected int blockSize = 0;
 	private int numThreads;
 
 	/*
@@ -75,8 +82,27 @@ public boolean checkInput() {
 	};
 	
 	
+	/**
+	 * Sets the size, in pixels along each axis, of the blocks the image is
+	 * split in for detection. If 0, the default, the whole image is processed
+	 * at once.
+	 * <p>
+	 * Each block is filtered with a margin large enough for the filters and
+	 * the peak suppression to give the same result as on the whole image, and
+	 * only the spots found in the block proper are retained, so that spots in
+	 * the margins are not detected twice. Blocks are processed in parallel, on
+	 * the number of threads set by {@link #setNumThreads(int)}, and the memory
+	 * needed no longer depends on the image size, but on the block size.
+	 */
+	public void setBlockSize(final int blockSize) {
+		this.blockSize = blockSize;
+	}
+
 	@Override
 	public boolean process() {
+		if (isTiled()) {
+			return processBlocks();
+		}
 		
 		long start = System.currentTimeMillis();
 
@@ -201,10 +227,173 @@ public boolean process() {
 	}
 
 
+	/*
+	 * PROTECTED METHODS
+	 */
+
+	/**
+	 * Returns <code>true</code> if the image must be processed block by block.
+	 */
+	protected boolean isTiled() {
+		if (blockSize <= 0) {
+			return false;
+		}
+		for (int d = 0; d < img.numDimensions(); d++) {
+			if (img.dimension(d) > blockSize) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns a detector configured as this one, to process the specified
+	 * block of the image.
+	 */
+	protected LogDetector<T> createBlockDetector(final ImgPlus<T> block) {
+		return new LogDetector<T>(block, radius, threshold, doSubPixelLocalization, doMedianFilter);
+	}
+
+	/**
+	 * Returns the margin, in calibrated units, to add around each block: the
+	 * support of the Gaussian kernel, plus the peak suppression radius.
+	 */
+	protected double getBlockMargin() {
+		final double sigma = radius / Math.sqrt(img.numDimensions());
+		return 3 * sigma + radius;
+	}
+
+	/**
+	 * Splits the image in blocks of {@link #blockSize} pixels, and detects
+	 * spots in each of them in parallel.
+	 */
+	protected boolean processBlocks() {
+
+		final long start = System.currentTimeMillis();
+
+		final int nDims = img.numDimensions();
+		final double[] calibration = TMUtils.getSpatialCalibration(img);
+		final long[] margin = new long[nDims];
+		final long[] nBlocks = new long[nDims];
+		long nTotalBlocks = 1;
+		for (int d = 0; d < nDims; d++) {
+			margin[d] = (long) Math.ceil(getBlockMargin() / calibration[d]) + 2; // 2 more pixels for the local maxima and the sub-pixel fit
+			nBlocks[d] = (img.dimension(d) + blockSize - 1) / blockSize;
+			nTotalBlocks *= nBlocks[d];
+		}
+		final long nTotal = nTotalBlocks;
+
+		final List<Spot> allSpots = Collections.synchronizedList(new ArrayList<Spot>());
+		final AtomicBoolean ok = new AtomicBoolean(true);
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = SimpleMultiThreading.newThreads(numThreads);
+		for (int ithread = 0; ithread < threads.length; ithread++) {
+
+			threads[ithread] = new Thread(baseErrorMessage + "thread " + (1 + ithread) + "/" + threads.length) {
+
+				@Override
+				public void run() {
+					final long[] coreMin = new long[nDims];
+					final long[] coreMax = new long[nDims];
+					final long[] min = new long[nDims];
+					final long[] max = new long[nDims];
+
+					for (long index = ai.getAndIncrement(); index < nTotal && ok.get(); index = ai.getAndIncrement()) {
+						long remainder = index;
+						for (int d = 0; d < nDims; d++) {
+							final long blockPosition = remainder % nBlocks[d];
+							remainder /= nBlocks[d];
+							coreMin[d] = blockPosition * blockSize;
+							coreMax[d] = Math.min(img.dimension(d), coreMin[d] + blockSize) - 1;
+							min[d] = Math.max(0, coreMin[d] - margin[d]);
+							max[d] = Math.min(img.dimension(d) - 1, coreMax[d] + margin[d]);
+						}
+
+						final List<Spot> blockSpots = processBlock(min, max, coreMin, coreMax, calibration);
+						if (null == blockSpots) {
+							ok.set(false);
+							return;
+						}
+						allSpots.addAll(blockSpots);
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin(threads);
+
+		if (!ok.get()) {
+			return false;
+		}
+		spots = new ArrayList<Spot>(allSpots);
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
+
 	/*
 	 * PRIVATE METHODS
 	 */
 
+	/**
+	 * Detects spots in the specified block of the image, given with its
+	 * margin, and returns the ones found in the block proper, in image
+	 * coordinates. Returns <code>null</code> if detection failed.
+	 */
+	private List<Spot> processBlock(final long[] min, final long[] max, final long[] coreMin, final long[] coreMax, final double[] calibration) {
+		final int nDims = min.length;
+
+		// Copy the block with its margin
+		final long[] dims = new long[nDims];
+		for (int d = 0; d < nDims; d++) {
+			dims[d] = max[d] - min[d] + 1;
+		}
+		final Img<T> blockImg = img.factory().create(dims, img.firstElement().createVariable());
+		final Cursor<T> cursor = blockImg.localizingCursor();
+		final RandomAccess<T> ra = img.randomAccess();
+		final long[] pos = new long[nDims];
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.localize(pos);
+			for (int d = 0; d < nDims; d++) {
+				pos[d] += min[d];
+			}
+			ra.setPosition(pos);
+			cursor.get().set(ra.get());
+		}
+		final ImgPlus<T> block = new ImgPlus<T>(blockImg, img);
+
+		final LogDetector<T> detector = createBlockDetector(block);
+		detector.setNumThreads(1);
+		if (!detector.checkInput() || !detector.process()) {
+			errorMessage = baseErrorMessage + detector.getErrorMessage();
+			return null;
+		}
+
+		// Keep the spots of the block proper, and put them in image coordinates
+		final List<Spot> blockSpots = new ArrayList<Spot>();
+		final double[] coords = new double[nDims];
+		for (final Spot spot : detector.getResult()) {
+			boolean inCore = true;
+			for (int d = 0; d < nDims; d++) {
+				coords[d] = spot.getDoublePosition(d) + min[d] * calibration[d];
+				// Sub-pixel localization can move spots slightly out of the image
+				final long pixel = Math.max(0, Math.min(img.dimension(d) - 1, Math.round(coords[d] / calibration[d])));
+				if (pixel < coreMin[d] || pixel > coreMax[d]) {
+					inCore = false;
+					break;
+				}
+			}
+			if (!inCore) {
+				continue;
+			}
+			for (int d = 0; d < nDims; d++) {
+				spot.putFeature(Spot.POSITION_FEATURES[d], coords[d]);
+			}
+			blockSpots.add(spot);
+		}
+		return blockSpots;
+	}
 
 	private Img<FloatType> createLaplacianKernel() {
 		final ImgFactory<FloatType> factory = new ArrayImgFactory<FloatType>();
@@ -1,5 +1,6 @@
 package fiji.plugin.trackmate.detection;
 
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_BLOCK_SIZE;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_DO_MEDIAN_FILTERING;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_DO_SUBPIXEL_LOCALIZATION;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_RADIUS;
@@ -12,12 +13,13 @@
 import java.util.List;
 import java.util.Map;
 
+import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.meta.ImgPlus;
 import net.imglib2.meta.view.HyperSliceImgPlus;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 
-public class LogDetectorFactory<T extends RealType<T> & NativeType<T>>  implements SpotDetectorFactory<T> {
+public class LogDetectorFactory<T extends RealType<T> & NativeType<T>>  implements SpotDetectorFactory<T>, MultiThreaded {
 
 	/*
 	 * CONSTANTS
@@ -45,6 +47,12 @@
 	protected ImgPlus<T> img;
 	protected Map<String, Object> settings;
 	protected String errorMessage;
+	/**
+	 * The number of threads each detector may use. In TrackMate context,
+	 * frames are already processed in parallel, and this is set to the share
+	 * of the threads left to each frame.
+	 */
+	protected int numThreads = Runtime.getRuntime().availableProcessors();
 
 	/*
 	 * METHODS
@@ -66,10 +74,35 @@ public SpotDetector<T> getDetector(final int frame) {
 		final boolean doMedian = (Boolean) settings.get(KEY_DO_MEDIAN_FILTERING);
 		final boolean doSubpixel = (Boolean) settings.get(KEY_DO_SUBPIXEL_LOCALIZATION);
 		LogDetector<T> detector = new LogDetector<T>(imgT, radius, threshold, doSubpixel, doMedian);
-		detector.setNumThreads(1); // in TrackMate context, we use 1 thread per detector but multiple detectors
+		detector.setNumThreads(numThreads);
+		detector.setBlockSize(getBlockSize());
 		return detector;
 	}
 
+	/**
+	 * Returns the optional block size parameter, or the default value if it
+	 * is not set.
+	 */
+	protected int getBlockSize() {
+		final Object blockSize = settings.get(KEY_BLOCK_SIZE);
+		return null == blockSize ? DetectorKeys.DEFAULT_BLOCK_SIZE : (Integer) blockSize;
+	}
+
+	@Override
+	public void setNumThreads() {
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads(final int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads() {
+		return numThreads;
+	}
+
 	@Override
 	public String getKey() {
 		return DETECTOR_KEY;
@@ -115,7 +148,12 @@ public static boolean checkInput(Map<String, Object> settings, StringBuilder err
 		mandatoryKeys.add(KEY_THRESHOLD);
 		mandatoryKeys.add(KEY_DO_MEDIAN_FILTERING);
 		mandatoryKeys.add(KEY_DO_SUBPIXEL_LOCALIZATION);
-		ok = ok & checkMapKeys(settings, mandatoryKeys, null, errorHolder);
+		List<String> optionalKeys = new ArrayList<String>();
+		optionalKeys.add(KEY_BLOCK_SIZE);
+		if (settings.containsKey(KEY_BLOCK_SIZE)) {
+			ok = ok & checkParameter(settings, KEY_BLOCK_SIZE, Integer.class, errorHolder);
+		}
+		ok = ok & checkMapKeys(settings, mandatoryKeys, optionalKeys, errorHolder);
 		return ok;	
 	}
 
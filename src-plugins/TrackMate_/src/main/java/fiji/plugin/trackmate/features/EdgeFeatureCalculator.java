@@ -101,7 +101,11 @@ private void computeEdgeFeaturesAgent(final Collection<DefaultWeightedEdge> edge
 		
 		for (EdgeAnalyzer analyzer : analyzers) {
 			analyzer.setNumThreads(numThreads);
-			analyzer.process(edges);
+			if (analyzer.isLocal()) {
+				analyzer.process(edges);
+			} else {
+				analyzer.process(model.getTrackModel().edgeSet());
+			}
 			if (doLogIt)
 				logger.log("  - " + analyzer.getKey() + " in " + analyzer.getProcessingTime() + " ms.\n");
 		}
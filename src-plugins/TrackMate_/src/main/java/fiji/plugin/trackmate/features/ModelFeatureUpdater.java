@@ -1,6 +1,16 @@
 package fiji.plugin.trackmate.features;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 
@@ -10,39 +20,96 @@
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.TrackModel;
 
 /**
  * A utility class that listens to the change occurring in a model, and updates
- * its spot, edge and track features accordingly. Useful to keep the model in 
+ * its spot, edge and track features accordingly. Useful to keep the model in
  * sync with manual editing.
- *    
+ * <p>
+ * Only the spots, edges and tracks touched by a change are marked as dirty
+ * and recomputed. Analyzers that are not local (see
+ * {@link fiji.plugin.trackmate.features.track.TrackAnalyzer#isLocal()} and
+ * {@link fiji.plugin.trackmate.features.edges.EdgeAnalyzer#isLocal()}) are
+ * still run on the whole model. When a batch delay is specified, the
+ * recomputation is postponed until no change has been received for this
+ * delay, so that a burst of edits triggers a single update. It then runs on
+ * a background thread, off the event dispatch thread.
+ * <p>
+ * Once features are recomputed, a {@link ModelChangeEvent#FEATURES_COMPUTED}
+ * event is fired, on the event dispatch thread when updates are batched, so
+ * that listeners can redraw with the new values.
+ *
  * @author Jean-Yves Tinevez - 2013
  */
 public class ModelFeatureUpdater implements ModelChangeListener {
 
+	/** The default delay, in ms, used to batch model changes in the GUI. */
+	public static final int DEFAULT_BATCH_DELAY = 200;
+
 	private final SpotFeatureCalculator spotFeatureCalculator;
 	private final EdgeFeatureCalculator edgeFeatureCalculator;
 	private final TrackFeatureCalculator trackFeatureCalculator;
 	private final Model model;
+	/** The delay, in ms, used to batch changes. */
+	private final int batchDelay;
+	/** The executor the batched updates run on. <code>null</code> if updates are synchronous. */
+	private final ScheduledExecutorService executor;
+	/** The pending batched update, if any. */
+	private ScheduledFuture<?> pendingUpdate;
+
+	private final Set<Spot> dirtySpots = new HashSet<Spot>();
+	private final Set<DefaultWeightedEdge> dirtyEdges = new HashSet<DefaultWeightedEdge>();
+	private final Set<Integer> dirtyTracks = new HashSet<Integer>();
 
 	/**
-	 * Constructs and activate a {@link ModelFeatureUpdater}. The new instance is 
+	 * Constructs and activate a {@link ModelFeatureUpdater}. The new instance is
 	 * registered to listen to model changes, and update its feature.
-	 * @param model  the model to listen to. 
-	 * @param settings the {@link Settings} the model is built against. Required 
+	 * Features are updated as soon as a change is notified.
+	 * @param model  the model to listen to.
+	 * @param settings the {@link Settings} the model is built against. Required
 	 * to access the raw data.
 	 */
 	public ModelFeatureUpdater(Model model, Settings settings) {
+		this(model, settings, 0);
+	}
+
+	/**
+	 * Constructs and activate a {@link ModelFeatureUpdater} that batches the
+	 * changes it receives. The new instance is registered to listen to model
+	 * changes, and update its feature.
+	 * @param model  the model to listen to.
+	 * @param settings the {@link Settings} the model is built against. Required
+	 * to access the raw data.
+	 * @param batchDelay the delay, in ms, to wait after the last change before
+	 * updating the features. If 0 or negative, features are updated as soon
+	 * as a change is notified.
+	 */
+	public ModelFeatureUpdater(Model model, Settings settings, int batchDelay) {
 		this.model = model;
 		this.spotFeatureCalculator = new SpotFeatureCalculator(model, settings);
 		this.edgeFeatureCalculator = new EdgeFeatureCalculator(model, settings);
 		this.trackFeatureCalculator = new TrackFeatureCalculator(model, settings);
+		this.batchDelay = batchDelay;
+		if (batchDelay > 0) {
+			this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "TrackMate feature updater");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		} else {
+			this.executor = null;
+		}
 		model.addModelChangeListener(this);
 	}
 
 	/**
-	 * Updates the model features against the change notified here.
-	 * If the event is not a {@link ModelChangeEvent#MODEL_MODIFIED},
+	 * Marks the spots, edges and tracks touched by the change notified here
+	 * as dirty, and updates their features, immediately or after the batch
+	 * delay. If the event is not a {@link ModelChangeEvent#MODEL_MODIFIED},
 	 * does nothing.
 	 */
 	@Override
@@ -51,39 +118,134 @@ public void modelChanged(ModelChangeEvent event) {
 			return;
 		}
 
-		// Build spot list
-		ArrayList<Spot> spots = new ArrayList<Spot>(event.getSpots().size());
-		for (Spot spot : event.getSpots()) {
-			if (event.getSpotFlag(spot) != ModelChangeEvent.FLAG_SPOT_REMOVED) {
-				spots.add(spot);
+		final TrackModel trackModel = model.getTrackModel();
+		synchronized (this) {
+			for (Spot spot : event.getSpots()) {
+				final Integer flag = event.getSpotFlag(spot);
+				if (flag == ModelChangeEvent.FLAG_SPOT_REMOVED) {
+					dirtySpots.remove(spot);
+					continue;
+				}
+				dirtySpots.add(spot);
+				if (flag == ModelChangeEvent.FLAG_SPOT_MODIFIED || flag == ModelChangeEvent.FLAG_SPOT_FRAME_CHANGED) {
+					// A moved spot changes the features of its edges and track
+					dirtyEdges.addAll(trackModel.edgesOf(spot));
+					final Integer trackID = trackModel.trackIDOf(spot);
+					if (null != trackID) {
+						dirtyTracks.add(trackID);
+					}
+				}
+			}
+
+			for (DefaultWeightedEdge edge : event.getEdges()) {
+				if (event.getEdgeFlag(edge) == ModelChangeEvent.FLAG_EDGE_REMOVED) {
+					dirtyEdges.remove(edge);
+				} else {
+					dirtyEdges.add(edge);
+				}
+			}
+
+			dirtyTracks.addAll(event.getTrackUpdated());
+
+			if (null != executor) {
+				if (null != pendingUpdate) {
+					pendingUpdate.cancel(false);
+				}
+				pendingUpdate = executor.schedule(new Runnable() {
+					@Override
+					public void run() {
+						flush();
+					}
+				}, batchDelay, TimeUnit.MILLISECONDS);
+				return;
 			}
 		}
-		SpotCollection sc = SpotCollection.fromCollection(spots);
-		
-		// Build edge list
-		ArrayList<DefaultWeightedEdge> edges = new ArrayList<DefaultWeightedEdge>(event.getEdges().size());
-		for (DefaultWeightedEdge edge : event.getEdges()) {
-			if (event.getEdgeFlag(edge) != ModelChangeEvent.FLAG_EDGE_REMOVED) {
-				edges.add(edge);
+
+		flush();
+	}
+
+	/**
+	 * Updates now the features of the spots, edges and tracks marked as dirty
+	 * since the last update, then fires a
+	 * {@link ModelChangeEvent#FEATURES_COMPUTED} event. When updates are
+	 * batched, the event is fired later on the event dispatch thread.
+	 */
+	public void flush() {
+		/*
+		 * Edits go through the synchronized methods of the model. Holding its
+		 * lock while recomputing keeps them out, so that the calculators do
+		 * not walk the graph while it is changed on the event dispatch thread.
+		 * The model lock is taken first, in the same order as when the model
+		 * notifies this listener.
+		 */
+		synchronized (model) {
+			final ArrayList<Spot> spots;
+			final ArrayList<DefaultWeightedEdge> edges;
+			final Set<Integer> trackIDs;
+			synchronized (this) {
+				if (dirtySpots.isEmpty() && dirtyEdges.isEmpty() && dirtyTracks.isEmpty()) {
+					return;
+				}
+				spots = new ArrayList<Spot>(dirtySpots);
+				edges = new ArrayList<DefaultWeightedEdge>(dirtyEdges);
+				trackIDs = new HashSet<Integer>(dirtyTracks);
+				dirtySpots.clear();
+				dirtyEdges.clear();
+				dirtyTracks.clear();
+			}
+
+			// Discard the edges and tracks that disappeared since they were marked
+			final TrackModel trackModel = model.getTrackModel();
+			for (Iterator<DefaultWeightedEdge> it = edges.iterator(); it.hasNext();) {
+				if (!trackModel.edgeSet().contains(it.next())) {
+					it.remove();
+				}
+			}
+			trackIDs.retainAll(trackModel.trackIDs(false));
+
+			// Update spot features
+			if (!spots.isEmpty()) {
+				SpotCollection sc = SpotCollection.fromCollection(spots);
+				spotFeatureCalculator.computeSpotFeatures(sc, false);
+			}
+
+			// Update edge features
+			if (!edges.isEmpty()) {
+				edgeFeatureCalculator.computeSpotFeatures(edges, false);
+			}
+
+			// Update track features
+			if (!trackIDs.isEmpty()) {
+				trackFeatureCalculator.computeTrackFeatures(trackIDs, false);
 			}
 		}
 
-		// Update spot features
-		spotFeatureCalculator.computeSpotFeatures(sc, false);
-		
-		// Update edge features
-		edgeFeatureCalculator.computeSpotFeatures(edges, false);
-		
-		// Update track features
-		trackFeatureCalculator.computeTrackFeatures(event.getTrackUpdated(), false);
+		if (null == executor) {
+			model.notifyFeaturesComputed();
+		} else {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					model.notifyFeaturesComputed();
+				}
+			});
+		}
 	}
-	
+
 	/**
 	 * Re-registers this instance from the listeners of the model, and stop
-	 * updating its features.
+	 * updating its features. Pending changes are discarded.
 	 */
 	public void quit() {
 		model.removeModelChangeListener(this);
+		synchronized (this) {
+			if (null != executor) {
+				executor.shutdownNow();
+			}
+			dirtySpots.clear();
+			dirtyEdges.clear();
+			dirtyTracks.clear();
+		}
 	}
 
 }
@@ -13,8 +13,10 @@
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.features.spot.IndependentSpotFeatureAnalyzer;
 import fiji.plugin.trackmate.features.spot.SpotAnalyzer;
 import fiji.plugin.trackmate.features.spot.SpotAnalyzerFactory;
 
@@ -27,8 +29,11 @@
 public class SpotFeatureCalculator extends MultiThreadedBenchmarkAlgorithm {
 
 	private static final String BASE_ERROR_MSG = "[SpotFeatureCalculator] ";
+	/** The default maximal number of spots processed in one task. */
+	public static final int DEFAULT_CHUNK_SIZE = 64;
 	private final Settings settings;
 	private final Model model;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
 
 	public SpotFeatureCalculator(final Model model, final Settings settings) {
 		this.settings = settings;
@@ -92,9 +97,36 @@ public void computeSpotFeatures(final SpotCollection toCompute, boolean doLogIt)
 		computeSpotFeaturesAgent(toCompute, spotFeatureAnalyzers, doLogIt);
 	}
 
+	/**
+	 * Sets the maximal number of spots processed in one task. The spots of a
+	 * frame are split in chunks of this size, and the chunks of all frames are
+	 * distributed to the threads as they become free, so that the work is
+	 * balanced even when frames have very different numbers of spots. If
+	 * <code>0</code> or negative, each frame is processed as a single task.
+	 * 
+	 * @param chunkSize the maximal number of spots per task.
+	 */
+	public void setChunkSize(final int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Returns the maximal number of spots processed in one task.
+	 * 
+	 * @see #setChunkSize(int)
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
 	/**
 	 * The method in charge of computing spot features with the given {@link SpotAnalyzer}s, for the
 	 * given {@link SpotCollection}.
+	 * <p>
+	 * Analyzers that derive from {@link IndependentSpotFeatureAnalyzer} are
+	 * fed the spots of each chunk directly, and are reused by a thread for all
+	 * the chunks of a frame it processes. Other analyzers operate on a whole
+	 * frame, and are run with the first chunk of this frame.
 	 * @param toCompute
 	 * @param analyzers
 	 */
@@ -112,9 +144,24 @@ private void computeSpotFeaturesAgent(final SpotCollection toCompute, final List
 		if (settings.imp == null)
 			return;
 		
-		// Do it.
-		final List<Integer> frameSet = new ArrayList<Integer>(toCompute.keySet());
-		final int numFrames = frameSet.size();
+		// Split the work in tasks.
+		final List<SpotTask> tasks = new ArrayList<SpotTask>();
+		for (final Integer frame : toCompute.keySet()) {
+			final List<Spot> spots = new ArrayList<Spot>(toCompute.getNSpots(frame, false));
+			for (final Spot spot : toCompute.iterable(frame, false)) {
+				spots.add(spot);
+			}
+			if (spots.isEmpty()) {
+				continue;
+			}
+			final int step = chunkSize > 0 ? chunkSize : spots.size();
+			for (int from = 0; from < spots.size(); from += step) {
+				final int to = Math.min(spots.size(), from + step);
+				tasks.add(new SpotTask(frame, spots.subList(from, to), from == 0));
+			}
+		}
+		final int nTasks = tasks.size();
+		final int nSpots = toCompute.getNSpots(false);
 
 		final AtomicInteger ai = new AtomicInteger(0);
 		final AtomicInteger progress = new AtomicInteger(0);
@@ -136,22 +183,41 @@ private void computeSpotFeaturesAgent(final SpotCollection toCompute, final List
 
 			threads[ithread] = new Thread("TrackMate spot feature calculating thread " + (1 + ithread) + "/" + threads.length) {
 
+				@Override
 				public void run() {
 
-					for (int index = ai.getAndIncrement(); index < numFrames; index = ai.getAndIncrement()) {
+					// Analyzers of the frame this thread last worked on
+					int currentFrame = -1;
+					final List<SpotAnalyzer<?>> analyzers = new ArrayList<SpotAnalyzer<?>>(analyzerFactories.size());
 
-						int frame = frameSet.get(index);
-						for (SpotAnalyzerFactory<?> factory : analyzerFactories) {
-							SpotAnalyzer<?> analyzer = factory.getAnalyzer(frame, targetChannel);
-							analyzer.process();
+					for (int index = ai.getAndIncrement(); index < nTasks; index = ai.getAndIncrement()) {
+
+						final SpotTask task = tasks.get(index);
+						if (task.frame != currentFrame) {
+							analyzers.clear();
+							for (SpotAnalyzerFactory<?> factory : analyzerFactories) {
+								analyzers.add(factory.getAnalyzer(task.frame, targetChannel));
+							}
+							currentFrame = task.frame;
+						}
+
+						for (final SpotAnalyzer<?> analyzer : analyzers) {
+							if (analyzer instanceof IndependentSpotFeatureAnalyzer) {
+								final IndependentSpotFeatureAnalyzer<?> independentAnalyzer = (IndependentSpotFeatureAnalyzer<?>) analyzer;
+								for (final Spot spot : task.spots) {
+									independentAnalyzer.process(spot);
+								}
+							} else if (task.firstOfFrame) {
+								analyzer.process();
+							}
 						}
 
-						logger.setProgress(progress.incrementAndGet() / (float) numFrames);
-					} // Finished looping over frames
+						logger.setProgress(progress.addAndGet(task.spots.size()) / (float) nSpots);
+					} // Finished looping over tasks
 				}
 			};
 		}
-		logger.setStatus("Calculating " + toCompute.getNSpots(false) + " spots features...");
+		logger.setStatus("Calculating " + nSpots + " spots features...");
 		logger.setProgress(0);
 
 		SimpleMultiThreading.startAndJoin(threads);
@@ -160,4 +226,25 @@ public void run() {
 		logger.setStatus("");
 	}
 
+	/*
+	 * INNER CLASS
+	 */
+
+	/**
+	 * A chunk of the spots of one frame.
+	 */
+	private static final class SpotTask {
+
+		private final int frame;
+		private final List<Spot> spots;
+		/** Whether this is the first chunk of its frame. */
+		private final boolean firstOfFrame;
+
+		private SpotTask(final int frame, final List<Spot> spots, final boolean firstOfFrame) {
+			this.frame = frame;
+			this.spots = spots;
+			this.firstOfFrame = firstOfFrame;
+		}
+	}
+
 }
@@ -5,20 +5,29 @@
 import net.imglib2.meta.ImgPlus;
 import net.imglib2.type.numeric.RealType;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.TMUtils;
 
 public abstract class IndependentSpotFeatureAnalyzer<T extends RealType<T>> implements SpotAnalyzer<T> {
 
 	protected final ImgPlus<T> img;
 	protected final Iterator<Spot> spots;
+	/** The spatial calibration of the image, computed once for all the spots. */
+	protected final double[] calibration;
 	protected String errorMessage;
 	private long processingTime;
 
 	public IndependentSpotFeatureAnalyzer(final ImgPlus<T> img, final Iterator<Spot> spots) {
 		this.img = img;
 		this.spots = spots;
+		this.calibration = TMUtils.getSpatialCalibration(img);
 	}
 	
 	
+	/**
+	 * Computes the features of the specified spot. Since an analyzer may
+	 * reuse buffers between calls, this method must not be called concurrently
+	 * on the same instance.
+	 */
 	public abstract void process(final Spot spot);
 
 	@Override
@@ -31,7 +31,7 @@ public final void process(final Spot spot) {
 	 */
 	private final double getContrast(final Spot spot) {
 
-		final SpotNeighborhood<T> neighborhood = new SpotNeighborhood<T>(spot, img);
+		final SpotNeighborhood<T> neighborhood = new SpotNeighborhood<T>(spot, img, calibration);
 		
 		final double radius = spot.getFeature(Spot.RADIUS);
 		long innerRingVolume = 0;
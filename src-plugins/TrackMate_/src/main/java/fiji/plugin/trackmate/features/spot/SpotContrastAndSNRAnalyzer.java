@@ -59,7 +59,7 @@ public final void process(final Spot spot) {
 	 */
 	private final double[] getContrastAndSNR(final Spot spot) {
 		
-		SpotNeighborhood<T> neighborhood = new SpotNeighborhood<T>(spot, img);
+		SpotNeighborhood<T> neighborhood = new SpotNeighborhood<T>(spot, img, calibration);
 
 		final double radius = spot.getFeature(Spot.RADIUS);
 		double radius2 = radius * radius;
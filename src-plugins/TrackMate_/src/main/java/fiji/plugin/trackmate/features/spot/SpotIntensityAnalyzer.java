@@ -20,6 +20,9 @@
 
 public class SpotIntensityAnalyzer<T extends RealType<T>> extends IndependentSpotFeatureAnalyzer<T> {
 
+	/** Pixel values of the current spot, reused and grown between spots. */
+	private double[] pixel_values = new double[0];
+
 	public SpotIntensityAnalyzer(ImgPlus<T> img, Iterator<Spot> spots) {
 		super(img, spots);
 	}
@@ -37,7 +40,7 @@ public SpotIntensityAnalyzer(ImgPlus<T> img, Iterator<Spot> spots) {
 	public final void process(Spot spot) {
 
 		// Prepare neighborhood
-		SpotNeighborhood<T> neighborhood = new SpotNeighborhood<T>(spot, img);
+		SpotNeighborhood<T> neighborhood = new SpotNeighborhood<T>(spot, img, calibration);
 		final int npixels = (int) neighborhood.size();
 
 		// For variance, kurtosis and skewness 
@@ -53,7 +56,9 @@ public final void process(Spot spot) {
 		
 	    // Others
 		double val;
-		final double[] pixel_values = new double[npixels];
+		if (pixel_values.length < npixels) {
+			pixel_values = new double[npixels];
+		}
 		int n = 0;
 		
 		for ( T pixel : neighborhood ) {
@@ -88,7 +88,7 @@ public final void process(final Spot spot) {
 		if (img.numDimensions() == 3) {
 
 			// 3D case
-			final SpotNeighborhood<T> neighborhood = new SpotNeighborhood<T>(spot, img);
+			final SpotNeighborhood<T> neighborhood = new SpotNeighborhood<T>(spot, img, calibration);
 			final SpotNeighborhoodCursor<T> cursor = neighborhood.cursor();
 			
 			double x, y, z;
@@ -175,7 +175,7 @@ public final void process(final Spot spot) {
 		} else if (img.numDimensions() == 2) {
 			
 			// 2D case
-			final SpotNeighborhood<T> neighborhood = new SpotNeighborhood<T>(spot, img);
+			final SpotNeighborhood<T> neighborhood = new SpotNeighborhood<T>(spot, img, calibration);
 			final SpotNeighborhoodCursor<T> cursor = neighborhood.cursor();
 			double x, y;
 			double x2, y2;
@@ -56,7 +56,7 @@ public final void process(final Spot spot) {
 		Spot tmpSpot = new Spot(coords);
 		tmpSpot.putFeature(Spot.RADIUS, diameters[nDiameters-1]/2);
 
-		SpotNeighborhood<T> neighborhood = new SpotNeighborhood<T>(tmpSpot , img);
+		SpotNeighborhood<T> neighborhood = new SpotNeighborhood<T>(tmpSpot, img, calibration);
 		SpotNeighborhoodCursor<T> cursor = neighborhood.cursor();
 		double d2, val;
 		int i;
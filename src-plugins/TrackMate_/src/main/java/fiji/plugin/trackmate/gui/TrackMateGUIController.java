@@ -164,7 +164,7 @@ public TrackMateGUIController(final TrackMate trackmate) {
 		this.logger = gui.getLogger();
 
 		// Feature updater
-		new ModelFeatureUpdater(trackmate.getModel(), trackmate.getSettings());
+		new ModelFeatureUpdater(trackmate.getModel(), trackmate.getSettings(), ModelFeatureUpdater.DEFAULT_BATCH_DELAY);
 
 		// Feature colorers
 		this.spotColorGenerator = createSpotColorGenerator();
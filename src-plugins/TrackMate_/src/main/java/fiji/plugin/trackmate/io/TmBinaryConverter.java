@@ -0,0 +1,62 @@
+package fiji.plugin.trackmate.io;
+
+import java.io.File;
+import java.io.IOException;
+
+import fiji.plugin.trackmate.Model;
+
+/**
+ * Static utilities to convert the model of a TrackMate XML file to the binary
+ * format of {@link TmBinaryWriter}, and back.
+ * <p>
+ * Only the model is converted: the settings, log and GUI state of an XML file
+ * have no equivalent in the binary format.
+ */
+public class TmBinaryConverter {
+
+	private TmBinaryConverter() {}
+
+	/**
+	 * Reads the model of the specified XML file with {@link TmXmlReader}, and
+	 * writes it to the specified binary file.
+	 *
+	 * @throws IOException
+	 *             if the XML file does not contain a valid model, or if the
+	 *             binary file cannot be written.
+	 */
+	public static void xmlToBinary(final File xmlFile, final File binaryFile) throws IOException {
+		final TmXmlReader reader = new TmXmlReader(xmlFile);
+		if (!reader.isReadingOk()) {
+			throw new IOException(reader.getErrorMessage());
+		}
+		final Model model = reader.getModel();
+		if (null == model || !reader.isReadingOk()) {
+			throw new IOException("Could not read a model from " + xmlFile.getName() + ".\n" + reader.getErrorMessage());
+		}
+		new TmBinaryWriter(binaryFile).write(model);
+	}
+
+	/**
+	 * Reads the model of the specified binary file with {@link TmBinaryReader},
+	 * and writes it to the specified XML file with {@link TmXmlWriter}.
+	 *
+	 * @throws IOException
+	 *             if the binary file cannot be read, or if the XML file cannot
+	 *             be written.
+	 */
+	public static void binaryToXml(final File binaryFile, final File xmlFile) throws IOException {
+		final TmBinaryReader reader = new TmBinaryReader(binaryFile);
+		final Model model;
+		try {
+			model = reader.getModel();
+		} finally {
+			reader.close();
+		}
+		if (null == model || !reader.isReadingOk()) {
+			throw new IOException("Could not read a model from " + binaryFile.getName() + ".\n" + reader.getErrorMessage());
+		}
+		final TmXmlWriter writer = new TmXmlWriter(xmlFile);
+		writer.appendModel(model);
+		writer.writeToFile();
+	}
+}
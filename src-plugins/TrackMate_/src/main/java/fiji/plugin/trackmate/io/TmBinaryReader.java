@@ -0,0 +1,491 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmBinaryWriter.FORMAT_VERSION;
+import static fiji.plugin.trackmate.io.TmBinaryWriter.HEADER_SIZE;
+import static fiji.plugin.trackmate.io.TmBinaryWriter.MAGIC;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Logger.StringBuilderLogger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+
+/**
+ * Reads the binary files written by {@link TmBinaryWriter}.
+ * <p>
+ * Opening a file only reads its header and its index, whose size depends on
+ * the number of frames and features, not on the number of spots. The spots of
+ * a frame are only read when they are requested with {@link #getSpots(int)}:
+ * the frame block is then memory-mapped and decoded. {@link #getModel()}
+ * reads all the frames, the edges and the tracks.
+ * <p>
+ * Instances hold the file open until {@link #close()} is called.
+ */
+public class TmBinaryReader {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	protected final File file;
+	protected StringBuilderLogger logger = new StringBuilderLogger();
+	/** If <code>false</code>, an error occured during reading.
+	 * @see #getErrorMessage(). */
+	protected boolean ok = true;
+
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private String version;
+	private String spaceUnits;
+	private String timeUnits;
+	private final FeatureDeclarations spotFeatures = new FeatureDeclarations();
+	private final FeatureDeclarations edgeFeatures = new FeatureDeclarations();
+	private final FeatureDeclarations trackFeatures = new FeatureDeclarations();
+	/** The spot blocks, indexed by frame. */
+	private final TreeMap<Integer, Block> frames = new TreeMap<Integer, Block>();
+	private Block edgeBlock;
+	private Block trackBlock;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Opens the specified file and reads its index. If this fails,
+	 * {@link #isReadingOk()} returns <code>false</code> and the file is closed.
+	 */
+	public TmBinaryReader(final File file) {
+		this.file = file;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			channel = raf.getChannel();
+			readIndex();
+		} catch (final IOException e) {
+			logger.error("Problem reading " + file.getName() + ".\nError message is:\n" + e.getLocalizedMessage() + '\n');
+			ok = false;
+		} catch (final RuntimeException e) {
+			logger.error("Problem reading " + file.getName() + ", it is not a valid TrackMate binary file.\nError message is:\n"
+					+ e.getLocalizedMessage() + '\n');
+			ok = false;
+		}
+		if (!ok) {
+			close();
+		}
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Returns the version string stored in the file, or <code>null</code> if
+	 * the file could not be opened.
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the frames that have spots in the file.
+	 */
+	public NavigableSet<Integer> getFrames() {
+		return new TreeSet<Integer>(frames.keySet());
+	}
+
+	/**
+	 * Returns the number of spots stored in the file for the specified frame.
+	 */
+	public int getNSpots(final int frame) {
+		final Block block = frames.get(frame);
+		return null == block ? 0 : block.nItems;
+	}
+
+	/**
+	 * Returns the total number of spots stored in the file.
+	 */
+	public int getNSpots() {
+		int nSpots = 0;
+		for (final Block block : frames.values()) {
+			nSpots += block.nItems;
+		}
+		return nSpots;
+	}
+
+	/**
+	 * Reads the spots of the specified frame. Each call creates new spot
+	 * objects. Returns an empty set if there is no spot in this frame, and
+	 * <code>null</code> if the spots could not be read.
+	 */
+	public Set<Spot> getSpots(final int frame) {
+		final Block block = frames.get(frame);
+		if (null == block) {
+			return new HashSet<Spot>(0);
+		}
+		try {
+			return readSpots(map(block));
+		} catch (final IOException e) {
+			logger.error("Problem reading spots of frame " + frame + " in " + file.getName() + ".\nError message is:\n"
+					+ e.getLocalizedMessage() + '\n');
+			ok = false;
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the model saved in the file, or <code>null</code> if it cannot
+	 * be read.
+	 * @return a new {@link Model}.
+	 */
+	public Model getModel() {
+		if (null == channel) {
+			return null;
+		}
+		final Model model = new Model();
+		model.setPhysicalUnits(spaceUnits, timeUnits);
+
+		final FeatureModel fm = model.getFeatureModel();
+		fm.declareSpotFeatures(spotFeatures.features, spotFeatures.names, spotFeatures.shortNames, spotFeatures.dimensions);
+		fm.declareEdgeFeatures(edgeFeatures.features, edgeFeatures.names, edgeFeatures.shortNames, edgeFeatures.dimensions);
+		fm.declareTrackFeatures(trackFeatures.features, trackFeatures.names, trackFeatures.shortNames, trackFeatures.dimensions);
+
+		try {
+			// Spots
+			final Map<Integer, Set<Spot>> content = new HashMap<Integer, Set<Spot>>(frames.size());
+			final Map<Integer, Spot> cache = new HashMap<Integer, Spot>(getNSpots());
+			for (final Integer frame : frames.keySet()) {
+				final Set<Spot> spots = readSpots(map(frames.get(frame)));
+				for (final Spot spot : spots) {
+					cache.put(spot.ID(), spot);
+				}
+				content.put(frame, spots);
+			}
+			model.setSpots(SpotCollection.fromMap(content), false);
+
+			// Edges
+			final SimpleWeightedGraph<Spot, DefaultWeightedEdge> graph = new SimpleWeightedGraph<Spot, DefaultWeightedEdge>(DefaultWeightedEdge.class);
+			final Map<Integer, Set<Spot>> trackSpots = new HashMap<Integer, Set<Spot>>();
+			final Map<Integer, Set<DefaultWeightedEdge>> trackEdges = new HashMap<Integer, Set<DefaultWeightedEdge>>();
+			readEdges(map(edgeBlock), fm, cache, graph, trackSpots, trackEdges);
+
+			// Tracks
+			final Map<Integer, String> trackNames = new HashMap<Integer, String>();
+			final Map<Integer, Boolean> trackVisibility = new HashMap<Integer, Boolean>();
+			final Map<Integer, Map<String, Double>> features = readTracks(map(trackBlock), trackNames, trackVisibility);
+			for (final Integer trackID : trackEdges.keySet()) {
+				if (!trackNames.containsKey(trackID)) {
+					logger.error("Missing track " + trackID + " in file.\n");
+					ok = false;
+					trackNames.put(trackID, "Unnamed");
+					trackVisibility.put(trackID, Boolean.TRUE);
+				}
+			}
+			model.getTrackModel().from(graph, trackSpots, trackEdges, trackVisibility, trackNames);
+			for (final Integer trackID : features.keySet()) {
+				final Map<String, Double> trackFeatureValues = features.get(trackID);
+				for (final String feature : trackFeatureValues.keySet()) {
+					fm.putTrackFeature(trackID, feature, trackFeatureValues.get(feature));
+				}
+			}
+
+		} catch (final IOException e) {
+			logger.error("Problem reading " + file.getName() + ".\nError message is:\n" + e.getLocalizedMessage() + '\n');
+			ok = false;
+			return null;
+		}
+
+		return model;
+	}
+
+	/**
+	 * Closes the file. Spots cannot be read after this call.
+	 */
+	public void close() {
+		if (null == raf) {
+			return;
+		}
+		try {
+			raf.close();
+		} catch (final IOException e) {
+			e.printStackTrace();
+		}
+		raf = null;
+		channel = null;
+	}
+
+	/**
+	 * Returns an explanatory message about the last unsuccessful read attempt.
+	 * @return an error message.
+	 * @see #isReadingOk()
+	 */
+	public String getErrorMessage() {
+		return logger.toString();
+	}
+
+	/**
+	 * Returns <code>true</code> if the last reading method call happened
+	 * without any warning or error, <code>false</code> otherwise.
+	 * @return <code>true</code> if reading was ok.
+	 * @see #getErrorMessage()
+	 */
+	public boolean isReadingOk() {
+		return ok;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void readIndex() throws IOException {
+		final long size = channel.size();
+		if (size < HEADER_SIZE) {
+			throw new IOException("File is too short to be a TrackMate binary file.");
+		}
+		final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+		if (header.getInt() != MAGIC) {
+			throw new IOException("File is not a TrackMate binary file.");
+		}
+		final int formatVersion = header.getInt();
+		if (formatVersion != FORMAT_VERSION) {
+			throw new IOException("Unsupported binary format version: " + formatVersion + ".");
+		}
+		final long indexOffset = header.getLong();
+		if (indexOffset < HEADER_SIZE || indexOffset >= size) {
+			throw new IOException("Invalid index offset: " + indexOffset + ".");
+		}
+
+		final ByteBuffer index = map(new Block(0, indexOffset, size - indexOffset));
+		version = readString(index);
+		spaceUnits = readString(index);
+		timeUnits = readString(index);
+		readFeatureDeclarations(index, spotFeatures);
+		readFeatureDeclarations(index, edgeFeatures);
+		readFeatureDeclarations(index, trackFeatures);
+
+		final int nFrames = index.getInt();
+		for (int i = 0; i < nFrames; i++) {
+			final int frame = index.getInt();
+			final int nSpots = index.getInt();
+			frames.put(frame, new Block(nSpots, index.getLong(), index.getLong()));
+		}
+		edgeBlock = new Block(0, index.getLong(), index.getLong());
+		trackBlock = new Block(0, index.getLong(), index.getLong());
+	}
+
+	private Set<Spot> readSpots(final ByteBuffer buffer) {
+		final int nSpots = buffer.getInt();
+		final Spot[] spots = new Spot[nSpots];
+		for (int i = 0; i < nSpots; i++) {
+			spots[i] = new Spot(buffer.getInt());
+		}
+		for (int i = 0; i < nSpots; i++) {
+			final String name = readString(buffer);
+			spots[i].setName(name.length() == 0 ? "ID" + spots[i].ID() : name);
+		}
+
+		final int nFeatures = buffer.getInt();
+		final boolean[] present = new boolean[nSpots];
+		final double[] values = new double[nSpots];
+		for (int f = 0; f < nFeatures; f++) {
+			final String feature = readColumn(buffer, present, values);
+			for (int i = 0; i < nSpots; i++) {
+				if (present[i]) {
+					spots[i].putFeature(feature, Double.valueOf(values[i]));
+				}
+			}
+		}
+
+		final Set<Spot> set = new HashSet<Spot>(2 * nSpots);
+		Collections.addAll(set, spots);
+		return set;
+	}
+
+	private void readEdges(final ByteBuffer buffer, final FeatureModel fm, final Map<Integer, Spot> cache, final SimpleWeightedGraph<Spot, DefaultWeightedEdge> graph,
+			final Map<Integer, Set<Spot>> trackSpots, final Map<Integer, Set<DefaultWeightedEdge>> trackEdges) {
+		final int nEdges = buffer.getInt();
+		final int[] sources = readInts(buffer, nEdges);
+		final int[] targets = readInts(buffer, nEdges);
+		final double[] weights = readDoubles(buffer, nEdges);
+		final int[] trackIDs = readInts(buffer, nEdges);
+
+		final DefaultWeightedEdge[] edges = new DefaultWeightedEdge[nEdges];
+		for (int i = 0; i < nEdges; i++) {
+			final Spot source = cache.get(sources[i]);
+			final Spot target = cache.get(targets[i]);
+			if (null == source || null == target) {
+				logger.error("Unknown spot ID: " + (null == source ? sources[i] : targets[i]) + "\n");
+				ok = false;
+				continue;
+			}
+			graph.addVertex(source);
+			graph.addVertex(target);
+			final DefaultWeightedEdge edge = graph.addEdge(source, target);
+			if (null == edge) {
+				logger.error("Bad edge found between spots " + sources[i] + " and " + targets[i] + "\n");
+				ok = false;
+				continue;
+			}
+			graph.setEdgeWeight(edge, weights[i]);
+			edges[i] = edge;
+
+			Set<Spot> spots = trackSpots.get(trackIDs[i]);
+			if (null == spots) {
+				spots = new HashSet<Spot>();
+				trackSpots.put(trackIDs[i], spots);
+				trackEdges.put(trackIDs[i], new HashSet<DefaultWeightedEdge>());
+			}
+			spots.add(source);
+			spots.add(target);
+			trackEdges.get(trackIDs[i]).add(edge);
+		}
+
+		final int nFeatures = buffer.getInt();
+		final boolean[] present = new boolean[nEdges];
+		final double[] values = new double[nEdges];
+		for (int f = 0; f < nFeatures; f++) {
+			final String feature = readColumn(buffer, present, values);
+			for (int i = 0; i < nEdges; i++) {
+				if (present[i] && null != edges[i]) {
+					fm.putEdgeFeature(edges[i], feature, Double.valueOf(values[i]));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the track names and visibility in the specified maps, and returns
+	 * the track features, indexed by track ID.
+	 */
+	private Map<Integer, Map<String, Double>> readTracks(final ByteBuffer buffer, final Map<Integer, String> trackNames, final Map<Integer, Boolean> trackVisibility) {
+		final int nTracks = buffer.getInt();
+		final int[] trackIDs = new int[nTracks];
+		final Map<Integer, Map<String, Double>> features = new HashMap<Integer, Map<String, Double>>(nTracks);
+		for (int i = 0; i < nTracks; i++) {
+			trackIDs[i] = buffer.getInt();
+			trackNames.put(trackIDs[i], readString(buffer));
+			trackVisibility.put(trackIDs[i], Boolean.valueOf(buffer.get() != 0));
+			features.put(trackIDs[i], new HashMap<String, Double>());
+		}
+
+		final int nFeatures = buffer.getInt();
+		final boolean[] present = new boolean[nTracks];
+		final double[] values = new double[nTracks];
+		for (int f = 0; f < nFeatures; f++) {
+			final String feature = readColumn(buffer, present, values);
+			for (int i = 0; i < nTracks; i++) {
+				if (present[i]) {
+					features.get(trackIDs[i]).put(feature, Double.valueOf(values[i]));
+				}
+			}
+		}
+		return features;
+	}
+
+	/**
+	 * Maps the specified block of the file in memory.
+	 */
+	private ByteBuffer map(final Block block) throws IOException {
+		if (null == channel) {
+			throw new IOException("File is closed.");
+		}
+		if (block.length > Integer.MAX_VALUE) {
+			throw new IOException("Cannot map a block larger than 2 GB.");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, block.offset, block.length);
+	}
+
+	/*
+	 * STATIC METHODS
+	 */
+
+	/**
+	 * Reads a feature column in the specified arrays, and returns the feature
+	 * key.
+	 */
+	private static String readColumn(final ByteBuffer buffer, final boolean[] present, final double[] values) {
+		final String feature = readString(buffer);
+		final boolean dense = buffer.get() != 0;
+		for (int i = 0; i < present.length; i++) {
+			present[i] = dense || buffer.get() != 0;
+		}
+		buffer.asDoubleBuffer().get(values);
+		buffer.position(buffer.position() + 8 * values.length);
+		return feature;
+	}
+
+	private static void readFeatureDeclarations(final ByteBuffer buffer, final FeatureDeclarations declarations) {
+		final int nFeatures = buffer.getInt();
+		for (int i = 0; i < nFeatures; i++) {
+			final String feature = readString(buffer);
+			declarations.features.add(feature);
+			declarations.names.put(feature, readString(buffer));
+			declarations.shortNames.put(feature, readString(buffer));
+			declarations.dimensions.put(feature, Dimension.valueOf(readString(buffer)));
+		}
+	}
+
+	private static int[] readInts(final ByteBuffer buffer, final int n) {
+		final int[] values = new int[n];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + 4 * n);
+		return values;
+	}
+
+	private static double[] readDoubles(final ByteBuffer buffer, final int n) {
+		final double[] values = new double[n];
+		buffer.asDoubleBuffer().get(values);
+		buffer.position(buffer.position() + 8 * n);
+		return values;
+	}
+
+	private static String readString(final ByteBuffer buffer) {
+		final byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * The position and size of a block of the file.
+	 */
+	private static final class Block {
+		/** The number of objects stored in the block, when relevant. */
+		private final int nItems;
+		private final long offset;
+		private final long length;
+
+		private Block(final int nItems, final long offset, final long length) {
+			this.nItems = nItems;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	private static final class FeatureDeclarations {
+		private final Collection<String> features = new ArrayList<String>();
+		private final Map<String, String> names = new HashMap<String, String>();
+		private final Map<String, String> shortNames = new HashMap<String, String>();
+		private final Map<String, Dimension> dimensions = new HashMap<String, Dimension>();
+	}
+}
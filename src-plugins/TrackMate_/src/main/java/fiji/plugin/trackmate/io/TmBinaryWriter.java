@@ -0,0 +1,311 @@
+package fiji.plugin.trackmate.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.TrackModel;
+
+/**
+ * Writes a {@link Model} to a binary file that can be opened by
+ * {@link TmBinaryReader}.
+ * <p>
+ * The file is laid out so that it can be opened without reading the spots:
+ * <ol>
+ * <li>A 16 bytes header: the magic number {@link #MAGIC}, the format version
+ * and the offset of the index.
+ * <li>One block per frame, in which the spots are stored column-wise: their
+ * IDs, their names, then one column of <code>double</code> per feature.
+ * <li>One block for the edges: source IDs, target IDs, weights and track IDs,
+ * then one column per edge feature.
+ * <li>One block for the tracks: ID, name and visibility of each track, then
+ * one column per track feature.
+ * <li>The index: the physical units, the feature declarations, and the
+ * position and size of every block above.
+ * </ol>
+ * A feature column is written with a presence mask when some of the objects
+ * do not have a value for this feature, so that missing values and
+ * {@link Double#NaN} values are told apart. All values are big-endian.
+ */
+public class TmBinaryWriter {
+
+	/** The first 4 bytes of a TrackMate binary file. */
+	public static final int MAGIC = 0x544d4244; // "TMBD"
+	/** The version of the binary format written by this class. */
+	public static final int FORMAT_VERSION = 1;
+	/** The header size, in bytes: magic number, format version and index offset. */
+	static final int HEADER_SIZE = 16;
+
+	private final File file;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Creates a new binary file writer for TrackMate.
+	 *
+	 * @param file the file to write to, will be overwritten.
+	 */
+	public TmBinaryWriter(final File file) {
+		this.file = file;
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Writes the specified model to the file.
+	 */
+	public void write(final Model model) throws IOException {
+		final CountingOutputStream cos = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		final DataOutputStream out = new DataOutputStream(cos);
+		final long indexOffset;
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(0l); // index offset, set when it is known
+
+			final SpotCollection spots = model.getSpots();
+			final List<Integer> frames = new ArrayList<Integer>(spots.keySet());
+			final long[] frameOffsets = new long[frames.size()];
+			final long[] frameLengths = new long[frames.size()];
+			final int[] frameNSpots = new int[frames.size()];
+			for (int i = 0; i < frames.size(); i++) {
+				final List<Spot> frameSpots = new ArrayList<Spot>(spots.getNSpots(frames.get(i), false));
+				for (final Spot spot : spots.iterable(frames.get(i), false)) {
+					frameSpots.add(spot);
+				}
+				frameOffsets[i] = cos.count;
+				frameNSpots[i] = frameSpots.size();
+				writeSpots(out, frameSpots);
+				frameLengths[i] = cos.count - frameOffsets[i];
+			}
+
+			final long edgeOffset = cos.count;
+			writeEdges(out, model);
+			final long edgeLength = cos.count - edgeOffset;
+
+			final long trackOffset = cos.count;
+			writeTracks(out, model);
+			final long trackLength = cos.count - trackOffset;
+
+			/*
+			 * Index.
+			 */
+
+			indexOffset = cos.count;
+			writeString(out, fiji.plugin.trackmate.TrackMate.PLUGIN_NAME_VERSION);
+			writeString(out, model.getSpaceUnits());
+			writeString(out, model.getTimeUnits());
+
+			final FeatureModel fm = model.getFeatureModel();
+			writeFeatureDeclarations(out, fm.getSpotFeatures(), fm.getSpotFeatureNames(), fm.getSpotFeatureShortNames(), fm.getSpotFeatureDimensions());
+			writeFeatureDeclarations(out, fm.getEdgeFeatures(), fm.getEdgeFeatureNames(), fm.getEdgeFeatureShortNames(), fm.getEdgeFeatureDimensions());
+			writeFeatureDeclarations(out, fm.getTrackFeatures(), fm.getTrackFeatureNames(), fm.getTrackFeatureShortNames(), fm.getTrackFeatureDimensions());
+
+			out.writeInt(frames.size());
+			for (int i = 0; i < frames.size(); i++) {
+				out.writeInt(frames.get(i));
+				out.writeInt(frameNSpots[i]);
+				out.writeLong(frameOffsets[i]);
+				out.writeLong(frameLengths[i]);
+			}
+			out.writeLong(edgeOffset);
+			out.writeLong(edgeLength);
+			out.writeLong(trackOffset);
+			out.writeLong(trackLength);
+
+		} finally {
+			out.close();
+		}
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(HEADER_SIZE - 8);
+			raf.writeLong(indexOffset);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private static void writeSpots(final DataOutputStream out, final List<Spot> spots) throws IOException {
+		out.writeInt(spots.size());
+		for (final Spot spot : spots) {
+			out.writeInt(spot.ID());
+		}
+		for (final Spot spot : spots) {
+			// Default names are not stored
+			final String name = spot.getName();
+			writeString(out, (null == name || name.equals("ID" + spot.ID())) ? "" : name);
+		}
+
+		final Set<String> features = new LinkedHashSet<String>();
+		for (final Spot spot : spots) {
+			features.addAll(spot.getFeatures().keySet());
+		}
+		out.writeInt(features.size());
+		final Double[] column = new Double[spots.size()];
+		for (final String feature : features) {
+			for (int i = 0; i < column.length; i++) {
+				column[i] = spots.get(i).getFeature(feature);
+			}
+			writeColumn(out, feature, column);
+		}
+	}
+
+	private static void writeEdges(final DataOutputStream out, final Model model) throws IOException {
+		final TrackModel trackModel = model.getTrackModel();
+		final FeatureModel fm = model.getFeatureModel();
+		final List<DefaultWeightedEdge> edges = new ArrayList<DefaultWeightedEdge>(trackModel.edgeSet());
+
+		out.writeInt(edges.size());
+		for (final DefaultWeightedEdge edge : edges) {
+			out.writeInt(trackModel.getEdgeSource(edge).ID());
+		}
+		for (final DefaultWeightedEdge edge : edges) {
+			out.writeInt(trackModel.getEdgeTarget(edge).ID());
+		}
+		for (final DefaultWeightedEdge edge : edges) {
+			out.writeDouble(trackModel.getEdgeWeight(edge));
+		}
+		for (final DefaultWeightedEdge edge : edges) {
+			out.writeInt(trackModel.trackIDOf(edge).intValue());
+		}
+
+		final Collection<String> features = fm.getEdgeFeatures();
+		out.writeInt(features.size());
+		final Double[] column = new Double[edges.size()];
+		for (final String feature : features) {
+			for (int i = 0; i < column.length; i++) {
+				column[i] = fm.getEdgeFeature(edges.get(i), feature);
+			}
+			writeColumn(out, feature, column);
+		}
+	}
+
+	private static void writeTracks(final DataOutputStream out, final Model model) throws IOException {
+		final TrackModel trackModel = model.getTrackModel();
+		final FeatureModel fm = model.getFeatureModel();
+		final List<Integer> trackIDs = new ArrayList<Integer>(trackModel.trackIDs(false));
+
+		out.writeInt(trackIDs.size());
+		for (final Integer trackID : trackIDs) {
+			out.writeInt(trackID);
+			writeString(out, trackModel.name(trackID));
+			out.writeBoolean(trackModel.isVisible(trackID));
+		}
+
+		final Collection<String> features = fm.getTrackFeatures();
+		out.writeInt(features.size());
+		final Double[] column = new Double[trackIDs.size()];
+		for (final String feature : features) {
+			for (int i = 0; i < column.length; i++) {
+				column[i] = fm.getTrackFeature(trackIDs.get(i), feature);
+			}
+			writeColumn(out, feature, column);
+		}
+	}
+
+	/**
+	 * Writes a feature column: the feature key, a flag set if some values are
+	 * missing, followed by a presence mask in that case, then the values.
+	 * Missing values are written as {@link Double#NaN}.
+	 */
+	private static void writeColumn(final DataOutputStream out, final String feature, final Double[] column) throws IOException {
+		writeString(out, feature);
+		boolean dense = true;
+		for (final Double val : column) {
+			if (null == val) {
+				dense = false;
+				break;
+			}
+		}
+		out.writeBoolean(dense);
+		if (!dense) {
+			for (final Double val : column) {
+				out.writeBoolean(null != val);
+			}
+		}
+		for (final Double val : column) {
+			out.writeDouble(null == val ? Double.NaN : val.doubleValue());
+		}
+	}
+
+	private static void writeFeatureDeclarations(final DataOutputStream out, final Collection<String> features, final Map<String, String> featureNames,
+			final Map<String, String> featureShortNames, final Map<String, Dimension> featureDimensions) throws IOException {
+		out.writeInt(features.size());
+		for (final String feature : features) {
+			final String name = featureNames.get(feature);
+			final String shortName = featureShortNames.get(feature);
+			final Dimension dimension = featureDimensions.get(feature);
+			writeString(out, feature);
+			writeString(out, null == name ? feature : name);
+			writeString(out, null == shortName ? feature : shortName);
+			writeString(out, (null == dimension ? Dimension.NONE : dimension).name());
+		}
+	}
+
+	/**
+	 * Writes a string as its UTF-8 byte length followed by its bytes. Unlike
+	 * {@link DataOutputStream#writeUTF(String)}, there is no limit on the
+	 * string length.
+	 */
+	static void writeString(final DataOutputStream out, final String str) throws IOException {
+		final byte[] bytes = str.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/*
+	 * INNER CLASS
+	 */
+
+	/**
+	 * Counts the bytes written, so that block offsets can be recorded without
+	 * flushing the stream.
+	 */
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		private long count = 0;
+
+		private CountingOutputStream(final OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
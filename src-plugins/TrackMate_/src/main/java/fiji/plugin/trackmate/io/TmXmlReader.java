@@ -700,7 +700,7 @@ protected boolean readTracks(final Element modelElement, final Model model) {
 		final List<String> edgeIntFeatures = new ArrayList<String>();// TODO is there a better way?
 		edgeIntFeatures.add(EdgeTargetAnalyzer.SPOT_SOURCE_ID);
 		edgeIntFeatures.add(EdgeTargetAnalyzer.SPOT_TARGET_ID);
-		final Collection<String> edgeDoubleFeatures = fm.getEdgeFeatures();
+		final Collection<String> edgeDoubleFeatures = new ArrayList<String>(fm.getEdgeFeatures());
 		edgeDoubleFeatures.removeAll(edgeIntFeatures);
 
 		for (final Element trackElement : trackElements) {
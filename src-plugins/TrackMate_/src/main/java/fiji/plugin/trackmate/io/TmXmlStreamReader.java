@@ -0,0 +1,718 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmXmlKeys.EDGE_FEATURES_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_DECLARATIONS_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_DIMENSION_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_NAME_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_SHORT_NAME_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FILTERED_TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FRAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.LOG_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.MODEL_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.PLUGIN_VERSION_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPATIAL_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FEATURES_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FRAME_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_NAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TIME_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_FEATURES_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ID_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_NAME_ATTRIBUTE_NAME;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Logger.StringBuilderLogger;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+
+/**
+ * A reader for TrackMate XML files that parses the model with StAX, element by
+ * element, instead of building the whole JDOM document in memory like
+ * {@link TmXmlReader} does.
+ * <p>
+ * Only the model, the log and the version can be read with this class. Settings
+ * and GUI state are small, and must be read with {@link TmXmlReader}.
+ * <p>
+ * The model loaded can be restricted to a frame interval with
+ * {@link #setFrameInterval(int, int)}, and to the spots that belong to a track
+ * with {@link #setTracksOnly(boolean)}. When a frame interval is set, tracks
+ * are rebuilt from the edges whose both spots are in the interval: they get new
+ * IDs and default names, are all visible, and the track features stored in the
+ * file are not loaded since they do not apply to them anymore. Edge features
+ * are loaded in all cases.
+ */
+public class TmXmlStreamReader {
+
+	protected final File file;
+	protected StringBuilderLogger logger = new StringBuilderLogger();
+	/** If <code>false</code>, an error occured during reading.
+	 * @see #getErrorMessage(). */
+	protected boolean ok = true;
+
+	private int minFrame = Integer.MIN_VALUE;
+	private int maxFrame = Integer.MAX_VALUE;
+	private boolean tracksOnly = false;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Initialize this reader to read the file given in argument. Nothing is
+	 * read until one of the reading methods is called.
+	 */
+	public TmXmlStreamReader(final File file) {
+		this.file = file;
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Restricts the spots loaded by {@link #getModel()} to the ones in the
+	 * specified frame interval, bounds included.
+	 */
+	public void setFrameInterval(final int minFrame, final int maxFrame) {
+		this.minFrame = minFrame;
+		this.maxFrame = maxFrame;
+	}
+
+	/**
+	 * If <code>true</code>, {@link #getModel()} will only load the spots that
+	 * belong to a track. This requires reading the file twice.
+	 */
+	public void setTracksOnly(final boolean tracksOnly) {
+		this.tracksOnly = tracksOnly;
+	}
+
+	/**
+	 * Returns the model saved in the file, or <code>null</code> if a saved model
+	 * cannot be found in the xml file or if the file cannot be parsed.
+	 * @return a new {@link Model}.
+	 */
+	public Model getModel() {
+		Set<Integer> trackedSpotIDs = null;
+		if (tracksOnly) {
+			trackedSpotIDs = readTrackedSpotIDs();
+			if (null == trackedSpotIDs) {
+				return null;
+			}
+		}
+
+		InputStream is = null;
+		try {
+			is = new BufferedInputStream(new FileInputStream(file));
+			final XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+			try {
+				if (!moveToChild(reader, MODEL_ELEMENT_KEY)) {
+					return null;
+				}
+				return readModel(reader, trackedSpotIDs);
+			} finally {
+				reader.close();
+			}
+
+		} catch (final XMLStreamException e) {
+			logger.error("Problem parsing " + file.getName() + ", it is not a valid TrackMate XML file.\nError message is:\n"
+					+ e.getLocalizedMessage() + '\n');
+			ok = false;
+			return null;
+		} catch (final IOException e) {
+			logger.error("Problem reading " + file.getName() + ".\nError message is:\n" + e.getLocalizedMessage() + '\n');
+			ok = false;
+			return null;
+		} finally {
+			close(is);
+		}
+	}
+
+	/**
+	 * Returns  the log text saved in the file, or an empty string if log
+	 * text was not saved.
+	 */
+	public String getLog() {
+		InputStream is = null;
+		try {
+			is = new BufferedInputStream(new FileInputStream(file));
+			final XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+			try {
+				if (!moveToChild(reader, LOG_ELEMENT_KEY)) {
+					return "";
+				}
+				return reader.getElementText().trim();
+			} finally {
+				reader.close();
+			}
+
+		} catch (final XMLStreamException e) {
+			logger.error("Problem parsing " + file.getName() + ".\nError message is:\n" + e.getLocalizedMessage() + '\n');
+			ok = false;
+			return "";
+		} catch (final IOException e) {
+			logger.error("Problem reading " + file.getName() + ".\nError message is:\n" + e.getLocalizedMessage() + '\n');
+			ok = false;
+			return "";
+		} finally {
+			close(is);
+		}
+	}
+
+	/**
+	 * Returns the version string stored in the file, or <code>null</code> if
+	 * it cannot be read.
+	 */
+	public String getVersion() {
+		InputStream is = null;
+		try {
+			is = new BufferedInputStream(new FileInputStream(file));
+			final XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+			try {
+				reader.nextTag();
+				return reader.getAttributeValue(null, PLUGIN_VERSION_ATTRIBUTE_NAME);
+			} finally {
+				reader.close();
+			}
+
+		} catch (final XMLStreamException e) {
+			logger.error("Problem parsing " + file.getName() + ".\nError message is:\n" + e.getLocalizedMessage() + '\n');
+			ok = false;
+			return null;
+		} catch (final IOException e) {
+			logger.error("Problem reading " + file.getName() + ".\nError message is:\n" + e.getLocalizedMessage() + '\n');
+			ok = false;
+			return null;
+		} finally {
+			close(is);
+		}
+	}
+
+	/**
+	 * Returns an explanatory message about the last unsuccessful read attempt.
+	 * @return an error message.
+	 * @see #isReadingOk()
+	 */
+	public String getErrorMessage() {
+		return logger.toString();
+	}
+
+	/**
+	 * Returns <code>true</code> if the last reading method call happened
+	 * without any warning or error, <code>false</code> otherwise.
+	 * @return <code>true</code> if reading was ok.
+	 * @see #getErrorMessage()
+	 */
+	public boolean isReadingOk() {
+		return ok;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Reads the model. The reader must be positioned on the start of the
+	 * model element, and is left on its end.
+	 */
+	private Model readModel(final XMLStreamReader reader, final Set<Integer> trackedSpotIDs) throws XMLStreamException {
+		final Model model = new Model();
+		final String spaceUnits = reader.getAttributeValue(null, SPATIAL_UNITS_ATTRIBUTE_NAME);
+		final String timeUnits = reader.getAttributeValue(null, TIME_UNITS_ATTRIBUTE_NAME);
+		model.setPhysicalUnits(spaceUnits, timeUnits);
+
+		Map<Integer, Spot> cache = null;
+		TrackContent tracks = null;
+		Set<Integer> filteredTrackIDs = null;
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			final String name = reader.getLocalName();
+
+			if (name.equals(FEATURE_DECLARATIONS_ELEMENT_KEY)) {
+				readFeatureDeclarations(reader, model.getFeatureModel());
+
+			} else if (name.equals(SPOT_COLLECTION_ELEMENT_KEY)) {
+				cache = new HashMap<Integer, Spot>();
+				model.setSpots(readSpots(reader, cache, trackedSpotIDs), false);
+
+			} else if (name.equals(TRACK_COLLECTION_ELEMENT_KEY)) {
+				if (null == cache) {
+					logger.error("Found tracks before spots in file.\n");
+					ok = false;
+					skipElement(reader);
+					continue;
+				}
+				tracks = readTracks(reader, model.getFeatureModel(), cache);
+
+			} else if (name.equals(FILTERED_TRACK_ELEMENT_KEY)) {
+				filteredTrackIDs = readFilteredTrackIDs(reader);
+
+			} else {
+				skipElement(reader);
+			}
+		}
+
+		if (null == tracks) {
+			logger.error("Cannot find the track collection in file.\n");
+			ok = false;
+			return model;
+		}
+
+		if (minFrame != Integer.MIN_VALUE || maxFrame != Integer.MAX_VALUE) {
+			// Saved tracks might be cut by the frame interval: rebuild them from the graph.
+			model.getTrackModel().setGraph(tracks.graph);
+			return model;
+		}
+
+		/*
+		 * Visibility.
+		 */
+		if (null == filteredTrackIDs) {
+			logger.error("Could not find the filtered track IDs in file.\n");
+			ok = false;
+			filteredTrackIDs = new HashSet<Integer>();
+		}
+		final Map<Integer, Boolean> visibility = new HashMap<Integer, Boolean>(tracks.trackEdges.size());
+		for (final Integer id : tracks.trackEdges.keySet()) {
+			visibility.put(id, Boolean.valueOf(filteredTrackIDs.contains(id)));
+		}
+		for (final Integer id : filteredTrackIDs) {
+			if (!tracks.trackEdges.containsKey(id)) {
+				logger.error("Invalid filtered track index: " + id + ". Track ID does not exist.\n");
+				ok = false;
+			}
+		}
+
+		model.getTrackModel().from(tracks.graph, tracks.trackSpots, tracks.trackEdges, visibility, tracks.trackNames);
+
+		// Track features
+		final FeatureModel fm = model.getFeatureModel();
+		for (final Integer trackID : tracks.trackFeatures.keySet()) {
+			final Map<String, Double> features = tracks.trackFeatures.get(trackID);
+			for (final String feature : features.keySet()) {
+				fm.putTrackFeature(trackID, feature, features.get(feature));
+			}
+		}
+
+		return model;
+	}
+
+	private void readFeatureDeclarations(final XMLStreamReader reader, final FeatureModel fm) throws XMLStreamException {
+		boolean spotsFound = false;
+		boolean edgesFound = false;
+		boolean tracksFound = false;
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			final String name = reader.getLocalName();
+			final Collection<String> features = new ArrayList<String>();
+			final Map<String, String> featureNames = new HashMap<String, String>();
+			final Map<String, String> featureShortNames = new HashMap<String, String>();
+			final Map<String, Dimension> featureDimensions = new HashMap<String, Dimension>();
+
+			if (name.equals(SPOT_FEATURES_ELEMENT_KEY)) {
+				readFeatures(reader, features, featureNames, featureShortNames, featureDimensions);
+				fm.declareSpotFeatures(features, featureNames, featureShortNames, featureDimensions);
+				spotsFound = true;
+
+			} else if (name.equals(EDGE_FEATURES_ELEMENT_KEY)) {
+				readFeatures(reader, features, featureNames, featureShortNames, featureDimensions);
+				fm.declareEdgeFeatures(features, featureNames, featureShortNames, featureDimensions);
+				edgesFound = true;
+
+			} else if (name.equals(TRACK_FEATURES_ELEMENT_KEY)) {
+				readFeatures(reader, features, featureNames, featureShortNames, featureDimensions);
+				fm.declareTrackFeatures(features, featureNames, featureShortNames, featureDimensions);
+				tracksFound = true;
+
+			} else {
+				skipElement(reader);
+			}
+		}
+
+		if (!spotsFound) {
+			logger.error("Could not find spot feature declarations in file.\n");
+			ok = false;
+		}
+		if (!edgesFound) {
+			logger.error("Could not find edge feature declarations in file.\n");
+			ok = false;
+		}
+		if (!tracksFound) {
+			logger.error("Could not find track feature declarations in file.\n");
+			ok = false;
+		}
+	}
+
+	private void readFeatures(final XMLStreamReader reader, final Collection<String> features,
+			final Map<String, String> featureNames, final Map<String, String> featureShortNames, final Map<String, Dimension> featureDimensions) throws XMLStreamException {
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (!reader.getLocalName().equals(FEATURE_ELEMENT_KEY)) {
+				skipElement(reader);
+				continue;
+			}
+
+			final String feature = reader.getAttributeValue(null, FEATURE_ATTRIBUTE);
+			final String featureName = reader.getAttributeValue(null, FEATURE_NAME_ATTRIBUTE);
+			final String featureShortName = reader.getAttributeValue(null, FEATURE_SHORT_NAME_ATTRIBUTE);
+			final String featureDimension = reader.getAttributeValue(null, FEATURE_DIMENSION_ATTRIBUTE);
+			skipElement(reader);
+
+			if (null == feature) {
+				logger.error("Could not find feature declaration for element at line " + reader.getLocation().getLineNumber() + ".\n");
+				ok = false;
+				continue;
+			}
+			if (null == featureName) {
+				logger.error("Could not find name for feature " + feature + ".\n");
+				ok = false;
+				continue;
+			}
+			if (null == featureShortName) {
+				logger.error("Could not find short name for feature " + feature + ".\n");
+				ok = false;
+				continue;
+			}
+			if (null == featureDimension) {
+				logger.error("Could not find dimension for feature " + feature + ".\n");
+				ok = false;
+				continue;
+			}
+
+			features.add(feature);
+			featureNames.put(feature, featureName);
+			featureShortNames.put(feature, featureShortName);
+			featureDimensions.put(feature, Dimension.valueOf(featureDimension));
+		}
+	}
+
+	/**
+	 * Reads the spot collection, and stores all the spots loaded in the
+	 * specified cache, indexed by their ID.
+	 */
+	private SpotCollection readSpots(final XMLStreamReader reader, final Map<Integer, Spot> cache, final Set<Integer> trackedSpotIDs) throws XMLStreamException {
+		final Map<Integer, Set<Spot>> content = new HashMap<Integer, Set<Spot>>();
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (!reader.getLocalName().equals(SPOT_FRAME_COLLECTION_ELEMENT_KEY)) {
+				skipElement(reader);
+				continue;
+			}
+
+			final int frame = readIntAttribute(reader, FRAME_ATTRIBUTE_NAME, 0);
+			if (frame < minFrame || frame > maxFrame) {
+				skipElement(reader);
+				continue;
+			}
+
+			final Set<Spot> spotSet = new HashSet<Spot>();
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				if (!reader.getLocalName().equals(SPOT_ELEMENT_KEY)) {
+					skipElement(reader);
+					continue;
+				}
+
+				final int ID = readIntAttribute(reader, SPOT_ID_ATTRIBUTE_NAME, 0);
+				if (null != trackedSpotIDs && !trackedSpotIDs.contains(ID)) {
+					skipElement(reader);
+					continue;
+				}
+
+				final Spot spot = createSpotFrom(reader, ID);
+				skipElement(reader);
+				spotSet.add(spot);
+				cache.put(ID, spot);
+			}
+			content.put(frame, spotSet);
+		}
+
+		return SpotCollection.fromMap(content);
+	}
+
+	private Spot createSpotFrom(final XMLStreamReader reader, final int ID) {
+		final Spot spot = new Spot(ID);
+		String name = reader.getAttributeValue(null, SPOT_NAME_ATTRIBUTE_NAME);
+		if (null == name || name.equals("")) {
+			name = "ID" + ID;
+		}
+		spot.setName(name);
+
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			final String attName = reader.getAttributeLocalName(i);
+			if (attName.equals(SPOT_NAME_ATTRIBUTE_NAME) || attName.equals(SPOT_ID_ATTRIBUTE_NAME)) {
+				continue;
+			}
+			try {
+				spot.putFeature(attName, Double.valueOf(reader.getAttributeValue(i)));
+			} catch (final NumberFormatException e) {
+				logger.error("Spot " + ID + ": Cannot read the feature " + attName + " value. Skipping.\n");
+				ok = false;
+			}
+		}
+		return spot;
+	}
+
+	/**
+	 * Reads the tracks. Edges are only created if both their spots are in the
+	 * specified cache.
+	 */
+	private TrackContent readTracks(final XMLStreamReader reader, final FeatureModel fm, final Map<Integer, Spot> cache) throws XMLStreamException {
+		final boolean restricted = tracksOnly || minFrame != Integer.MIN_VALUE || maxFrame != Integer.MAX_VALUE;
+		final TrackContent tracks = new TrackContent();
+
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (!reader.getLocalName().equals(TRACK_ELEMENT_KEY)) {
+				skipElement(reader);
+				continue;
+			}
+
+			// Track attributes: ID, name and features
+			final int trackID = readIntAttribute(reader, TrackIndexAnalyzer.TRACK_ID, -1);
+			String trackName = reader.getAttributeValue(null, TRACK_NAME_ATTRIBUTE_NAME);
+			if (null == trackName) {
+				trackName = "Unnamed";
+			}
+			final Map<String, Double> trackFeatures = new HashMap<String, Double>();
+			for (int i = 0; i < reader.getAttributeCount(); i++) {
+				final String attName = reader.getAttributeLocalName(i);
+				if (attName.equals(TRACK_NAME_ATTRIBUTE_NAME)) {
+					continue;
+				}
+				try {
+					trackFeatures.put(attName, Double.valueOf(reader.getAttributeValue(i)));
+				} catch (final NumberFormatException e) {
+					logger.error("Track " + trackID + ": Cannot read the feature " + attName + " value. Skipping.\n");
+					ok = false;
+				}
+			}
+
+			// Edges
+			final Set<DefaultWeightedEdge> edges = new HashSet<DefaultWeightedEdge>();
+			final Set<Spot> spots = new HashSet<Spot>();
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				if (!reader.getLocalName().equals(TRACK_EDGE_ELEMENT_KEY)) {
+					skipElement(reader);
+					continue;
+				}
+
+				final int sourceID = readIntAttribute(reader, EdgeTargetAnalyzer.SPOT_SOURCE_ID, -1);
+				final int targetID = readIntAttribute(reader, EdgeTargetAnalyzer.SPOT_TARGET_ID, -1);
+				final Spot sourceSpot = cache.get(sourceID);
+				final Spot targetSpot = cache.get(targetID);
+				if (null == sourceSpot || null == targetSpot) {
+					if (!restricted) {
+						logger.error("Unknown spot ID: " + (null == sourceSpot ? sourceID : targetID) + "\n");
+						ok = false;
+					}
+					skipElement(reader);
+					continue;
+				}
+				if (sourceSpot.equals(targetSpot)) {
+					logger.error("Bad link for track " + trackID + ". Source = Target with ID: " + sourceID + "\n");
+					ok = false;
+					skipElement(reader);
+					continue;
+				}
+
+				tracks.graph.addVertex(sourceSpot);
+				tracks.graph.addVertex(targetSpot);
+				final DefaultWeightedEdge edge = tracks.graph.addEdge(sourceSpot, targetSpot);
+				if (null == edge) {
+					logger.error("Bad edge found for track " + trackID + "\n");
+					ok = false;
+					skipElement(reader);
+					continue;
+				}
+
+				double weight = 0;
+				for (int i = 0; i < reader.getAttributeCount(); i++) {
+					final String attName = reader.getAttributeLocalName(i);
+					final double val;
+					try {
+						val = Double.parseDouble(reader.getAttributeValue(i));
+					} catch (final NumberFormatException e) {
+						logger.error("Edge " + sourceID + " -> " + targetID + ": Cannot read the feature " + attName + " value. Skipping.\n");
+						ok = false;
+						continue;
+					}
+					fm.putEdgeFeature(edge, attName, val);
+					if (attName.equals(EdgeTargetAnalyzer.EDGE_COST)) {
+						weight = val;
+					}
+				}
+				tracks.graph.setEdgeWeight(edge, weight);
+				skipElement(reader);
+
+				spots.add(sourceSpot);
+				spots.add(targetSpot);
+				edges.add(edge);
+			}
+
+			if (!edges.isEmpty()) {
+				tracks.trackSpots.put(trackID, spots);
+				tracks.trackEdges.put(trackID, edges);
+				tracks.trackNames.put(trackID, trackName);
+				tracks.trackFeatures.put(trackID, trackFeatures);
+			}
+		}
+
+		return tracks;
+	}
+
+	/**
+	 * Read and return the list of track IDs that define the filtered track collection.
+	 */
+	private Set<Integer> readFilteredTrackIDs(final XMLStreamReader reader) throws XMLStreamException {
+		final Set<Integer> filteredTrackIDs = new HashSet<Integer>();
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (reader.getLocalName().equals(TRACK_ID_ELEMENT_KEY)) {
+				final int trackID = readIntAttribute(reader, TrackIndexAnalyzer.TRACK_ID, -1);
+				filteredTrackIDs.add(trackID);
+			}
+			skipElement(reader);
+		}
+		return filteredTrackIDs;
+	}
+
+	/**
+	 * Returns the IDs of all the spots that are linked by an edge in the file.
+	 */
+	private Set<Integer> readTrackedSpotIDs() {
+		InputStream is = null;
+		try {
+			is = new BufferedInputStream(new FileInputStream(file));
+			final XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+			try {
+				final Set<Integer> ids = new HashSet<Integer>();
+				while (reader.hasNext()) {
+					if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals(TRACK_EDGE_ELEMENT_KEY)) {
+						ids.add(readIntAttribute(reader, EdgeTargetAnalyzer.SPOT_SOURCE_ID, -1));
+						ids.add(readIntAttribute(reader, EdgeTargetAnalyzer.SPOT_TARGET_ID, -1));
+					}
+				}
+				return ids;
+			} finally {
+				reader.close();
+			}
+
+		} catch (final XMLStreamException e) {
+			logger.error("Problem parsing " + file.getName() + ", it is not a valid TrackMate XML file.\nError message is:\n"
+					+ e.getLocalizedMessage() + '\n');
+			ok = false;
+			return null;
+		} catch (final IOException e) {
+			logger.error("Problem reading " + file.getName() + ".\nError message is:\n" + e.getLocalizedMessage() + '\n');
+			ok = false;
+			return null;
+		} finally {
+			close(is);
+		}
+	}
+
+	private int readIntAttribute(final XMLStreamReader reader, final String name, final int defaultValue) {
+		final String str = reader.getAttributeValue(null, name);
+		if (null == str) {
+			logger.error("Could not find attribute " + name + " for element " + reader.getLocalName() + ", substituting default value.\n");
+			ok = false;
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(str);
+		} catch (final NumberFormatException e) {
+			logger.error("Could not read " + name + " attribute as an integer value for element " + reader.getLocalName() + ", got " + str + ".\n");
+			ok = false;
+			return defaultValue;
+		}
+	}
+
+	/*
+	 * STATIC METHODS
+	 */
+
+	/**
+	 * Moves the reader to the start of the first child element of the root
+	 * element with the specified name. Returns <code>false</code> if there is
+	 * no such element.
+	 */
+	private static boolean moveToChild(final XMLStreamReader reader, final String name) throws XMLStreamException {
+		reader.nextTag(); // root
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (reader.getLocalName().equals(name)) {
+				return true;
+			}
+			skipElement(reader);
+		}
+		return false;
+	}
+
+	/**
+	 * Skips the content of the current element. The reader must be positioned
+	 * on its start, and is left on its end.
+	 */
+	private static void skipElement(final XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			final int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	private static void close(final InputStream is) {
+		if (null != is) {
+			try {
+				is.close();
+			} catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/*
+	 * INNER CLASS
+	 */
+
+	/**
+	 * The tracks read from the file, before they are passed to the model.
+	 */
+	private static final class TrackContent {
+		private final SimpleWeightedGraph<Spot, DefaultWeightedEdge> graph = new SimpleWeightedGraph<Spot, DefaultWeightedEdge>(DefaultWeightedEdge.class);
+		private final Map<Integer, Set<Spot>> trackSpots = new HashMap<Integer, Set<Spot>>();
+		private final Map<Integer, Set<DefaultWeightedEdge>> trackEdges = new HashMap<Integer, Set<DefaultWeightedEdge>>();
+		private final Map<Integer, String> trackNames = new HashMap<Integer, String>();
+		private final Map<Integer, Map<String, Double>> trackFeatures = new HashMap<Integer, Map<String, Double>>();
+	}
+}
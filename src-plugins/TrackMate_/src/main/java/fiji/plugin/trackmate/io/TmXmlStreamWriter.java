@@ -0,0 +1,358 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmXmlKeys.EDGE_FEATURES_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_DECLARATIONS_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_DIMENSION_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_NAME_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FEATURE_SHORT_NAME_ATTRIBUTE;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FILTERED_TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FRAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.MODEL_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPATIAL_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FEATURES_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FRAME_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_NAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TIME_UNITS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_FEATURES_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ID_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_NAME_ATTRIBUTE_NAME;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.jdom2.Attribute;
+import org.jdom2.Element;
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+
+/**
+ * A {@link TmXmlWriter} that streams the model content to the file with StAX,
+ * instead of building it as a JDOM document first.
+ * <p>
+ * The file produced is identical in structure to the one of
+ * {@link TmXmlWriter}, and can be read by {@link TmXmlReader} and
+ * {@link TmXmlStreamReader}. Settings, log and GUI state are small, and are
+ * still built as JDOM elements by the mother class. The spots, edges and
+ * tracks of the model are only read from the model and written one by one when
+ * {@link #writeToFile()} is called, so that saving a large model does not
+ * require holding a copy of it as a JDOM tree in memory.
+ */
+public class TmXmlStreamWriter extends TmXmlWriter {
+
+	private static final String INDENT = "  ";
+
+	private final File file;
+	/** The model to stream, or <code>null</code> if none was appended. */
+	private Model model;
+	/** The empty element that marks the position of the model in the document. */
+	private Element modelPlaceHolder;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new streaming XML file writer for TrackMate.
+	 *
+	 * @param file the xml file to write to, will be overwritten.
+	 */
+	public TmXmlStreamWriter(final File file) {
+		super(file);
+		this.file = file;
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Appends the content of a {@link Model} to the file generated by this
+	 * writer. The model is only read when the file is written, and must not
+	 * be modified in between.
+	 * @param model the {@link Model} to write.
+	 */
+	@Override
+	public void appendModel(final Model model) {
+		if (null != modelPlaceHolder) {
+			root.removeContent(modelPlaceHolder);
+		}
+		this.model = model;
+		this.modelPlaceHolder = new Element(MODEL_ELEMENT_KEY);
+		root.addContent(modelPlaceHolder);
+	}
+
+	@Override
+	public void writeToFile() throws FileNotFoundException, IOException {
+		logger.log("  Writing to file.\n");
+		final OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			final XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(os, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			writeDocument(writer);
+			writer.writeEndDocument();
+			writer.close();
+		} catch (final XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			os.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		final StringWriter sw = new StringWriter();
+		try {
+			final XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(sw);
+			writer.writeStartDocument();
+			writeDocument(writer);
+			writer.writeEndDocument();
+			writer.close();
+		} catch (final XMLStreamException e) {
+			e.printStackTrace();
+		}
+		return sw.toString();
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void writeDocument(final XMLStreamWriter writer) throws XMLStreamException {
+		writer.writeCharacters("\n");
+		writer.writeStartElement(root.getName());
+		writeAttributes(writer, root);
+		for (final Element child : root.getChildren()) {
+			if (child == modelPlaceHolder) {
+				writeModel(writer, model);
+			} else {
+				writeElement(writer, child, 1);
+			}
+		}
+		writer.writeCharacters("\n");
+		writer.writeEndElement();
+		writer.writeCharacters("\n");
+	}
+
+	/**
+	 * Writes a JDOM element and its content as it is.
+	 */
+	private static void writeElement(final XMLStreamWriter writer, final Element element, final int level) throws XMLStreamException {
+		indent(writer, level);
+		final List<Element> children = element.getChildren();
+		final String text = element.getText();
+		if (children.isEmpty() && text.isEmpty()) {
+			writer.writeEmptyElement(element.getName());
+			writeAttributes(writer, element);
+			return;
+		}
+
+		writer.writeStartElement(element.getName());
+		writeAttributes(writer, element);
+		if (!text.isEmpty()) {
+			writer.writeCharacters(text);
+		}
+		for (final Element child : children) {
+			writeElement(writer, child, level + 1);
+		}
+		if (!children.isEmpty()) {
+			indent(writer, level);
+		}
+		writer.writeEndElement();
+	}
+
+	private static void writeAttributes(final XMLStreamWriter writer, final Element element) throws XMLStreamException {
+		for (final Attribute attribute : element.getAttributes()) {
+			writer.writeAttribute(attribute.getName(), attribute.getValue());
+		}
+	}
+
+	private static void indent(final XMLStreamWriter writer, final int level) throws XMLStreamException {
+		final StringBuilder str = new StringBuilder(1 + level * INDENT.length());
+		str.append('\n');
+		for (int i = 0; i < level; i++) {
+			str.append(INDENT);
+		}
+		writer.writeCharacters(str.toString());
+	}
+
+	private void writeModel(final XMLStreamWriter writer, final Model model) throws XMLStreamException {
+		indent(writer, 1);
+		writer.writeStartElement(MODEL_ELEMENT_KEY);
+		writer.writeAttribute(SPATIAL_UNITS_ATTRIBUTE_NAME, model.getSpaceUnits());
+		writer.writeAttribute(TIME_UNITS_ATTRIBUTE_NAME, model.getTimeUnits());
+
+		writeFeaturesDeclaration(writer, model.getFeatureModel());
+		writeSpots(writer, model.getSpots());
+		writeTracks(writer, model);
+		writeFilteredTracks(writer, model);
+
+		indent(writer, 1);
+		writer.writeEndElement();
+	}
+
+	private void writeFeaturesDeclaration(final XMLStreamWriter writer, final FeatureModel fm) throws XMLStreamException {
+		indent(writer, 2);
+		writer.writeStartElement(FEATURE_DECLARATIONS_ELEMENT_KEY);
+		writeFeatures(writer, SPOT_FEATURES_ELEMENT_KEY, fm.getSpotFeatures(), fm.getSpotFeatureNames(), fm.getSpotFeatureShortNames(), fm.getSpotFeatureDimensions());
+		writeFeatures(writer, EDGE_FEATURES_ELEMENT_KEY, fm.getEdgeFeatures(), fm.getEdgeFeatureNames(), fm.getEdgeFeatureShortNames(), fm.getEdgeFeatureDimensions());
+		writeFeatures(writer, TRACK_FEATURES_ELEMENT_KEY, fm.getTrackFeatures(), fm.getTrackFeatureNames(), fm.getTrackFeatureShortNames(), fm.getTrackFeatureDimensions());
+		indent(writer, 2);
+		writer.writeEndElement();
+		logger.log("  Added spot, edge and track feature declarations.\n");
+	}
+
+	private static void writeFeatures(final XMLStreamWriter writer, final String key, final Collection<String> features,
+			final Map<String, String> featureNames, final Map<String, String> featureShortNames, final Map<String, Dimension> featureDimensions) throws XMLStreamException {
+		indent(writer, 3);
+		if (features.isEmpty()) {
+			writer.writeEmptyElement(key);
+			return;
+		}
+		writer.writeStartElement(key);
+		for (final String feature : features) {
+			indent(writer, 4);
+			writer.writeEmptyElement(FEATURE_ELEMENT_KEY);
+			writer.writeAttribute(FEATURE_ATTRIBUTE, feature);
+			writer.writeAttribute(FEATURE_NAME_ATTRIBUTE, featureNames.get(feature));
+			writer.writeAttribute(FEATURE_SHORT_NAME_ATTRIBUTE, featureShortNames.get(feature));
+			writer.writeAttribute(FEATURE_DIMENSION_ATTRIBUTE, featureDimensions.get(feature).name());
+		}
+		indent(writer, 3);
+		writer.writeEndElement();
+	}
+
+	private void writeSpots(final XMLStreamWriter writer, final SpotCollection spots) throws XMLStreamException {
+		final int nSpots = spots.getNSpots(false);
+		indent(writer, 2);
+		writer.writeStartElement(SPOT_COLLECTION_ELEMENT_KEY);
+		writer.writeAttribute(SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME, "" + nSpots);
+
+		for (final int frame : spots.keySet()) {
+			indent(writer, 3);
+			writer.writeStartElement(SPOT_FRAME_COLLECTION_ELEMENT_KEY);
+			writer.writeAttribute(FRAME_ATTRIBUTE_NAME, "" + frame);
+			for (final Iterator<Spot> it = spots.iterator(frame, false); it.hasNext();) {
+				final Spot spot = it.next();
+				indent(writer, 4);
+				writer.writeEmptyElement(SPOT_ELEMENT_KEY);
+				writer.writeAttribute(SPOT_ID_ATTRIBUTE_NAME, "" + spot.ID());
+				writer.writeAttribute(SPOT_NAME_ATTRIBUTE_NAME, spot.getName());
+				for (final Map.Entry<String, Double> entry : spot.getFeatures().entrySet()) {
+					writer.writeAttribute(entry.getKey(), entry.getValue().toString());
+				}
+			}
+			indent(writer, 3);
+			writer.writeEndElement();
+		}
+
+		indent(writer, 2);
+		writer.writeEndElement();
+		logger.log("  Added " + nSpots + " spots.\n");
+	}
+
+	private void writeTracks(final XMLStreamWriter writer, final Model model) throws XMLStreamException {
+		final FeatureModel fm = model.getFeatureModel();
+
+		// Prepare track features for writing: we separate ints from doubles
+		final List<String> trackIntFeatures = new ArrayList<String>();
+		trackIntFeatures.add(TrackIndexAnalyzer.TRACK_ID);
+		trackIntFeatures.add(TrackIndexAnalyzer.TRACK_INDEX);
+		final List<String> trackDoubleFeatures = new ArrayList<String>(fm.getTrackFeatures());
+		trackDoubleFeatures.removeAll(trackIntFeatures);
+
+		// Same thing for edge features
+		final List<String> edgeIntFeatures = new ArrayList<String>();
+		edgeIntFeatures.add(EdgeTargetAnalyzer.SPOT_SOURCE_ID);
+		edgeIntFeatures.add(EdgeTargetAnalyzer.SPOT_TARGET_ID);
+		final List<String> edgeDoubleFeatures = new ArrayList<String>(fm.getEdgeFeatures());
+		edgeDoubleFeatures.removeAll(edgeIntFeatures);
+
+		indent(writer, 2);
+		writer.writeStartElement(TRACK_COLLECTION_ELEMENT_KEY);
+
+		final Set<Integer> trackIDs = model.getTrackModel().trackIDs(false);
+		for (final int trackID : trackIDs) {
+			final Set<DefaultWeightedEdge> track = model.getTrackModel().trackEdges(trackID);
+			if (track.size() == 0) {
+				// Tracks without edges are not written, like in TmXmlWriter.
+				continue;
+			}
+
+			indent(writer, 3);
+			writer.writeStartElement(TRACK_ELEMENT_KEY);
+			writer.writeAttribute(TRACK_NAME_ATTRIBUTE_NAME, model.getTrackModel().name(trackID));
+			for (final String feature : trackDoubleFeatures) {
+				final Double val = fm.getTrackFeature(trackID, feature);
+				writer.writeAttribute(feature, val.toString());
+			}
+			for (final String feature : trackIntFeatures) {
+				final int val = fm.getTrackFeature(trackID, feature).intValue();
+				writer.writeAttribute(feature, "" + val);
+			}
+
+			for (final DefaultWeightedEdge edge : track) {
+				indent(writer, 4);
+				writer.writeEmptyElement(TRACK_EDGE_ELEMENT_KEY);
+				for (final String feature : edgeDoubleFeatures) {
+					final Double val = fm.getEdgeFeature(edge, feature);
+					writer.writeAttribute(feature, val.toString());
+				}
+				for (final String feature : edgeIntFeatures) {
+					final int val = fm.getEdgeFeature(edge, feature).intValue();
+					writer.writeAttribute(feature, "" + val);
+				}
+			}
+
+			indent(writer, 3);
+			writer.writeEndElement();
+		}
+
+		indent(writer, 2);
+		writer.writeEndElement();
+		logger.log("  Added tracks.\n");
+	}
+
+	private void writeFilteredTracks(final XMLStreamWriter writer, final Model model) throws XMLStreamException {
+		indent(writer, 2);
+		writer.writeStartElement(FILTERED_TRACK_ELEMENT_KEY);
+		for (final int trackID : model.getTrackModel().trackIDs(true)) {
+			indent(writer, 3);
+			writer.writeEmptyElement(TRACK_ID_ELEMENT_KEY);
+			writer.writeAttribute(TrackIndexAnalyzer.TRACK_ID, "" + trackID);
+		}
+		indent(writer, 2);
+		writer.writeEndElement();
+		logger.log("  Added filtered tracks.\n");
+	}
+}
@@ -6,6 +6,7 @@
 import static fiji.plugin.trackmate.detection.DetectorKeys.DEFAULT_RADIUS;
 import static fiji.plugin.trackmate.detection.DetectorKeys.DEFAULT_TARGET_CHANNEL;
 import static fiji.plugin.trackmate.detection.DetectorKeys.DEFAULT_THRESHOLD;
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_BLOCK_SIZE;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_DOWNSAMPLE_FACTOR;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_DO_MEDIAN_FILTERING;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_DO_SUBPIXEL_LOCALIZATION;
@@ -117,7 +118,8 @@ public boolean marshall(final Map<String, Object> settings, Element element) {
 					&& writeRadius(settings, element) 
 					&& writeThreshold(settings, element)
 					&& writeDoMedian(settings, element)
-					&& writeDoSubPixel(settings, element);
+					&& writeDoSubPixel(settings, element)
+					&& writeBlockSize(settings, element);
 
 		} else if (currentKey.equals(DownsampleLogDetectorFactory.DETECTOR_KEY)) {
 
@@ -179,6 +181,9 @@ public boolean unmarshall(final Element element, Map<String, Object> settings) {
 			ok = ok & readBooleanAttribute(element, settings, KEY_DO_SUBPIXEL_LOCALIZATION, errorHolder);
 			ok = ok & readBooleanAttribute(element, settings, KEY_DO_MEDIAN_FILTERING, errorHolder);
 			ok = ok & readIntegerAttribute(element, settings, KEY_TARGET_CHANNEL, errorHolder);
+			if (null != element.getAttributeValue(KEY_BLOCK_SIZE)) {
+				ok = ok & readIntegerAttribute(element, settings, KEY_BLOCK_SIZE, errorHolder);
+			}
 
 		} else if (currentKey.equals(DownsampleLogDetectorFactory.DETECTOR_KEY)) {
 
@@ -383,6 +388,16 @@ protected boolean writeDoSubPixel(final Map<String, Object> settings, Element el
 		return writeAttribute(settings, element, KEY_DO_SUBPIXEL_LOCALIZATION, Boolean.class);
 	}
 
+	/**
+	 * The block size is optional: nothing is written if it is not in the settings map.
+	 */
+	protected boolean writeBlockSize(final Map<String, Object> settings, Element element) {
+		if (!settings.containsKey(KEY_BLOCK_SIZE)) {
+			return true;
+		}
+		return writeAttribute(settings, element, KEY_BLOCK_SIZE, Integer.class);
+	}
+
 	protected boolean writeDownsamplingFactor(final Map<String, Object> settings, Element element) {
 		return writeAttribute(settings, element, KEY_DOWNSAMPLE_FACTOR, Integer.class);
 	}
@@ -0,0 +1,107 @@
+package fiji.plugin.trackmate.tests;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_GAP_CLOSING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.FastLAPTracker;
+import fiji.plugin.trackmate.tracking.LAPTracker;
+import fiji.plugin.trackmate.tracking.LAPUtils;
+
+/**
+ * Measures the speedup of the frame-to-frame linking step of the LAP tracker
+ * with the number of threads, on synthetic brownian tracks over 1000 frames.
+ * Also checks that the links found do not depend on the number of threads.
+ */
+public class ParallelLinkingPerf_TestDrive {
+
+	private static final int N_FRAMES = 1000;
+	private static final int N_PARTICLES = 100;
+	private static final double WIDTH = 100;
+	private static final double DIFFUSION = 0.5;
+	private static final int N_REPEATS = 3;
+
+	public static void main(final String[] args) {
+
+		// Create brownian tracks
+		final Random ran = new Random(1l);
+		final double[][] positions = new double[N_PARTICLES][2];
+		for (final double[] position : positions) {
+			position[0] = WIDTH * ran.nextDouble();
+			position[1] = WIDTH * ran.nextDouble();
+		}
+		final SpotCollection spots = new SpotCollection();
+		for (int t = 0; t < N_FRAMES; t++) {
+			final List<Spot> frameSpots = new ArrayList<Spot>(N_PARTICLES);
+			for (final double[] position : positions) {
+				position[0] += DIFFUSION * ran.nextGaussian();
+				position[1] += DIFFUSION * ran.nextGaussian();
+				final Spot spot = new Spot(new double[] { position[0], position[1], 0 });
+				spot.putFeature(Spot.POSITION_T, Double.valueOf(t));
+				frameSpots.add(spot);
+			}
+			spots.put(t, frameSpots);
+		}
+		spots.setVisible(true);
+		System.out.println("Created " + spots.getNSpots(true) + " spots over " + N_FRAMES + " frames.");
+
+		final Map<String, Object> settings = LAPUtils.getDefaultLAPSettingsMap();
+		settings.put(KEY_LINKING_MAX_DISTANCE, 3d);
+		settings.put(KEY_ALLOW_GAP_CLOSING, false);
+
+		final int maxThreads = Runtime.getRuntime().availableProcessors();
+		long singleThreadTime = -1;
+		SimpleWeightedGraph<Spot, DefaultWeightedEdge> reference = null;
+
+		for (int nThreads = 1; nThreads <= maxThreads; nThreads *= 2) {
+
+			long best = Long.MAX_VALUE;
+			SimpleWeightedGraph<Spot, DefaultWeightedEdge> graph = null;
+			for (int i = 0; i < N_REPEATS; i++) {
+				final LAPTracker tracker = new FastLAPTracker();
+				tracker.setNumThreads(nThreads);
+				tracker.setTarget(spots, settings);
+				if (!tracker.checkInput()) {
+					System.err.println(tracker.getErrorMessage());
+					return;
+				}
+				tracker.reset();
+				final long start = System.currentTimeMillis();
+				if (!tracker.linkObjectsToTrackSegments()) {
+					System.err.println(tracker.getErrorMessage());
+					return;
+				}
+				final long end = System.currentTimeMillis();
+				best = Math.min(best, end - start);
+				graph = tracker.getResult();
+			}
+
+			if (null == reference) {
+				reference = graph;
+				singleThreadTime = best;
+			}
+			final boolean identical = graph.edgeSet().size() == reference.edgeSet().size() && sameLinks(reference, graph);
+
+			System.out.println(String.format("%2d threads: %6d ms - speedup %4.1f - %d links - identical to 1 thread: %s",
+					nThreads, best, (double) singleThreadTime / best, graph.edgeSet().size(), identical));
+		}
+	}
+
+	private static boolean sameLinks(final SimpleWeightedGraph<Spot, DefaultWeightedEdge> reference, final SimpleWeightedGraph<Spot, DefaultWeightedEdge> graph) {
+		for (final DefaultWeightedEdge edge : reference.edgeSet()) {
+			if (!graph.containsEdge(reference.getEdgeSource(edge), reference.getEdgeTarget(edge))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
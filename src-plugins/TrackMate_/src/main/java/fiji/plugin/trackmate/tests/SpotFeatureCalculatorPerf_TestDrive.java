@@ -0,0 +1,91 @@
+package fiji.plugin.trackmate.tests;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.imglib2.meta.ImgPlus;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.features.SpotFeatureCalculator;
+import fiji.plugin.trackmate.features.spot.SpotContrastAndSNRAnalyzerFactory;
+import fiji.plugin.trackmate.features.spot.SpotIntensityAnalyzerFactory;
+import fiji.plugin.trackmate.features.spot.SpotMorphologyAnalyzerFactory;
+import fiji.plugin.trackmate.features.spot.SpotRadiusEstimatorFactory;
+import fiji.plugin.trackmate.util.TMUtils;
+
+/**
+ * Compares the time it takes to compute spot features on a movie in which a
+ * few frames hold most of the spots, when each frame is processed as a single
+ * task, and when frames are split in chunks of spots.
+ */
+public class SpotFeatureCalculatorPerf_TestDrive {
+
+	private static final int N_FRAMES = 50;
+	private static final int N_SPOTS = 50000;
+	private static final double RADIUS = 3;
+	private static final int WIDTH = 512;
+	private static final int HEIGHT = 512;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static void main(final String[] args) {
+
+		final ImagePlus imp = IJ.createImage("Test", "8-bit random", WIDTH, HEIGHT, N_FRAMES);
+		imp.setDimensions(1, 1, N_FRAMES);
+		final ImgPlus<UnsignedByteType> img = TMUtils.rawWraps(imp);
+
+		/*
+		 * Skewed spot density: the number of spots decreases geometrically
+		 * with the frame, so that the first frames hold most of them.
+		 */
+
+		final Random ran = new Random(1l);
+		final SpotCollection spots = new SpotCollection();
+		int remaining = N_SPOTS;
+		for (int t = 0; t < N_FRAMES; t++) {
+			final int nSpots = (t == N_FRAMES - 1) ? remaining : remaining / 2;
+			remaining -= nSpots;
+			final List<Spot> frameSpots = new ArrayList<Spot>(nSpots);
+			for (int i = 0; i < nSpots; i++) {
+				final Spot spot = new Spot(new double[] { RADIUS + (WIDTH - 2 * RADIUS) * ran.nextDouble(), RADIUS + (HEIGHT - 2 * RADIUS) * ran.nextDouble(), 0 });
+				spot.putFeature(Spot.RADIUS, RADIUS);
+				spot.putFeature(Spot.POSITION_T, t);
+				frameSpots.add(spot);
+			}
+			spots.put(t, frameSpots);
+		}
+
+		final Model model = new Model();
+		model.setSpots(spots, false);
+
+		final Settings settings = new Settings();
+		settings.imp = imp;
+		settings.addSpotAnalyzerFactory(new SpotIntensityAnalyzerFactory(model, img));
+		settings.addSpotAnalyzerFactory(new SpotContrastAndSNRAnalyzerFactory(model, img));
+		settings.addSpotAnalyzerFactory(new SpotRadiusEstimatorFactory(model, img));
+		settings.addSpotAnalyzerFactory(new SpotMorphologyAnalyzerFactory(model, img));
+
+		System.out.println("Computing features for " + spots.getNSpots(false) + " spots over " + N_FRAMES + " frames, "
+				+ spots.getNSpots(0, false) + " of them in the first frame.");
+
+		for (int i = 0; i < 5; i++) {
+			for (final int chunkSize : new int[] { 0, SpotFeatureCalculator.DEFAULT_CHUNK_SIZE }) {
+				final SpotFeatureCalculator calculator = new SpotFeatureCalculator(model, settings);
+				calculator.setChunkSize(chunkSize);
+				if (!calculator.checkInput() || !calculator.process()) {
+					System.out.println(calculator.getErrorMessage());
+					return;
+				}
+				final long time = calculator.getProcessingTime();
+				System.out.println((chunkSize > 0 ? "Chunks of " + chunkSize + " spots" : "One task per frame") + ": "
+						+ time + " ms - " + (int) (1000d * spots.getNSpots(false) / time) + " spots/s.");
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package fiji.plugin.trackmate.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.features.FeatureFilter;
+
+/**
+ * Reports the heap used by a model made of many spots with a typical number
+ * of features, and the time it takes to collect feature values and filter
+ * spots. For comparison, also reports the heap used by the per-spot
+ * <code>ConcurrentHashMap&lt;String, Double&gt;</code> feature storage that
+ * was used before.
+ * <p>
+ * The number of spots can be passed as first argument, and defaults to 5
+ * millions. Run with a large heap, e.g. <code>-Xmx8g</code>.
+ */
+public class SpotFeatureMemoryPerf_TestDrive {
+
+	private static final int N_FRAMES = 1000;
+	private static final String[] FEATURES = new String[] {
+		Spot.QUALITY, Spot.RADIUS, Spot.POSITION_T, Spot.FRAME,
+		"MEAN_INTENSITY", "MEDIAN_INTENSITY", "MIN_INTENSITY", "MAX_INTENSITY", "TOTAL_INTENSITY", "STANDARD_DEVIATION",
+		"CONTRAST", "SNR", "ESTIMATED_DIAMETER", "ELLIPSOIDFIT_SEMIAXISLENGTH_C", "ELLIPSOIDFIT_SEMIAXISLENGTH_B" };
+
+	public static void main(final String[] args) {
+
+		final int nSpots = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+		final int nSpotsPerFrame = nSpots / N_FRAMES;
+		final Random ran = new Random(1l);
+
+		/*
+		 * Spots.
+		 */
+
+		final long mem0 = usedMemory();
+		long start = System.currentTimeMillis();
+		final SpotCollection spots = new SpotCollection();
+		for (int t = 0; t < N_FRAMES; t++) {
+			final List<Spot> frameSpots = new ArrayList<Spot>(nSpotsPerFrame);
+			for (int i = 0; i < nSpotsPerFrame; i++) {
+				final Spot spot = new Spot(new double[] { ran.nextDouble(), ran.nextDouble(), ran.nextDouble() });
+				for (final String feature : FEATURES) {
+					spot.putFeature(feature, ran.nextDouble());
+				}
+				frameSpots.add(spot);
+			}
+			spots.put(t, frameSpots);
+		}
+		spots.setVisible(true);
+		long end = System.currentTimeMillis();
+		final long mem1 = usedMemory();
+		System.out.println(String.format("Created %d spots with %d features each in %d ms.", spots.getNSpots(false), FEATURES.length + 4, end - start));
+		System.out.println(String.format("Heap used by spots: %.1f MB - %.0f bytes per spot.", (mem1 - mem0) / 1024d / 1024d, (double) (mem1 - mem0) / spots.getNSpots(false)));
+
+		/*
+		 * Throughput.
+		 */
+
+		for (int i = 0; i < 5; i++) {
+			start = System.currentTimeMillis();
+			final Map<String, double[]> values = spots.collectValues(Arrays.asList(FEATURES), false);
+			end = System.currentTimeMillis();
+			System.out.println(String.format("Collected %d features in %d ms.", values.size(), end - start));
+
+			start = System.currentTimeMillis();
+			spots.filter(new FeatureFilter(Spot.QUALITY, 0.5, true));
+			end = System.currentTimeMillis();
+			System.out.println(String.format("Filtered to %d spots in %d ms.", spots.getNSpots(true), end - start));
+		}
+
+		/*
+		 * Former map-based storage, for comparison.
+		 */
+
+		final long mem2 = usedMemory();
+		final List<Map<String, Double>> maps = new ArrayList<Map<String, Double>>(nSpots);
+		for (int i = 0; i < nSpotsPerFrame * N_FRAMES; i++) {
+			final Map<String, Double> map = new ConcurrentHashMap<String, Double>();
+			for (final String feature : Spot.POSITION_FEATURES) {
+				map.put(feature, ran.nextDouble());
+			}
+			for (final String feature : FEATURES) {
+				map.put(feature, ran.nextDouble());
+			}
+			map.put(SpotCollection.VISIBLITY, SpotCollection.ONE);
+			maps.add(map);
+		}
+		final long mem3 = usedMemory();
+		System.out.println(String.format("Heap used by the same features in maps: %.1f MB - %.0f bytes per spot.", (mem3 - mem2) / 1024d / 1024d, (double) (mem3 - mem2) / maps.size()));
+	}
+
+	private static long usedMemory() {
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
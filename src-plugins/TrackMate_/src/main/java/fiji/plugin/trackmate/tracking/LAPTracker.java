@@ -12,6 +12,7 @@
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
@@ -441,6 +442,12 @@ public boolean linkTrackSegmentsToFinalTracks() {
 	 * For each frame, compute the cost matrix to link each spot to another spot in the next frame.
 	 * Then compute the optimal track segments using this cost matrix.
 	 * Finally, update the {@link #trackGraph} field with found links.
+	 * <p>
+	 * The LAP of each frame pair is independent from the others, so frame pairs
+	 * are solved concurrently on at most {@link #getNumThreads()} threads. The links found
+	 * for each frame pair are stored separately, and are added to the graph
+	 * in frame order once all pairs are solved, so that the resulting graph
+	 * does not depend on the number of threads nor on their scheduling.
 	 *
 	 * @see LAPTracker#createFrameToFrameLinkingCostMatrix(List, List, TrackerSettings)
 	 */
@@ -458,12 +465,19 @@ public boolean solveLAPForTrackSegments() {
 			frame0 = frame1;
 		}
 
+		// Links found for each frame pair: source spots, target spots and costs.
+		final Spot[][] linkSources = new Spot[framePairs.size()][];
+		final Spot[][] linkTargets = new Spot[framePairs.size()][];
+		final double[][] linkCosts = new double[framePairs.size()][];
+
 		// Prepare threads
-		final Thread[] threads = SimpleMultiThreading.newThreads(numThreads);
+		final int nThreads = Math.max(1, Math.min(numThreads, framePairs.size()));
+		final Thread[] threads = SimpleMultiThreading.newThreads(nThreads);
 
 		// Prepare the thread array
 		final AtomicInteger ai = new AtomicInteger(0);
 		final AtomicInteger progress = new AtomicInteger(0);
+		final AtomicBoolean ok = new AtomicBoolean(true);
 		for (int ithread = 0; ithread < threads.length; ithread++) {
 
 			threads[ithread] = new Thread("LAPTracker track segment linking thread "+(1+ithread)+"/"+threads.length) {
@@ -473,6 +487,10 @@ public void run() {
 
 					for (int i = ai.getAndIncrement(); i < framePairs.size(); i = ai.getAndIncrement()) {
 
+						if (!ok.get()) {
+							return;
+						}
+
 						// Get frame pairs
 						final int frame0 = framePairs.get(i)[0];
 						final int frame1 = framePairs.get(i)[1];
@@ -490,6 +508,10 @@ public void run() {
 
 						// Create cost matrix
 						final double[][] costMatrix = createFrameToFrameLinkingCostMatrix(t0, t1, settings);
+						if (null == costMatrix) {
+							ok.set(false);
+							return;
+						}
 
 						// Special case: top-left corner of the cost matrix is all blocked: we do nothing for this pair
 						// We handle this special case here, because some solvers might hang with this.
@@ -511,7 +533,10 @@ public void run() {
 							final AssignmentAlgorithm solver = createAssignmentProblemSolver();
 							final int[][] solutions = problem.solve(solver);
 
-							// Extend track segments using solutions: we update the graph edges
+							// Extend track segments using solutions: we store the links of this pair
+							final List<Spot> sources = new ArrayList<Spot>(solutions.length);
+							final List<Spot> targets = new ArrayList<Spot>(solutions.length);
+							final double[] costs = new double[solutions.length];
 							for (int j = 0; j < solutions.length; j++) {
 								if (solutions[j].length == 0)
 									continue;
@@ -520,17 +545,16 @@ public void run() {
 
 								if (i0 < t0.size() && i1 < t1.size() ) {
 									// Solution belong to the upper-left quadrant: we can connect the spots
-									final Spot s0 = t0.get(i0);
-									final Spot s1 = t1.get(i1);
 									// We set the edge weight to be the linking cost, for future reference.
 									// This is NOT used in further tracking steps
-									final double weight = costMatrix[i0][i1];
-									synchronized (graph) { // To avoid concurrent access, sad but true
-										final DefaultWeightedEdge edge = graph.addEdge(s0, s1);
-										graph.setEdgeWeight(edge, weight);
-									}
+									costs[sources.size()] = costMatrix[i0][i1];
+									sources.add(t0.get(i0));
+									targets.add(t1.get(i1));
 								} // otherwise we do not create any connection
 							}
+							linkSources[i] = sources.toArray(new Spot[sources.size()]);
+							linkTargets[i] = targets.toArray(new Spot[targets.size()]);
+							linkCosts[i] = costs;
 						}
 						logger.setProgress(0.5f * progress.incrementAndGet() / framePairs.size());
 
@@ -542,6 +566,22 @@ public void run() {
 
 		logger.setStatus("Solving for track segments...");
 		SimpleMultiThreading.startAndJoin(threads);
+		if (!ok.get()) {
+			logger.setStatus("");
+			return false;
+		}
+
+		// Merge the links of all frame pairs into the graph, in frame order.
+		for (int i = 0; i < framePairs.size(); i++) {
+			if (null == linkSources[i]) {
+				continue;
+			}
+			for (int j = 0; j < linkSources[i].length; j++) {
+				final DefaultWeightedEdge edge = graph.addEdge(linkSources[i][j], linkTargets[i][j]);
+				graph.setEdgeWeight(edge, linkCosts[i][j]);
+			}
+		}
+
 		logger.setProgress(0.5f);
 		logger.setStatus("");
 		return true;
@@ -616,7 +656,7 @@ private void compileTrackSegments() {
 	 * Method: for each solution of the LAP, determine if it's a gap closing, merging, or
 	 * splitting event. If so, appropriately link the track segment Spots.
 	 */
-	private void compileFinalTracks(final int[][] finalTrackSolutions) {
+	protected void compileFinalTracks(final int[][] finalTrackSolutions) {
 		final int numTrackSegments = trackSegments.size();
 		final int numMergingMiddlePoints = mergingMiddlePoints.size();
 		final int numSplittingMiddlePoints = splittingMiddlePoints.size();
@@ -640,7 +680,7 @@ private void compileFinalTracks(final int[][] finalTrackSolutions) {
 					final SortedSet<Spot> segmentStart = trackSegments.get(j);
 					final Spot end = segmentEnd.last();
 					final Spot start = segmentStart.first();
-					weight = segmentCosts[i][j];
+					weight = getSegmentCost(i, j);
 					final DefaultWeightedEdge edge = graph.addEdge(end, start);
 					graph.setEdgeWeight(edge, weight);
 
@@ -653,7 +693,7 @@ private void compileFinalTracks(final int[][] finalTrackSolutions) {
 					final SortedSet<Spot> segmentEnd = trackSegments.get(i);
 					final Spot end =  segmentEnd.last();
 					final Spot middle = mergingMiddlePoints.get(j - numTrackSegments);
-					weight = segmentCosts[i][j];
+					weight = getSegmentCost(i, j);
 					final DefaultWeightedEdge edge = graph.addEdge(end, middle);
 					graph.setEdgeWeight(edge, weight);
 
@@ -684,7 +724,7 @@ private void compileFinalTracks(final int[][] finalTrackSolutions) {
 					final SortedSet<Spot> segmentStart = trackSegments.get(j);
 					final Spot start = segmentStart.first();
 					final Spot mother = splittingMiddlePoints.get(i - numTrackSegments);
-					weight = segmentCosts[i][j];
+					weight = getSegmentCost(i, j);
 					final DefaultWeightedEdge edge = graph.addEdge(mother, start);
 					graph.setEdgeWeight(edge, weight);
 
@@ -712,6 +752,15 @@ private void compileFinalTracks(final int[][] finalTrackSolutions) {
 
 	}
 
+	/**
+	 * Hook for subclassers. Returns the cost of the assignment of row
+	 * <code>i</code> to column <code>j</code> in the track segment cost matrix
+	 * (step 2). It is used to set the weight of the edges created by this step.
+	 */
+	protected double getSegmentCost(final int i, final int j) {
+		return segmentCosts[i][j];
+	}
+
 	@Override
 	public String toString() {
 		return NAME;
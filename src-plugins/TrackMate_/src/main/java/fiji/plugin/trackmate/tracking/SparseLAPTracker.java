@@ -0,0 +1,139 @@
+package fiji.plugin.trackmate.tracking;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_BLOCKING_VALUE;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.tracking.costmatrix.SparseTrackSegmentCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.hungarian.AssignmentAlgorithm;
+import fiji.plugin.trackmate.tracking.hungarian.JonkerVolgenantAlgorithm;
+import fiji.plugin.trackmate.tracking.hungarian.SparseCostMatrix;
+
+/**
+ * A {@link LAPTracker} that relies on sparse cost matrices and on the
+ * Jonker-Volgenant solver.
+ * <p>
+ * The track segment cost matrix (step 2) is never built as a dense matrix:
+ * only the costs of plausible gap-closing, merging and splitting events are
+ * computed and stored in a {@link SparseCostMatrix}, then solved with
+ * {@link JonkerVolgenantAlgorithm}. Memory and time therefore scale with the
+ * number of plausible links rather than with the square of the number of
+ * track segments, which makes this tracker suitable for large time-lapses.
+ * <p>
+ * Settings are identical to the ones of the {@link FastLAPTracker}.
+ */
+public class SparseLAPTracker extends LAPTracker {
+
+	public static final String TRACKER_KEY = "SPARSE_LAP_TRACKER";
+	public static final String NAME = "Sparse LAP Tracker";
+	public static final String INFO_TEXT = "<html>" +
+			"This tracker is identical to the LAP tracker, <br>" +
+			"except that it builds sparse cost matrices, storing only the costs of <br>" +
+			"the links that are allowed by the distance and frame gap conditions. " +
+			"<p>" +
+			"The LAP are solved using the Jonker-Volgenant shortest augmenting <br>" +
+			"path solver for sparse matrices. " +
+			"Memory and time scale with the number of plausible links instead <br>" +
+			"of the square of the number of track segments, which makes this <br>" +
+			"tracker suitable for data with many thousands of track segments." +
+			" </html>";
+
+	private final static String BASE_ERROR_MESSAGE = "SparseLAPTracker: ";
+
+	/** The sparse cost matrix for linking individual track segments (step 2). */
+	protected SparseCostMatrix sparseSegmentCosts = null;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	public SparseLAPTracker(final Logger logger) {
+		super(logger);
+	}
+
+	public SparseLAPTracker() {
+		this(Logger.VOID_LOGGER);
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns a {@link JonkerVolgenantAlgorithm} that ignores the blocked
+	 * entries of the cost matrices.
+	 */
+	@Override
+	protected AssignmentAlgorithm createAssignmentProblemSolver() {
+		final double blockingValue = (Double) settings.get(KEY_BLOCKING_VALUE);
+		return new JonkerVolgenantAlgorithm(blockingValue);
+	}
+
+	/**
+	 * Returns the sparse cost matrix used for step 2, linking track segments
+	 * into final tracks.
+	 */
+	public SparseCostMatrix getSparseSegmentCosts() {
+		return sparseSegmentCosts;
+	}
+
+	@Override
+	public boolean createTrackSegmentCostMatrix() {
+		final SparseTrackSegmentCostMatrixCreator segCosts = new SparseTrackSegmentCostMatrixCreator(trackSegments, settings);
+		segCosts.setLogger(logger);
+		segCosts.setNumThreads(numThreads);
+		if (!segCosts.checkInput() || !segCosts.process()) {
+			errorMessage = BASE_ERROR_MESSAGE + segCosts.getErrorMessage();
+			return false;
+		}
+		sparseSegmentCosts = segCosts.getResult();
+		splittingMiddlePoints = segCosts.getSplittingMiddlePoints();
+		mergingMiddlePoints = segCosts.getMergingMiddlePoints();
+		return true;
+	}
+
+	@Override
+	public boolean linkTrackSegmentsToFinalTracks() {
+		// Check that there are track segments.
+		if (null == trackSegments || trackSegments.size() < 1) {
+			errorMessage = "There are no track segments to link.";
+			return false;
+		}
+
+		// Check that the cost matrix for this step exists.
+		if (null == sparseSegmentCosts) {
+			errorMessage = "The segment cost matrix (step 2) does not exists.";
+			return false;
+		}
+
+		// Solve LAP
+		final int[][] finalTrackSolutions = solveLAPForFinalTracks();
+
+		// Compile LAP solutions into final tracks
+		compileFinalTracks(finalTrackSolutions);
+
+		return true;
+	}
+
+	@Override
+	public int[][] solveLAPForFinalTracks() {
+		logger.setStatus("Solving for final tracks...");
+		final JonkerVolgenantAlgorithm solver = new JonkerVolgenantAlgorithm();
+		return solver.computeAssignments(sparseSegmentCosts);
+	}
+
+	@Override
+	protected double getSegmentCost(final int i, final int j) {
+		final double blockingValue = (Double) settings.get(KEY_BLOCKING_VALUE);
+		return sparseSegmentCosts.get(i, j, blockingValue);
+	}
+
+	@Override
+	public String toString() {
+		return NAME;
+	}
+
+	@Override
+	public String getKey() {
+		return TRACKER_KEY;
+	}
+}
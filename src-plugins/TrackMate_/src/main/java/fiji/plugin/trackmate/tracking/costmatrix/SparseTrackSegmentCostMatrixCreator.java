@@ -0,0 +1,539 @@
+package fiji.plugin.trackmate.tracking.costmatrix;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_GAP_CLOSING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_MERGING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_SPLITTING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_BLOCKING_VALUE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_CUTOFF_PERCENTILE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_MAX_DISTANCE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
+import net.imglib2.algorithm.OutputAlgorithm;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.LAPUtils;
+import fiji.plugin.trackmate.tracking.hungarian.SparseCostMatrix;
+import fiji.plugin.trackmate.util.TMUtils;
+
+/**
+ * Creates the same cost matrix as {@link TrackSegmentCostMatrixCreator}, but
+ * as a {@link SparseCostMatrix} that only stores the finite costs.
+ * <p>
+ * The dense creator computes and stores the cost of every pair of track
+ * segments, and of every pair of segment and merging / splitting candidate,
+ * which makes its memory and time grow with the square of the number of
+ * track segments. Here, segment starts and middle points are indexed by frame
+ * so that only pairs satisfying the frame conditions are examined, and only
+ * the pairs whose cost is below the blocking value are stored.
+ * <p>
+ * The layout of the matrix is identical to the one described in
+ * {@link TrackSegmentCostMatrixCreator}: the top-left quadrant contains the
+ * gap-closing, merging and splitting costs, the top-right and bottom-left
+ * quadrants contain the alternative costs on their diagonal, and the
+ * bottom-right quadrant is the transposed of the top-left quadrant where all
+ * non-blocked costs are replaced by the alternative cost. As in the dense
+ * version, the middle points that cannot be linked to any segment are pruned
+ * from the matrix.
+ */
+public class SparseTrackSegmentCostMatrixCreator extends MultiThreadedBenchmarkAlgorithm implements OutputAlgorithm<SparseCostMatrix> {
+
+	private static final String BASE_ERROR_MESSAGE = "SparseTrackSegmentCostMatrixCreator: ";
+
+	/** The track segments. */
+	protected final List<SortedSet<Spot>> trackSegments;
+	/** The settings to comply to create a cost matrix. */
+	protected final Map<String, Object> settings;
+	/** The list of middle Spots which can participate in merge events. */
+	protected List<Spot> mergingMiddlePoints;
+	/** The list of middle Spots which can participate in splitting events. */
+	protected List<Spot> splittingMiddlePoints;
+	/** The cost matrix created by this class. */
+	protected SparseCostMatrix costs;
+
+	private Logger logger = Logger.VOID_LOGGER;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	public SparseTrackSegmentCostMatrixCreator(final List<SortedSet<Spot>> trackSegments, final Map<String, Object> settings) {
+		this.trackSegments = trackSegments;
+		this.settings = settings;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	public void setLogger(final Logger logger) {
+		this.logger = logger;
+	}
+
+	@Override
+	public boolean checkInput() {
+		if (trackSegments.isEmpty()) {
+			errorMessage = BASE_ERROR_MESSAGE + "There are no track segments.";
+			return false;
+		}
+		final StringBuilder errorHolder = new StringBuilder();
+		if (!LAPUtils.checkSettingsValidity(settings, errorHolder)) {
+			errorMessage = BASE_ERROR_MESSAGE + errorHolder.toString();
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public SparseCostMatrix getResult() {
+		return costs;
+	}
+
+	/**
+	 * Returns the middle points that can participate in merging events, in the
+	 * order of their columns in the merging part of the cost matrix.
+	 */
+	public List<Spot> getMergingMiddlePoints() {
+		return mergingMiddlePoints;
+	}
+
+	/**
+	 * Returns the middle points that can participate in splitting events, in
+	 * the order of their rows in the splitting part of the cost matrix.
+	 */
+	public List<Spot> getSplittingMiddlePoints() {
+		return splittingMiddlePoints;
+	}
+
+	@Override
+	public boolean process() {
+		final long start = System.currentTimeMillis();
+
+		final boolean allowGapClosing = (Boolean) settings.get(KEY_ALLOW_GAP_CLOSING);
+		final boolean allowSplitting = (Boolean) settings.get(KEY_ALLOW_TRACK_SPLITTING);
+		final boolean allowMerging = (Boolean) settings.get(KEY_ALLOW_TRACK_MERGING);
+		final double blockingValue = (Double) settings.get(KEY_BLOCKING_VALUE);
+
+		try {
+
+			final int nSegments = trackSegments.size();
+
+			// 1 - Index segment starts and middle points by frame.
+
+			final Map<Integer, List<Integer>> startsByFrame = new HashMap<Integer, List<Integer>>();
+			final int[] endFrames = new int[nSegments];
+			for (int i = 0; i < nSegments; i++) {
+				final SortedSet<Spot> segment = trackSegments.get(i);
+				endFrames[i] = segment.last().getFeature(Spot.FRAME).intValue();
+				final int startFrame = segment.first().getFeature(Spot.FRAME).intValue();
+				List<Integer> list = startsByFrame.get(startFrame);
+				if (null == list) {
+					list = new ArrayList<Integer>();
+					startsByFrame.put(startFrame, list);
+				}
+				list.add(i);
+			}
+
+			// Middle points: all the spots of the segments having at least 2 spots.
+			final List<Spot> middlePoints = new ArrayList<Spot>();
+			final List<Integer> middlePointSegments = new ArrayList<Integer>();
+			final Map<Integer, List<Integer>> middlesByFrame = new HashMap<Integer, List<Integer>>();
+			if (allowMerging || allowSplitting) {
+				for (int i = 0; i < nSegments; i++) {
+					final SortedSet<Spot> segment = trackSegments.get(i);
+					if (segment.size() < 2) {
+						continue;
+					}
+					for (final Spot spot : segment) {
+						final int frame = spot.getFeature(Spot.FRAME).intValue();
+						List<Integer> list = middlesByFrame.get(frame);
+						if (null == list) {
+							list = new ArrayList<Integer>();
+							middlesByFrame.put(frame, list);
+						}
+						list.add(middlePoints.size());
+						middlePoints.add(spot);
+						middlePointSegments.add(i);
+					}
+				}
+			}
+
+			// 2 - Compute the finite costs of the gap-closing, merging and splitting sub-matrices.
+
+			logger.setStatus("Computing gap-closing and merging costs...");
+			logger.setProgress(0.55f);
+
+			final int[][] gcCols = new int[nSegments][];
+			final double[][] gcCosts = new double[nSegments][];
+			final int[][] mCols = new int[nSegments][];
+			final double[][] mCosts = new double[nSegments][];
+			computeSegmentEndCosts(allowGapClosing, allowMerging, blockingValue, startsByFrame, middlesByFrame, middlePoints, endFrames, gcCols, gcCosts, mCols, mCosts);
+
+			logger.setStatus("Computing splitting costs...");
+			logger.setProgress(0.6f);
+
+			final int nMiddle = middlePoints.size();
+			final int[][] sCols = new int[nMiddle][];
+			final double[][] sCosts = new double[nMiddle][];
+			if (allowSplitting) {
+				computeSplittingCosts(blockingValue, startsByFrame, middlePoints, middlePointSegments, sCols, sCosts);
+			}
+
+			// 3 - Prune the middle points that cannot be linked.
+
+			final int[] mergingColumn = new int[nMiddle];
+			Arrays.fill(mergingColumn, -1);
+			for (int i = 0; i < nSegments; i++) {
+				for (final int m : mCols[i]) {
+					mergingColumn[m] = 0;
+				}
+			}
+			mergingMiddlePoints = new ArrayList<Spot>();
+			for (int m = 0; m < nMiddle; m++) {
+				if (mergingColumn[m] >= 0) {
+					mergingColumn[m] = nSegments + mergingMiddlePoints.size();
+					mergingMiddlePoints.add(middlePoints.get(m));
+				}
+			}
+
+			splittingMiddlePoints = new ArrayList<Spot>();
+			final List<Integer> splittingRows = new ArrayList<Integer>();
+			for (int m = 0; m < nMiddle; m++) {
+				if (null != sCols[m] && sCols[m].length > 0) {
+					splittingMiddlePoints.add(middlePoints.get(m));
+					splittingRows.add(m);
+				}
+			}
+
+			// 4 - Assemble the top-left quadrant.
+
+			logger.setStatus("Completing cost matrix...");
+			logger.setProgress(0.7f);
+
+			final int nTopLeftRows = nSegments + splittingMiddlePoints.size();
+			final int nTopLeftCols = nSegments + mergingMiddlePoints.size();
+			final int[] tlStart = new int[nTopLeftRows + 1];
+			int nnz = 0;
+			for (int i = 0; i < nSegments; i++) {
+				tlStart[i] = nnz;
+				nnz += gcCols[i].length + mCols[i].length;
+			}
+			for (int r = 0; r < splittingRows.size(); r++) {
+				tlStart[nSegments + r] = nnz;
+				nnz += sCols[splittingRows.get(r)].length;
+			}
+			tlStart[nTopLeftRows] = nnz;
+
+			final double[] tlcc = new double[nnz];
+			final int[] tlkk = new int[nnz];
+			int k = 0;
+			for (int i = 0; i < nSegments; i++) {
+				// Gap-closing costs first: their column indices are smaller than merging ones.
+				for (int t = 0; t < gcCols[i].length; t++) {
+					tlkk[k] = gcCols[i][t];
+					tlcc[k] = gcCosts[i][t];
+					k++;
+				}
+				for (int t = 0; t < mCols[i].length; t++) {
+					tlkk[k] = mergingColumn[mCols[i][t]];
+					tlcc[k] = mCosts[i][t];
+					k++;
+				}
+			}
+			for (int r = 0; r < splittingRows.size(); r++) {
+				final int m = splittingRows.get(r);
+				for (int t = 0; t < sCols[m].length; t++) {
+					tlkk[k] = sCols[m][t];
+					tlcc[k] = sCosts[m][t];
+					k++;
+				}
+			}
+
+			// 5 - Compute the alternative cost and assemble the full matrix.
+
+			final double cutoff = getCutoff(tlcc, blockingValue);
+			costs = assembleFullMatrix(tlcc, tlkk, tlStart, nTopLeftCols, cutoff);
+
+			final long end = System.currentTimeMillis();
+			processingTime = end - start;
+			return true;
+
+		} catch (final OutOfMemoryError ome) {
+			errorMessage = BASE_ERROR_MESSAGE + "Not enough memory.";
+			costs = null;
+			return false;
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Computes, for each segment end, the finite gap-closing costs to segment
+	 * starts and the finite merging costs to middle points. Column indices are
+	 * returned sorted.
+	 */
+	@SuppressWarnings("unchecked")
+	private void computeSegmentEndCosts(final boolean allowGapClosing, final boolean allowMerging, final double blockingValue,
+			final Map<Integer, List<Integer>> startsByFrame, final Map<Integer, List<Integer>> middlesByFrame,
+			final List<Spot> middlePoints, final int[] endFrames,
+			final int[][] gcCols, final double[][] gcCosts, final int[][] mCols, final double[][] mCosts) {
+
+		final int frameCutoff = (Integer) settings.get(KEY_GAP_CLOSING_MAX_FRAME_GAP);
+		final double gcMaxDist = (Double) settings.get(KEY_GAP_CLOSING_MAX_DISTANCE);
+		final Map<String, Double> gcPenalties = (Map<String, Double>) settings.get(KEY_GAP_CLOSING_FEATURE_PENALTIES);
+		final double mMaxDist = (Double) settings.get(KEY_MERGING_MAX_DISTANCE);
+		final Map<String, Double> mPenalties = (Map<String, Double>) settings.get(KEY_MERGING_FEATURE_PENALTIES);
+
+		final Thread[] threads = SimpleMultiThreading.newThreads(numThreads);
+		final AtomicInteger ai = new AtomicInteger(0);
+		for (int ithread = 0; ithread < threads.length; ithread++) {
+
+			threads[ithread] = new Thread("LAPTracker sparse gap closing and merging cost thread " + (1 + ithread) + "/" + threads.length) {
+
+				@Override
+				public void run() {
+
+					final CostRow row = new CostRow();
+					for (int i = ai.getAndIncrement(); i < trackSegments.size(); i = ai.getAndIncrement()) {
+						final Spot end = trackSegments.get(i).last();
+						final int endFrame = endFrames[i];
+
+						// Gap closing: to segment starts within the frame gap.
+						row.clear();
+						if (allowGapClosing) {
+							for (int frame = endFrame + 1; frame <= endFrame + frameCutoff + 1; frame++) {
+								final List<Integer> starts = startsByFrame.get(frame);
+								if (null == starts) {
+									continue;
+								}
+								for (final int j : starts) {
+									if (j == i) {
+										continue;
+									}
+									final Spot start = trackSegments.get(j).first();
+									final double cost = LAPUtils.computeLinkingCostFor(end, start, gcMaxDist, blockingValue, gcPenalties);
+									if (cost < blockingValue) {
+										row.add(j, cost);
+									}
+								}
+							}
+						}
+						gcCols[i] = row.sortedColumns();
+						gcCosts[i] = row.sortedCosts();
+
+						// Merging: to middle points in the next frame.
+						row.clear();
+						if (allowMerging) {
+							final List<Integer> middles = middlesByFrame.get(endFrame + 1);
+							if (null != middles) {
+								for (final int m : middles) {
+									final double cost = LAPUtils.computeLinkingCostFor(end, middlePoints.get(m), mMaxDist, blockingValue, mPenalties);
+									if (cost < blockingValue) {
+										row.add(m, cost);
+									}
+								}
+							}
+						}
+						mCols[i] = row.sortedColumns();
+						mCosts[i] = row.sortedCosts();
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin(threads);
+	}
+
+	/**
+	 * Computes, for each middle point, the finite splitting costs to segment
+	 * starts. Column indices are returned sorted.
+	 */
+	@SuppressWarnings("unchecked")
+	private void computeSplittingCosts(final double blockingValue, final Map<Integer, List<Integer>> startsByFrame,
+			final List<Spot> middlePoints, final List<Integer> middlePointSegments,
+			final int[][] sCols, final double[][] sCosts) {
+
+		final double maxDist = (Double) settings.get(KEY_SPLITTING_MAX_DISTANCE);
+		final Map<String, Double> penalties = (Map<String, Double>) settings.get(KEY_SPLITTING_FEATURE_PENALTIES);
+
+		final Thread[] threads = SimpleMultiThreading.newThreads(numThreads);
+		final AtomicInteger ai = new AtomicInteger(0);
+		for (int ithread = 0; ithread < threads.length; ithread++) {
+
+			threads[ithread] = new Thread("LAPTracker sparse splitting cost thread " + (1 + ithread) + "/" + threads.length) {
+
+				@Override
+				public void run() {
+
+					final CostRow row = new CostRow();
+					for (int m = ai.getAndIncrement(); m < middlePoints.size(); m = ai.getAndIncrement()) {
+						final Spot middle = middlePoints.get(m);
+						final int middleFrame = middle.getFeature(Spot.FRAME).intValue();
+						final int ownSegment = middlePointSegments.get(m);
+
+						row.clear();
+						final List<Integer> starts = startsByFrame.get(middleFrame + 1);
+						if (null != starts) {
+							for (final int j : starts) {
+								if (j == ownSegment) {
+									continue;
+								}
+								final Spot start = trackSegments.get(j).first();
+								final double cost = LAPUtils.computeLinkingCostFor(start, middle, maxDist, blockingValue, penalties);
+								if (cost < blockingValue) {
+									row.add(j, cost);
+								}
+							}
+						}
+						sCols[m] = row.sortedColumns();
+						sCosts[m] = row.sortedCosts();
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin(threads);
+	}
+
+	/**
+	 * Calculates the cutoff percentile of all the finite costs of the top-left
+	 * quadrant, used as alternative cost.
+	 */
+	private double getCutoff(final double[] finiteCosts, final double blockingValue) {
+		final double cutoffPercentile = (Double) settings.get(KEY_CUTOFF_PERCENTILE);
+		final double alternativeLinkingCostFactor = (Double) settings.get(KEY_ALTERNATIVE_LINKING_COST_FACTOR);
+		double cutoff = TMUtils.getPercentile(finiteCosts, cutoffPercentile);
+		if (!(cutoff < blockingValue)) {
+			cutoff = 10.0d; // Same fallback as the dense version when there are no costs.
+		}
+		return alternativeLinkingCostFactor * cutoff;
+	}
+
+	/**
+	 * Builds the full square cost matrix from the CSR arrays of its top-left
+	 * quadrant.
+	 */
+	private static SparseCostMatrix assembleFullMatrix(final double[] tlcc, final int[] tlkk, final int[] tlStart, final int nC, final double cutoff) {
+		final int nR = tlStart.length - 1;
+		final int n = nR + nC;
+
+		// Transpose the column indices of the top-left quadrant.
+		final int[] trStart = new int[nC + 1];
+		for (int t = 0; t < tlkk.length; t++) {
+			trStart[tlkk[t] + 1]++;
+		}
+		for (int j = 0; j < nC; j++) {
+			trStart[j + 1] += trStart[j];
+		}
+		final int[] trkk = new int[tlkk.length];
+		final int[] fill = Arrays.copyOf(trStart, nC);
+		for (int i = 0; i < nR; i++) {
+			for (int t = tlStart[i]; t < tlStart[i + 1]; t++) {
+				trkk[fill[tlkk[t]]++] = i;
+			}
+		}
+
+		final int nnz = 2 * tlcc.length + nR + nC;
+		final double[] cc = new double[nnz];
+		final int[] kk = new int[nnz];
+		final int[] start = new int[n + 1];
+		int k = 0;
+
+		// Top rows: top-left costs, then the alternative cost on the top-right diagonal.
+		for (int i = 0; i < nR; i++) {
+			start[i] = k;
+			for (int t = tlStart[i]; t < tlStart[i + 1]; t++) {
+				kk[k] = tlkk[t];
+				cc[k] = tlcc[t];
+				k++;
+			}
+			kk[k] = nC + i;
+			cc[k] = cutoff;
+			k++;
+		}
+
+		// Bottom rows: the alternative cost on the bottom-left diagonal, then the bottom-right quadrant.
+		for (int j = 0; j < nC; j++) {
+			start[nR + j] = k;
+			kk[k] = j;
+			cc[k] = cutoff;
+			k++;
+			for (int t = trStart[j]; t < trStart[j + 1]; t++) {
+				kk[k] = nC + trkk[t];
+				cc[k] = cutoff;
+				k++;
+			}
+		}
+		start[n] = k;
+
+		return new SparseCostMatrix(cc, kk, start, n);
+	}
+
+	/*
+	 * INNER CLASS
+	 */
+
+	/**
+	 * A growable list of (column, cost) pairs for a single row of the matrix.
+	 */
+	private static final class CostRow {
+
+		private int[] cols = new int[16];
+		private double[] costs = new double[16];
+		private int size = 0;
+
+		private void clear() {
+			size = 0;
+		}
+
+		private void add(final int col, final double cost) {
+			if (size == cols.length) {
+				cols = Arrays.copyOf(cols, 2 * size);
+				costs = Arrays.copyOf(costs, 2 * size);
+			}
+			cols[size] = col;
+			costs[size] = cost;
+			size++;
+		}
+
+		private int[] sortedColumns() {
+			sort();
+			return Arrays.copyOf(cols, size);
+		}
+
+		private double[] sortedCosts() {
+			return Arrays.copyOf(costs, size);
+		}
+
+		/** Insertion sort on columns; rows are short. */
+		private void sort() {
+			for (int i = 1; i < size; i++) {
+				final int c = cols[i];
+				final double v = costs[i];
+				int j = i - 1;
+				while (j >= 0 && cols[j] > c) {
+					cols[j + 1] = cols[j];
+					costs[j + 1] = costs[j];
+					j--;
+				}
+				cols[j + 1] = c;
+				costs[j + 1] = v;
+			}
+		}
+	}
+}
@@ -0,0 +1,326 @@
+package fiji.plugin.trackmate.tracking.hungarian;
+
+import java.util.Arrays;
+
+/**
+ * An implementation of the Jonker-Volgenant shortest augmenting path
+ * algorithm, working on {@link SparseCostMatrix}.
+ * <p>
+ * Contrary to the other {@link AssignmentAlgorithm}s, this solver never
+ * iterates over the blocked entries of the cost matrix: its memory usage is
+ * proportional to the number of finite costs, and its running time depends on
+ * the number of plausible links rather than on the square of the matrix size.
+ * This makes it suitable for the very sparse cost matrices of the gap-closing,
+ * merging and splitting step of the {@link fiji.plugin.trackmate.tracking.LAPTracker}.
+ * <p>
+ * For reference, see:
+ * R. Jonker and A. Volgenant, "A shortest augmenting path algorithm for dense
+ * and sparse linear assignment problems", Computing 38, 325-340 (1987).
+ * <p>
+ * The initialization relies on the column reduction step of the paper. Each
+ * remaining free row is then assigned by searching for the shortest augmenting
+ * path with Dijkstra's algorithm on the reduced costs, using a binary heap. The
+ * column dual variables are updated after each augmentation so that reduced
+ * costs remain non-negative.
+ */
+public class JonkerVolgenantAlgorithm implements AssignmentAlgorithm {
+
+	/** Entries of a dense cost matrix larger than or equal to this value are ignored. */
+	private final double blockingValue;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new solver. When used through the dense
+	 * {@link #computeAssignments(double[][])} method, costs larger than or
+	 * equal to the specified blocking value are considered as forbidden
+	 * assignments.
+	 */
+	public JonkerVolgenantAlgorithm(final double blockingValue) {
+		this.blockingValue = blockingValue;
+	}
+
+	/**
+	 * Creates a new solver that considers infinite costs as forbidden
+	 * assignments.
+	 */
+	public JonkerVolgenantAlgorithm() {
+		this(Double.POSITIVE_INFINITY);
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	public int[][] computeAssignments(final double[][] costMatrix) {
+		return computeAssignments(SparseCostMatrix.fromDense(costMatrix, blockingValue));
+	}
+
+	/**
+	 * Solve the assignment problem for the given sparse cost matrix.
+	 * <p>
+	 * The solutions are returned as a 2D array of int. Each solution is an int array
+	 * of 2 elements: the row index and the column index of the assignment. Rows
+	 * that cannot be assigned because they have no augmenting path left are not
+	 * part of the solutions.
+	 *
+	 * @param cm  the sparse cost matrix. It is not modified by this method.
+	 * @return an array of solutions, as arrays of 2 ints.
+	 */
+	public int[][] computeAssignments(final SparseCostMatrix cm) {
+		final int nRows = cm.nRows;
+		final int nCols = cm.nCols;
+		final double[] cc = cm.cc;
+		final int[] kk = cm.kk;
+		final int[] start = cm.start;
+
+		// Column assigned to each row, and index in cc of this assignment.
+		final int[] x = new int[nRows];
+		final int[] xk = new int[nRows];
+		Arrays.fill(x, -1);
+		// Row assigned to each column.
+		final int[] y = new int[nCols];
+		Arrays.fill(y, -1);
+		// Column dual variables.
+		final double[] v = new double[nCols];
+
+		/*
+		 * 1. Column reduction.
+		 */
+
+		Arrays.fill(v, Double.POSITIVE_INFINITY);
+		final int[] argmin = new int[nCols];
+		final int[] argminK = new int[nCols];
+		for (int i = 0; i < nRows; i++) {
+			for (int k = start[i]; k < start[i + 1]; k++) {
+				final int j = kk[k];
+				if (cc[k] < v[j]) {
+					v[j] = cc[k];
+					argmin[j] = i;
+					argminK[j] = k;
+				}
+			}
+		}
+		for (int j = nCols - 1; j >= 0; j--) {
+			if (v[j] == Double.POSITIVE_INFINITY) {
+				// Empty column, cannot be assigned.
+				v[j] = 0;
+				continue;
+			}
+			final int i = argmin[j];
+			if (x[i] < 0) {
+				x[i] = j;
+				xk[i] = argminK[j];
+				y[j] = i;
+			}
+		}
+
+		/*
+		 * 2. Augmentation, for each free row.
+		 */
+
+		// Shortest path lengths, predecessors and the index of the entry they are reached with.
+		final double[] d = new double[nCols];
+		Arrays.fill(d, Double.POSITIVE_INFINITY);
+		final int[] pred = new int[nCols];
+		final int[] predK = new int[nCols];
+		// Whether a column has been finalized by the Dijkstra search.
+		final boolean[] scanned = new boolean[nCols];
+		// Columns touched during one search, so that we can reset them cheaply.
+		final int[] touched = new int[nCols];
+		final int[] scannedList = new int[nCols];
+		final MinHeap heap = new MinHeap(16);
+
+		for (int f = 0; f < nRows; f++) {
+			if (x[f] >= 0) {
+				continue;
+			}
+
+			int nTouched = 0;
+			int nScanned = 0;
+			heap.clear();
+
+			for (int k = start[f]; k < start[f + 1]; k++) {
+				final int j = kk[k];
+				final double dj = cc[k] - v[j];
+				if (dj < d[j]) {
+					if (d[j] == Double.POSITIVE_INFINITY) {
+						touched[nTouched++] = j;
+					}
+					d[j] = dj;
+					pred[j] = f;
+					predK[j] = k;
+					heap.push(dj, j);
+				}
+			}
+
+			int endOfPath = -1;
+			double dmin = 0;
+			while (!heap.isEmpty()) {
+				final double dj = heap.peekKey();
+				final int j = heap.pop();
+				if (scanned[j] || dj > d[j]) {
+					continue; // Stale heap entry.
+				}
+				if (y[j] < 0) {
+					endOfPath = j;
+					dmin = dj;
+					break;
+				}
+				scanned[j] = true;
+				scannedList[nScanned++] = j;
+
+				// Explore from the row assigned to this column.
+				final int i = y[j];
+				final double ui = cc[xk[i]] - v[j];
+				for (int k = start[i]; k < start[i + 1]; k++) {
+					final int j2 = kk[k];
+					if (scanned[j2]) {
+						continue;
+					}
+					final double h = dj + cc[k] - v[j2] - ui;
+					if (h < d[j2]) {
+						if (d[j2] == Double.POSITIVE_INFINITY) {
+							touched[nTouched++] = j2;
+						}
+						d[j2] = h;
+						pred[j2] = i;
+						predK[j2] = k;
+						heap.push(h, j2);
+					}
+				}
+			}
+
+			if (endOfPath >= 0) {
+				// Update the column prices of the finalized columns.
+				for (int s = 0; s < nScanned; s++) {
+					final int j = scannedList[s];
+					v[j] += d[j] - dmin;
+				}
+
+				// Augment along the path.
+				int j = endOfPath;
+				while (true) {
+					final int i = pred[j];
+					y[j] = i;
+					final int previous = x[i];
+					x[i] = j;
+					xk[i] = predK[j];
+					if (i == f) {
+						break;
+					}
+					j = previous;
+				}
+			}
+
+			// Reset the search arrays.
+			for (int t = 0; t < nTouched; t++) {
+				final int j = touched[t];
+				d[j] = Double.POSITIVE_INFINITY;
+				scanned[j] = false;
+			}
+		}
+
+		/*
+		 * 3. Collect solutions.
+		 */
+
+		int nAssigned = 0;
+		for (int i = 0; i < nRows; i++) {
+			if (x[i] >= 0) {
+				nAssigned++;
+			}
+		}
+		final int[][] solutions = new int[nAssigned][];
+		int index = 0;
+		for (int i = 0; i < nRows; i++) {
+			if (x[i] >= 0) {
+				solutions[index++] = new int[] { i, x[i] };
+			}
+		}
+		return solutions;
+	}
+
+	/*
+	 * INNER CLASS
+	 */
+
+	/**
+	 * A minimal binary min-heap of int values sorted by double keys, backed by
+	 * primitive arrays. Decrease-key is emulated by inserting duplicates that are
+	 * discarded when popped.
+	 */
+	private static final class MinHeap {
+
+		private double[] keys;
+		private int[] values;
+		private int size;
+
+		private MinHeap(final int capacity) {
+			keys = new double[capacity];
+			values = new int[capacity];
+		}
+
+		private void clear() {
+			size = 0;
+		}
+
+		private boolean isEmpty() {
+			return size == 0;
+		}
+
+		private double peekKey() {
+			return keys[0];
+		}
+
+		private void push(final double key, final int value) {
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, 2 * size);
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			int pos = size++;
+			while (pos > 0) {
+				final int parent = (pos - 1) >> 1;
+				if (keys[parent] <= key) {
+					break;
+				}
+				keys[pos] = keys[parent];
+				values[pos] = values[parent];
+				pos = parent;
+			}
+			keys[pos] = key;
+			values[pos] = value;
+		}
+
+		private int pop() {
+			final int top = values[0];
+			size--;
+			if (size > 0) {
+				final double key = keys[size];
+				final int value = values[size];
+				int pos = 0;
+				while (true) {
+					int child = 2 * pos + 1;
+					if (child >= size) {
+						break;
+					}
+					if (child + 1 < size && keys[child + 1] < keys[child]) {
+						child++;
+					}
+					if (keys[child] >= key) {
+						break;
+					}
+					keys[pos] = keys[child];
+					values[pos] = values[child];
+					pos = child;
+				}
+				keys[pos] = key;
+				values[pos] = value;
+			}
+			return top;
+		}
+	}
+}
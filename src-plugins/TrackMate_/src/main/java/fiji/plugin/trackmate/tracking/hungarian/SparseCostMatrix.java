@@ -0,0 +1,172 @@
+package fiji.plugin.trackmate.tracking.hungarian;
+
+import java.util.Arrays;
+
+/**
+ * A sparse cost matrix, stored in compressed sparse row (CSR) form. Only the
+ * finite costs of the assignment problem are stored: any (row, column) pair
+ * absent from this matrix is considered blocked.
+ * <p>
+ * Non-zero elements of row <code>i</code> are stored at indices
+ * <code>start[i]</code> to <code>start[i+1]-1</code> in the {@link #cc} and
+ * {@link #kk} arrays. Column indices are sorted in ascending order within
+ * each row.
+ */
+public class SparseCostMatrix {
+
+	/** The cost values of the non-blocked entries, row after row. */
+	final double[] cc;
+	/** The column index of each cost value in {@link #cc}. */
+	final int[] kk;
+	/** The index in {@link #cc} of the first entry of each row. Has <code>nRows + 1</code> elements. */
+	final int[] start;
+	/** The number of rows. */
+	final int nRows;
+	/** The number of columns. */
+	final int nCols;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Creates a new sparse cost matrix from its CSR arrays. The arrays are not
+	 * copied.
+	 *
+	 * @param cc  the costs, row after row.
+	 * @param kk  the column index of each cost, sorted within each row.
+	 * @param start  the index of the first cost of each row in <code>cc</code>, plus
+	 * a last element equal to <code>cc.length</code>.
+	 * @param nCols  the number of columns of the matrix.
+	 */
+	public SparseCostMatrix(final double[] cc, final int[] kk, final int[] start, final int nCols) {
+		if (cc.length != kk.length) {
+			throw new IllegalArgumentException("Cost and column index arrays must have the same length. Got " + cc.length + " and " + kk.length + ".");
+		}
+		if (start.length < 1 || start[start.length - 1] != cc.length) {
+			throw new IllegalArgumentException("Row start array must end with the number of non-blocked entries.");
+		}
+		this.cc = cc;
+		this.kk = kk;
+		this.start = start;
+		this.nRows = start.length - 1;
+		this.nCols = nCols;
+	}
+
+	/*
+	 * STATIC METHODS
+	 */
+
+	/**
+	 * Builds a sparse cost matrix from a dense one, skipping all the values
+	 * that are larger than or equal to the specified blocking value.
+	 */
+	public static SparseCostMatrix fromDense(final double[][] costMatrix, final double blockingValue) {
+		final int nRows = costMatrix.length;
+		final int nCols = nRows == 0 ? 0 : costMatrix[0].length;
+		final int[] start = new int[nRows + 1];
+		int nnz = 0;
+		for (int i = 0; i < nRows; i++) {
+			start[i] = nnz;
+			for (int j = 0; j < nCols; j++) {
+				if (costMatrix[i][j] < blockingValue) {
+					nnz++;
+				}
+			}
+		}
+		start[nRows] = nnz;
+
+		final double[] cc = new double[nnz];
+		final int[] kk = new int[nnz];
+		int k = 0;
+		for (int i = 0; i < nRows; i++) {
+			for (int j = 0; j < nCols; j++) {
+				if (costMatrix[i][j] < blockingValue) {
+					cc[k] = costMatrix[i][j];
+					kk[k] = j;
+					k++;
+				}
+			}
+		}
+		return new SparseCostMatrix(cc, kk, start, nCols);
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	public int getNRows() {
+		return nRows;
+	}
+
+	public int getNCols() {
+		return nCols;
+	}
+
+	/**
+	 * Returns the number of non-blocked entries in this matrix.
+	 */
+	public int getCardinality() {
+		return cc.length;
+	}
+
+	/**
+	 * Returns the cost stored at the specified row and column, or the
+	 * specified blocking value if this entry is not stored in this matrix.
+	 */
+	public double get(final int i, final int j, final double blockingValue) {
+		final int k = Arrays.binarySearch(kk, start[i], start[i + 1], j);
+		if (k < 0) {
+			return blockingValue;
+		}
+		return cc[k];
+	}
+
+	/**
+	 * Returns a new matrix, transposed of this one.
+	 */
+	public SparseCostMatrix transpose() {
+		final int[] tstart = new int[nCols + 1];
+		for (int k = 0; k < kk.length; k++) {
+			tstart[kk[k] + 1]++;
+		}
+		for (int j = 0; j < nCols; j++) {
+			tstart[j + 1] += tstart[j];
+		}
+
+		final double[] tcc = new double[cc.length];
+		final int[] tkk = new int[kk.length];
+		final int[] fill = Arrays.copyOf(tstart, nCols);
+		// Iterating rows in ascending order keeps the column indices of the transposed sorted.
+		for (int i = 0; i < nRows; i++) {
+			for (int k = start[i]; k < start[i + 1]; k++) {
+				final int pos = fill[kk[k]]++;
+				tcc[pos] = cc[k];
+				tkk[pos] = i;
+			}
+		}
+		return new SparseCostMatrix(tcc, tkk, tstart, nRows);
+	}
+
+	/**
+	 * Returns a dense representation of this matrix, where absent entries are
+	 * set to the specified blocking value. Only use on small matrices, for
+	 * debugging purposes.
+	 */
+	public double[][] toFullMatrix(final double blockingValue) {
+		final double[][] m = new double[nRows][nCols];
+		for (int i = 0; i < nRows; i++) {
+			Arrays.fill(m[i], blockingValue);
+			for (int k = start[i]; k < start[i + 1]; k++) {
+				m[i][kk[k]] = cc[k];
+			}
+		}
+		return m;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + " " + nRows + " x " + nCols + " with " + cc.length + " non-blocked entries ("
+				+ String.format("%.1f", 100d * cc.length / Math.max(1d, (double) nRows * nCols)) + "% filled)";
+	}
+}
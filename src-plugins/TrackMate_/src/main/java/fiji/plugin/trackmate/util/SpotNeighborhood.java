@@ -29,7 +29,17 @@
 	 */
 	
 	public SpotNeighborhood(final Spot spot, final ImgPlus<T> img) {
-		this.calibration = TMUtils.getSpatialCalibration(img);
+		this(spot, img, TMUtils.getSpatialCalibration(img));
+	}
+
+	/**
+	 * Creates a neighborhood around the specified spot, using the specified
+	 * spatial calibration instead of reading it from the image. Callers that
+	 * iterate over many spots of the same image can compute the calibration
+	 * once and pass it here.
+	 */
+	public SpotNeighborhood(final Spot spot, final ImgPlus<T> img, final double[] calibration) {
+		this.calibration = calibration;
 		// Center
 		this.center = new long[img.numDimensions()];
 		for (int d = 0; d < center.length; d++) {
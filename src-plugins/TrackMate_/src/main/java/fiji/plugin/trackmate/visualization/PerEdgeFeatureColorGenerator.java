@@ -53,6 +53,10 @@ public void setCurrentTrackID(Integer trackID) { } // ignored
 	 */
 	@Override
 	public void modelChanged(ModelChangeEvent event) {
+		if (event.getEventID() == ModelChangeEvent.FEATURES_COMPUTED) {
+			resetMinAndMax();
+			return;
+		}
 		if (event.getEventID() != ModelChangeEvent.MODEL_MODIFIED || event.getEdges().size() == 0) {
 			return;
 		}
@@ -147,6 +147,10 @@ public void modelChanged(ModelChangeEvent event) {
 					refresh();
 				}
 			} 
+		} else if (event.getEventID() == ModelChangeEvent.FEATURES_COMPUTED) {
+			if (null != feature && !feature.equals(TrackIndexAnalyzer.TRACK_INDEX)) {
+				refresh();
+			}
 		}
 	}
 
@@ -53,7 +53,7 @@ public void modelChanged(ModelChangeEvent event) {
 			if (spots.size() > 0) {
 				computeSpotColors(feature);
 			} 
-		} else if (event.getEventID() == ModelChangeEvent.SPOTS_COMPUTED) {
+		} else if (event.getEventID() == ModelChangeEvent.SPOTS_COMPUTED || event.getEventID() == ModelChangeEvent.FEATURES_COMPUTED) {
 			computeSpotColors(feature);
 		}
 	}
@@ -122,6 +122,7 @@ public void modelChanged(ModelChangeEvent event) {
 			break;
 			
 		case ModelChangeEvent.SPOTS_FILTERED:
+		case ModelChangeEvent.FEATURES_COMPUTED:
 			redoOverlay = true;
 			break;
 
@@ -4,7 +4,9 @@
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -253,6 +255,85 @@ public void testGetNClosestSpots() {
 		}
 	}
 
+	@Test
+	public void testClosestSpotQueriesAfterChanges() {
+		int frame = frames.get(0);
+		Spot location = new Spot(new double[] { 50.1, 50.1, 50.1 } );
+		assertEquals(50d, sc.getClosestSpot(location, frame, false).getFeature(Spot.QUALITY), Double.MIN_VALUE);
+
+		// Add a spot closer to the location
+		Spot added = new Spot(new double[] { 50.15, 50.15, 50.15 } );
+		added.putFeature(Spot.RADIUS, 1d);
+		sc.add(added, frame);
+		assertEquals(added, sc.getClosestSpot(location, frame, false));
+		assertEquals(added, sc.getSpotAt(location, frame, true));
+		assertEquals(added, sc.getNClosestSpots(location, frame, 2, false).get(0));
+
+		// Move it away
+		added.putFeature(Spot.POSITION_X, 1000d);
+		sc.spotGeometryChanged(added);
+		assertEquals(50d, sc.getClosestSpot(location, frame, false).getFeature(Spot.QUALITY), Double.MIN_VALUE);
+		assertEquals(50d, sc.getNClosestSpots(location, frame, 2, false).get(0).getFeature(Spot.QUALITY), Double.MIN_VALUE);
+		assertEquals(50d, sc.getSpotAt(location, frame, false).getFeature(Spot.QUALITY), Double.MIN_VALUE);
+
+		// Move it back, then remove it
+		added.putFeature(Spot.POSITION_X, 50.15);
+		sc.spotGeometryChanged(added);
+		assertEquals(added, sc.getClosestSpot(location, frame, false));
+		sc.remove(added, frame);
+		assertEquals(50d, sc.getClosestSpot(location, frame, false).getFeature(Spot.QUALITY), Double.MIN_VALUE);
+
+		// Compare with an exhaustive search on random locations
+		Random ran = new Random(1l);
+		for (int i = 0; i < 100; i++) {
+			Spot loc = new Spot(new double[] { 100 * ran.nextDouble(), 100 * ran.nextDouble(), 100 * ran.nextDouble() } );
+			double minDist = Double.POSITIVE_INFINITY;
+			for (Spot spot : sc.iterable(frame, false)) {
+				minDist = Math.min(minDist, spot.squareDistanceTo(loc));
+			}
+			assertEquals(minDist, sc.getClosestSpot(loc, frame, false).squareDistanceTo(loc), Double.MIN_VALUE);
+		}
+
+		// Unknown frames
+		assertNull(sc.getClosestSpot(location, 0, false));
+		assertNull(sc.getSpotAt(location, 0, false));
+		assertTrue(sc.getNClosestSpots(location, 0, 5, false).isEmpty());
+	}
+
+	@Test
+	public void testKDTreeReused() {
+		int frame = frames.get(0);
+		int otherFrame = frames.get(1);
+		Spot location = new Spot(new double[] { 10.1, 10.1, 10.1 } );
+		assertEquals(10d, sc.getSpotAt(location, frame, false).getFeature(Spot.QUALITY), Double.MIN_VALUE);
+		SpotKDTree tree = sc.getKDTree(frame);
+		SpotKDTree otherTree = sc.getKDTree(otherFrame);
+
+		// Making a new query spot, as the spot edit tool does on every click, must not discard the tree
+		Spot newLocation = new Spot(new double[] { 20.1, 20.1, 20.1 } );
+		assertEquals(20d, sc.getSpotAt(newLocation, frame, false).getFeature(Spot.QUALITY), Double.MIN_VALUE);
+		assertSame(tree, sc.getKDTree(frame));
+
+		// Nor must changing a spot of another frame, or of another collection
+		Spot other = sc.iterator(otherFrame, false).next();
+		other.putFeature(Spot.POSITION_X, 1000d);
+		sc.spotGeometryChanged(other);
+		SpotCollection sc2 = new SpotCollection();
+		Spot spot2 = new Spot(new double[] { 1, 2, 3 } );
+		sc2.add(spot2, frame);
+		spot2.putFeature(Spot.RADIUS, 5d);
+		sc2.spotGeometryChanged(spot2);
+		assertSame(tree, sc.getKDTree(frame));
+		assertNotSame(otherTree, sc.getKDTree(otherFrame));
+
+		// Changing a spot of the frame rebuilds it
+		Spot spot = sc.getSpotAt(newLocation, frame, false);
+		spot.putFeature(Spot.RADIUS, 0.01d);
+		sc.spotGeometryChanged(spot);
+		assertNotSame(tree, sc.getKDTree(frame));
+		assertEquals(21d, sc.getSpotAt(newLocation, frame, false).getFeature(Spot.QUALITY), Double.MIN_VALUE);
+	}
+
 	@Test
 	public void testGetNSpots() {
 		// Filter by QUALITY lower than 20
@@ -0,0 +1,109 @@
+package fiji.plugin.trackmate.detection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.meta.Axes;
+import net.imglib2.meta.AxisType;
+import net.imglib2.meta.ImgPlus;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.SpotNeighborhood;
+
+/**
+ * Compares the spots found by {@link LogDetector} and {@link DogDetector} on
+ * a whole 3D image with the spots found when the image is split in blocks.
+ */
+public class TiledDetectorTest {
+
+	private static final double RADIUS = 2; // µm
+	private static final double SPACING = 10; // µm
+	private static final double WIDTH = 60; // µm
+	private static final double HEIGHT = 60; // µm
+	private static final double DEPTH = 20; // µm
+	private static final double[] CALIBRATION = new double[] { 0.5, 0.5, 1 };
+	private static final AxisType[] AXES = new AxisType[] { Axes.X, Axes.Y, Axes.Z };
+	private static final int BLOCK_SIZE = 32;
+	/** Tolerance on spot positions, in µm. */
+	private static final double TOLERANCE = 0.1;
+
+	private ImgPlus<UnsignedByteType> img;
+
+	/**
+	 * Paints well separated blobs of random intensity on a grid, with a
+	 * random jitter, so that some of them straddle block borders.
+	 */
+	@Before
+	public void setUp() {
+		final Random ran = new Random(1l);
+		final Img<UnsignedByteType> source = new ArrayImgFactory<UnsignedByteType>()
+				.create(new int[] { (int) (WIDTH / CALIBRATION[0]), (int) (HEIGHT / CALIBRATION[1]), (int) (DEPTH / CALIBRATION[2]) },
+						new UnsignedByteType());
+		img = new ImgPlus<UnsignedByteType>(source, "Test", AXES, CALIBRATION);
+
+		for (double z = SPACING / 2; z < DEPTH; z += SPACING) {
+			for (double y = SPACING / 2; y < HEIGHT; y += SPACING) {
+				for (double x = SPACING / 2; x < WIDTH; x += SPACING) {
+					final Spot tmpSpot = new Spot(new double[] { x + 2 * ran.nextDouble() - 1, y + 2 * ran.nextDouble() - 1, z + 2 * ran.nextDouble() - 1 });
+					tmpSpot.putFeature(Spot.RADIUS, RADIUS);
+					final int intensity = ran.nextInt(100) + 100;
+					final SpotNeighborhood<UnsignedByteType> sphere = new SpotNeighborhood<UnsignedByteType>(tmpSpot, img);
+					for (final UnsignedByteType pixel : sphere) {
+						pixel.set(intensity);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testLogDetectorBlocks() {
+		final LogDetector<UnsignedByteType> whole = new LogDetector<UnsignedByteType>(img, RADIUS, 10, true, false);
+		final LogDetector<UnsignedByteType> tiled = new LogDetector<UnsignedByteType>(img, RADIUS, 10, true, false);
+		assertSameSpots(whole, tiled);
+	}
+
+	@Test
+	public void testDogDetectorBlocks() {
+		final LogDetector<UnsignedByteType> whole = new DogDetector<UnsignedByteType>(img, RADIUS, 10, true, false);
+		final LogDetector<UnsignedByteType> tiled = new DogDetector<UnsignedByteType>(img, RADIUS, 10, true, false);
+		assertSameSpots(whole, tiled);
+	}
+
+	private static void assertSameSpots(final LogDetector<UnsignedByteType> whole, final LogDetector<UnsignedByteType> tiled) {
+		whole.setBlockSize(0);
+		assertFalse(whole.isTiled());
+		tiled.setBlockSize(BLOCK_SIZE);
+		tiled.setNumThreads(2);
+		assertTrue(tiled.isTiled());
+
+		final List<Spot> expected = detect(whole);
+		final List<Spot> actual = detect(tiled);
+		assertFalse(expected.isEmpty());
+		assertEquals(expected.size(), actual.size());
+
+		for (final Spot spot : expected) {
+			double minDistance = Double.POSITIVE_INFINITY;
+			for (final Spot other : actual) {
+				minDistance = Math.min(minDistance, Math.sqrt(spot.squareDistanceTo(other)));
+			}
+			assertEquals("Spot " + spot + " not found in blocks", 0, minDistance, TOLERANCE);
+		}
+	}
+
+	private static List<Spot> detect(final LogDetector<UnsignedByteType> detector) {
+		assertTrue(detector.getErrorMessage(), detector.checkInput());
+		assertTrue(detector.getErrorMessage(), detector.process());
+		return detector.getResult();
+	}
+}
@@ -0,0 +1,252 @@
+package fiji.plugin.trackmate.features;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.edges.EdgeAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackAnalyzer;
+
+public class ModelFeatureUpdaterTest {
+
+	private static final int BATCH_DELAY = 300;
+
+	private Model model;
+	private Settings settings;
+	private RecordingEdgeAnalyzer edgeAnalyzer;
+	private RecordingTrackAnalyzer trackAnalyzer;
+	private Spot s1, s2, s3, s4, s5;
+	private DefaultWeightedEdge e12, e23, e45;
+
+	/**
+	 * Two tracks: S1 - S2 - S3 and S4 - S5.
+	 */
+	@Before
+	public void setUp() {
+		model = new Model();
+		s1 = new Spot(new double[3], "S1");
+		s2 = new Spot(new double[3], "S2");
+		s3 = new Spot(new double[3], "S3");
+		s4 = new Spot(new double[3], "S4");
+		s5 = new Spot(new double[3], "S5");
+		model.beginUpdate();
+		try {
+			model.addSpotTo(s1, 0);
+			model.addSpotTo(s2, 1);
+			model.addSpotTo(s3, 2);
+			model.addSpotTo(s4, 0);
+			model.addSpotTo(s5, 1);
+			e12 = model.addEdge(s1, s2, 0);
+			e23 = model.addEdge(s2, s3, 0);
+			e45 = model.addEdge(s4, s5, 0);
+		} finally {
+			model.endUpdate();
+		}
+
+		settings = new Settings();
+		edgeAnalyzer = new RecordingEdgeAnalyzer();
+		trackAnalyzer = new RecordingTrackAnalyzer();
+		settings.addEdgeAnalyzer(edgeAnalyzer);
+		settings.addTrackAnalyzer(trackAnalyzer);
+	}
+
+	/**
+	 * Only the edges and tracks touched by a change must be recomputed.
+	 */
+	@Test
+	public void testDirtyTracking() {
+		new ModelFeatureUpdater(model, settings);
+
+		// Moving a spot dirties its edges and its track
+		s2.putFeature(Spot.POSITION_X, 10d);
+		model.beginUpdate();
+		try {
+			model.updateFeatures(s2);
+		} finally {
+			model.endUpdate();
+		}
+		assertEquals(1, edgeAnalyzer.calls.size());
+		assertEquals(set(e12, e23), edgeAnalyzer.calls.get(0));
+		assertEquals(1, trackAnalyzer.calls.size());
+		assertEquals(set(model.getTrackModel().trackIDOf(s2)), trackAnalyzer.calls.get(0));
+
+		// A new edge is computed with its track, the other track is left alone
+		final Spot s6 = new Spot(new double[3], "S6");
+		final DefaultWeightedEdge e56;
+		model.beginUpdate();
+		try {
+			model.addSpotTo(s6, 2);
+			e56 = model.addEdge(s5, s6, 0);
+		} finally {
+			model.endUpdate();
+		}
+		assertEquals(2, edgeAnalyzer.calls.size());
+		assertEquals(set(e56), edgeAnalyzer.calls.get(1));
+		assertEquals(2, trackAnalyzer.calls.size());
+		assertEquals(set(model.getTrackModel().trackIDOf(s6)), trackAnalyzer.calls.get(1));
+
+		// A removed edge is not computed
+		final int before = edgeAnalyzer.calls.size();
+		model.beginUpdate();
+		try {
+			model.removeEdge(e45);
+		} finally {
+			model.endUpdate();
+		}
+		for (int i = before; i < edgeAnalyzer.calls.size(); i++) {
+			assertFalse(edgeAnalyzer.calls.get(i).contains(e45));
+		}
+	}
+
+	/**
+	 * A burst of changes must trigger a single update, run once the model is
+	 * released, and followed by a features computed event.
+	 */
+	@Test
+	public void testBatchCoalescing() throws InterruptedException {
+		final ModelFeatureUpdater updater = new ModelFeatureUpdater(model, settings, BATCH_DELAY);
+		final CountDownLatch computed = new CountDownLatch(1);
+		model.addModelChangeListener(new ModelChangeListener() {
+			@Override
+			public void modelChanged(final ModelChangeEvent event) {
+				if (event.getEventID() == ModelChangeEvent.FEATURES_COMPUTED) {
+					computed.countDown();
+				}
+			}
+		});
+
+		final Spot s6 = new Spot(new double[3], "S6");
+		final DefaultWeightedEdge e36;
+		synchronized (model) {
+			s1.putFeature(Spot.POSITION_X, 10d);
+			model.beginUpdate();
+			try {
+				model.updateFeatures(s1);
+			} finally {
+				model.endUpdate();
+			}
+
+			model.beginUpdate();
+			try {
+				model.addSpotTo(s6, 3);
+				e36 = model.addEdge(s3, s6, 0);
+			} finally {
+				model.endUpdate();
+			}
+
+			// The update must wait for the model to be released
+			Thread.sleep(2 * BATCH_DELAY);
+			assertEquals(0, edgeAnalyzer.calls.size());
+			assertEquals(0, trackAnalyzer.calls.size());
+		}
+
+		assertTrue("Features were not computed in time.", computed.await(10, TimeUnit.SECONDS));
+		assertEquals(1, edgeAnalyzer.calls.size());
+		assertEquals(set(e12, e36), edgeAnalyzer.calls.get(0));
+		assertEquals(1, trackAnalyzer.calls.size());
+		assertEquals(set(model.getTrackModel().trackIDOf(s1)), trackAnalyzer.calls.get(0));
+
+		// Nothing left to do
+		updater.flush();
+		assertEquals(1, edgeAnalyzer.calls.size());
+		updater.quit();
+	}
+
+	/*
+	 * UTILS
+	 */
+
+	private static <T> Set<T> set(final T... elements) {
+		final Set<T> set = new HashSet<T>(elements.length);
+		Collections.addAll(set, elements);
+		return set;
+	}
+
+	/**
+	 * Base for analyzers that record what they are asked to process, and
+	 * declare no features.
+	 */
+	private static abstract class RecordingAnalyzer<T> implements FeatureAnalyzer {
+
+		final List<Set<T>> calls = Collections.synchronizedList(new ArrayList<Set<T>>());
+
+		void record(final Collection<T> items) {
+			calls.add(new HashSet<T>(items));
+		}
+
+		public boolean isLocal() {
+			return true;
+		}
+
+		public int getNumThreads() {
+			return 1;
+		}
+
+		public void setNumThreads() {}
+
+		public void setNumThreads(final int numThreads) {}
+
+		public long getProcessingTime() {
+			return 0;
+		}
+
+		@Override
+		public String getKey() {
+			return getClass().getSimpleName();
+		}
+
+		@Override
+		public List<String> getFeatures() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Map<String, String> getFeatureShortNames() {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public Map<String, String> getFeatureNames() {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public Map<String, Dimension> getFeatureDimensions() {
+			return Collections.emptyMap();
+		}
+	}
+
+	private static class RecordingEdgeAnalyzer extends RecordingAnalyzer<DefaultWeightedEdge> implements EdgeAnalyzer {
+		@Override
+		public void process(final Collection<DefaultWeightedEdge> edges) {
+			record(edges);
+		}
+	}
+
+	private static class RecordingTrackAnalyzer extends RecordingAnalyzer<Integer> implements TrackAnalyzer {
+		@Override
+		public void process(final Collection<Integer> trackIDs) {
+			record(trackIDs);
+		}
+	}
+}
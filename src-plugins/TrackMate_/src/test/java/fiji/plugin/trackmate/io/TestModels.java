@@ -0,0 +1,125 @@
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+
+/**
+ * The model shared by the reader and writer tests of this package, and the
+ * assertion used to compare it with the model read back from a file.
+ */
+final class TestModels {
+
+	static final int N_TRACKS = 10;
+	static final int DEPTH = 5;
+	static final int N_LONE_SPOTS = 7;
+
+	private TestModels() {}
+
+	/**
+	 * Create {@value #N_TRACKS} linear tracks over {@value #DEPTH} frames, and
+	 * {@value #N_LONE_SPOTS} spots per frame that do not belong to any track.
+	 */
+	static Model createModel() {
+		final Random ran = new Random(1l);
+		final Model model = new Model();
+		model.setPhysicalUnits("µm", "s");
+		model.beginUpdate();
+		try {
+			for (int i = 0; i < N_TRACKS; i++) {
+				Spot previous = null;
+				for (int j = 0; j < DEPTH; j++) {
+					final Spot spot = createSpot(ran, j);
+					model.addSpotTo(spot, j);
+					if (null != previous) {
+						model.addEdge(previous, spot, ran.nextDouble());
+					}
+					previous = spot;
+				}
+			}
+			for (int j = 0; j < DEPTH; j++) {
+				for (int i = 0; i < N_LONE_SPOTS; i++) {
+					model.addSpotTo(createSpot(ran, j), j);
+				}
+			}
+		} finally {
+			model.endUpdate();
+		}
+
+		// Edge and track features
+		final FeatureModel fm = model.getFeatureModel();
+		fm.declareEdgeFeatures(EdgeTargetAnalyzer.FEATURES, EdgeTargetAnalyzer.FEATURE_NAMES, EdgeTargetAnalyzer.FEATURE_SHORT_NAMES, EdgeTargetAnalyzer.FEATURE_DIMENSIONS);
+		fm.declareTrackFeatures(TrackIndexAnalyzer.FEATURES, TrackIndexAnalyzer.FEATURE_NAMES, TrackIndexAnalyzer.FEATURE_SHORT_NAMES, TrackIndexAnalyzer.FEATURE_DIMENSIONS);
+		new EdgeTargetAnalyzer(model).process(model.getTrackModel().edgeSet());
+		new TrackIndexAnalyzer(model).process(model.getTrackModel().trackIDs(false));
+
+		// Hide one track
+		model.setTrackVisibility(model.getTrackModel().trackIDs(false).iterator().next(), false);
+		return model;
+	}
+
+	private static Spot createSpot(final Random ran, final int frame) {
+		final Spot spot = new Spot(new double[] { 100 * ran.nextDouble(), 100 * ran.nextDouble(), 0 });
+		spot.putFeature(Spot.POSITION_T, Double.valueOf(frame));
+		spot.putFeature(Spot.QUALITY, ran.nextDouble());
+		spot.putFeature(Spot.RADIUS, 1 + ran.nextDouble());
+		return spot;
+	}
+
+	static void assertSameModel(final Model expected, final Model actual) {
+		assertEquals(expected.getSpaceUnits(), actual.getSpaceUnits());
+		assertEquals(expected.getTimeUnits(), actual.getTimeUnits());
+
+		// Spots
+		assertEquals(expected.getSpots().keySet(), actual.getSpots().keySet());
+		assertEquals(expected.getSpots().getNSpots(false), actual.getSpots().getNSpots(false));
+		assertEquals(expected.getSpots().getNSpots(true), actual.getSpots().getNSpots(true));
+		for (final Spot spot : expected.getSpots().iterable(false)) {
+			final Spot other = actual.getSpots().search(spot.ID());
+			assertNotNull("Could not find spot " + spot, other);
+			assertEquals(spot.getName(), other.getName());
+			final Map<String, Double> features = spot.getFeatures();
+			assertEquals(features.size(), other.getFeatures().size());
+			for (final String feature : features.keySet()) {
+				assertEquals(features.get(feature), other.getFeature(feature));
+			}
+		}
+
+		// Tracks
+		final TrackModel etm = expected.getTrackModel();
+		final TrackModel atm = actual.getTrackModel();
+		assertEquals(etm.trackIDs(false), atm.trackIDs(false));
+		assertEquals(etm.trackIDs(true), atm.trackIDs(true));
+		for (final Integer trackID : etm.trackIDs(false)) {
+			assertEquals(etm.name(trackID), atm.name(trackID));
+			for (final String feature : expected.getFeatureModel().getTrackFeatures()) {
+				assertEquals(expected.getFeatureModel().getTrackFeature(trackID, feature), actual.getFeatureModel().getTrackFeature(trackID, feature));
+			}
+		}
+
+		// Edges
+		assertEquals(etm.edgeSet().size(), atm.edgeSet().size());
+		for (final DefaultWeightedEdge edge : etm.edgeSet()) {
+			final Spot source = actual.getSpots().search(etm.getEdgeSource(edge).ID());
+			final Spot target = actual.getSpots().search(etm.getEdgeTarget(edge).ID());
+			final DefaultWeightedEdge other = atm.getEdge(source, target);
+			assertNotNull("Could not find edge " + edge, other);
+			assertEquals(etm.getEdgeWeight(edge), atm.getEdgeWeight(other), 0d);
+			assertEquals(etm.trackIDOf(edge), atm.trackIDOf(other));
+			for (final String feature : EdgeTargetAnalyzer.FEATURES) {
+				assertEquals(expected.getFeatureModel().getEdgeFeature(edge, feature), actual.getFeatureModel().getEdgeFeature(other, feature));
+			}
+		}
+	}
+}
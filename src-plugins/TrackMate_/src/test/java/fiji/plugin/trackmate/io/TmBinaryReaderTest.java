@@ -0,0 +1,123 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TestModels.DEPTH;
+import static fiji.plugin.trackmate.io.TestModels.N_LONE_SPOTS;
+import static fiji.plugin.trackmate.io.TestModels.N_TRACKS;
+import static fiji.plugin.trackmate.io.TestModels.assertSameModel;
+import static fiji.plugin.trackmate.io.TestModels.createModel;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * Tests for {@link TmBinaryWriter}, {@link TmBinaryReader} and
+ * {@link TmBinaryConverter}.
+ */
+public class TmBinaryReaderTest {
+
+	private Model model;
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		model = createModel();
+		// A spot with a NaN feature, and one without quality
+		final Iterator<Spot> it = model.getSpots().iterable(2, false).iterator();
+		it.next().putFeature(Spot.QUALITY, Double.NaN);
+		final Spot spot = new Spot(new double[] { 1, 2, 3 });
+		spot.putFeature(Spot.RADIUS, 0.5);
+		model.beginUpdate();
+		try {
+			model.addSpotTo(spot, 3);
+		} finally {
+			model.endUpdate();
+		}
+
+		file = File.createTempFile("TrackMate", ".tmb");
+		file.deleteOnExit();
+		new TmBinaryWriter(file).write(model);
+	}
+
+	@Test
+	public void testRoundTrip() {
+		final TmBinaryReader reader = new TmBinaryReader(file);
+		final Model loaded = reader.getModel();
+		reader.close();
+		assertTrue(reader.getErrorMessage(), reader.isReadingOk());
+		assertNotNull(loaded);
+		assertEquals(fiji.plugin.trackmate.TrackMate.PLUGIN_NAME_VERSION, reader.getVersion());
+		assertSameModel(model, loaded);
+		assertEquals(model.getFeatureModel().getSpotFeatures(), loaded.getFeatureModel().getSpotFeatures());
+		assertEquals(model.getFeatureModel().getEdgeFeatures(), loaded.getFeatureModel().getEdgeFeatures());
+		assertEquals(model.getFeatureModel().getTrackFeatures(), loaded.getFeatureModel().getTrackFeatures());
+		assertEquals(model.getFeatureModel().getSpotFeatureDimensions(), loaded.getFeatureModel().getSpotFeatureDimensions());
+	}
+
+	@Test
+	public void testLazyFrameLoading() {
+		final TmBinaryReader reader = new TmBinaryReader(file);
+		assertTrue(reader.getErrorMessage(), reader.isReadingOk());
+		assertEquals(model.getSpots().keySet(), reader.getFrames());
+		assertEquals(model.getSpots().getNSpots(false), reader.getNSpots());
+		assertEquals(N_TRACKS + N_LONE_SPOTS + 1, reader.getNSpots(3));
+		assertEquals(0, reader.getNSpots(DEPTH + 1));
+
+		final Set<Spot> spots = reader.getSpots(3);
+		assertEquals(N_TRACKS + N_LONE_SPOTS + 1, spots.size());
+		for (final Spot spot : spots) {
+			final Spot source = model.getSpots().search(spot.ID());
+			assertNotNull(source);
+			assertEquals(source.getName(), spot.getName());
+			assertEquals(source.getFeatures(), spot.getFeatures());
+		}
+		assertTrue(reader.getSpots(DEPTH + 1).isEmpty());
+
+		reader.close();
+		assertNull(reader.getSpots(3));
+		assertFalse(reader.isReadingOk());
+	}
+
+	@Test
+	public void testInvalidFile() throws IOException {
+		final File other = File.createTempFile("TrackMate", ".tmb");
+		other.deleteOnExit();
+		final FileOutputStream fos = new FileOutputStream(other);
+		fos.write("Not a TrackMate file.".getBytes("UTF-8"));
+		fos.close();
+
+		final TmBinaryReader reader = new TmBinaryReader(other);
+		assertFalse(reader.isReadingOk());
+		assertNull(reader.getModel());
+	}
+
+	@Test
+	public void testConversion() throws IOException {
+		final File xmlFile = File.createTempFile("TrackMate", ".xml");
+		xmlFile.deleteOnExit();
+		final File binaryFile = File.createTempFile("TrackMate", ".tmb");
+		binaryFile.deleteOnExit();
+
+		TmBinaryConverter.binaryToXml(file, xmlFile);
+		TmBinaryConverter.xmlToBinary(xmlFile, binaryFile);
+
+		final TmBinaryReader reader = new TmBinaryReader(binaryFile);
+		final Model loaded = reader.getModel();
+		reader.close();
+		assertTrue(reader.getErrorMessage(), reader.isReadingOk());
+		assertSameModel(model, loaded);
+	}
+}
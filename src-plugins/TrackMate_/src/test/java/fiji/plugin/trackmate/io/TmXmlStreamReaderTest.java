@@ -0,0 +1,120 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TestModels.DEPTH;
+import static fiji.plugin.trackmate.io.TestModels.N_LONE_SPOTS;
+import static fiji.plugin.trackmate.io.TestModels.N_TRACKS;
+import static fiji.plugin.trackmate.io.TestModels.assertSameModel;
+import static fiji.plugin.trackmate.io.TestModels.createModel;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * Round-trip tests between {@link TmXmlWriter}, {@link TmXmlStreamWriter},
+ * {@link TmXmlReader} and {@link TmXmlStreamReader}.
+ */
+public class TmXmlStreamReaderTest {
+
+	private static final String LOG = "Some log text.";
+	private Model model;
+
+	@Before
+	public void setUp() {
+		model = createModel();
+	}
+
+	@Test
+	public void testStreamReaderReadsWriterOutput() throws IOException {
+		final File file = File.createTempFile("TrackMate", ".xml");
+		file.deleteOnExit();
+		final TmXmlWriter writer = new TmXmlWriter(file);
+		writer.appendLog(LOG);
+		writer.appendModel(model);
+		writer.writeToFile();
+
+		final TmXmlStreamReader reader = new TmXmlStreamReader(file);
+		final Model loaded = reader.getModel();
+		assertTrue(reader.getErrorMessage(), reader.isReadingOk());
+		assertNotNull(loaded);
+		assertEquals(LOG, reader.getLog());
+		assertEquals(fiji.plugin.trackmate.TrackMate.PLUGIN_NAME_VERSION, reader.getVersion());
+		assertSameModel(model, loaded);
+
+		final Model loaded2 = new TmXmlReader(file).getModel();
+		assertSameModel(loaded2, loaded);
+	}
+
+	@Test
+	public void testReaderReadsStreamWriterOutput() throws IOException {
+		final File file = File.createTempFile("TrackMate", ".xml");
+		file.deleteOnExit();
+		final TmXmlStreamWriter writer = new TmXmlStreamWriter(file);
+		writer.appendLog(LOG);
+		writer.appendModel(model);
+		writer.writeToFile();
+
+		final TmXmlReader reader = new TmXmlReader(file);
+		final Model loaded = reader.getModel();
+		assertTrue(reader.getErrorMessage(), reader.isReadingOk());
+		assertEquals(LOG, reader.getLog());
+		assertSameModel(model, loaded);
+
+		final TmXmlStreamReader streamReader = new TmXmlStreamReader(file);
+		assertSameModel(model, streamReader.getModel());
+		assertTrue(streamReader.getErrorMessage(), streamReader.isReadingOk());
+	}
+
+	@Test
+	public void testFrameInterval() throws IOException {
+		final File file = File.createTempFile("TrackMate", ".xml");
+		file.deleteOnExit();
+		final TmXmlStreamWriter writer = new TmXmlStreamWriter(file);
+		writer.appendModel(model);
+		writer.writeToFile();
+
+		final TmXmlStreamReader reader = new TmXmlStreamReader(file);
+		reader.setFrameInterval(1, 2);
+		final Model loaded = reader.getModel();
+		assertTrue(reader.getErrorMessage(), reader.isReadingOk());
+
+		assertEquals(2 * (N_TRACKS + N_LONE_SPOTS), loaded.getSpots().getNSpots(false));
+		assertEquals(N_TRACKS + N_LONE_SPOTS, loaded.getSpots().getNSpots(1, false));
+		assertEquals(0, loaded.getSpots().getNSpots(0, false));
+		assertEquals(N_TRACKS, loaded.getTrackModel().edgeSet().size());
+		assertEquals(N_TRACKS, loaded.getTrackModel().nTracks(false));
+		for (final DefaultWeightedEdge edge : loaded.getTrackModel().edgeSet()) {
+			final int sourceFrame = loaded.getTrackModel().getEdgeSource(edge).getFeature(Spot.FRAME).intValue();
+			final int targetFrame = loaded.getTrackModel().getEdgeTarget(edge).getFeature(Spot.FRAME).intValue();
+			assertEquals(3, sourceFrame + targetFrame);
+		}
+	}
+
+	@Test
+	public void testTracksOnly() throws IOException {
+		final File file = File.createTempFile("TrackMate", ".xml");
+		file.deleteOnExit();
+		final TmXmlStreamWriter writer = new TmXmlStreamWriter(file);
+		writer.appendModel(model);
+		writer.writeToFile();
+
+		final TmXmlStreamReader reader = new TmXmlStreamReader(file);
+		reader.setTracksOnly(true);
+		final Model loaded = reader.getModel();
+		assertTrue(reader.getErrorMessage(), reader.isReadingOk());
+
+		assertEquals(N_TRACKS * DEPTH, loaded.getSpots().getNSpots(false));
+		assertEquals(model.getTrackModel().edgeSet().size(), loaded.getTrackModel().edgeSet().size());
+		assertEquals(model.getTrackModel().trackIDs(false), loaded.getTrackModel().trackIDs(false));
+		assertEquals(model.getTrackModel().trackIDs(true), loaded.getTrackModel().trackIDs(true));
+	}
+}
@@ -0,0 +1,84 @@
+package fiji.plugin.trackmate.tracking.hungarian;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class JonkerVolgenantAlgorithmTest {
+
+	private static final double BLOCKED = Double.POSITIVE_INFINITY;
+
+	/**
+	 * Compares the total cost found by the sparse solver to the one found by
+	 * the dense Munkres-Kuhn solver, on random sparse feasible problems.
+	 */
+	@Test
+	public void testSameCostAsMunkresKuhn() {
+		final Random ran = new Random(1l);
+		for (int t = 0; t < 500; t++) {
+			final int n = 2 + ran.nextInt(20);
+			final double[][] costs = new double[n][n];
+			final double[][] denseCosts = new double[n][n];
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					costs[i][j] = ran.nextDouble() < 0.7 ? BLOCKED : ran.nextInt(100);
+				}
+				// Make sure the problem is feasible.
+				costs[i][(i + 1) % n] = 200 + ran.nextInt(10);
+			}
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					denseCosts[i][j] = costs[i][j] == BLOCKED ? 1e6 : costs[i][j];
+				}
+			}
+
+			final int[][] expected = new AssignmentProblem(denseCosts).solve(new MunkresKuhnAlgorithm());
+			final int[][] actual = new JonkerVolgenantAlgorithm().computeAssignments(SparseCostMatrix.fromDense(costs, BLOCKED));
+
+			assertEquals("All rows should be assigned.", n, actual.length);
+			final boolean[] columnUsed = new boolean[n];
+			for (final int[] solution : actual) {
+				assertFalse("Column " + solution[1] + " is assigned twice.", columnUsed[solution[1]]);
+				columnUsed[solution[1]] = true;
+			}
+			assertEquals(totalCost(denseCosts, expected), totalCost(costs, actual), 1e-9);
+		}
+	}
+
+	@Test
+	public void testSparseMatrix() {
+		final double[][] costs = new double[][] {
+				{ 1, BLOCKED, 3 },
+				{ BLOCKED, BLOCKED, 2 },
+				{ 4, 5, BLOCKED } };
+		final SparseCostMatrix cm = SparseCostMatrix.fromDense(costs, BLOCKED);
+		assertEquals(5, cm.getCardinality());
+		assertEquals(3d, cm.get(0, 2, BLOCKED), 0);
+		assertEquals(BLOCKED, cm.get(1, 0, BLOCKED), 0);
+
+		final double[][] transposed = cm.transpose().toFullMatrix(BLOCKED);
+		for (int i = 0; i < costs.length; i++) {
+			for (int j = 0; j < costs.length; j++) {
+				assertEquals(costs[i][j], transposed[j][i], 0);
+			}
+		}
+
+		final int[][] solutions = new JonkerVolgenantAlgorithm().computeAssignments(cm);
+		assertEquals(3, solutions.length);
+		assertEquals(1d + 2d + 5d, totalCost(costs, solutions), 0);
+	}
+
+	private static final double totalCost(final double[][] costs, final int[][] solutions) {
+		double total = 0;
+		for (final int[] solution : solutions) {
+			if (solution.length == 0) {
+				continue;
+			}
+			total += costs[solution[0]][solution[1]];
+		}
+		return total;
+	}
+}
@@ -64,6 +64,10 @@
  *   that option is deselected).
  *
  * - Use some faster eigenvalue calculation code for the 3x3 case.
+ *
+ * - Added hessianEigenvaluesOfSlice3D for finding the eigenvalues
+ *   for a whole slice at once, so that slices can be processed in
+ *   parallel.
  */
 
 package features;
@@ -89,6 +93,8 @@
 import math3d.JacobiDouble;
 import math3d.JacobiFloat;
 
+import java.util.Arrays;
+
 public class ComputeCurvatures implements Runnable
 {
     static class TrivialProgressDisplayer implements GaussianGenerationCallback {
@@ -797,6 +803,163 @@ public boolean hessianEigenvaluesAtPoint3D( int x,
         return true;
     }
 
+    /* Calculates the eigenvalues of the Hessian at every point of
+       slice z (zero-indexed) of the 3D data at once, which is much
+       faster than calling hessianEigenvaluesAtPoint3D( ... ) for
+       each point.  The second derivatives for the whole slice are
+       found with the same finite differences as in
+       computeHessianMatrix3DFloat, but the first derivatives are
+       shared between neighbouring points, and the eigenvalues are
+       found with the closed form solver in
+       Eigensystem3x3Float.findSymmetricEvalues, which doesn't
+       allocate anything.
+
+       result should be float[3][width*height]; result[i][y*width+x]
+       is set to the ith eigenvalue at (x,y,z), ordered as in
+       hessianEigenvaluesAtPoint3D.  If fixUp is true, points on the
+       faces of the volume get the values of the nearest point inside
+       (as fixUp does for the point-wise methods), otherwise they are
+       set to zero.  It is safe to call this for different slices
+       from several threads at once. */
+
+    public void hessianEigenvaluesOfSlice3D( int z, // zero-indexed
+                                             boolean orderOnAbsoluteSize,
+                                             float [][] result, /* should be 3 x width*height */
+                                             boolean normalize,
+                                             boolean fixUp,
+                                             float sepX,
+                                             float sepY,
+                                             float sepZ ) {
+
+        if( ! _3D ) {
+            IJ.error("hessianEigenvaluesOfSlice3D( z, ... ) is only for 3D data.");
+            return;
+        }
+
+        FloatArray3D data3D = (FloatArray3D)data;
+
+        int width = data3D.width;
+        int height = data3D.height;
+        int depth = data3D.depth;
+        int plane = width * height;
+        float [] d = data3D.data;
+
+        if( fixUp ) {
+            if( z == 0 )
+                z = 1;
+            if( z == (depth - 1) )
+                z = depth - 2;
+        }
+
+        for( int i = 0; i < 3; ++i )
+            Arrays.fill( result[i], 0 );
+
+        if( width < 3 || height < 3 || z < 1 || z > (depth - 2) )
+            return;
+
+        // The first derivatives in x (of this slice and the ones
+        // either side) and in y (of the slices either side):
+
+        float [] gxBelow = xDifferences( d, (z - 1) * plane, width, height );
+        float [] gxHere = xDifferences( d, z * plane, width, height );
+        float [] gxAbove = xDifferences( d, (z + 1) * plane, width, height );
+        float [] gyBelow = yDifferences( d, (z - 1) * plane, width, height );
+        float [] gyAbove = yDifferences( d, (z + 1) * plane, width, height );
+
+        // FIXME: get Stephan to remind me why this is needed...
+        double sigmaSquared = sigma * sigma;
+
+        float [] evalues = new float[3];
+
+        for( int y = 1; y < height - 1; ++y ) {
+            for( int x = 1; x < width - 1; ++x ) {
+
+                int i = y * width + x;
+                int p = z * plane + i;
+
+                float temp = 2 * d[p];
+
+                float xx = d[p + 1] - temp + d[p - 1];
+                float yy = d[p + width] - temp + d[p - width];
+                float zz = d[p + plane] - temp + d[p - plane];
+                float xy = ( gxHere[i + width] - gxHere[i - width] ) / 2;
+                float xz = ( gxAbove[i] - gxBelow[i] ) / 2;
+                float yz = ( gyAbove[i] - gyBelow[i] ) / 2;
+
+                Eigensystem3x3Float.findSymmetricEvalues( (float)( xx * sigmaSquared ),
+                                                          (float)( xy * sigmaSquared ),
+                                                          (float)( xz * sigmaSquared ),
+                                                          (float)( yy * sigmaSquared ),
+                                                          (float)( yz * sigmaSquared ),
+                                                          (float)( zz * sigmaSquared ),
+                                                          evalues );
+
+                // These are in descending order, so just reverse
+                // them unless we're ordering on absolute size:
+
+                float e0 = evalues[2];
+                float e1 = evalues[1];
+                float e2 = evalues[0];
+
+                if( orderOnAbsoluteSize ) {
+                    float t;
+                    if( Math.abs( e0 ) > Math.abs( e1 ) ) { t = e0; e0 = e1; e1 = t; }
+                    if( Math.abs( e1 ) > Math.abs( e2 ) ) { t = e1; e1 = e2; e2 = t; }
+                    if( Math.abs( e0 ) > Math.abs( e1 ) ) { t = e0; e0 = e1; e1 = t; }
+                }
+
+                if( normalize ) {
+                    float divideBy = Math.abs( e2 );
+                    e0 /= divideBy;
+                    e1 /= divideBy;
+                    e2 /= divideBy;
+                }
+
+                result[0][i] = e0;
+                result[1][i] = e1;
+                result[2][i] = e2;
+            }
+        }
+
+        if( fixUp ) {
+            for( int i = 0; i < 3; ++i ) {
+                float [] r = result[i];
+                for( int y = 1; y < height - 1; ++y ) {
+                    r[y * width] = r[y * width + 1];
+                    r[y * width + width - 1] = r[y * width + width - 2];
+                }
+                System.arraycopy( r, width, r, 0, width );
+                System.arraycopy( r, (height - 2) * width, r, (height - 1) * width, width );
+            }
+        }
+    }
+
+    /* (d(x+1) - d(x-1)) / 2 for the interior of one slice, starting
+       at offset in d: */
+
+    static float [] xDifferences( float [] d, int offset, int width, int height ) {
+        float [] result = new float[width * height];
+        for( int y = 0; y < height; ++y ) {
+            int i = y * width;
+            for( int x = 1; x < width - 1; ++x )
+                result[i + x] = ( d[offset + i + x + 1] - d[offset + i + x - 1] ) / 2;
+        }
+        return result;
+    }
+
+    /* (d(y+1) - d(y-1)) / 2 for the interior of one slice, starting
+       at offset in d: */
+
+    static float [] yDifferences( float [] d, int offset, int width, int height ) {
+        float [] result = new float[width * height];
+        for( int y = 1; y < height - 1; ++y ) {
+            int i = y * width;
+            for( int x = 0; x < width; ++x )
+                result[i + x] = ( d[offset + i + x + width] - d[offset + i + x - width] ) / 2;
+        }
+        return result;
+    }
+
     // ------------------------------------------------------------------------
 
     /**
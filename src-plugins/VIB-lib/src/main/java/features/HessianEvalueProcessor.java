@@ -10,6 +10,8 @@
 import ij.process.ImageProcessor;
 import ij.process.FloatProcessor;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public abstract class HessianEvalueProcessor implements GaussianGenerationCallback {
 
 	public void proportionDone(double d) {
@@ -22,11 +24,18 @@ public void proportionDone(double d) {
 	protected boolean normalize = false;
 	protected double sigma = 1.0;
 	protected boolean useCalibration = false;
+	protected int numberOfThreads = Runtime.getRuntime().availableProcessors();
 
 	public void setSigma( double newSigma ) {
 		sigma = newSigma;
 	}
 
+	/* The number of threads used for calculating the eigenvalues of
+	   3D images (one slice at a time). */
+	public void setNumberOfThreads( int numberOfThreads ) {
+		this.numberOfThreads = Math.max( 1, numberOfThreads );
+	}
+
 	public ImagePlus generateImage(ImagePlus original) {
 
 		Calibration calibration=original.getCalibration();
@@ -56,7 +65,7 @@ public ImagePlus generateImage(ImagePlus original) {
 		IJ.showStatus("Calculating Hessian eigenvalues at each point...");
 
 		float minResult = Float.MAX_VALUE;
-		float maxResult = Float.MIN_VALUE;
+		float maxResult = -Float.MAX_VALUE;
 
 		if( depth == 1 ) {
 
@@ -92,40 +101,84 @@ public ImagePlus generateImage(ImagePlus original) {
 
 		} else {
 
-			for (int z = 0; z < depth; ++z) {
-
-				float[] slice = new float[width * height];
-
-				if ((z >= 1) && (z < depth - 1)) {
-					for (int y = 1; y < height - 1; ++y) {
-						for (int x = 1; x < width - 1; ++x) {
-
-							boolean real = c.hessianEigenvaluesAtPoint3D(x, y, z,
-												     true, // order absolute
-												     evalues,
-												     normalize,
-												     false,
-												     sepX,
-												     sepY,
-												     sepZ);
-							int index = y * width + x;
-							float value = 0;
-							if( real )
-								value = measureFromEvalues3D(evalues);
-							slice[index] = value;
-							if( value < minResult )
-								minResult = value;
-							if( value > maxResult )
-								maxResult = value;
+			/* Each thread takes the next slice, finds the
+			   eigenvalues for the whole slice at once and then
+			   the measure from them: */
+
+			final ComputeCurvatures fc = c;
+			final int fWidth = width, fHeight = height, fDepth = depth;
+			final float fSepX = sepX, fSepY = sepY, fSepZ = sepZ;
+			final FloatProcessor [] processors = new FloatProcessor[depth];
+			final float [] threadMinima = new float[numberOfThreads];
+			final float [] threadMaxima = new float[numberOfThreads];
+			final AtomicInteger nextSlice = new AtomicInteger(0);
+			final AtomicInteger slicesDone = new AtomicInteger(0);
+
+			Thread [] threads = new Thread[numberOfThreads];
+			for (int t = 0; t < numberOfThreads; ++t) {
+				final int threadIndex = t;
+				threads[t] = new Thread() {
+					public void run() {
+						float [][] sliceEvalues = new float[3][fWidth * fHeight];
+						float [] evalues = new float[3];
+						float min = Float.MAX_VALUE;
+						float max = -Float.MAX_VALUE;
+						int z;
+						while ((z = nextSlice.getAndIncrement()) < fDepth) {
+							float[] slice = new float[fWidth * fHeight];
+							if ((z >= 1) && (z < fDepth - 1)) {
+								fc.hessianEigenvaluesOfSlice3D(z,
+											       true, // order absolute
+											       sliceEvalues,
+											       normalize,
+											       false,
+											       fSepX,
+											       fSepY,
+											       fSepZ);
+								for (int y = 1; y < fHeight - 1; ++y) {
+									for (int x = 1; x < fWidth - 1; ++x) {
+										int index = y * fWidth + x;
+										evalues[0] = sliceEvalues[0][index];
+										evalues[1] = sliceEvalues[1][index];
+										evalues[2] = sliceEvalues[2][index];
+										float value = measureFromEvalues3D(evalues);
+										slice[index] = value;
+										if( value < min )
+											min = value;
+										if( value > max )
+											max = value;
+									}
+								}
+							}
+							FloatProcessor fp = new FloatProcessor(fWidth, fHeight);
+							fp.setPixels(slice);
+							processors[z] = fp;
+							IJ.showProgress(slicesDone.incrementAndGet() / (double) fDepth);
 						}
+						threadMinima[threadIndex] = min;
+						threadMaxima[threadIndex] = max;
 					}
-				}
+				};
+				threads[t].start();
+			}
+
+			try {
+				for (int t = 0; t < numberOfThreads; ++t)
+					threads[t].join();
+			} catch (InterruptedException e) {
+				IJ.error("Interrupted while calculating the Hessian eigenvalues");
+				return null;
+			}
 
-				FloatProcessor fp = new FloatProcessor(width, height);
-				fp.setPixels(slice);
-				stack.addSlice(null, fp);
-				IJ.showProgress(z / (double) depth);
+			for (int t = 0; t < numberOfThreads; ++t) {
+				if( threadMinima[t] < minResult )
+					minResult = threadMinima[t];
+				if( threadMaxima[t] > maxResult )
+					maxResult = threadMaxima[t];
 			}
+
+			for (int z = 0; z < depth; ++z)
+				stack.addSlice(null, processors[z]);
 		}
 
 		IJ.showProgress(1.0);
@@ -183,4 +183,95 @@ public boolean findEvalues() {
 			return true;
 		}
 	}
+
+	/* Finds the eigenvalues of the symmetric matrix:
+
+			A  B  C
+			B  D  E
+			C  E  F
+
+	   ... using the trigonometric method in Smith, "Eigenvalues of
+	   a symmetric 3 x 3 matrix", Communications of the ACM 4(4),
+	   1961.  Unlike findEvalues() this always finds three real roots
+	   (as it should for a symmetric matrix) and doesn't allocate
+	   anything, so it is better suited to calling at every point of
+	   an image.  The eigenvalues are written to result in descending
+	   order. */
+
+	public static void findSymmetricEvalues( /*change*/double A,
+						 /*change*/double B,
+						 /*change*/double C,
+						 /*change*/double D,
+						 /*change*/double E,
+						 /*change*/double F,
+						 /*change*/double [] result ) {
+
+		double offDiagonal = (double)B * B + (double)C * C + (double)E * E;
+
+		if( offDiagonal == 0 ) {
+
+			// The matrix is diagonal already:
+
+			double e0 = A, e1 = D, e2 = F, t;
+			if( e0 < e1 ) { t = e0; e0 = e1; e1 = t; }
+			if( e1 < e2 ) { t = e1; e1 = e2; e2 = t; }
+			if( e0 < e1 ) { t = e0; e0 = e1; e1 = t; }
+			result[0] = (/*change*/double)e0;
+			result[1] = (/*change*/double)e1;
+			result[2] = (/*change*/double)e2;
+			return;
+		}
+
+		// Shift by the mean of the eigenvalues and scale so that
+		// the roots of the characteristic polynomial of the
+		// resulting matrix are 2 cos( phi + 2 k pi / 3 ):
+
+		double q = ( (double)A + D + F ) / 3;
+
+		double a = A - q;
+		double d = D - q;
+		double f = F - q;
+
+		double p = Math.sqrt( ( a * a + d * d + f * f + 2 * offDiagonal ) / 6 );
+
+		double determinant =
+			+ a * ( d * f - (double)E * E )
+			- B * ( (double)B * f - (double)E * C )
+			+ C * ( (double)B * E - d * C );
+
+		double r = determinant / ( 2 * p * p * p );
+
+		// phi is acos( r ) / 3, but Math.acos is much slower than
+		// Math.atan2; rounding errors may take r slightly outside
+		// [-1,1]:
+
+		double phi;
+		if( r <= -1 )
+			phi = Math.PI / 3;
+		else if( r >= 1 )
+			phi = 0;
+		else
+			phi = Math.atan2( Math.sqrt( 1 - r * r ), r ) / 3;
+
+		// cos( phi + 2 pi / 3 ) = - ( cos( phi ) + sqrt( 3 ) sin( phi ) ) / 2
+
+		double cosPhi = Math.cos( phi );
+		double sinPhi = Math.sin( phi );
+
+		double largest = q + 2 * p * cosPhi;
+		double smallest = q - p * ( cosPhi + 1.7320508075688772935 * sinPhi );
+
+		// The trace gives the middle one, which rounding might
+		// put just outside the other two:
+
+		double middle = 3 * q - largest - smallest;
+		if( middle > largest )
+			middle = largest;
+		else if( middle < smallest )
+			middle = smallest;
+
+		result[0] = (/*change*/double)largest;
+		result[1] = (/*change*/double)middle;
+		result[2] = (/*change*/double)smallest;
+	}
 }
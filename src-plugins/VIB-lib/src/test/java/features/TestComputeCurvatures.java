@@ -0,0 +1,80 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+/* Checks that the eigenvalues found for a whole slice at once agree
+   with those found point by point. */
+
+package features;
+
+import org.junit.Test;
+import org.junit.Before;
+import static org.junit.Assert.*;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+
+import java.util.Random;
+
+public class TestComputeCurvatures {
+
+	static final int width = 13, height = 11, depth = 7;
+
+	ComputeCurvatures curvatures;
+
+	@Before
+	public void setUp() {
+		Random random = new Random(1234);
+		ImageStack stack = new ImageStack(width, height);
+		for( int z = 0; z < depth; ++z ) {
+			float [] pixels = new float[width * height];
+			for( int i = 0; i < pixels.length; ++i )
+				pixels[i] = 100 * random.nextFloat();
+			stack.addSlice(null, new FloatProcessor(width, height, pixels, null));
+		}
+		curvatures = new ComputeCurvatures(new ImagePlus("random", stack), 1.0, null, false);
+		curvatures.run();
+	}
+
+	@Test
+	public void testSliceMatchesPoints() {
+		for( int flags = 0; flags < 8; ++flags )
+			checkSlices((flags & 1) != 0, (flags & 2) != 0, (flags & 4) != 0);
+	}
+
+	void checkSlices(boolean orderOnAbsoluteSize, boolean normalize, boolean fixUp) {
+		String description = "orderOnAbsoluteSize=" + orderOnAbsoluteSize +
+			", normalize=" + normalize + ", fixUp=" + fixUp;
+		float [][] sliceEvalues = new float[3][width * height];
+		float [] pointEvalues = new float[3];
+		int compared = 0;
+		for( int z = 0; z < depth; ++z ) {
+			curvatures.hessianEigenvaluesOfSlice3D(z, orderOnAbsoluteSize, sliceEvalues,
+							       normalize, fixUp, 1, 1, 1);
+			for( int y = 0; y < height; ++y )
+				for( int x = 0; x < width; ++x ) {
+					int i = y * width + x;
+					boolean inside = x > 0 && y > 0 && z > 0 &&
+						x < width - 1 && y < height - 1 && z < depth - 1;
+					if( !fixUp && !inside ) {
+						// Points on the faces are left at zero
+						for( int e = 0; e < 3; ++e )
+							assertEquals(description + " at " + x + "," + y + "," + z,
+								     0, sliceEvalues[e][i], 0);
+						continue;
+					}
+					if( !curvatures.hessianEigenvaluesAtPoint3D(x, y, z, orderOnAbsoluteSize,
+										    pointEvalues, normalize, fixUp, 1, 1, 1) )
+						continue;
+					float scale = Math.max(Math.abs(pointEvalues[0]),
+							       Math.max(Math.abs(pointEvalues[1]), Math.abs(pointEvalues[2])));
+					for( int e = 0; e < 3; ++e )
+						assertEquals(description + ", eigenvalue " + e + " at " + x + "," + y + "," + z,
+							     pointEvalues[e], sliceEvalues[e][i], 1e-4 * scale);
+					++compared;
+				}
+		}
+		int expected = fixUp ? width * height * depth : (width - 2) * (height - 2) * (depth - 2);
+		assertTrue(description + ": only " + compared + " of " + expected + " points compared",
+			   compared > expected * 0.95);
+	}
+}
@@ -427,6 +427,48 @@ public void test3x3RootFindingFloat() {
 		if (printTimings) System.out.println("testRootFinding: "+(System.currentTimeMillis()-startTime)/1000.0);
 	}
 
+	@Test
+	public void test3x3SymmetricDouble() {
+
+		long startTime = System.currentTimeMillis();
+
+		double [] result = new double[3];
+
+		for( Iterator<TestMatrixAndResultDouble> i = realSymmetricTestCases3x3Double.iterator();
+		     i.hasNext(); ) {
+
+			TestMatrixAndResultDouble mr = i.next();
+
+			Eigensystem3x3Double.findSymmetricEvalues(mr.m[0][0], mr.m[0][1], mr.m[0][2],
+								  mr.m[1][1], mr.m[1][2], mr.m[2][2], result);
+			assertTrue(result[0] >= result[1] && result[1] >= result[2]);
+			mr.checkEvalues(result);
+		}
+
+		if (printTimings) System.out.println("testSymmetricDouble: "+(System.currentTimeMillis()-startTime)/1000.0);
+	}
+
+	@Test
+	public void test3x3SymmetricFloat() {
+
+		long startTime = System.currentTimeMillis();
+
+		float [] result = new float[3];
+
+		for( Iterator<TestMatrixAndResultFloat> i = realSymmetricTestCases3x3Float.iterator();
+		     i.hasNext(); ) {
+
+			TestMatrixAndResultFloat mr = i.next();
+
+			Eigensystem3x3Float.findSymmetricEvalues(mr.m[0][0], mr.m[0][1], mr.m[0][2],
+								 mr.m[1][1], mr.m[1][2], mr.m[2][2], result);
+			assertTrue(result[0] >= result[1] && result[1] >= result[2]);
+			mr.checkEvalues(result);
+		}
+
+		if (printTimings) System.out.println("testSymmetricFloat: "+(System.currentTimeMillis()-startTime)/1000.0);
+	}
+
 	// ========================================================================
 
 	@Test
@@ -176,6 +176,16 @@ public int[] getPatchSize()
 	{
 		return patchSize.clone();
 	}
+	
+	protected Image<T> getInputImage()
+	{
+		return inputImage;
+	}
+	
+	protected OutOfBoundsStrategyFactory<T> getOutOfBoundsFactory()
+	{
+		return outsideFactory;
+	}
 
 	/**
 	 * Returns the {@link Image} that will eventually become the result of this
@@ -292,4 +302,9 @@ public long getProcessingTime()
 		return pTime;
 	}
 	
+	protected void setProcessingTime(final long time)
+	{
+		pTime = time;
+	}
+	
 }
@@ -374,6 +374,22 @@ public void run()
 						computeFFT( final Image<T> img, final S complexType, final OutOfBoundsStrategyFactory<T> outOfBoundsFactory,
 						            final int[] imageOffset, final int[] imageSize,
 						            final int numThreads, final boolean scale )
+	{
+		return computeFFT( img, complexType, outOfBoundsFactory, imageOffset, imageSize, numThreads, scale, null );
+	}
+
+	/**
+	 * Computes the FFT of an image into a given complex image, which allows to re-use the
+	 * complex image for subsequent transforms of images of the same size.
+	 * 
+	 * @param output - the complex image to write into, its size has to be imageSize[ 0 ] / 2 + 1 in
+	 * dimension 0 and imageSize[ d ] in all others; if null a new one is created
+	 * @return the complex image, or null if it could not be created or does not have the right size
+	 */
+	final public static <T extends RealType<T>, S extends ComplexType<S>> Image<S> 
+						computeFFT( final Image<T> img, final S complexType, final OutOfBoundsStrategyFactory<T> outOfBoundsFactory,
+						            final int[] imageOffset, final int[] imageSize,
+						            final int numThreads, final boolean scale, final Image<S> output )
 	{
 		final int numDimensions = img.getNumDimensions();
 		
@@ -385,8 +401,21 @@ public void run()
 		for ( int d = 1; d < numDimensions; ++d )
 			complexSize[ d ] = imageSize[ d ];
 		
-		final ImageFactory<S> imgFactory = new ImageFactory<S>( complexType, img.getContainerFactory() );
-		final Image<S> fftImage = imgFactory.createImage( complexSize );
+		final Image<S> fftImage;
+		
+		if ( output == null )
+		{
+			final ImageFactory<S> imgFactory = new ImageFactory<S>( complexType, img.getContainerFactory() );
+			fftImage = imgFactory.createImage( complexSize );
+		}
+		else
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+				if ( output.getDimension( d ) != complexSize[ d ] )
+					return null;
+			
+			fftImage = output;
+		}
 		
 		// not enough memory
 		if ( fftImage == null )
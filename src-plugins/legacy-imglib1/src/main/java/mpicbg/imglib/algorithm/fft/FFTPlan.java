@@ -0,0 +1,273 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package mpicbg.imglib.algorithm.fft;
+
+import java.util.IdentityHashMap;
+
+import edu.mines.jtk.dsp.FftComplex;
+import edu.mines.jtk.dsp.FftReal;
+import mpicbg.imglib.algorithm.fft.FourierTransform.FFTOptimization;
+import mpicbg.imglib.container.ContainerFactory;
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyFactory;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyValueFactory;
+import mpicbg.imglib.type.numeric.RealType;
+import mpicbg.imglib.type.numeric.complex.ComplexFloatType;
+
+/**
+ * Fixes the zero-padded size of the Fourier transforms used to convolve images of one size, so
+ * that repeated convolutions (e.g. in iterative deconvolutions) do not recompute it. The plan
+ * re-uses one complex image for all forward transforms of input images, and caches the spectra
+ * of the kernels it was asked for by their identity (the size is fixed by the plan). If the content
+ * of a kernel changes, call {@link #removeKernelSpectrum(Image)}.
+ * 
+ * The quadrants of the spectra are not rearranged. A plan is not thread-safe, but the kernel
+ * spectra it returns are only read during a convolution and may be shared.
+ */
+public class FFTPlan
+{
+	final int numDimensions;
+	final int[] imageSize, imageExtension, paddedSize, complexSize, imageOffset;
+	final ContainerFactory containerFactory;
+	
+	// the complex image all forward transforms are computed into
+	Image<ComplexFloatType> buffer = null;
+	
+	final IdentityHashMap< Image<?>, Image<ComplexFloatType> > kernelSpectra = new IdentityHashMap< Image<?>, Image<ComplexFloatType> >();
+	
+	int numThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * @param imageSize - the size of the images that will be transformed
+	 * @param imageExtension - by how much the images are extended in each dimension before the transform (e.g. kernel size - 1 for a convolution)
+	 * @param fftOptimization - pad for speed or for memory
+	 * @param containerFactory - creates the complex images
+	 */
+	public FFTPlan( final int[] imageSize, final int[] imageExtension, final FFTOptimization fftOptimization, final ContainerFactory containerFactory )
+	{
+		this.numDimensions = imageSize.length;
+		this.imageSize = imageSize.clone();
+		this.imageExtension = imageExtension.clone();
+		this.containerFactory = containerFactory;
+		
+		final int[] extendedSize = new int[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			extendedSize[ d ] = imageSize[ d ] + imageExtension[ d ];
+		
+		// the first dimension is real to complex, all the other dimensions complex to complex
+		this.paddedSize = new int[ numDimensions ];
+		
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			if ( fftOptimization == FFTOptimization.SPEED )
+				paddedSize[ d ] = d == 0 ? FftReal.nfftFast( extendedSize[ d ] ) : FftComplex.nfftFast( extendedSize[ d ] );
+			else
+				paddedSize[ d ] = d == 0 ? FftReal.nfftSmall( extendedSize[ d ] ) : FftComplex.nfftSmall( extendedSize[ d ] );
+		}
+		
+		this.complexSize = paddedSize.clone();
+		this.complexSize[ 0 ] = paddedSize[ 0 ] / 2 + 1;
+		
+		this.imageOffset = new int[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			imageOffset[ d ] = ( paddedSize[ d ] - imageSize[ d ] ) / 2;
+	}
+	
+	/**
+	 * Creates a plan for convolving images of the given size with kernels of the given size
+	 */
+	public FFTPlan( final int[] imageSize, final int[] kernelSize, final ContainerFactory containerFactory )
+	{
+		this( imageSize, getKernelExtension( kernelSize ), FFTOptimization.SPEED, containerFactory );
+	}
+	
+	protected static int[] getKernelExtension( final int[] kernelSize )
+	{
+		// the image has to be extended by the size of the kernel-1
+		final int[] imageExtension = kernelSize.clone();
+		for ( int d = 0; d < imageExtension.length; ++d )
+			--imageExtension[ d ];
+		
+		return imageExtension;
+	}
+	
+	public void setNumThreads( final int numThreads ) { this.numThreads = numThreads; }
+	public int getNumThreads() { return numThreads; }
+	
+	public int[] getImageSize() { return imageSize.clone(); }
+	public int[] getImageExtension() { return imageExtension.clone(); }
+	public int[] getPaddedSize() { return paddedSize.clone(); }
+	public int[] getComplexSize() { return complexSize.clone(); }
+	public int[] getImageOffset() { return imageOffset.clone(); }
+	
+	/**
+	 * @return true if images of this size can be transformed with this plan
+	 */
+	public boolean fits( final int[] size )
+	{
+		if ( size.length != numDimensions )
+			return false;
+		
+		for ( int d = 0; d < numDimensions; ++d )
+			if ( size[ d ] != imageSize[ d ] )
+				return false;
+		
+		return true;
+	}
+	
+	/**
+	 * Computes the FFT of an image, extended by the given strategy and centered in the padded size,
+	 * into the complex image that is re-used by all calls. Its content is overwritten by the next call.
+	 * 
+	 * @param image - the image, must fit the plan
+	 * @param outOfBoundsFactory - how to extend the image
+	 * @return the spectrum, or null if it could not be computed
+	 */
+	public <T extends RealType<T>> Image<ComplexFloatType> forward( final Image<T> image, final OutOfBoundsStrategyFactory<T> outOfBoundsFactory )
+	{
+		if ( !fits( image.getDimensions() ) )
+			return null;
+		
+		if ( buffer == null )
+			buffer = new ImageFactory<ComplexFloatType>( new ComplexFloatType(), containerFactory ).createImage( complexSize );
+		
+		return FFTFunctions.computeFFT( image, new ComplexFloatType(), outOfBoundsFactory, imageOffset, paddedSize, numThreads, false, buffer );
+	}
+	
+	/**
+	 * Computes the inverse FFT of a spectrum of this plan into a new image of the original image size.
+	 * The spectrum is destroyed.
+	 * 
+	 * @param spectrum - the spectrum, e.g. returned by {@link #forward(Image, OutOfBoundsStrategyFactory)} and modified
+	 * @param type - the type of the output image
+	 * @return the image
+	 */
+	public <T extends RealType<T>> Image<T> inverse( final Image<ComplexFloatType> spectrum, final T type )
+	{
+		return FFTFunctions.computeInverseFFT( spectrum, type, numThreads, true, true, imageSize, imageOffset, 1 );
+	}
+	
+	/**
+	 * Returns the spectrum of a kernel (its center moved to the origin), computed once per kernel instance.
+	 * 
+	 * @param kernel - the kernel, must have odd size
+	 * @return the spectrum, or null if it could not be computed
+	 */
+	public <S extends RealType<S>> Image<ComplexFloatType> getKernelSpectrum( final Image<S> kernel )
+	{
+		Image<ComplexFloatType> spectrum = kernelSpectra.get( kernel );
+		
+		if ( spectrum == null )
+		{
+			spectrum = computeKernelSpectrum( kernel );
+			
+			if ( spectrum != null )
+				kernelSpectra.put( kernel, spectrum );
+		}
+		
+		return spectrum;
+	}
+	
+	/**
+	 * Forgets the cached spectrum of a kernel, e.g. because it was modified
+	 */
+	public void removeKernelSpectrum( final Image<?> kernel )
+	{
+		final Image<ComplexFloatType> spectrum = kernelSpectra.remove( kernel );
+		
+		if ( spectrum != null )
+			spectrum.close();
+	}
+	
+	/**
+	 * @return true if the spectrum was computed and is owned by this plan
+	 */
+	public boolean isKernelSpectrum( final Image<ComplexFloatType> spectrum )
+	{
+		return kernelSpectra.containsValue( spectrum );
+	}
+	
+	protected <S extends RealType<S>> Image<ComplexFloatType> computeKernelSpectrum( final Image<S> kernel )
+	{
+		final int[] kernelDim = kernel.getDimensions();
+		
+		// instantiate real valued kernel template of the padded size
+		final Image<S> kernelTemplate = new ImageFactory<S>( kernel.createType(), containerFactory ).createImage( paddedSize );
+		
+		if ( kernelTemplate == null )
+			return null;
+		
+		// copy the kernel into the kernelTemplate,
+		// the key here is that the center pixel of the kernel (e.g. 13,13,13)
+		// is located at (0,0,0)
+		final LocalizableCursor<S> kernelCursor = kernel.createLocalizableCursor();
+		final LocalizableByDimCursor<S> kernelTemplateCursor = kernelTemplate.createLocalizableByDimCursor();
+		
+		final int[] position = new int[ numDimensions ];
+		while ( kernelCursor.hasNext() )
+		{
+			kernelCursor.next();
+			kernelCursor.getPosition( position );
+			
+			for ( int d = 0; d < numDimensions; ++d )
+				position[ d ] = ( position[ d ] - kernelDim[ d ]/2 + paddedSize[ d ] ) % paddedSize[ d ];
+			
+			kernelTemplateCursor.setPosition( position );
+			kernelTemplateCursor.getType().set( kernelCursor.getType() );
+		}
+		
+		kernelCursor.close();
+		kernelTemplateCursor.close();
+		
+		final Image<ComplexFloatType> spectrum = FFTFunctions.computeFFT( kernelTemplate, new ComplexFloatType(), 
+				new OutOfBoundsStrategyValueFactory<S>(), new int[ numDimensions ], paddedSize, numThreads, false );
+		
+		kernelTemplate.close();
+		
+		return spectrum;
+	}
+	
+	/**
+	 * Closes the re-used complex image and all cached kernel spectra
+	 */
+	public void close()
+	{
+		if ( buffer != null )
+			buffer.close();
+		
+		buffer = null;
+		
+		for ( final Image<ComplexFloatType> spectrum : kernelSpectra.values() )
+			spectrum.close();
+		
+		kernelSpectra.clear();
+	}
+}
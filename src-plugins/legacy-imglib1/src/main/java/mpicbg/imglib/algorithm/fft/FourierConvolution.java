@@ -64,6 +64,7 @@
 	Image<S> kernel;
 	Image<ComplexFloatType> kernelFFT, imgFFT; 
 	FourierTransform<T, ComplexFloatType> fftImage;
+	FFTPlan plan = null;
 	boolean keepImgFFT = true;
 	boolean extendImgByKernelSize = true;
 	
@@ -116,7 +117,17 @@ public boolean replaceImage( final Image<T> img )
 	 * 
 	 * @param extend
 	 */
-	public void setExtendImageByKernelSize( final boolean extend ) { this.extendImgByKernelSize = extend; }
+	public void setExtendImageByKernelSize( final boolean extend )
+	{
+		// the spectra differ in size
+		if ( extend != extendImgByKernelSize )
+		{
+			imgFFT = null;
+			kernelFFT = null;
+		}
+		
+		this.extendImgByKernelSize = extend;
+	}
 	public boolean getExtendImageByKernelSize() { return extendImgByKernelSize; }
 	
 	/**
@@ -126,6 +137,26 @@ public boolean replaceImage( final Image<T> img )
 	public void setKeepImgFFT( final boolean keepImgFFT ) { this.keepImgFFT = keepImgFFT; }
 	public boolean getKeepImgFFT() { return this.keepImgFFT; } 
 
+	/**
+	 * @return the {@link FFTPlan} used if the image is extended by the kernel size, null until {@link #process()} created it.
+	 * It fixes the padded size, re-uses the complex image across calls and caches the spectra of all kernels used so far.
+	 */
+	public FFTPlan getPlan() { return plan; }
+
+	/**
+	 * @return the Fourier spectrum of the kernel, null until {@link #process()} computed it
+	 */
+	public Image<ComplexFloatType> getKernelFFT() { return kernelFFT; }
+
+	/**
+	 * Sets a precomputed Fourier spectrum of the kernel, e.g. taken from another {@link FourierConvolution}
+	 * of the same kernel and an image of the same size. It is only read by {@link #process()}, so several
+	 * instances may share it.
+	 * 
+	 * @param kernelFFT
+	 */
+	public void setKernelFFT( final Image<ComplexFloatType> kernelFFT ) { this.kernelFFT = kernelFFT; }
+
 	public boolean replaceKernel( final Image<S> knl )
 	{
 		if ( !knl.getContainer().compareStorageContainerCompatibility( this.kernel.getContainer() ))
@@ -135,6 +166,10 @@ public boolean replaceKernel( final Image<S> knl )
 		}
 		else
 		{
+			// the same kernel might have been modified
+			if ( plan != null )
+				plan.removeKernelSpectrum( knl );
+
 			this.kernel = knl;
 			// the fft has to be recomputed
 			this.kernelFFT = null;
@@ -272,6 +307,9 @@ public boolean process()
 	{		
 		final long startTime = System.currentTimeMillis();
 
+		if ( extendImgByKernelSize )
+			return processWithPlan( startTime );
+
 		//
 		// compute fft of the input image
 		//
@@ -381,27 +419,7 @@ public boolean process()
 		else
 			copy = imgFFT;
 		
-		long numPixels = copy.getDimension( 0 );
-		for ( int d = 1; d < copy.getNumDimensions(); ++d )
-			numPixels *= copy.getDimension( d );
-		
-		final Vector< Chunk > threadChunks = SimpleMultiThreading.divideIntoChunks( numPixels, getNumThreads() );
-		
-		final AtomicInteger ai = new AtomicInteger(0);					
-        final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-        for ( int ithread = 0; ithread < threads.length; ++ithread )
-            threads[ithread] = new Thread(new Runnable()
-            {
-                public void run()
-                {
-                	// get chunk of pixels to process
-                	final Chunk myChunk = threadChunks.get( ai.getAndIncrement() );
-                	
-            		multiply( myChunk.getStartPosition(), myChunk.getLoopSize(), copy, kernelFFT );
-                }
-            });
-        
-        SimpleMultiThreading.startAndJoin( threads );
+		multiply( copy, kernelFFT, getNumThreads() );
 
 		//multiply( copy, kernelFFT );
 		
@@ -432,6 +450,116 @@ public void run()
         return true;
 	}
 	
+	/**
+	 * Convolves the image extended by the kernel size using the {@link FFTPlan}, which is (re-)created
+	 * if the size of the image changed. The FFT of the image is computed into the complex image of the plan,
+	 * and the spectrum of the kernel is taken from its cache unless it was set.
+	 */
+	protected boolean processWithPlan( final long startTime )
+	{
+		if ( plan == null || !plan.fits( image.getDimensions() ) )
+		{
+			if ( plan != null )
+				plan.close();
+
+			imgFFT = null;
+			plan = new FFTPlan( image.getDimensions(), kernelDim, image.getContainerFactory() );
+		}
+		
+		plan.setNumThreads( getNumThreads() );
+
+		//
+		// compute fft of the input image
+		//
+		if ( imgFFT == null ) //not computed in a previous step
+		{
+			imgFFT = plan.forward( image, strategy );
+			
+			if ( imgFFT == null )
+			{
+				errorMessage = "FFT of image failed: not enough memory";
+				return false;
+			}
+		}
+		
+		//
+		// get the fft of the kernel
+		//
+		if ( kernelFFT == null )
+		{
+			kernelFFT = plan.getKernelSpectrum( kernel );
+			
+			if ( kernelFFT == null )
+			{
+				errorMessage = "FFT of kernel failed: not enough memory";
+				return false;
+			}
+		}
+		
+		//
+		// Multiply in Fourier Space
+		//
+		final Image< ComplexFloatType > copy;
+		
+		if ( keepImgFFT )
+			copy = imgFFT.clone();
+		else
+			copy = imgFFT;
+		
+		multiply( copy, kernelFFT, getNumThreads() );
+		
+		//
+		// Compute inverse Fourier Transform
+		//
+		convolved = plan.inverse( copy, image.createType() );
+		
+		if ( keepImgFFT )
+			copy.close();
+		else
+			imgFFT = null; // it was destroyed, the complex image of the plan is re-used in the next call
+		
+		if ( convolved == null )
+		{
+			errorMessage = "InverseFFT of image failed: not enough memory";
+			return false;
+		}
+		
+		processingTime = System.currentTimeMillis() - startTime;
+        return true;
+	}
+	
+	/**
+	 * Multiply in Fourier Space, multithreaded
+	 * 
+	 * @param a - is overwritten with the product
+	 * @param b
+	 * @param numThreads
+	 */
+	private final static void multiply( final Image< ComplexFloatType > a, final Image< ComplexFloatType > b, final int numThreads )
+	{
+		long numPixels = a.getDimension( 0 );
+		for ( int d = 1; d < a.getNumDimensions(); ++d )
+			numPixels *= a.getDimension( d );
+		
+		final Vector< Chunk > threadChunks = SimpleMultiThreading.divideIntoChunks( numPixels, numThreads );
+		
+		final AtomicInteger ai = new AtomicInteger(0);					
+        final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+        for ( int ithread = 0; ithread < threads.length; ++ithread )
+            threads[ithread] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                	// get chunk of pixels to process
+                	final Chunk myChunk = threadChunks.get( ai.getAndIncrement() );
+                	
+            		multiply( myChunk.getStartPosition(), myChunk.getLoopSize(), a, b );
+                }
+            });
+        
+        SimpleMultiThreading.startAndJoin( threads );
+	}
+	
 	/**
 	 * Multiply in Fourier Space
 	 * 
@@ -522,15 +650,29 @@ public boolean checkInput()
 	
 	public void close()
 	{
-		kernelFFT.close(); 
+		if ( plan != null )
+		{
+			// the plan owns the spectra it computed and its complex image
+			if ( kernelFFT != null && !plan.isKernelSpectrum( kernelFFT ) )
+				kernelFFT.close();
+
+			plan.close();
+			plan = null;
+		}
+		else
+		{
+			if ( kernelFFT != null )
+				kernelFFT.close();
+			
+			if ( imgFFT != null )
+				imgFFT.close();
+		}
 		
 		image = null;
 		convolved = null;
 		kernel = null;
 		kernelFFT = null;
-		
-		if ( imgFFT != null )
-			imgFFT.close();
+		imgFFT = null;
 	}
 
 	@Override
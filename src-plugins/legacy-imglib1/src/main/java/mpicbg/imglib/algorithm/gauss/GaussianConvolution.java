@@ -37,6 +37,7 @@
 import mpicbg.imglib.multithreading.SimpleMultiThreading;
 import mpicbg.imglib.outofbounds.OutOfBoundsStrategyFactory;
 import mpicbg.imglib.type.numeric.NumericType;
+import mpicbg.imglib.type.numeric.RealType;
 import mpicbg.imglib.type.numeric.real.FloatType;
 
 /**
@@ -46,6 +47,9 @@
  */
 public class GaussianConvolution < T extends NumericType<T> > extends GaussianConvolution3<T, T, T>
 {
+	boolean useLineBuffers = true;
+	double recursiveSigma = Double.POSITIVE_INFINITY;
+	
 	public GaussianConvolution( final Image<T> image, final OutOfBoundsStrategyFactory<T> outOfBoundsFactory, final double[] sigma )
 	{
 		super( image, null, null, outOfBoundsFactory, null, null, sigma );
@@ -56,6 +60,26 @@ public GaussianConvolution( final Image<T> image, final OutOfBoundsStrategyFacto
 		this( image, outOfBoundsFactory, createArray( image, sigma ) );
 	}
 	
+	/**
+	 * Defines if images of a {@link RealType} are convolved line by line in primitive arrays by
+	 * {@link SeparableLineConvolution} (the default), or pixel by pixel as before (with cursors,
+	 * or directly on the array for 3d {@link FloatType} arrays).
+	 * 
+	 * @param useLineBuffers
+	 */
+	public void setUseLineBuffers( final boolean useLineBuffers ) { this.useLineBuffers = useLineBuffers; }
+	public boolean getUseLineBuffers() { return useLineBuffers; }
+	
+	/**
+	 * Defines from which sigma on a dimension is filtered with the {@link RecursiveGaussian} instead of
+	 * a kernel. Its cost does not depend on sigma, but it only approximates the Gaussian. Only used
+	 * with line buffers; by default all dimensions are convolved with a kernel.
+	 * 
+	 * @param recursiveSigma
+	 */
+	public void setRecursiveSigma( final double recursiveSigma ) { this.recursiveSigma = recursiveSigma; }
+	public double getRecursiveSigma() { return recursiveSigma; }
+	
 	protected Image<T> getTempImage1( final int currentDim )
 	{
 		if ( currentDim == 0 )
@@ -97,9 +121,17 @@ protected Image<T> getConvolvedImage()
 		return output;		
 	}
 	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
 	protected boolean processWithOptimizedMethod()
 	{
-		if ( Array3D.class.isInstance( image.getContainer() ) && FloatType.class.isInstance( image.createType() ))
+		if ( useLineBuffers && RealType.class.isInstance( image.createType() ) )
+		{
+			/* inconvertible types due to javac bug 6548436 */
+			convolved = (Image)computeGaussLineBuffered( (Image)image, (OutOfBoundsStrategyFactory)outOfBoundsFactory, sigma, kernel, recursiveSigma, getNumThreads() );
+			
+			return true;
+		}
+		else if ( Array3D.class.isInstance( image.getContainer() ) && FloatType.class.isInstance( image.createType() ))
 		{
  			convolved = computeGaussFloatArray3D( image, outOfBoundsFactory, kernel, getNumThreads() );
     		    		
@@ -111,6 +143,39 @@ protected boolean processWithOptimizedMethod()
 		}
 	}
 	
+	/**
+	 * Convolves the image in all dimensions using {@link SeparableLineConvolution}, alternating between two
+	 * temporary images. Dimensions with a sigma of at least recursiveSigma are filtered with the {@link RecursiveGaussian}.
+	 */
+	protected static <R extends RealType<R>> Image<R> computeGaussLineBuffered( final Image<R> image, final OutOfBoundsStrategyFactory<R> outOfBoundsFactory, 
+			final double[] sigma, final double[][] kernel, final double recursiveSigma, final int numThreads )
+	{
+		final int numDimensions = image.getNumDimensions();
+		
+		final Image<R> temp1 = image.createNewImage();
+		final Image<R> temp2 = numDimensions > 1 ? image.createNewImage() : null;
+		
+		Image<R> input = image;
+		Image<R> output = temp1;
+		
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			if ( sigma[ d ] >= recursiveSigma )
+				RecursiveGaussian.filter( input, output, outOfBoundsFactory, d, sigma[ d ], RecursiveGaussian.Derivative.NONE, numThreads );
+			else
+				SeparableLineConvolution.convolve( input, output, outOfBoundsFactory, d, kernel[ d ], numThreads );
+			
+			input = output;
+			output = ( output == temp1 ) ? temp2 : temp1;
+		}
+		
+		// close the temporary image that does not hold the result
+		if ( output != null )
+			output.close();
+		
+		return input;
+	}
+	
 	/**
 	 * This class does the gaussian filtering of an image. On the edges of
 	 * the image it does mirror the pixels. It also uses the seperability of
@@ -0,0 +1,226 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package mpicbg.imglib.algorithm.gauss;
+
+import mpicbg.imglib.algorithm.gauss.SeparableLineConvolution.LineFilter;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyFactory;
+import mpicbg.imglib.type.numeric.RealType;
+
+/**
+ * Approximates a Gaussian convolution and its first and second derivative along lines with a recursive
+ * (IIR) filter after Young and van Vliet, "Recursive implementation of the Gaussian filter", Signal
+ * Processing 44 (1995), using the poles of van Vliet, Young and Verbeek, "Recursive Gaussian derivative
+ * filters", ICPR 1998, which are scaled so that the variance of the filter is exactly sigma^2. A causal and
+ * an anti-causal third order filter are applied in sequence, so the cost per pixel does not depend on sigma,
+ * unlike the convolution with a kernel whose size grows with sigma. The derivatives are computed by central
+ * differences of the smoothed line.
+ * 
+ * The approximation is good for sigma &gt;= 2 (the error of the impulse response is 1-2% of its peak),
+ * it gets worse for smaller sigmas, which are cheap to convolve with a kernel anyway. The lines are
+ * extended by the {@link OutOfBoundsStrategyFactory} by 3 sigma on both sides to initialize the filter.
+ */
+public class RecursiveGaussian implements LineFilter
+{
+	/**
+	 * The order of the derivative that is computed
+	 */
+	public static enum Derivative { NONE, FIRST, SECOND }
+	
+	final double sigma;
+	final Derivative derivative;
+	final int extension;
+	
+	// the normalized coefficients of the recursion w[ n ] = B * x[ n ] + b1 * w[ n-1 ] + b2 * w[ n-2 ] + b3 * w[ n-3 ]
+	final double B, b1, b2, b3;
+	
+	// the poles for sigma=2 (optimized in the L2 norm) in polar coordinates, 1.41650 +/- 1.00829i and 1.86543
+	final static double POLE_ABS = Math.sqrt( 1.41650 * 1.41650 + 1.00829 * 1.00829 );
+	final static double POLE_ARG = Math.atan2( 1.00829, 1.41650 );
+	final static double POLE_REAL = 1.86543;
+	
+	/**
+	 * @param sigma - the sigma of the Gaussian, should be &gt;= 2
+	 * @param derivative - which derivative to compute
+	 */
+	public RecursiveGaussian( final double sigma, final Derivative derivative )
+	{
+		this.sigma = sigma;
+		this.derivative = derivative;
+		
+		// the Gaussian is extended by 3 sigma like the kernels of the GaussianConvolution, the derivatives need one more pixel
+		this.extension = (int)( 3 * sigma + 0.5 ) + 1;
+		
+		// scale the poles (designed for sigma=2) by 1/q, so that the variance matches
+		final double q = getScale( sigma );
+		
+		// the inverse poles p = 1/d^(1/q), a complex pair and a real one
+		final double pAbs = Math.pow( POLE_ABS, -1 / q );
+		final double pArg = -POLE_ARG / q;
+		final double p3 = Math.pow( POLE_REAL, -1 / q );
+		
+		// expand (1 - p z^-1)(1 - conj(p) z^-1)(1 - p3 z^-1)
+		final double pSum = 2 * pAbs * Math.cos( pArg );
+		final double pAbs2 = pAbs * pAbs;
+		
+		this.b1 = pSum + p3;
+		this.b2 = -( pAbs2 + pSum * p3 );
+		this.b3 = pAbs2 * p3;
+		this.B = 1 - ( b1 + b2 + b3 );
+	}
+	
+	public RecursiveGaussian( final double sigma )
+	{
+		this( sigma, Derivative.NONE );
+	}
+	
+	/**
+	 * Finds the scale q for which the poles d^(1/q) give a filter with a variance of sigma^2
+	 */
+	protected static double getScale( final double sigma )
+	{
+		double q = sigma / 2;
+		
+		for ( int i = 0; i < 100; ++i )
+		{
+			final double s = Math.sqrt( getVariance( q ) );
+			q *= sigma / s;
+			
+			if ( Math.abs( s - sigma ) < 1e-9 * sigma )
+				break;
+		}
+		
+		return q;
+	}
+	
+	/**
+	 * @return the variance of the causal and anti-causal filter for the poles d^(1/q), which is the sum of 2 d / ( d - 1 )^2 over all poles
+	 */
+	protected static double getVariance( final double q )
+	{
+		// the complex pair contributes twice the real part
+		final double abs = Math.pow( POLE_ABS, 1 / q );
+		final double arg = POLE_ARG / q;
+		final double re = abs * Math.cos( arg ), im = abs * Math.sin( arg );
+		
+		// ( d - 1 )^2
+		final double sRe = ( re - 1 ) * ( re - 1 ) - im * im;
+		final double sIm = 2 * ( re - 1 ) * im;
+		
+		// Re( d / ( d - 1 )^2 )
+		final double complex = ( re * sRe + im * sIm ) / ( sRe * sRe + sIm * sIm );
+		
+		final double d3 = Math.pow( POLE_REAL, 1 / q );
+		final double real = d3 / ( ( d3 - 1 ) * ( d3 - 1 ) );
+		
+		return 2 * ( 2 * complex + real );
+	}
+	
+	public double getSigma() { return sigma; }
+	public Derivative getDerivative() { return derivative; }
+	
+	public int getExtension() { return extension; }
+	
+	public void filter( final double[] line, final double[] result )
+	{
+		smooth( line );
+		
+		switch ( derivative )
+		{
+			case FIRST:
+				for ( int x = 0; x < result.length; ++x )
+					result[ x ] = 0.5 * ( line[ x + extension + 1 ] - line[ x + extension - 1 ] );
+				break;
+				
+			case SECOND:
+				for ( int x = 0; x < result.length; ++x )
+					result[ x ] = line[ x + extension + 1 ] - 2 * line[ x + extension ] + line[ x + extension - 1 ];
+				break;
+				
+			default:
+				System.arraycopy( line, extension, result, 0, result.length );
+		}
+	}
+	
+	/**
+	 * Smoothes a line in place with the causal and the anti-causal filter. The filters are initialized
+	 * as if the line continued with its first and last value, respectively.
+	 * 
+	 * @param line - the line
+	 */
+	public void smooth( final double[] line )
+	{
+		final int n = line.length;
+		
+		if ( n == 0 )
+			return;
+		
+		// causal filter
+		double w1 = line[ 0 ], w2 = w1, w3 = w1;
+		
+		for ( int i = 0; i < n; ++i )
+		{
+			final double w = B * line[ i ] + b1 * w1 + b2 * w2 + b3 * w3;
+			line[ i ] = w;
+			w3 = w2;
+			w2 = w1;
+			w1 = w;
+		}
+		
+		// anti-causal filter
+		w1 = line[ n - 1 ];
+		w2 = w1;
+		w3 = w1;
+		
+		for ( int i = n - 1; i >= 0; --i )
+		{
+			final double w = B * line[ i ] + b1 * w1 + b2 * w2 + b3 * w3;
+			line[ i ] = w;
+			w3 = w2;
+			w2 = w1;
+			w1 = w;
+		}
+	}
+	
+	/**
+	 * Filters all lines of the input image in one dimension.
+	 * 
+	 * @param input - the input image
+	 * @param output - the output image of the same size, must not be the input image
+	 * @param outOfBoundsFactory - how to extend the input image
+	 * @param dim - the dimension
+	 * @param sigma - the sigma of the Gaussian
+	 * @param derivative - which derivative to compute
+	 * @param numThreads - the number of threads
+	 */
+	public static <T extends RealType<T>, U extends RealType<U>> void filter( final Image<T> input, final Image<U> output, final OutOfBoundsStrategyFactory<T> outOfBoundsFactory,
+			final int dim, final double sigma, final Derivative derivative, final int numThreads )
+	{
+		SeparableLineConvolution.filter( input, output, outOfBoundsFactory, dim, new RecursiveGaussian( sigma, derivative ), numThreads );
+	}
+}
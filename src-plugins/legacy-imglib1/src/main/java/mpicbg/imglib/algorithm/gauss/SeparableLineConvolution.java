@@ -0,0 +1,292 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package mpicbg.imglib.algorithm.gauss;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyFactory;
+import mpicbg.imglib.type.numeric.RealType;
+
+/**
+ * Convolves {@link RealType} images with a 1d kernel along one dimension, line by line. Each line is
+ * copied (extended by the {@link OutOfBoundsStrategyFactory} by half the kernel size on both sides) into a
+ * double[], convolved in a plain loop over primitive arrays and written back. This works for all containers,
+ * as only one cursor access per pixel is necessary, instead of one per pixel and kernel entry.
+ * 
+ * The threads take lines in small batches from a common counter, so that the work is balanced even if
+ * the image has few planes or some threads are slower.
+ * 
+ * Other filters that work on single lines (e.g. {@link RecursiveGaussian}) can use the same machinery
+ * by implementing {@link LineFilter}.
+ */
+public class SeparableLineConvolution
+{
+	/**
+	 * A filter that computes one line of the output from one line of the input. It is called by all
+	 * threads at the same time and must therefore not keep state between calls.
+	 */
+	public interface LineFilter
+	{
+		/**
+		 * @return by how many pixels the input lines have to be extended on both sides
+		 */
+		public int getExtension();
+		
+		/**
+		 * @param line - the input line, extended by {@link #getExtension()} on both sides, may be overwritten
+		 * @param result - the filtered line
+		 */
+		public void filter( double[] line, double[] result );
+	}
+	
+	/**
+	 * Convolves lines with a kernel
+	 */
+	public static class KernelFilter implements LineFilter
+	{
+		final double[] kernel;
+		final boolean symmetric;
+		
+		/**
+		 * @param kernel - the kernel, must have odd size
+		 */
+		public KernelFilter( final double[] kernel )
+		{
+			this.kernel = kernel.clone();
+			this.symmetric = isSymmetric( kernel );
+		}
+		
+		public int getExtension() { return kernel.length / 2; }
+		
+		public void filter( final double[] line, final double[] result )
+		{
+			if ( symmetric )
+				convolveSymmetric( line, kernel, result );
+			else
+				convolve( line, kernel, result );
+		}
+	}
+	
+	/**
+	 * Convolves the input image with the kernel in one dimension, i.e. computes
+	 * output(x) = sum_i input(x - kernel.length/2 + i) * kernel[ i ].
+	 * 
+	 * @param input - the input image
+	 * @param output - the output image of the same size, must not be the input image
+	 * @param outOfBoundsFactory - how to extend the input image
+	 * @param dim - the dimension to convolve
+	 * @param kernel - the kernel, must have odd size
+	 * @param numThreads - the number of threads
+	 */
+	public static <T extends RealType<T>, U extends RealType<U>> void convolve( final Image<T> input, final Image<U> output, final OutOfBoundsStrategyFactory<T> outOfBoundsFactory,
+			final int dim, final double[] kernel, final int numThreads )
+	{
+		filter( input, output, outOfBoundsFactory, dim, new KernelFilter( kernel ), numThreads );
+	}
+	
+	/**
+	 * Filters all lines of the input image in one dimension.
+	 * 
+	 * @param input - the input image
+	 * @param output - the output image of the same size, must not be the input image
+	 * @param outOfBoundsFactory - how to extend the input image
+	 * @param dim - the dimension of the lines
+	 * @param filter - the filter
+	 * @param numThreads - the number of threads
+	 */
+	public static <T extends RealType<T>, U extends RealType<U>> void filter( final Image<T> input, final Image<U> output, final OutOfBoundsStrategyFactory<T> outOfBoundsFactory,
+			final int dim, final LineFilter filter, final int numThreads )
+	{
+		final int numDimensions = input.getNumDimensions();
+		final int[] size = input.getDimensions();
+		final int lineLength = size[ dim ];
+		final int extension = filter.getExtension();
+		
+		final long numLines = input.getNumPixels() / lineLength;
+		final long batchSize = Math.max( 1, Math.min( 256, numLines / ( 16 * numThreads ) ) );
+		
+		final AtomicLong nextLine = new AtomicLong( 0 );
+		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				public void run()
+				{
+					// the out of bounds cursor is only used for the borders, it is slower
+					final LocalizableByDimCursor<T> in = input.createLocalizableByDimCursor();
+					final LocalizableByDimCursor<T> border = input.createLocalizableByDimCursor( outOfBoundsFactory );
+					final LocalizableByDimCursor<U> out = output.createLocalizableByDimCursor();
+					
+					final double[] line = new double[ lineLength + 2 * extension ];
+					final double[] result = new double[ lineLength ];
+					final int[] position = new int[ numDimensions ];
+					
+					long start;
+					
+					while ( ( start = nextLine.getAndAdd( batchSize ) ) < numLines )
+					{
+						final long end = Math.min( numLines, start + batchSize );
+						
+						for ( long l = start; l < end; ++l )
+						{
+							getLinePosition( l, size, dim, position );
+							border.setPosition( position );
+							
+							// copy the line
+							position[ dim ] = 0;
+							in.setPosition( position );
+							
+							for ( int i = extension; i < extension + lineLength - 1; ++i )
+							{
+								line[ i ] = in.getType().getRealDouble();
+								in.fwd( dim );
+							}
+							line[ extension + lineLength - 1 ] = in.getType().getRealDouble();
+							
+							// and the out of bounds values on both sides
+							if ( extension > 0 )
+							{
+								border.setPosition( -extension, dim );
+								for ( int i = 0; i < extension - 1; ++i )
+								{
+									line[ i ] = border.getType().getRealDouble();
+									border.fwd( dim );
+								}
+								line[ extension - 1 ] = border.getType().getRealDouble();
+								
+								border.setPosition( lineLength, dim );
+								for ( int i = extension + lineLength; i < line.length - 1; ++i )
+								{
+									line[ i ] = border.getType().getRealDouble();
+									border.fwd( dim );
+								}
+								line[ line.length - 1 ] = border.getType().getRealDouble();
+							}
+							
+							filter.filter( line, result );
+							
+							// write it back
+							position[ dim ] = 0;
+							out.setPosition( position );
+							
+							for ( int i = 0; i < lineLength - 1; ++i )
+							{
+								out.getType().setReal( result[ i ] );
+								out.fwd( dim );
+							}
+							out.getType().setReal( result[ lineLength - 1 ] );
+						}
+					}
+					
+					in.close();
+					border.close();
+					out.close();
+				}
+			});
+		
+		SimpleMultiThreading.startAndJoin( threads );
+	}
+	
+	/**
+	 * Computes the position of the first pixel of a line
+	 * 
+	 * @param line - the index of the line, counting all other dimensions with the lowest dimension first
+	 * @param size - the size of the image
+	 * @param dim - the dimension of the line
+	 * @param position - filled with the position, 0 in dimension dim
+	 */
+	protected static void getLinePosition( long line, final int[] size, final int dim, final int[] position )
+	{
+		for ( int d = 0; d < size.length; ++d )
+		{
+			if ( d == dim )
+			{
+				position[ d ] = 0;
+			}
+			else
+			{
+				position[ d ] = (int)( line % size[ d ] );
+				line /= size[ d ];
+			}
+		}
+	}
+	
+	protected static boolean isSymmetric( final double[] kernel )
+	{
+		for ( int i = 0; i < kernel.length / 2; ++i )
+			if ( kernel[ i ] != kernel[ kernel.length - 1 - i ] )
+				return false;
+		
+		return true;
+	}
+	
+	/**
+	 * @param line - the input line, extended by kernel.length/2 on both sides
+	 * @param kernel - the kernel
+	 * @param result - the convolved line
+	 */
+	protected static void convolve( final double[] line, final double[] kernel, final double[] result )
+	{
+		final int filterSize = kernel.length;
+		
+		for ( int x = 0; x < result.length; ++x )
+		{
+			double sum = 0;
+			
+			for ( int f = 0; f < filterSize; ++f )
+				sum += line[ x + f ] * kernel[ f ];
+			
+			result[ x ] = sum;
+		}
+	}
+	
+	/**
+	 * Same as {@link #convolve(double[], double[], double[])} for a symmetric kernel, adds up the
+	 * mirrored values first so that only half of the multiplications are necessary.
+	 */
+	protected static void convolveSymmetric( final double[] line, final double[] kernel, final double[] result )
+	{
+		final int filterSizeHalf = kernel.length / 2;
+		final double center = kernel[ filterSizeHalf ];
+		
+		for ( int x = 0; x < result.length; ++x )
+		{
+			final int c = x + filterSizeHalf;
+			double sum = line[ c ] * center;
+			
+			for ( int f = 1; f <= filterSizeHalf; ++f )
+				sum += ( line[ c - f ] + line[ c + f ] ) * kernel[ filterSizeHalf + f ];
+			
+			result[ x ] = sum;
+		}
+	}
+}
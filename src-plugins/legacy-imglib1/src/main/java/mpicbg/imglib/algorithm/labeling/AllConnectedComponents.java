@@ -55,7 +55,7 @@ public PositionStack(int dimensions) {
 		public void push(int [] position) {
 			int insertPoint = this.position * dimensions;
 			if (storage.length == insertPoint) {
-				int [] newStorage = new int [storage.length * 3 / 2];
+				int [] newStorage = new int [this.position * 3 / 2 * dimensions];
 				System.arraycopy(storage, 0, newStorage, 0, storage.length);
 				storage = newStorage;
 			}
@@ -199,6 +199,46 @@ public static <T extends Comparable<T>> void labelAllConnectedComponents(
 		}
 		return result;
 	}
+	/**
+	 * Get a structuring element with the given connectivity: 4 or 8
+	 * in 2D, 6, 18 or 26 in 3D. In N dimensions, the structuring element
+	 * holds the offsets with up to k non-zero coordinates, so 2*N is the
+	 * face connectivity and 3^N-1 the full connectivity.
+	 * 
+	 * @param dimensions # of dimensions of the image
+	 * @param connectivity the number of neighbors of a pixel
+	 * @return the offsets of the neighbors
+	 * @throws IllegalArgumentException if no structuring element of the
+	 * dimensionality has the connectivity
+	 */
+	static public int [][] getStructuringElement(int dimensions, int connectivity) {
+		int [][] all = getStructuringElement(dimensions);
+		for (int k=1; k<=dimensions; k++) {
+			int nElements = 0;
+			for (int [] offset:all) {
+				if (countNonZero(offset) <= k) nElements++;
+			}
+			if (nElements == connectivity) {
+				int [][] result = new int [nElements][];
+				int i = 0;
+				for (int [] offset:all) {
+					if (countNonZero(offset) <= k) result[i++] = offset;
+				}
+				return result;
+			}
+		}
+		throw new IllegalArgumentException(String.format(
+				"No %d-connected structuring element in %d dimensions", 
+				connectivity, dimensions));
+	}
+	
+	static private int countNonZero(int [] offset) {
+		int result = 0;
+		for (int o:offset) {
+			if (o != 0) result++;
+		}
+		return result;
+	}
 	/**
 	 * Return an iterator that (endlessly) dispenses increasing integer
 	 * values for labeling components.
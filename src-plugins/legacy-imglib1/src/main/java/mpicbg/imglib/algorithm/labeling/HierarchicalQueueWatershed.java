@@ -0,0 +1,703 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package mpicbg.imglib.algorithm.labeling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.imglib.cursor.Cursor;
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.labeling.Labeling;
+import mpicbg.imglib.labeling.LabelingType;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+import mpicbg.imglib.type.numeric.ComplexType;
+import mpicbg.imglib.type.numeric.IntegerType;
+import mpicbg.imglib.type.numeric.integer.IntType;
+
+/**
+ * The seeded watershed of {@link Watershed} with a hierarchical queue
+ * instead of a priority queue of pixel objects. The queue has one bucket
+ * per intensity level which holds the indices of the queued pixels in
+ * primitive arrays.
+ * <ul>
+ * <li>Integer images with at most {@link #MAX_INTEGER_LEVELS} distinct
+ * values get a bucket per value, each bucket is a FIFO.</li>
+ * <li>Other images are quantized into {@link #QUANTIZATION_LEVELS}
+ * buckets, each bucket is a small binary heap ordered by intensity.</li>
+ * </ul>
+ * In both cases pixels leave the queue in the same order as in
+ * {@link Watershed#seededWatershed(Image, Labeling, int[][], Labeling)},
+ * so the results are identical.
+ * 
+ * There is also a parallel variant which floods slabs of the image
+ * concurrently and then reconciles the labels across the slab boundaries.
+ */
+public class HierarchicalQueueWatershed {
+	/**
+	 * The maximum number of buckets for integer images, images with more 
+	 * distinct values are quantized.
+	 */
+	static final public int MAX_INTEGER_LEVELS = 1 << 20;
+	/**
+	 * The number of buckets of quantized images
+	 */
+	static final public int QUANTIZATION_LEVELS = 1 << 16;
+	
+	/**
+	 * Maps intensities to the buckets of the queue, preserving their order
+	 */
+	protected static class Levels {
+		final double min;
+		final double scale;
+		final int nLevels;
+		final boolean exact;
+		
+		<T extends ComplexType<T>> Levels(Image<T> image) {
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			Cursor<T> c = image.createCursor();
+			for (T t:c) {
+				double intensity = t.getRealDouble();
+				if (Double.isInfinite(intensity)) continue;
+				if (intensity < min) min = intensity;
+				if (intensity > max) max = intensity;
+			}
+			c.close();
+			if (min > max) {
+				/*
+				 * Empty image, or only infinities and NaNs
+				 */
+				min = max = 0;
+			}
+			this.min = min;
+			if ((image.createType() instanceof IntegerType) && (max - min < MAX_INTEGER_LEVELS)) {
+				exact = true;
+				nLevels = (int)(max - min) + 1;
+				scale = 1;
+			} else {
+				exact = false;
+				nLevels = QUANTIZATION_LEVELS;
+				scale = (max > min) ? (nLevels - 1) / (max - min) : 0;
+			}
+		}
+		/**
+		 * @return the number of levels
+		 */
+		int size() {
+			return nLevels;
+		}
+		/**
+		 * @return true if every level holds exactly one intensity
+		 */
+		boolean isExact() {
+			return exact;
+		}
+		int getLevel(double intensity) {
+			if (Double.isNaN(intensity)) return nLevels - 1;
+			double level = (intensity - min) * scale;
+			if (level <= 0) return 0;
+			if (level >= nLevels - 1) return nLevels - 1;
+			return (int)level;
+		}
+	}
+	
+	/**
+	 * A queue of pixel indices, ordered by intensity and, for equal
+	 * intensities, by insertion.
+	 */
+	protected static abstract class PixelQueue {
+		final Levels levels;
+		/** the lowest level that might hold pixels */
+		int current;
+		long size = 0;
+		
+		PixelQueue(Levels levels) {
+			this.levels = levels;
+			current = levels.size();
+		}
+		boolean isEmpty() {
+			return size == 0;
+		}
+		abstract void add(long index, double intensity);
+		abstract long remove();
+	}
+	
+	/**
+	 * A FIFO of pixel indices per level
+	 */
+	protected static class BucketQueue extends PixelQueue {
+		final long [][] buckets;
+		final int [] head;
+		final int [] tail;
+		int removedLevel;
+		
+		BucketQueue(Levels levels) {
+			super(levels);
+			buckets = new long [levels.size()][];
+			head = new int [levels.size()];
+			tail = new int [levels.size()];
+		}
+		@Override
+		void add(long index, double intensity) {
+			add(index, levels.getLevel(intensity));
+		}
+		void add(long index, int level) {
+			long [] bucket = buckets[level];
+			if (bucket == null) {
+				bucket = buckets[level] = new long [16];
+			} else if (tail[level] == bucket.length) {
+				int n = tail[level] - head[level];
+				if (n * 2 > bucket.length) {
+					long [] newBucket = new long [bucket.length * 2];
+					System.arraycopy(bucket, head[level], newBucket, 0, n);
+					bucket = buckets[level] = newBucket;
+				} else {
+					System.arraycopy(bucket, head[level], bucket, 0, n);
+				}
+				head[level] = 0;
+				tail[level] = n;
+			}
+			bucket[tail[level]++] = index;
+			if (level < current) current = level;
+			size++;
+		}
+		@Override
+		long remove() {
+			while (head[current] == tail[current]) current++;
+			long index = buckets[current][head[current]++];
+			if (head[current] == tail[current]) {
+				head[current] = tail[current] = 0;
+			}
+			size--;
+			removedLevel = current;
+			return index;
+		}
+		/**
+		 * @return the level of the pixel that was removed last
+		 */
+		int getRemovedLevel() {
+			return removedLevel;
+		}
+	}
+	
+	/**
+	 * A binary heap of pixel indices per level, ordered by intensity and
+	 * insertion
+	 */
+	protected static class HeapBucketQueue extends PixelQueue {
+		final Heap [] heaps;
+		long age = 0;
+		
+		HeapBucketQueue(Levels levels) {
+			super(levels);
+			heaps = new Heap [levels.size()];
+		}
+		@Override
+		void add(long index, double intensity) {
+			int level = levels.getLevel(intensity);
+			Heap heap = heaps[level];
+			if (heap == null) heap = heaps[level] = new Heap();
+			heap.add(index, intensity, age++);
+			if (level < current) current = level;
+			size++;
+		}
+		@Override
+		long remove() {
+			while ((heaps[current] == null) || (heaps[current].size == 0)) current++;
+			size--;
+			return heaps[current].remove();
+		}
+	}
+	
+	protected static class Heap {
+		double [] intensity = new double [16];
+		long [] age = new long [16];
+		long [] index = new long [16];
+		int size = 0;
+		
+		boolean less(int a, int b) {
+			int result = Double.compare(intensity[a], intensity[b]);
+			if (result == 0) return age[a] < age[b];
+			return result < 0;
+		}
+		void swap(int a, int b) {
+			double i = intensity[a]; intensity[a] = intensity[b]; intensity[b] = i;
+			long t = age[a]; age[a] = age[b]; age[b] = t;
+			t = index[a]; index[a] = index[b]; index[b] = t;
+		}
+		void add(long pixel, double pixelIntensity, long pixelAge) {
+			if (size == index.length) {
+				double [] newIntensity = new double [size * 2];
+				long [] newAge = new long [size * 2];
+				long [] newIndex = new long [size * 2];
+				System.arraycopy(intensity, 0, newIntensity, 0, size);
+				System.arraycopy(age, 0, newAge, 0, size);
+				System.arraycopy(index, 0, newIndex, 0, size);
+				intensity = newIntensity;
+				age = newAge;
+				index = newIndex;
+			}
+			int i = size++;
+			intensity[i] = pixelIntensity;
+			age[i] = pixelAge;
+			index[i] = pixel;
+			while (i > 0) {
+				int parent = (i - 1) / 2;
+				if (! less(i, parent)) break;
+				swap(i, parent);
+				i = parent;
+			}
+		}
+		long remove() {
+			long result = index[0];
+			size--;
+			if (size > 0) {
+				swap(0, size);
+				int i = 0;
+				while (true) {
+					int child = 2 * i + 1;
+					if (child >= size) break;
+					if ((child + 1 < size) && less(child + 1, child)) child++;
+					if (! less(child, i)) break;
+					swap(i, child);
+					i = child;
+				}
+			}
+			return result;
+		}
+	}
+	
+	static protected long getIndex(int [] position, int [] dimensions) {
+		long index = position[0];
+		long multiplier = dimensions[0];
+		for (int i=1; i<dimensions.length; i++) {
+			index += position[i] * multiplier;
+			multiplier *= dimensions[i];
+		}
+		return index;
+	}
+	
+	static protected void getPosition(long index, int [] dimensions, int [] position) {
+		for (int i=0; i<dimensions.length; i++) {
+			position[i] = (int)(index % dimensions[i]);
+			index /= dimensions[i];
+		}
+	}
+	
+	/**
+	 * The seeded watershed, see 
+	 * {@link Watershed#seededWatershed(Image, Labeling, int[][], Labeling)}
+	 * for a description of the parameters. The result is the same.
+	 */
+	static public <T extends ComplexType<T>, L extends Comparable<L>>
+	void seededWatershed(Image<T> image, 
+			             Labeling<L> seeds,
+			             int [][] structuringElement,
+			             Labeling<L> output) {
+		/*
+		 * Preconditions
+		 */
+		assert(seeds.getNumDimensions() == image.getNumDimensions());
+		assert(seeds.getNumDimensions() == output.getNumDimensions());
+		for (int i=0; i< structuringElement.length; i++) {
+			assert(structuringElement[i].length == seeds.getNumDimensions());
+		}
+		Levels levels = new Levels(image);
+		PixelQueue queue = levels.isExact() ? new BucketQueue(levels) : new HeapBucketQueue(levels);
+		/*
+		 * Start by loading up the queue with the seeded pixels
+		 */
+		LocalizableCursor<LabelingType<L>> c = seeds.createLocalizableCursor();
+		LocalizableByDimCursor<LabelingType<L>> outputCursor =
+			output.createLocalizableByDimCursor();
+		LocalizableByDimCursor<T> ic = image.createLocalizableByDimCursor();
+		
+		int [] dimensions = output.getDimensions();
+		int [] imageDimensions = image.getDimensions();
+		int [] position = seeds.createPositionArray();
+		int [] destPosition = seeds.createPositionArray();
+		
+		for (LabelingType<L> t:c) {
+			List<L> l = t.getLabeling();
+			if (l.isEmpty()) continue;
+			
+			c.getPosition(position);
+			if (isOutOfBounds(position, dimensions, imageDimensions)) continue;
+			outputCursor.setPosition(position);
+			l = outputCursor.getType().intern(l);
+			outputCursor.getType().setLabeling(l);
+			ic.setPosition(position);
+			queue.add(getIndex(position, dimensions), ic.getType().getRealDouble());
+		}
+		/*
+		 * Pop the head of the queue, label and push all unlabeled
+		 * connected pixels.
+		 */
+		while (! queue.isEmpty()) {
+			getPosition(queue.remove(), dimensions, position);
+			outputCursor.setPosition(position);
+			List<L> l = outputCursor.getType().getLabeling();
+			for (int [] offset:structuringElement) {
+				for (int i=0; i<position.length; i++) {
+					destPosition[i] = position[i] + offset[i];
+				}
+				if (isOutOfBounds(destPosition, dimensions, imageDimensions)) continue;
+				outputCursor.setPosition(destPosition);
+				if (! outputCursor.getType().getLabeling().isEmpty()) continue;
+				outputCursor.getType().setLabeling(l);
+				ic.setPosition(destPosition);
+				queue.add(getIndex(destPosition, dimensions), ic.getType().getRealDouble());
+			}
+		}
+		c.close();
+		outputCursor.close();
+		ic.close();
+	}
+	
+	static protected boolean isOutOfBounds(int [] position, int [] dimensions, int [] imageDimensions) {
+		for (int i=0; i<position.length; i++) {
+			if ((position[i] < 0) || 
+				(position[i] >= dimensions[i]) || 
+				(position[i] >= imageDimensions[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * The seeded watershed, flooding slabs along the last dimension of the
+	 * image concurrently. 
+	 * 
+	 * Each pixel gets the label of a seed that it can be reached from with 
+	 * the lowest flooding level, that is the maximal intensity along the
+	 * path. First, each slab is flooded from its own seeds. Then the
+	 * levels of the pixels next to the slab boundaries are flooded into
+	 * the neighboring slabs, lowering the levels of the pixels that can be
+	 * reached at a lower level from another slab. These pixels, and the
+	 * pixels of the same basin that might have been flooded through them,
+	 * are unlabeled and flooded again from their labeled neighbors.
+	 * 
+	 * Where two basins meet on a plateau, the labels may differ from the
+	 * sequential {@link #seededWatershed(Image, Labeling, int[][], Labeling)},
+	 * and images which are not integer-valued are flooded at the 
+	 * resolution of the quantization. The flooding levels are kept in
+	 * an {@link IntType} image of the size of the output.
+	 * 
+	 * @param image - the intensity image that defines the watershed
+	 * landscape. Lower values will be labeled first.
+	 * @param seeds - a labeling of the space, defining the first pixels
+	 * in the space to be labeled.
+	 * @param structuringElement - an array of offsets to connected pixels
+	 * @param output - a similarly-sized, but initially unlabeled labeling
+	 * space
+	 * @param numThreads - the number of slabs which are flooded at the 
+	 * same time
+	 */
+	static public <T extends ComplexType<T>, L extends Comparable<L>>
+	void seededWatershed(final Image<T> image, 
+			             final Labeling<L> seeds,
+			             final int [][] structuringElement,
+			             final Labeling<L> output,
+			             int numThreads) {
+		assert(seeds.getNumDimensions() == image.getNumDimensions());
+		assert(seeds.getNumDimensions() == output.getNumDimensions());
+		for (int i=0; i< structuringElement.length; i++) {
+			assert(structuringElement[i].length == seeds.getNumDimensions());
+		}
+		final Levels levels = new Levels(image);
+		final int [] dimensions = output.getDimensions();
+		final int [] imageDimensions = image.getDimensions();
+		final int slabDimension = dimensions.length - 1;
+		
+		/*
+		 * The level at which a pixel was flooded plus one, 0 if it was not
+		 */
+		final Image<IntType> floodLevels = new ImageFactory<IntType>(
+				new IntType(), output.getContainerFactory()).createImage(dimensions);
+		
+		final int nSlabs = Math.max(1, Math.min(numThreads, dimensions[slabDimension]));
+		final int [] slabStart = new int [nSlabs + 1];
+		final BucketQueue [] queues = new BucketQueue [nSlabs];
+		for (int i=0; i<=nSlabs; i++) {
+			slabStart[i] = (int)((long)dimensions[slabDimension] * i / nSlabs);
+		}
+		for (int i=0; i<nSlabs; i++) {
+			queues[i] = new BucketQueue(levels);
+		}
+		
+		/*
+		 * Label the seeds and queue them in their slab. The seeds are interned
+		 * here so that the threads do not modify the labeling mapping.
+		 */
+		LocalizableCursor<LabelingType<L>> c = seeds.createLocalizableCursor();
+		LocalizableByDimCursor<LabelingType<L>> outputCursor = output.createLocalizableByDimCursor();
+		LocalizableByDimCursor<IntType> fc = floodLevels.createLocalizableByDimCursor();
+		LocalizableByDimCursor<T> ic = image.createLocalizableByDimCursor();
+		int [] position = seeds.createPositionArray();
+		int slab = 0;
+		for (LabelingType<L> t:c) {
+			List<L> l = t.getLabeling();
+			if (l.isEmpty()) continue;
+			
+			c.getPosition(position);
+			if (isOutOfBounds(position, dimensions, imageDimensions)) continue;
+			outputCursor.setPosition(position);
+			outputCursor.getType().setLabeling(outputCursor.getType().intern(l));
+			ic.setPosition(position);
+			int level = levels.getLevel(ic.getType().getRealDouble());
+			fc.setPosition(position);
+			fc.getType().set(level + 1);
+			while (position[slabDimension] >= slabStart[slab + 1]) slab++;
+			while (position[slabDimension] < slabStart[slab]) slab--;
+			queues[slab].add(getIndex(position, dimensions), level);
+		}
+		c.close();
+		
+		/*
+		 * Flood the slabs
+		 */
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread [] threads = SimpleMultiThreading.newThreads(nSlabs);
+		for (int ithread = 0; ithread < threads.length; ithread++) {
+			threads[ithread] = new Thread(new Runnable() {
+				public void run() {
+					int i = ai.getAndIncrement();
+					flood(image, output, floodLevels, levels, queues[i], structuringElement, 
+							slabStart[i], slabStart[i + 1], null);
+				}
+			});
+		}
+		SimpleMultiThreading.startAndJoin(threads);
+		
+		/*
+		 * Queue the flooded pixels next to the slab boundaries and flood
+		 * their levels into the whole image, recording the pixels whose 
+		 * level is lowered.
+		 */
+		int reach = 0;
+		for (int [] offset:structuringElement) {
+			reach = Math.max(reach, Math.abs(offset[slabDimension]));
+		}
+		BucketQueue queue = new BucketQueue(levels);
+		int [] min = new int [dimensions.length];
+		int [] max = dimensions.clone();
+		for (int i=1; i<nSlabs; i++) {
+			min[slabDimension] = Math.max(slabStart[i] - reach, 0);
+			max[slabDimension] = Math.min(slabStart[i] + reach, dimensions[slabDimension]);
+			if (min[slabDimension] >= max[slabDimension]) continue;
+			System.arraycopy(min, 0, position, 0, position.length);
+			do {
+				fc.setPosition(position);
+				int floodLevel = fc.getType().get();
+				if (floodLevel > 0) queue.add(getIndex(position, dimensions), floodLevel - 1);
+			} while (next(position, min, max));
+		}
+		PixelList lowered = new PixelList();
+		flood(image, output, floodLevels, levels, queue, structuringElement, 0, dimensions[slabDimension], lowered);
+		
+		/*
+		 * Unlabel the lowered pixels and their basins, then flood them again
+		 * from their labeled neighbors.
+		 */
+		unlabel(image, seeds, output, floodLevels, lowered, structuringElement, queue);
+		flood(image, output, floodLevels, levels, queue, structuringElement, 0, dimensions[slabDimension], null);
+		
+		outputCursor.close();
+		fc.close();
+		ic.close();
+		floodLevels.close();
+	}
+	
+	/**
+	 * A growable list of pixel indices and their levels
+	 */
+	protected static class PixelList {
+		long [] index = new long [16];
+		int [] level = new int [16];
+		int size = 0;
+		
+		void add(long pixel, int pixelLevel) {
+			if (size == index.length) {
+				long [] newIndex = new long [size * 2];
+				int [] newLevel = new int [size * 2];
+				System.arraycopy(index, 0, newIndex, 0, size);
+				System.arraycopy(level, 0, newLevel, 0, size);
+				index = newIndex;
+				level = newLevel;
+			}
+			index[size] = pixel;
+			level[size++] = pixelLevel;
+		}
+	}
+	
+	/**
+	 * Unlabel the pixels whose level was lowered after the slabs were
+	 * flooded, and all pixels that might have been flooded through them: 
+	 * these have the same label and a level at least as high. The labeled
+	 * neighbors of the unlabeled pixels are queued.
+	 * 
+	 * @param lowered - the lowered pixels and their levels before lowering, 
+	 * -1 if they were not flooded
+	 */
+	static protected <T extends ComplexType<T>, L extends Comparable<L>>
+	void unlabel(Image<T> image, Labeling<L> seeds, Labeling<L> output, Image<IntType> floodLevels,
+			PixelList lowered, int [][] structuringElement, BucketQueue queue) {
+		int [] dimensions = output.getDimensions();
+		int [] imageDimensions = image.getDimensions();
+		int [] seedDimensions = seeds.getDimensions();
+		int [] position = new int [dimensions.length];
+		int [] destPosition = new int [dimensions.length];
+		LocalizableByDimCursor<LabelingType<L>> outputCursor = output.createLocalizableByDimCursor();
+		LocalizableByDimCursor<LabelingType<L>> seedCursor = seeds.createLocalizableByDimCursor();
+		LocalizableByDimCursor<IntType> fc = floodLevels.createLocalizableByDimCursor();
+		List<L> background = outputCursor.getType().intern(new ArrayList<L>());
+		PixelList stack = new PixelList();
+		for (int k=0; k<lowered.size; k++) {
+			getPosition(lowered.index[k], dimensions, position);
+			fc.setPosition(position);
+			if (fc.getType().get() == 0) continue;
+			fc.getType().set(0);
+			outputCursor.setPosition(position);
+			List<L> l = outputCursor.getType().getLabeling();
+			outputCursor.getType().setLabeling(background);
+			stack.add(lowered.index[k], lowered.level[k]);
+			while (stack.size > 0) {
+				stack.size--;
+				getPosition(stack.index[stack.size], dimensions, position);
+				int level = stack.level[stack.size];
+				for (int [] offset:structuringElement) {
+					for (int i=0; i<position.length; i++) {
+						destPosition[i] = position[i] + offset[i];
+					}
+					if (isOutOfBounds(destPosition, dimensions, imageDimensions)) continue;
+					fc.setPosition(destPosition);
+					int destLevel = fc.getType().get() - 1;
+					if (destLevel < 0) continue;
+					long destIndex = getIndex(destPosition, dimensions);
+					outputCursor.setPosition(destPosition);
+					boolean isSeed = false;
+					if (! isOutOfBounds(destPosition, seedDimensions, seedDimensions)) {
+						seedCursor.setPosition(destPosition);
+						isSeed = ! seedCursor.getType().getLabeling().isEmpty();
+					}
+					if ((! isSeed) && (destLevel >= level) &&
+						outputCursor.getType().getLabeling().equals(l)) {
+						fc.getType().set(0);
+						outputCursor.getType().setLabeling(background);
+						stack.add(destIndex, destLevel);
+					} else {
+						queue.add(destIndex, destLevel);
+					}
+				}
+			}
+		}
+		outputCursor.close();
+		seedCursor.close();
+		fc.close();
+	}
+	
+	/**
+	 * Advance a position within [min, max), the lowest dimension first.
+	 * @return false if there is no next position
+	 */
+	static protected boolean next(int [] position, int [] min, int [] max) {
+		for (int i=0; i<position.length; i++) {
+			if (++position[i] < max[i]) return true;
+			position[i] = min[i];
+		}
+		return false;
+	}
+	
+	/**
+	 * Flood the pixels in the queue into the slab from start to end 
+	 * (exclusive) of the last dimension. A pixel is (re)labeled if it
+	 * can be reached at a lower level than its current one.
+	 * 
+	 * @param lowered - if not null, only the levels are flooded and the
+	 * pixels whose level is lowered are added to the list with their
+	 * previous level.
+	 */
+	static protected <T extends ComplexType<T>, L extends Comparable<L>>
+	void flood(Image<T> image, Labeling<L> output, Image<IntType> floodLevels, 
+			Levels levels, BucketQueue queue, int [][] structuringElement, int start, int end,
+			PixelList lowered) {
+		int [] dimensions = output.getDimensions();
+		int [] imageDimensions = image.getDimensions();
+		int slabDimension = dimensions.length - 1;
+		int [] position = new int [dimensions.length];
+		int [] destPosition = new int [dimensions.length];
+		LocalizableByDimCursor<LabelingType<L>> outputCursor = output.createLocalizableByDimCursor();
+		LocalizableByDimCursor<IntType> fc = floodLevels.createLocalizableByDimCursor();
+		LocalizableByDimCursor<T> ic = image.createLocalizableByDimCursor();
+		while (! queue.isEmpty()) {
+			getPosition(queue.remove(), dimensions, position);
+			int level = queue.getRemovedLevel();
+			fc.setPosition(position);
+			/*
+			 * Skip pixels which have been reached at a lower level since
+			 * they were queued.
+			 */
+			if (fc.getType().get() != level + 1) continue;
+			List<L> l = null;
+			if (lowered == null) {
+				outputCursor.setPosition(position);
+				l = outputCursor.getType().getLabeling();
+			}
+			for (int [] offset:structuringElement) {
+				for (int i=0; i<position.length; i++) {
+					destPosition[i] = position[i] + offset[i];
+				}
+				if (isOutOfBounds(destPosition, dimensions, imageDimensions) ||
+					(destPosition[slabDimension] < start) ||
+					(destPosition[slabDimension] >= end)) continue;
+				ic.setPosition(destPosition);
+				int destLevel = Math.max(level, levels.getLevel(ic.getType().getRealDouble()));
+				fc.setPosition(destPosition);
+				int floodLevel = fc.getType().get();
+				if ((floodLevel != 0) && (floodLevel <= destLevel + 1)) continue;
+				fc.getType().set(destLevel + 1);
+				long destIndex = getIndex(destPosition, dimensions);
+				if (lowered == null) {
+					outputCursor.setPosition(destPosition);
+					outputCursor.getType().setLabeling(l);
+				} else {
+					lowered.add(destIndex, floodLevel - 1);
+				}
+				queue.add(destIndex, destLevel);
+			}
+		}
+		outputCursor.close();
+		fc.close();
+		ic.close();
+	}
+}
@@ -0,0 +1,536 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package mpicbg.imglib.algorithm.labeling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.labeling.BoundingBox;
+import mpicbg.imglib.labeling.Labeling;
+import mpicbg.imglib.labeling.LabelingType;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+import mpicbg.imglib.type.logic.BitType;
+import mpicbg.imglib.type.numeric.integer.IntType;
+
+/**
+ * Label all connected components of a binary image like
+ * {@link AllConnectedComponents}, but with a two-pass union-find algorithm
+ * that runs in parallel:
+ * <ol>
+ * <li>The image is cut into slabs along its last dimension. Each thread
+ * scans its slab in raster order, gives every foreground pixel the
+ * provisional label of an already visited neighbor (or a new one) and
+ * records equivalences of provisional labels in its own union-find forest,
+ * together with the size and bounding box of each provisional label.</li>
+ * <li>The provisional labels of neighboring pixels on both sides of each
+ * slab boundary are united, as far back as the structuring element
+ * reaches, and the statistics are summed up per component.</li>
+ * <li>Each thread writes the final labels of its slab.</li>
+ * </ol>
+ * The components are named in the order of their first pixel in raster
+ * order, so the result is the same as the one of
+ * {@link AllConnectedComponents#labelAllConnectedComponents(Labeling, Image, Iterator, int[][])}.
+ * The provisional labels are kept in an {@link IntType} image of the same
+ * container type as the binary image.
+ */
+public class ParallelConnectedComponents {
+	/**
+	 * The size and bounding box of a labeled component
+	 */
+	public static class ComponentStatistics<T extends Comparable<T>> {
+		protected final T label;
+		protected final long size;
+		protected final BoundingBox boundingBox;
+		
+		public ComponentStatistics(T label, long size, BoundingBox boundingBox) {
+			this.label = label;
+			this.size = size;
+			this.boundingBox = boundingBox;
+		}
+		/**
+		 * @return the name of the component
+		 */
+		public T getLabel() {
+			return label;
+		}
+		/**
+		 * @return the number of pixels of the component
+		 */
+		public long getSize() {
+			return size;
+		}
+		/**
+		 * @return the bounding box of the component
+		 */
+		public BoundingBox getBoundingBox() {
+			return boundingBox;
+		}
+	}
+	
+	/**
+	 * The union-find forest, statistics and pixel extent of one slab. 
+	 * Provisional labels start at 1, 0 is the background.
+	 */
+	protected static class Slab {
+		final int start, end;
+		final int dimensions;
+		int [] parent = new int [1024];
+		long [] size = new long [1024];
+		int [] min;
+		int [] max;
+		int count = 0;
+		/** the global label of provisional label 1 minus one */
+		int offset;
+		
+		Slab(int start, int end, int dimensions) {
+			this.start = start;
+			this.end = end;
+			this.dimensions = dimensions;
+			min = new int [parent.length * dimensions];
+			max = new int [parent.length * dimensions];
+		}
+		int newLabel(int [] position) {
+			count++;
+			if (count == parent.length) {
+				int newLength = parent.length * 2;
+				parent = grow(parent, newLength);
+				long [] newSize = new long [newLength];
+				System.arraycopy(size, 0, newSize, 0, size.length);
+				size = newSize;
+				min = grow(min, newLength * dimensions);
+				max = grow(max, newLength * dimensions);
+			}
+			parent[count] = count;
+			size[count] = 0;
+			System.arraycopy(position, 0, min, count * dimensions, dimensions);
+			System.arraycopy(position, 0, max, count * dimensions, dimensions);
+			return count;
+		}
+		static int [] grow(int [] array, int newLength) {
+			int [] result = new int [newLength];
+			System.arraycopy(array, 0, result, 0, array.length);
+			return result;
+		}
+		void add(int label, int [] position) {
+			size[label]++;
+			int o = label * dimensions;
+			for (int i=0; i<dimensions; i++, o++) {
+				if (position[i] < min[o]) min[o] = position[i];
+				if (position[i] > max[o]) max[o] = position[i];
+			}
+		}
+	}
+	
+	/**
+	 * Label all connected components in the given image using an
+	 * 8-connected structuring element or it's N-dimensional analog, using
+	 * all available processors.
+	 * @param <T> the type of the labels to apply
+	 * @param labeling Assign labels to this labeling space
+	 * @param img a binary image where true indicates parts of components
+	 * @param names supplies names for the different components as needed
+	 * @return the statistics of the components in the order of their names 
+	 * @throws NoSuchElementException if there are not enough names
+	 */
+	public static <T extends Comparable<T>> List<ComponentStatistics<T>> labelAllConnectedComponents(
+			Labeling<T> labeling, Image<BitType> img, Iterator<T> names)
+	throws NoSuchElementException
+	{
+		return labelAllConnectedComponents(labeling, img, names,
+				AllConnectedComponents.getStructuringElement(img.getNumDimensions()),
+				Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Label all connected components in the given image using an arbitrary
+	 * structuring element, see
+	 * {@link AllConnectedComponents#getStructuringElement(int, int)} for 
+	 * 6/18/26-connectivity.
+	 * @param <T> the type of the labels to apply
+	 * @param labeling Assign labels to this labeling space, it must have the
+	 * same size as the image
+	 * @param img a binary image where true indicates parts of components
+	 * @param names supplies names for the different components as needed
+	 * @param structuringElement an array of offsets to a pixel of the
+	 * pixels which are considered connected. Pixels are connected if either
+	 * one is in the structuring element of the other.
+	 * @param numThreads the number of threads
+	 * @return the statistics of the components in the order of their names 
+	 * @throws NoSuchElementException if there are not enough names
+	 */
+	public static <T extends Comparable<T>> List<ComponentStatistics<T>> labelAllConnectedComponents(
+			final Labeling<T> labeling, final Image<BitType> img,
+			Iterator<T> names, int [][] structuringElement, int numThreads)
+	throws NoSuchElementException
+	{
+		final int nDimensions = img.getNumDimensions();
+		final int [] dimensions = img.getDimensions();
+		final int slabDimension = nDimensions - 1;
+		final int [][] backward = getBackwardOffsets(structuringElement);
+		
+		final Image<IntType> provisional = new ImageFactory<IntType>(
+				new IntType(), img.getContainerFactory()).createImage(dimensions);
+		
+		/*
+		 * Cut the image into slabs
+		 */
+		final int nSlabs = Math.max(1, Math.min(numThreads, dimensions[slabDimension]));
+		final Slab [] slabs = new Slab[nSlabs];
+		for (int i=0; i<nSlabs; i++) {
+			slabs[i] = new Slab(
+					(int)((long)dimensions[slabDimension] * i / nSlabs),
+					(int)((long)dimensions[slabDimension] * (i+1) / nSlabs),
+					nDimensions);
+		}
+		
+		/*
+		 * Pass 1: provisional labels, equivalences and statistics per slab
+		 */
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread [] threads = SimpleMultiThreading.newThreads(nSlabs);
+		for (int ithread = 0; ithread < threads.length; ithread++) {
+			threads[ithread] = new Thread(new Runnable() {
+				public void run() {
+					labelSlab(img, provisional, slabs[ai.getAndIncrement()], backward);
+				}
+			});
+		}
+		SimpleMultiThreading.startAndJoin(threads);
+		
+		/*
+		 * Combine the forests, global label = slab offset + provisional label
+		 */
+		int total = 0;
+		for (Slab slab:slabs) {
+			slab.offset = total;
+			total += slab.count;
+		}
+		final int [] parent = new int [total + 1];
+		for (Slab slab:slabs) {
+			for (int i=1; i<=slab.count; i++) {
+				parent[slab.offset + i] = slab.offset + slab.parent[i];
+			}
+		}
+		
+		/*
+		 * Pass 2: unite the labels across the slab boundaries
+		 */
+		for (int i=1; i<nSlabs; i++) {
+			mergeBoundary(provisional, slabs, i, backward, parent);
+		}
+		
+		/*
+		 * Resolve the roots, they are the smallest global label of each
+		 * component and thus in the raster order of the components.
+		 */
+		final int [] finalIndex = new int [total + 1];
+		List<ComponentStatistics<T>> result = new ArrayList<ComponentStatistics<T>>();
+		List<long []> sizes = new ArrayList<long []>();
+		List<BoundingBox> boxes = new ArrayList<BoundingBox>();
+		int [] coordinates = new int [nDimensions];
+		for (int label=1; label<=total; label++) {
+			int root = find(parent, label);
+			if (root == label) {
+				finalIndex[label] = sizes.size();
+				sizes.add(new long [1]);
+				boxes.add(new BoundingBox(nDimensions));
+			} else {
+				finalIndex[label] = finalIndex[root];
+			}
+		}
+		for (Slab slab:slabs) {
+			for (int i=1; i<=slab.count; i++) {
+				int index = finalIndex[slab.offset + i];
+				sizes.get(index)[0] += slab.size[i];
+				BoundingBox box = boxes.get(index);
+				System.arraycopy(slab.min, i * nDimensions, coordinates, 0, nDimensions);
+				box.update(coordinates);
+				System.arraycopy(slab.max, i * nDimensions, coordinates, 0, nDimensions);
+				box.update(coordinates);
+			}
+		}
+		
+		/*
+		 * Name the components, interning the labelings up front so that the
+		 * threads do not modify the mapping.
+		 */
+		final List<List<T>> labelings = new ArrayList<List<T>>(sizes.size());
+		LocalizableByDimCursor<LabelingType<T>> destCursor = labeling.createLocalizableByDimCursor();
+		for (int i=0; i<sizes.size(); i++) {
+			T name = names.next();
+			labelings.add(destCursor.getType().intern(name));
+			result.add(new ComponentStatistics<T>(name, sizes.get(i)[0], boxes.get(i)));
+		}
+		destCursor.close();
+		
+		/*
+		 * Pass 3: write the final labels
+		 */
+		ai.set(0);
+		threads = SimpleMultiThreading.newThreads(nSlabs);
+		for (int ithread = 0; ithread < threads.length; ithread++) {
+			threads[ithread] = new Thread(new Runnable() {
+				public void run() {
+					writeSlab(provisional, labeling, slabs[ai.getAndIncrement()], finalIndex, labelings);
+				}
+			});
+		}
+		SimpleMultiThreading.startAndJoin(threads);
+		
+		provisional.close();
+		return result;
+	}
+	
+	/**
+	 * @return the offsets of the structuring element (and their negatives)
+	 * that point to pixels visited before in raster order, i.e. whose last
+	 * non-zero coordinate is negative.
+	 */
+	static protected int [][] getBackwardOffsets(int [][] structuringElement) {
+		List<int []> backward = new ArrayList<int []>();
+		for (int [] offset:structuringElement) {
+			int [] o = offset.clone();
+			int last = o.length - 1;
+			while ((last >= 0) && (o[last] == 0)) last--;
+			if (last < 0) continue;
+			if (o[last] > 0) {
+				for (int i=0; i<o.length; i++) o[i] = -o[i];
+			}
+			boolean duplicate = false;
+			for (int [] b:backward) {
+				if (Arrays.equals(b, o)) {
+					duplicate = true;
+					break;
+				}
+			}
+			if (! duplicate) backward.add(o);
+		}
+		return backward.toArray(new int [backward.size()][]);
+	}
+	
+	/**
+	 * Find the root of a label, compressing the path
+	 */
+	static protected int find(int [] parent, int label) {
+		int root = label;
+		while (parent[root] != root) root = parent[root];
+		while (parent[label] != root) {
+			int next = parent[label];
+			parent[label] = root;
+			label = next;
+		}
+		return root;
+	}
+	
+	/**
+	 * Unite two labels, the smaller root becomes the root of both
+	 */
+	static protected void union(int [] parent, int a, int b) {
+		a = find(parent, a);
+		b = find(parent, b);
+		if (a < b) {
+			parent[b] = a;
+		} else if (b < a) {
+			parent[a] = b;
+		}
+	}
+	
+	/**
+	 * Advance a position within [min, max) of all dimensions but 0, 
+	 * the lowest dimension first.
+	 * @return false if there is no next line
+	 */
+	static protected boolean nextLine(int [] position, int [] min, int [] max) {
+		for (int i=1; i<position.length; i++) {
+			if (++position[i] < max[i]) return true;
+			position[i] = min[i];
+		}
+		return false;
+	}
+	
+	static protected void labelSlab(Image<BitType> img, Image<IntType> provisional, Slab slab, int [][] backward) {
+		final int nDimensions = img.getNumDimensions();
+		final int [] dimensions = img.getDimensions();
+		final int slabDimension = nDimensions - 1;
+		if (slab.start >= slab.end) return;
+		
+		final int [] min = new int [nDimensions];
+		final int [] max = dimensions.clone();
+		min[slabDimension] = slab.start;
+		max[slabDimension] = slab.end;
+		
+		LocalizableByDimCursor<BitType> c = img.createLocalizableByDimCursor();
+		LocalizableByDimCursor<IntType> lc = provisional.createLocalizableByDimCursor();
+		LocalizableByDimCursor<IntType> nc = provisional.createLocalizableByDimCursor();
+		int [] position = min.clone();
+		int [] neighbor = new int [nDimensions];
+		do {
+			position[0] = 0;
+			c.setPosition(position);
+			lc.setPosition(position);
+			for (int x=0; x<dimensions[0]; x++) {
+				if (x > 0) {
+					c.fwd(0);
+					lc.fwd(0);
+				}
+				if (! c.getType().get()) continue;
+				position[0] = x;
+				
+				/*
+				 * Look at the neighbors that were already visited
+				 */
+				int label = 0;
+				for (int [] offset:backward) {
+					boolean outOfBounds = false;
+					for (int i=0; i<nDimensions; i++) {
+						neighbor[i] = position[i] + offset[i];
+						if ((neighbor[i] < min[i]) || (neighbor[i] >= max[i])) {
+							outOfBounds = true;
+							break;
+						}
+					}
+					if (outOfBounds) continue;
+					nc.setPosition(neighbor);
+					int neighborLabel = nc.getType().get();
+					if (neighborLabel == 0) continue;
+					if (label == 0) {
+						label = neighborLabel;
+					} else if (neighborLabel != label) {
+						union(slab.parent, label, neighborLabel);
+					}
+				}
+				if (label == 0) label = slab.newLabel(position);
+				slab.add(label, position);
+				lc.getType().set(label);
+			}
+		} while (nextLine(position, min, max));
+		c.close();
+		lc.close();
+		nc.close();
+	}
+	
+	/**
+	 * Unite the labels of the first planes of a slab with the labels of the
+	 * planes of the previous slabs they are connected to. As many planes are
+	 * looked at as the structuring element reaches back, so that offsets of
+	 * more than one plane are merged, even into slabs before the previous
+	 * one when slabs are thinner than that.
+	 */
+	static protected void mergeBoundary(Image<IntType> provisional, Slab [] slabs, int index, int [][] backward, int [] parent) {
+		final int nDimensions = provisional.getNumDimensions();
+		final int [] dimensions = provisional.getDimensions();
+		final int slabDimension = nDimensions - 1;
+		final Slab slab = slabs[index];
+		if (slab.start >= slab.end) return;
+		
+		int reach = 0;
+		for (int [] offset:backward) {
+			reach = Math.max(reach, -offset[slabDimension]);
+		}
+		if (reach == 0) return;
+		
+		final int [] min = new int [nDimensions];
+		final int [] max = dimensions.clone();
+		min[slabDimension] = slab.start;
+		max[slabDimension] = Math.min(slab.end, slab.start + reach);
+		
+		LocalizableByDimCursor<IntType> lc = provisional.createLocalizableByDimCursor();
+		LocalizableByDimCursor<IntType> nc = provisional.createLocalizableByDimCursor();
+		int [] position = min.clone();
+		int [] neighbor = new int [nDimensions];
+		do {
+			position[0] = 0;
+			lc.setPosition(position);
+			for (int x=0; x<dimensions[0]; x++) {
+				if (x > 0) lc.fwd(0);
+				int label = lc.getType().get();
+				if (label == 0) continue;
+				position[0] = x;
+				for (int [] offset:backward) {
+					if (position[slabDimension] + offset[slabDimension] >= slab.start) continue;
+					boolean outOfBounds = false;
+					for (int i=0; i<nDimensions; i++) {
+						neighbor[i] = position[i] + offset[i];
+						if ((neighbor[i] < 0) || (neighbor[i] >= dimensions[i])) {
+							outOfBounds = true;
+							break;
+						}
+					}
+					if (outOfBounds) continue;
+					nc.setPosition(neighbor);
+					int neighborLabel = nc.getType().get();
+					if (neighborLabel == 0) continue;
+					int previous = index - 1;
+					while (slabs[previous].start > neighbor[slabDimension]) previous--;
+					union(parent, slab.offset + label, slabs[previous].offset + neighborLabel);
+				}
+			}
+		} while (nextLine(position, min, max));
+		lc.close();
+		nc.close();
+	}
+	
+	static protected <T extends Comparable<T>> void writeSlab(Image<IntType> provisional, Labeling<T> labeling, Slab slab, int [] finalIndex, List<List<T>> labelings) {
+		final int nDimensions = provisional.getNumDimensions();
+		final int [] dimensions = provisional.getDimensions();
+		final int slabDimension = nDimensions - 1;
+		if (slab.start >= slab.end) return;
+		
+		final int [] min = new int [nDimensions];
+		final int [] max = dimensions.clone();
+		min[slabDimension] = slab.start;
+		max[slabDimension] = slab.end;
+		
+		LocalizableByDimCursor<IntType> lc = provisional.createLocalizableByDimCursor();
+		LocalizableByDimCursor<LabelingType<T>> destCursor = labeling.createLocalizableByDimCursor();
+		int [] position = min.clone();
+		do {
+			position[0] = 0;
+			lc.setPosition(position);
+			destCursor.setPosition(position);
+			for (int x=0; x<dimensions[0]; x++) {
+				if (x > 0) {
+					lc.fwd(0);
+					destCursor.fwd(0);
+				}
+				int label = lc.getType().get();
+				if (label == 0) continue;
+				destCursor.getType().setLabeling(labelings.get(finalIndex[slab.offset + label]));
+			}
+		} while (nextLine(position, min, max));
+		lc.close();
+		destCursor.close();
+	}
+}
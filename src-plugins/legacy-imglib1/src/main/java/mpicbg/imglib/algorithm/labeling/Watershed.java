@@ -52,6 +52,9 @@
  * The resulting image has a depressed object interior and a ridge which
  * constrains the watershed boundary.
  * 
+ * {@link HierarchicalQueueWatershed} gives the same result with less
+ * memory and time, and has a parallel variant.
+ * 
  * @author Lee Kamentsky
  */
 public class Watershed {
@@ -198,7 +201,7 @@ void seededWatershed(Image<T> image,
 				outputCursor.setPosition(destPosition);
 				if (! outputCursor.getType().getLabeling().isEmpty()) continue;
 				outputCursor.getType().setLabeling(l);
-				ic.setPosition(position);
+				ic.setPosition(destPosition);
 				double intensity = ic.getType().getRealDouble();
 				pq.add(new PixelIntensity<L>(destPosition, dimensions, intensity, age++, l));
 			}
@@ -50,6 +50,14 @@ public MedianFilter(final Image<T> imageIn, final StructuringElement inStrel) {
 		setName(imageIn.getName() + " Median Filter");
 	}
 
+	/**
+	 * The median is the middle value of the sorted neighborhood.
+	 */
+	@Override
+	protected int getRank(final int n) {
+		return n / 2;
+	}
+
 	@Override
 	protected void statsOp(LocalizableByDimCursor<T> cursor) {		
 		int n = super.getList().size();
@@ -53,6 +53,14 @@ public MorphDilate(final Image<T> imageIn, final StructuringElement strel) {
 		setName(imageIn.getName() + " dilated");
 	}
 
+	/**
+	 * Dilation takes the maximum of the neighborhood.
+	 */
+	@Override
+	protected int getRank(final int n) {
+		return n - 1;
+	}
+
 	@Override
 	protected void statsOp(final LocalizableByDimCursor<T> cursor) {
 		cursor.getType().set(super.getList().getLast());
@@ -51,6 +51,14 @@ public MorphErode(final Image<T> imageIn, final StructuringElement strel) {
 		setName(imageIn.getName() + " eroded");
 	}
 
+	/**
+	 * Erosion takes the minimum of the neighborhood.
+	 */
+	@Override
+	protected int getRank(final int n) {
+		return 0;
+	}
+
 	@Override
 	protected void statsOp(final LocalizableByDimCursor<T> cursor) { 
 		cursor.getType().set(super.getList().getFirst());
@@ -26,14 +26,20 @@
 
 package mpicbg.imglib.algorithm.roi;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import mpicbg.imglib.algorithm.MultiThreaded;
 import mpicbg.imglib.algorithm.ROIAlgorithm;
 import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
 import mpicbg.imglib.cursor.special.RegionOfInterestCursor;
 import mpicbg.imglib.image.Image;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
 import mpicbg.imglib.outofbounds.OutOfBoundsStrategyFactory;
 import mpicbg.imglib.type.logic.BitType;
+import mpicbg.imglib.type.numeric.IntegerType;
 import mpicbg.imglib.type.numeric.RealType;
 
 /**
@@ -41,11 +47,16 @@
  * by cursing over the input {@link Image}, and collecting a sorted list of the pixels "covered" by
  * a {@link StructuringElement}.  This list is made available to children classes, which are
  * responsible for setting the pixel value at the current position in the output Image.
+ * <p>
+ * Children classes whose result is a single rank of that list, like the median, the minimum or
+ * the maximum, declare it through {@link #getRank(int)}.  If the collection strategy is a
+ * {@link RankCollectionStrategy}, the image is then processed line by line on primitive arrays,
+ * in several threads, and the list is never built.
  * 
  * @param <T> The input- and output-{@link Image} type.
  * @author Larry Lindsey
  */
-public abstract class StatisticalOperation<T extends RealType<T>> extends ROIAlgorithm<T, T> {
+public abstract class StatisticalOperation<T extends RealType<T>> extends ROIAlgorithm<T, T> implements MultiThreaded {
 	//Member classes
 	
 	/**
@@ -105,32 +116,320 @@ public void collectStats(LinkedList<R> list, RegionOfInterestCursor<R> cursor, i
 		
 	}
 	
-	/*
-	 * As of this writing, there are no other collection strategy classes written, as you can tell.
-	 * 
-	 * To be clear, here we're concerned with strel operations, ie, operations of a shaped element
-	 * with respect to an input image.
-	 * 
-	 * Now, here's how I intend to implement a more efficient strel operation.  If you're reading
-	 * this, maybe you'll get to it ahead of me ;).
+	/**
+	 * A collection strategy that can also compute a single rank of the neighborhood for a whole
+	 * line of the output image at once, from primitive arrays.  It still provides the simple
+	 * per-pixel collection, for children classes that need the full sorted list.
 	 * 
-	 * First, the StructuringElement class will be updated so that it can produce cursors that
-	 * iterate over its edges with respect to each dimension (two per dimension - one for positive
-	 * motion, the other for negative).  This class will use those cursors in tandem with the ROI
-	 * cursor to store image data from the region of interest, in the current state.  In the next
-	 * state, the strel patch will have moved.  If it moves a distance of only one pixel, we can do
-	 * the following:
+	 * @param <R> Image storage type.
+	 */
+	public abstract class RankCollectionStrategy<R extends RealType<R>> 
+		extends SimpleCollectionStrategy<R>
+	{
+		/**
+		 * Creates a filter computing the given rank over the given neighborhood.  One filter is
+		 * created per thread, so it may hold buffers.
+		 * 
+		 * @param rows the row of each structuring element pixel in the line buffer.
+		 * @param cols the column of each structuring element pixel, that is its offset along the
+		 * first dimension.
+		 * @param rowLength the length of a row of the line buffer.
+		 * @param rank the rank to compute, 0 being the minimum.
+		 */
+		public abstract LineRankFilter createLineFilter(int[] rows, int[] cols, int rowLength, int rank);
+	}
+	
+	/**
+	 * Computes one rank of a neighborhood for all the pixels of one line.
+	 */
+	public static abstract class LineRankFilter
+	{
+		/** The offset of each neighborhood pixel in the line buffer. */
+		protected final int[] offsets;
+		protected final int rank;
+		
+		protected LineRankFilter(final int[] rows, final int[] cols, final int rowLength, final int rank)
+		{
+			this.rank = rank;
+			offsets = new int[rows.length];
+			for (int i = 0; i < offsets.length; ++i)
+			{
+				offsets[i] = rows[i] * rowLength + cols[i];
+			}
+		}
+		
+		/**
+		 * Computes the rank for <code>length</code> pixels.  The neighborhood of pixel
+		 * <code>x</code> is made of the values <code>line[x + offsets[i]]</code>.
+		 * 
+		 * @param line the line buffer.
+		 * @param out the array to store the result in.
+		 * @param length the number of pixels of the output line.
+		 */
+		public abstract void filter(double[] line, double[] out, int length);
+	}
+	
+	/**
+	 * Computes a rank by copying each neighborhood to a primitive array and selecting the rank
+	 * in it, in linear time.  Suitable for any {@link RealType}.
 	 * 
-	 * One of the lists we stored in the previous state will contain exactly the values that need
-	 * to be removed from the sorted list, so remove them.  This should be an O(n log(n)) operation
-	 * in the number of edge values.  Next, grab the cursor from the strel that corresponds to the
-	 * location of the pixels that must be added newly.  Iterate over those pixels, adding their
-	 * values to the sorted list.  This should also be O(n log(n)) in the number of edge pixels.
+	 * @param <R> Image storage type.
+	 */
+	public class SelectionRankStrategy<R extends RealType<R>> 
+		extends RankCollectionStrategy<R>
+	{
+		@Override
+		public LineRankFilter createLineFilter(final int[] rows, final int[] cols, final int rowLength, final int rank)
+		{
+			return new SelectionLineFilter(rows, cols, rowLength, rank);
+		}
+	}
+	
+	/**
+	 * Computes a rank with a histogram of the neighborhood, that is updated with the pixels
+	 * entering and leaving the neighborhood as it slides along a line, following Huang's
+	 * median filter.  The cost per pixel is proportional to the size of the structuring element
+	 * border, not to its volume.  Suitable for {@link IntegerType}s; lines whose values span more
+	 * than {@link HistogramLineFilter#MAX_BINS} values are processed by selection.
 	 * 
-	 * Note that here, n is approximately the dth root of the n in the simple collection method,
-	 * meaning we get a pretty nice speed-up when n is big enough.  In particular, n should be
-	 * large with respect to d + 1, where d is the dimensionality.
+	 * @param <R> Image storage type.
 	 */
+	public class HistogramRankStrategy<R extends RealType<R>> 
+		extends RankCollectionStrategy<R>
+	{
+		@Override
+		public LineRankFilter createLineFilter(final int[] rows, final int[] cols, final int rowLength, final int rank)
+		{
+			return new HistogramLineFilter(rows, cols, rowLength, rank);
+		}
+	}
+	
+	protected static class SelectionLineFilter extends LineRankFilter
+	{
+		private final double[] values;
+		
+		public SelectionLineFilter(final int[] rows, final int[] cols, final int rowLength, final int rank)
+		{
+			super(rows, cols, rowLength, rank);
+			values = new double[offsets.length];
+		}
+
+		@Override
+		public void filter(final double[] line, final double[] out, final int length)
+		{
+			final int n = offsets.length;
+			for (int x = 0; x < length; ++x)
+			{
+				if (rank == 0)
+				{
+					double min = line[x + offsets[0]];
+					for (int i = 1; i < n; ++i)
+					{
+						final double v = line[x + offsets[i]];
+						if (v < min)
+						{
+							min = v;
+						}
+					}
+					out[x] = min;
+				}
+				else if (rank == n - 1)
+				{
+					double max = line[x + offsets[0]];
+					for (int i = 1; i < n; ++i)
+					{
+						final double v = line[x + offsets[i]];
+						if (v > max)
+						{
+							max = v;
+						}
+					}
+					out[x] = max;
+				}
+				else
+				{
+					for (int i = 0; i < n; ++i)
+					{
+						values[i] = line[x + offsets[i]];
+					}
+					out[x] = select(values, n, rank);
+				}
+			}
+		}
+		
+		/**
+		 * Returns the k-th smallest of the first n values of the given array, which is
+		 * reordered.  This is Wirth's selection algorithm.
+		 */
+		public static double select(final double[] a, final int n, final int k)
+		{
+			int l = 0;
+			int m = n - 1;
+			while (l < m)
+			{
+				final double pivot = a[k];
+				int i = l;
+				int j = m;
+				do
+				{
+					while (a[i] < pivot) ++i;
+					while (pivot < a[j]) --j;
+					if (i <= j)
+					{
+						final double tmp = a[i];
+						a[i] = a[j];
+						a[j] = tmp;
+						++i;
+						--j;
+					}
+				}
+				while (i <= j);
+				if (j < k) l = i;
+				if (k < i) m = j;
+			}
+			return a[k];
+		}
+	}
+	
+	protected static class HistogramLineFilter extends LineRankFilter
+	{
+		/** The maximal number of histogram bins. */
+		public static final int MAX_BINS = 1 << 20;
+		
+		/** The offsets of the pixels leaving and entering the neighborhood when moving by one. */
+		private final int[] leaving, entering;
+		private final SelectionLineFilter fallback;
+		private int[] histogram = new int[256];
+		
+		public HistogramLineFilter(final int[] rows, final int[] cols, final int rowLength, final int rank)
+		{
+			super(rows, cols, rowLength, rank);
+			fallback = new SelectionLineFilter(rows, cols, rowLength, rank);
+			
+			final ArrayList<Integer> leavingList = new ArrayList<Integer>();
+			final ArrayList<Integer> enteringList = new ArrayList<Integer>();
+			for (int i = 0; i < offsets.length; ++i)
+			{
+				boolean hasLeft = false, hasRight = false;
+				for (int j = 0; j < offsets.length; ++j)
+				{
+					if (rows[j] == rows[i])
+					{
+						hasLeft |= cols[j] == cols[i] - 1;
+						hasRight |= cols[j] == cols[i] + 1;
+					}
+				}
+				if (!hasLeft)
+				{
+					leavingList.add(offsets[i]);
+				}
+				if (!hasRight)
+				{
+					// entering pixels are taken from the next position
+					enteringList.add(offsets[i] + 1);
+				}
+			}
+			leaving = toArray(leavingList);
+			entering = toArray(enteringList);
+		}
+		
+		private static int[] toArray(final ArrayList<Integer> list)
+		{
+			final int[] array = new int[list.size()];
+			for (int i = 0; i < array.length; ++i)
+			{
+				array[i] = list.get(i);
+			}
+			return array;
+		}
+
+		@Override
+		public void filter(final double[] line, final double[] out, final int length)
+		{
+			final int n = offsets.length;
+			
+			// Range of the line, that must only hold integer values
+			double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < line.length; ++i)
+			{
+				final double v = line[i];
+				if (v != Math.floor(v))
+				{
+					fallback.filter(line, out, length);
+					return;
+				}
+				if (v < min) min = v;
+				if (v > max) max = v;
+			}
+			if (max - min + 1 > MAX_BINS)
+			{
+				fallback.filter(line, out, length);
+				return;
+			}
+			
+			final int base = (int) min;
+			final int nBins = (int) (max - min) + 1;
+			if (histogram.length < nBins)
+			{
+				histogram = new int[nBins];
+			}
+			final int[] hist = histogram;
+			
+			// First neighborhood; start the search at its rank, found by selection
+			for (int i = 0; i < n; ++i)
+			{
+				++hist[(int) line[offsets[i]] - base];
+			}
+			fallback.filter(line, out, 1);
+			int med = (int) out[0] - base;
+			int ltmed = 0;
+			for (int b = 0; b < med; ++b)
+			{
+				ltmed += hist[b];
+			}
+			
+			for (int x = 0; ; ++x)
+			{
+				// Move the search to the rank: ltmed is the number of values below bin med
+				while (ltmed > rank)
+				{
+					--med;
+					ltmed -= hist[med];
+				}
+				while (ltmed + hist[med] <= rank)
+				{
+					ltmed += hist[med];
+					++med;
+				}
+				out[x] = base + med;
+				
+				if (x == length - 1)
+				{
+					break;
+				}
+				
+				// Slide
+				for (int i = 0; i < leaving.length; ++i)
+				{
+					final int b = (int) line[x + leaving[i]] - base;
+					--hist[b];
+					if (b < med) --ltmed;
+				}
+				for (int i = 0; i < entering.length; ++i)
+				{
+					final int b = (int) line[x + entering[i]] - base;
+					++hist[b];
+					if (b < med) ++ltmed;
+				}
+			}
+			
+			// Leave the histogram empty for the next line
+			for (int i = 0; i < n; ++i)
+			{
+				--hist[(int) line[length - 1 + offsets[i]] - base];
+			}
+		}
+	}
 	
 	//Member variables
 	
@@ -140,6 +439,7 @@ public void collectStats(LinkedList<R> list, RegionOfInterestCursor<R> cursor, i
 	private final LocalizableByDimCursor<T> outputCursor;
 	private boolean init = false;
 	private StatisticsCollectionStrategy<T> statsStrategy;
+	private int numThreads;
 
 	
 	//Member functions
@@ -155,7 +455,28 @@ public StatisticalOperation(final Image<T> imageIn, final StructuringElement inS
 		statList = new LinkedList<T>();
 		lastPosition = new int[strel.getNumDimensions()];
 		outputCursor = getOutputImage().createLocalizableByDimCursor();
-		statsStrategy = new SimpleCollectionStrategy<T>();		
+		if (imageIn.createType() instanceof IntegerType)
+		{
+			statsStrategy = new HistogramRankStrategy<T>();
+		}
+		else
+		{
+			statsStrategy = new SelectionRankStrategy<T>();
+		}
+		setNumThreads();
+	}
+	
+	/**
+	 * Sets the strategy used to collect the neighborhood statistics.
+	 */
+	public void setStatisticsCollectionStrategy(final StatisticsCollectionStrategy<T> strategy)
+	{
+		statsStrategy = strategy;
+	}
+	
+	public StatisticsCollectionStrategy<T> getStatisticsCollectionStrategy()
+	{
+		return statsStrategy;
 	}
 
 	public void reset()
@@ -195,6 +516,180 @@ public boolean checkInput()
 		return super.checkInput() && outputCursor.isActive();
 	}
 	
+	@Override
+	public void setNumThreads()
+	{
+		numThreads = Runtime.getRuntime().availableProcessors();
+	}
+	
+	@Override
+	public void setNumThreads(final int numThreads)
+	{
+		this.numThreads = numThreads;
+	}
+	
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+	
+	/**
+	 * Returns the rank, in ascending order and starting at 0, of the value that
+	 * {@link #statsOp(LocalizableByDimCursor)} writes for a neighborhood of the given size, or -1
+	 * if the operation does not reduce to a single rank.  Returns -1 by default.
+	 * 
+	 * @param n the number of pixels in the structuring element.
+	 */
+	protected int getRank(final int n)
+	{
+		return -1;
+	}
+	
+	@Override
+	public boolean process()
+	{
+		if (!checkInput())
+		{
+			setErrorMessage("Input or output cursor is not active");
+			return false;
+		}
+		
+		/*
+		 * Structuring element pixels: their row in the line buffer, which is their
+		 * position along dimensions 1 and up, and their column.
+		 */
+		final int nd = strel.getNumDimensions();
+		final int[] patchSize = getPatchSize();
+		final ArrayList<int[]> strelPixels = new ArrayList<int[]>();
+		final LocalizableCursor<BitType> strelCursor = strel.createLocalizableCursor();
+		while (strelCursor.hasNext())
+		{
+			strelCursor.fwd();
+			if (strelCursor.getType().get())
+			{
+				strelPixels.add(strelCursor.getPosition());
+			}
+		}
+		strelCursor.close();
+		
+		final int rank = getRank(strelPixels.size());
+		if (rank < 0 || rank >= strelPixels.size() || !(statsStrategy instanceof RankCollectionStrategy))
+		{
+			return super.process();
+		}
+		
+		final long sTime = System.currentTimeMillis();
+		final Image<T> input = getInputImage();
+		final Image<T> output = getOutputImage();
+		final int[] dims = input.getDimensions();
+		final int lineLength = dims[0];
+		final int rowLength = lineLength + patchSize[0] - 1;
+		
+		int nRows = 1;
+		int nLines = 1;
+		for (int d = 1; d < nd; ++d)
+		{
+			nRows *= patchSize[d];
+			nLines *= dims[d];
+		}
+		final int nBufferRows = nRows;
+		final int nOutputLines = nLines;
+		
+		final int[] rows = new int[strelPixels.size()];
+		final int[] cols = new int[strelPixels.size()];
+		for (int i = 0; i < rows.length; ++i)
+		{
+			final int[] p = strelPixels.get(i);
+			cols[i] = p[0];
+			int row = 0;
+			for (int d = nd - 1; d > 0; --d)
+			{
+				row = row * patchSize[d] + p[d];
+			}
+			rows[i] = row;
+		}
+		
+		final RankCollectionStrategy<T> strategy = (RankCollectionStrategy<T>) statsStrategy;
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = SimpleMultiThreading.newThreads(getNumThreads());
+		
+		for (int ithread = 0; ithread < threads.length; ++ithread)
+		{
+			threads[ithread] = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					final LineRankFilter filter = strategy.createLineFilter(rows, cols, rowLength, rank);
+					final LocalizableByDimCursor<T> inCursor = input.createLocalizableByDimCursor(getOutOfBoundsFactory());
+					final LocalizableByDimCursor<T> outCursor = output.createLocalizableByDimCursor();
+					final double[] buffer = new double[nBufferRows * rowLength];
+					final double[] out = new double[lineLength];
+					final int[] linePos = new int[nd];
+					final int[] offsetPos = new int[nd];
+					final int[] rowPos = new int[nd];
+					
+					for (int line = ai.getAndIncrement(); line < nOutputLines; line = ai.getAndIncrement())
+					{
+						// Position of the first pixel of the line
+						int l = line;
+						for (int d = 1; d < nd; ++d)
+						{
+							linePos[d] = l % dims[d];
+							l /= dims[d];
+						}
+						linePos[0] = 0;
+						positionOffset(linePos, offsetPos);
+						
+						// Fill the line buffer with the neighborhood of the whole line
+						int i = 0;
+						for (int row = 0; row < nBufferRows; ++row)
+						{
+							int r = row;
+							rowPos[0] = offsetPos[0];
+							for (int d = 1; d < nd; ++d)
+							{
+								rowPos[d] = offsetPos[d] + r % patchSize[d];
+								r /= patchSize[d];
+							}
+							inCursor.setPosition(rowPos);
+							for (int x = 0; x < rowLength; ++x)
+							{
+								buffer[i++] = inCursor.getType().getRealDouble();
+								inCursor.fwd(0);
+							}
+						}
+						
+						filter.filter(buffer, out, lineLength);
+						
+						outCursor.setPosition(linePos);
+						for (int x = 0; x < lineLength; ++x)
+						{
+							outCursor.getType().setReal(out[x]);
+							if (x < lineLength - 1)
+							{
+								outCursor.fwd(0);
+							}
+						}
+					}
+					
+					inCursor.close();
+					outCursor.close();
+				}
+			});
+		}
+		
+		SimpleMultiThreading.startAndJoin(threads);
+		
+		for (int d = 0; d < nd; ++d)
+		{
+			lastPosition[d] = dims[d] - 1;
+		}
+		init = true;
+		setProcessingTime(System.currentTimeMillis() - sTime);
+		return true;
+	}
+	
 	@Override
 	protected boolean patchOperation(final int[] position,
 			final RegionOfInterestCursor<T> cursor) {
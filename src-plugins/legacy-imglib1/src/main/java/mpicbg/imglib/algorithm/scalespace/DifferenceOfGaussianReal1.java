@@ -39,6 +39,8 @@
  */
 public class DifferenceOfGaussianReal1< A extends RealType<A> > extends DifferenceOfGaussianReal<A, A>
 {
+	double recursiveSigma = Double.POSITIVE_INFINITY;
+	
 	public DifferenceOfGaussianReal1( final Image<A> img, OutOfBoundsStrategyFactory<A> outOfBoundsFactory, 
 								      final double sigma1, final double sigma2, double minPeakValue, double normalizationFactor)
 	{
@@ -51,6 +53,13 @@ public DifferenceOfGaussianReal1( final Image<A> img, OutOfBoundsStrategyFactory
 		super( img, img.getImageFactory(), outOfBoundsFactory, sigma1, sigma2, minPeakValue, normalizationFactor);
 	}
 	
+	/**
+	 * Sigmas of at least this value are filtered recursively, see {@link GaussianConvolutionReal#setRecursiveSigma(double)}
+	 * @param recursiveSigma
+	 */
+	public void setRecursiveSigma( final double recursiveSigma ) { this.recursiveSigma = recursiveSigma; }
+	public double getRecursiveSigma() { return recursiveSigma; }
+	
 	/**
 	 * This method returns the {@link OutputAlgorithm} that will compute the Gaussian Convolutions, more efficient versions can override this method
 	 * 
@@ -62,6 +71,7 @@ public DifferenceOfGaussianReal1( final Image<A> img, OutOfBoundsStrategyFactory
 	protected OutputAlgorithm<A> getGaussianConvolution( final double[] sigma, final int numThreads )
 	{
 		final GaussianConvolutionReal<A> gauss = new GaussianConvolutionReal<A>( image, outOfBoundsFactory, sigma );
+		gauss.setRecursiveSigma( recursiveSigma );
 		
 		return gauss;
 	}
@@ -66,6 +66,7 @@
 	
 	double initialSigma, scale, imageSigma;
 	int minImageSize, stepsPerOctave;
+	double recursiveSigma = Double.POSITIVE_INFINITY;
 	
 	long processingTime;
 	int numThreads;
@@ -95,6 +96,13 @@ public ScaleSpace( final Image<A> image, final ImageFactory<B> processFactory, f
 	public void setMinImageSize( final int minImageSize ) { this.minImageSize = minImageSize; }
 	public int getMinImageSize() { return minImageSize; }
 	
+	/**
+	 * Sigmas of at least this value are filtered recursively, see {@link GaussianConvolutionReal#setRecursiveSigma(double)}
+	 * @param recursiveSigma
+	 */
+	public void setRecursiveSigma( final double recursiveSigma ) { this.recursiveSigma = recursiveSigma; }
+	public double getRecursiveSigma() { return recursiveSigma; }
+	
 	@Override
 	public boolean process()
 	{
@@ -220,6 +228,7 @@ protected Image<B> computeScaleSpace( final Image<B> image, final double[] sigma
 		
 		final GaussianConvolutionReal<B> gauss = new GaussianConvolutionReal<B>( image, new OutOfBoundsStrategyMirrorFactory<B>(), sigma[ 0 ] );
 		gauss.setNumThreads( getNumThreads() );
+		gauss.setRecursiveSigma( recursiveSigma );
 		
 		if ( !gauss.checkInput() || !gauss.process() )
 		{
@@ -0,0 +1,84 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package mpicbg.imglib.container.cell;
+
+import mpicbg.imglib.container.basictypecontainer.array.ArrayDataAccess;
+import mpicbg.imglib.type.Type;
+
+/**
+ * A {@link Cell} of a {@link CachedCellContainer}. Its data is not allocated
+ * at construction, but loaded from the backing file of the container the
+ * first time it is requested, and released when the container evicts it.
+ */
+public class CachedCell< T extends Type<T>, A extends ArrayDataAccess<A>> extends Cell<T, A>
+{
+	final protected CachedCellContainer<T, A> container;
+	
+	// the size of the cell data in the backing file
+	final protected int numBytes;
+	
+	// the loaded data, null if the cell is not in memory
+	protected A loadedData;
+	protected boolean dirty;
+	
+	public CachedCell( final CachedCellContainer<T, A> container, final A creator, final int cellId, final int[] dim, final int offset[], final int entitiesPerPixel )
+	{
+		super( cellId, dim, offset, entitiesPerPixel, creator, false );
+		this.container = container;
+		this.numBytes = CachedCellContainer.getNumBytes( creator, numEntities );
+	}
+	
+	/**
+	 * Returns the data of this cell, loading it from the backing file if
+	 * needed. The returned array may be evicted later on, so it must not be
+	 * kept once other cells have been accessed.
+	 */
+	@Override
+	public A getData() { return container.getCellData( cellId ); }
+	
+	public boolean isLoaded() { return loadedData != null; }
+	public int getNumBytes() { return numBytes; }
+	
+	@Override
+	protected void close() 
+	{ 
+		if ( loadedData != null )
+			loadedData.close();
+		loadedData = null;
+	}
+}
@@ -0,0 +1,391 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package mpicbg.imglib.container.cell;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import mpicbg.imglib.container.ContainerFactory;
+import mpicbg.imglib.container.basictypecontainer.array.ArrayDataAccess;
+import mpicbg.imglib.container.basictypecontainer.array.BitArray;
+import mpicbg.imglib.cursor.Cursor;
+import mpicbg.imglib.type.Type;
+
+/**
+ * A {@link CellContainer} that keeps its cells in a backing file, and only
+ * holds a limited number of them in memory. Cells are loaded the first time
+ * a {@link Cursor} enters them, kept in a least-recently-used cache whose
+ * size is given in bytes, and written back to the file when they are evicted
+ * or when the container is flushed or closed.
+ * <p>
+ * The cell a {@link Cursor} is currently in is never evicted, so that the
+ * array the cursor writes to stays the one that will be written back. The
+ * cache may therefore temporarily exceed its size when many cursors are
+ * active. Since writes cannot be observed, every cell handed out to a cursor
+ * is considered as modified, unless the container is read-only.
+ * <p>
+ * If the backing file exists and has exactly the size required by this
+ * container, its content is used as the initial pixel values. Otherwise it
+ * is created, or truncated, and filled with zeros.
+ */
+public class CachedCellContainer<T extends Type<T>, A extends ArrayDataAccess<A>> extends CellContainer<T, A>
+{
+	final protected A creator;
+	final protected File file;
+	final protected boolean deleteOnClose, readOnly;
+	final protected long cacheSize;
+	
+	final protected RandomAccessFile raf;
+	final protected FileChannel channel;
+	final protected long[] fileOffsets;
+	final protected ByteBuffer buffer;
+	
+	// the loaded cells, in access order
+	final protected LinkedHashMap<Integer, CachedCell<T, A>> loadedCells = new LinkedHashMap<Integer, CachedCell<T, A>>( 16, 0.75f, true );
+	protected long loadedBytes = 0;
+	
+	// the cell each cursor is currently in
+	final protected WeakHashMap<Cursor<?>, Integer> cursorCells = new WeakHashMap<Cursor<?>, Integer>();
+	
+	/**
+	 * @param file - the backing file
+	 * @param deleteOnClose - whether the backing file is deleted when the container is closed, instead of being flushed 
+	 * @param cacheSize - the maximal number of bytes of cell data kept in memory
+	 * @param readOnly - if true, cells are never written back to the file
+	 */
+	public CachedCellContainer( final ContainerFactory factory, final A creator, final int[] dim, final int[] cellSize, final int entitiesPerPixel,
+			final File file, final boolean deleteOnClose, final long cacheSize, final boolean readOnly )
+	{
+		super( factory, creator, dim, cellSize, entitiesPerPixel );
+		
+		this.creator = creator;
+		this.file = file;
+		this.deleteOnClose = deleteOnClose;
+		this.cacheSize = cacheSize;
+		this.readOnly = readOnly;
+		
+		fileOffsets = new long[ numCells ];
+		long length = 0;
+		int maxBytes = 0;
+		for ( int c = 0; c < numCells; ++c )
+		{
+			fileOffsets[ c ] = length;
+			final int numBytes = getCachedCell( c ).getNumBytes();
+			length += numBytes;
+			maxBytes = Math.max( maxBytes, numBytes );
+		}
+		buffer = ByteBuffer.allocate( maxBytes );
+		
+		try
+		{
+			raf = new RandomAccessFile( file, readOnly ? "r" : "rw" );
+			if ( raf.length() != length )
+			{
+				if ( readOnly )
+					throw new IOException( "File " + file + " has " + raf.length() + " bytes, expected " + length + "." );
+				
+				raf.setLength( 0 );
+				raf.setLength( length );
+			}
+			channel = raf.getChannel();
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( "CachedCellContainer(): cannot open backing file " + file + ": " + e.getMessage(), e );
+		}
+	}
+	
+	@Override
+	public Cell<T, A> createCellInstance( final A creator, final int cellId, final int[] dim, final int offset[], final int entitiesPerPixel )
+	{
+		return new CachedCell<T, A>( this, creator, cellId, dim, offset, entitiesPerPixel );
+	}
+	
+	@SuppressWarnings( "unchecked" )
+	protected CachedCell<T, A> getCachedCell( final int cellId ) { return (CachedCell<T, A>) data.get( cellId ); }
+	
+	@Override
+	public synchronized A update( final Cursor<?> c )
+	{
+		final int cellId = c.getStorageIndex();
+		cursorCells.put( c, cellId );
+		return getCellData( cellId );
+	}
+	
+	/**
+	 * Returns the data of a cell, loading it from the backing file and
+	 * evicting other cells if needed.
+	 */
+	public synchronized A getCellData( final int cellId )
+	{
+		final CachedCell<T, A> cell = getCachedCell( cellId );
+		
+		if ( cell.loadedData == null )
+		{
+			final A data = creator.createArray( cell.getNumEntities() );
+			try
+			{
+				read( fileOffsets[ cellId ], cell.getNumBytes(), data.getCurrentStorageArray() );
+			}
+			catch ( final IOException e )
+			{
+				throw new RuntimeException( "CachedCellContainer: cannot read cell " + cellId + " from " + file + ": " + e.getMessage(), e );
+			}
+			cell.loadedData = data;
+			cell.dirty = false;
+			loadedCells.put( cellId, cell );
+			loadedBytes += cell.getNumBytes();
+			
+			evict( cellId );
+		}
+		else
+		{
+			// mark as most recently used
+			loadedCells.get( cellId );
+		}
+		
+		if ( !readOnly )
+			cell.dirty = true;
+		
+		return cell.loadedData;
+	}
+	
+	/**
+	 * Writes all modified cells back to the backing file. They stay in memory.
+	 */
+	public synchronized void flush()
+	{
+		if ( readOnly )
+			return;
+		
+		final Set<Integer> inUse = getCellsInUse();
+		for ( final CachedCell<T, A> cell : loadedCells.values() )
+		{
+			if ( cell.dirty )
+			{
+				writeBack( cell );
+				// a cursor may still write into it
+				cell.dirty = inUse.contains( cell.getCellId() );
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes of cell data currently held in memory.
+	 */
+	public synchronized long getLoadedBytes() { return loadedBytes; }
+	
+	public long getCacheSize() { return cacheSize; }
+	public File getFile() { return file; }
+	public boolean isReadOnly() { return readOnly; }
+	
+	@Override
+	public synchronized void close()
+	{
+		if ( !deleteOnClose )
+			flush();
+		
+		for ( final CachedCell<T, A> cell : loadedCells.values() )
+			cell.close();
+		loadedCells.clear();
+		loadedBytes = 0;
+		cursorCells.clear();
+		
+		try
+		{
+			channel.close();
+			raf.close();
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( "CachedCellContainer.close(): cannot close " + file + ": " + e.getMessage(), e );
+		}
+		finally
+		{
+			if ( deleteOnClose && !file.delete() )
+				file.deleteOnExit();
+		}
+	}
+	
+	/**
+	 * Evicts the least recently used cells until the loaded data fits in the
+	 * cache, skipping the given cell and the cells active cursors are in.
+	 */
+	protected void evict( final int keep )
+	{
+		if ( loadedBytes <= cacheSize )
+			return;
+		
+		final Set<Integer> inUse = getCellsInUse();
+		final Iterator<CachedCell<T, A>> it = loadedCells.values().iterator();
+		
+		while ( loadedBytes > cacheSize && it.hasNext() )
+		{
+			final CachedCell<T, A> cell = it.next();
+			final int cellId = cell.getCellId();
+			
+			if ( cellId == keep || inUse.contains( cellId ) )
+				continue;
+			
+			if ( cell.dirty )
+				writeBack( cell );
+			
+			it.remove();
+			cell.close();
+			loadedBytes -= cell.getNumBytes();
+		}
+	}
+	
+	protected Set<Integer> getCellsInUse()
+	{
+		final Set<Integer> inUse = new HashSet<Integer>();
+		final Iterator<Map.Entry<Cursor<?>, Integer>> it = cursorCells.entrySet().iterator();
+		while ( it.hasNext() )
+		{
+			final Map.Entry<Cursor<?>, Integer> entry = it.next();
+			if ( entry.getKey().isActive() )
+				inUse.add( entry.getValue() );
+			else
+				it.remove();
+		}
+		return inUse;
+	}
+	
+	protected void writeBack( final CachedCell<T, A> cell )
+	{
+		try
+		{
+			write( fileOffsets[ cell.getCellId() ], cell.getNumBytes(), cell.loadedData.getCurrentStorageArray() );
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( "CachedCellContainer: cannot write cell " + cell.getCellId() + " to " + file + ": " + e.getMessage(), e );
+		}
+		cell.dirty = false;
+	}
+	
+	protected void read( final long position, final int numBytes, final Object array ) throws IOException
+	{
+		buffer.clear();
+		buffer.limit( numBytes );
+		while ( buffer.hasRemaining() )
+			if ( channel.read( buffer, position + buffer.position() ) < 0 )
+				break;
+		
+		// missing bytes are zeros
+		while ( buffer.hasRemaining() )
+			buffer.put( ( byte )0 );
+		
+		buffer.flip();
+		
+		if ( array instanceof byte[] )
+			buffer.get( ( byte[] )array );
+		else if ( array instanceof short[] )
+			buffer.asShortBuffer().get( ( short[] )array );
+		else if ( array instanceof char[] )
+			buffer.asCharBuffer().get( ( char[] )array );
+		else if ( array instanceof int[] )
+			buffer.asIntBuffer().get( ( int[] )array );
+		else if ( array instanceof long[] )
+			buffer.asLongBuffer().get( ( long[] )array );
+		else if ( array instanceof float[] )
+			buffer.asFloatBuffer().get( ( float[] )array );
+		else if ( array instanceof double[] )
+			buffer.asDoubleBuffer().get( ( double[] )array );
+		else
+			throw new IOException( "Unsupported storage array " + array.getClass().getName() );
+	}
+	
+	protected void write( final long position, final int numBytes, final Object array ) throws IOException
+	{
+		buffer.clear();
+		buffer.limit( numBytes );
+		
+		if ( array instanceof byte[] )
+			buffer.put( ( byte[] )array );
+		else if ( array instanceof short[] )
+			buffer.asShortBuffer().put( ( short[] )array );
+		else if ( array instanceof char[] )
+			buffer.asCharBuffer().put( ( char[] )array );
+		else if ( array instanceof int[] )
+			buffer.asIntBuffer().put( ( int[] )array );
+		else if ( array instanceof long[] )
+			buffer.asLongBuffer().put( ( long[] )array );
+		else if ( array instanceof float[] )
+			buffer.asFloatBuffer().put( ( float[] )array );
+		else if ( array instanceof double[] )
+			buffer.asDoubleBuffer().put( ( double[] )array );
+		else
+			throw new IOException( "Unsupported storage array " + array.getClass().getName() );
+		
+		buffer.position( 0 );
+		while ( buffer.hasRemaining() )
+			channel.write( buffer, position + buffer.position() );
+	}
+	
+	/**
+	 * Returns the number of bytes needed to store the given number of entities
+	 * in arrays created by <code>creator</code>.
+	 */
+	public static int getNumBytes( final ArrayDataAccess<?> creator, final int numEntities )
+	{
+		final Object array = creator.getCurrentStorageArray();
+		
+		if ( creator instanceof BitArray )
+			return ( ( numEntities + Integer.SIZE - 1 ) / Integer.SIZE ) * 4;
+		else if ( array instanceof byte[] )
+			return numEntities;
+		else if ( array instanceof short[] || array instanceof char[] )
+			return numEntities * 2;
+		else if ( array instanceof int[] || array instanceof float[] )
+			return numEntities * 4;
+		else if ( array instanceof long[] || array instanceof double[] )
+			return numEntities * 8;
+		else
+			throw new IllegalArgumentException( "Unsupported storage array " + array.getClass().getName() );
+	}
+}
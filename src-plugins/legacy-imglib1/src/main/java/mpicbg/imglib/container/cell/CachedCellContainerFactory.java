@@ -0,0 +1,149 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package mpicbg.imglib.container.cell;
+
+import java.io.File;
+import java.io.IOException;
+
+import mpicbg.imglib.container.basictypecontainer.array.ArrayDataAccess;
+import mpicbg.imglib.type.Type;
+
+/**
+ * Creates {@link CachedCellContainer}s, whose cells are stored in a file and
+ * only partly held in memory. Existing cursors and algorithms work unchanged
+ * on images created with this factory.
+ * <p>
+ * If no backing file is given, each container gets its own temporary file,
+ * which is deleted when the container is closed. If a file is given, only the
+ * next container created is backed by it; the file is flushed on close and
+ * kept. Since the factory travels with the image, the containers created
+ * later on, e.g. by {@link mpicbg.imglib.image.Image#createNewImage()} or by
+ * algorithms, get temporary files again instead of sharing that file.
+ */
+public class CachedCellContainerFactory extends CellContainerFactory
+{
+	public static final long DEFAULT_CACHE_SIZE = 256l * 1024l * 1024l;
+	
+	protected long cacheSize = DEFAULT_CACHE_SIZE;
+	protected File file = null;
+	protected File tempDirectory = null;
+	protected boolean readOnly = false;
+
+	public CachedCellContainerFactory()
+	{
+	}
+	
+	public CachedCellContainerFactory( final int cellSize, final long cacheSize )
+	{
+		super( cellSize );
+		this.cacheSize = cacheSize;
+	}
+	
+	public CachedCellContainerFactory( final int[] cellSize, final long cacheSize )
+	{
+		super( cellSize );
+		this.cacheSize = cacheSize;
+	}
+	
+	public CachedCellContainerFactory( final int[] cellSize, final long cacheSize, final File file )
+	{
+		this( cellSize, cacheSize );
+		this.file = file;
+	}
+	
+	/**
+	 * Sets the maximal number of bytes of cell data a container keeps in memory.
+	 */
+	public void setCacheSize( final long cacheSize ) { this.cacheSize = cacheSize; }
+	public long getCacheSize() { return cacheSize; }
+	
+	/**
+	 * Sets the backing file of the next container, or null to use temporary
+	 * files. The file is only used for one container, after which the factory
+	 * goes back to temporary files.
+	 */
+	public void setFile( final File file ) { this.file = file; }
+	public File getFile() { return file; }
+	
+	/**
+	 * Sets the directory temporary backing files are created in, or null for the default temporary directory.
+	 */
+	public void setTempDirectory( final File tempDirectory ) { this.tempDirectory = tempDirectory; }
+	public File getTempDirectory() { return tempDirectory; }
+	
+	/**
+	 * If true, the container backed by the file given to this factory only
+	 * reads it, and never writes to it. The file must exist.
+	 */
+	public void setReadOnly( final boolean readOnly ) { this.readOnly = readOnly; }
+	public boolean isReadOnly() { return readOnly; }
+	
+	@Override
+	protected synchronized <T extends Type<T>, A extends ArrayDataAccess<A>> CellContainer<T, A> createContainer( final A creator, final int[] dimensions, final int[] cellSize, final int entitiesPerPixel )
+	{
+		final File backingFile;
+		final boolean temporary = ( file == null );
+		
+		if ( temporary )
+		{
+			try
+			{
+				backingFile = File.createTempFile( "imglib-cells", ".raw", tempDirectory );
+			}
+			catch ( final IOException e )
+			{
+				throw new RuntimeException( "CachedCellContainerFactory(): cannot create a temporary file: " + e.getMessage(), e );
+			}
+			backingFile.deleteOnExit();
+		}
+		else
+		{
+			// a file holds a single image
+			backingFile = file;
+			file = null;
+		}
+		
+		return new CachedCellContainer<T, A>( this, creator, dimensions, cellSize, entitiesPerPixel, backingFile, temporary, cacheSize, readOnly && !temporary );
+	}
+	
+	@Override
+	public void printProperties()
+	{
+		System.out.println( "CachedCellContainerFactory(): cache size = " + cacheSize + " bytes, file = " + ( file == null ? "temporary" : file.getAbsolutePath() ) );
+	}
+}
@@ -58,6 +58,15 @@
 	final protected A data;
 	
 	public Cell( final A creator, final int cellId, final int[] dim, final int offset[], final int entitiesPerPixel)
+	{
+		this( cellId, dim, offset, entitiesPerPixel, creator, true );
+	}
+	
+	/**
+	 * Creates a cell, allocating its data only if <code>allocate</code> is true.
+	 * Subclasses that do not allocate must override {@link #getData()}.
+	 */
+	protected Cell( final int cellId, final int[] dim, final int offset[], final int entitiesPerPixel, final A creator, final boolean allocate )
 	{
 		this.offset = offset;		
 		this.cellId = cellId;
@@ -68,7 +77,7 @@ public Cell( final A creator, final int cellId, final int[] dim, final int offse
 		
 		step = new int[ numDimensions ];
 		
-		this.data = creator.createArray( numEntities );
+		this.data = allocate ? creator.createArray( numEntities ) : null;
 		
 		// the steps when moving inside a cell
 		Array.createAllocationSteps( dim, step );		
@@ -39,6 +39,7 @@
 
 import mpicbg.imglib.container.DirectAccessContainer;
 import mpicbg.imglib.container.DirectAccessContainerFactory;
+import mpicbg.imglib.container.basictypecontainer.array.ArrayDataAccess;
 import mpicbg.imglib.container.basictypecontainer.array.BitArray;
 import mpicbg.imglib.container.basictypecontainer.array.ByteArray;
 import mpicbg.imglib.container.basictypecontainer.array.CharArray;
@@ -140,13 +141,22 @@ protected int[] checkCellSize( int[] cellSize, int[] dimensions )
 		return cellSize;
 	}
 
+	/**
+	 * Creates the container for the given array type. Subclasses can override
+	 * this method to return another kind of {@link CellContainer}.
+	 */
+	protected <T extends Type<T>, A extends ArrayDataAccess<A>> CellContainer<T, A> createContainer( final A creator, final int[] dimensions, final int[] cellSize, final int entitiesPerPixel )
+	{
+		return new CellContainer<T, A>( this, creator, dimensions, cellSize, entitiesPerPixel );
+	}
+
 	@Override
 	public <T extends Type<T>> DirectAccessContainer<T, BitArray> createBitInstance( int[] dimensions, int entitiesPerPixel )
 	{
 		dimensions = checkDimensions( dimensions );
 		int[] cellSize = checkCellSize( this.cellSize, dimensions );
 		
-		return new CellContainer<T, BitArray>( this, new BitArray( 1 ), dimensions, cellSize, entitiesPerPixel );
+		return this.<T, BitArray>createContainer( new BitArray( 1 ), dimensions, cellSize, entitiesPerPixel );
 	}
 	
 	@Override
@@ -155,7 +165,7 @@ public <T extends Type<T>> DirectAccessContainer<T, ByteArray> createByteInstanc
 		dimensions = checkDimensions( dimensions );
 		int[] cellSize = checkCellSize( this.cellSize, dimensions );
 		
-		return new CellContainer<T, ByteArray>( this, new ByteArray( 1 ), dimensions, cellSize, entitiesPerPixel );
+		return this.<T, ByteArray>createContainer( new ByteArray( 1 ), dimensions, cellSize, entitiesPerPixel );
 	}
 
 	@Override
@@ -164,7 +174,7 @@ public <T extends Type<T>> DirectAccessContainer<T, CharArray> createCharInstanc
 		dimensions = checkDimensions( dimensions );
 		int[] cellSize = checkCellSize( this.cellSize, dimensions );
 		
-		return new CellContainer<T, CharArray>( this, new CharArray( 1 ), dimensions, cellSize, entitiesPerPixel );
+		return this.<T, CharArray>createContainer( new CharArray( 1 ), dimensions, cellSize, entitiesPerPixel );
 	}
 
 	@Override
@@ -173,7 +183,7 @@ public <T extends Type<T>> DirectAccessContainer<T, DoubleArray> createDoubleIns
 		dimensions = checkDimensions( dimensions );
 		int[] cellSize = checkCellSize( this.cellSize, dimensions );
 		
-		return new CellContainer<T, DoubleArray>( this, new DoubleArray( 1 ), dimensions, cellSize, entitiesPerPixel );
+		return this.<T, DoubleArray>createContainer( new DoubleArray( 1 ), dimensions, cellSize, entitiesPerPixel );
 	}
 
 	@Override
@@ -182,7 +192,7 @@ public <T extends Type<T>> DirectAccessContainer<T, FloatArray> createFloatInsta
 		dimensions = checkDimensions( dimensions );
 		int[] cellSize = checkCellSize( this.cellSize, dimensions );
 		
-		return new CellContainer<T, FloatArray>( this, new FloatArray( 1 ), dimensions, cellSize, entitiesPerPixel );
+		return this.<T, FloatArray>createContainer( new FloatArray( 1 ), dimensions, cellSize, entitiesPerPixel );
 	}
 
 	@Override
@@ -191,7 +201,7 @@ public <T extends Type<T>> DirectAccessContainer<T, IntArray> createIntInstance(
 		dimensions = checkDimensions( dimensions );
 		int[] cellSize = checkCellSize( this.cellSize, dimensions );
 		
-		return new CellContainer<T, IntArray>( this, new IntArray( 1 ), dimensions, cellSize, entitiesPerPixel );
+		return this.<T, IntArray>createContainer( new IntArray( 1 ), dimensions, cellSize, entitiesPerPixel );
 	}
 
 	@Override
@@ -200,7 +210,7 @@ public <T extends Type<T>> DirectAccessContainer<T, LongArray> createLongInstanc
 		dimensions = checkDimensions( dimensions );
 		int[] cellSize = checkCellSize( this.cellSize, dimensions );
 		
-		return new CellContainer<T, LongArray>( this, new LongArray( 1 ), dimensions, cellSize, entitiesPerPixel );
+		return this.<T, LongArray>createContainer( new LongArray( 1 ), dimensions, cellSize, entitiesPerPixel );
 	}
 
 	@Override
@@ -209,7 +219,7 @@ public <T extends Type<T>> DirectAccessContainer<T, ShortArray> createShortInsta
 		dimensions = checkDimensions( dimensions );
 		int[] cellSize = checkCellSize( this.cellSize, dimensions );
 		
-		return new CellContainer<T, ShortArray>( this, new ShortArray( 1 ), dimensions, cellSize, entitiesPerPixel );
+		return this.<T, ShortArray>createContainer( new ShortArray( 1 ), dimensions, cellSize, entitiesPerPixel );
 	}
 
 	@Override
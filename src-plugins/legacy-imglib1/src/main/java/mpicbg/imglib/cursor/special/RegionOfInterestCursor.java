@@ -73,6 +73,7 @@ public RegionOfInterestCursor( final LocalizableByDimCursor<T> cursor, final int
 		this.numDimensions = cursor.getImage().getNumDimensions();
 		this.roiPosition = new int[ numDimensions ];
 		this.currentDirectionDim = new boolean[ numDimensions ]; 
+		this.isActive = true;
 		
 		int count = 1;
 		for ( int d = 0; d < numDimensions; ++d )
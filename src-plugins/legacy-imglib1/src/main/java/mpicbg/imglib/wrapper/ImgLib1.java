@@ -19,6 +19,7 @@
 import mpicbg.imglib.container.basictypecontainer.array.IntArray;
 import mpicbg.imglib.container.basictypecontainer.array.LongArray;
 import mpicbg.imglib.container.basictypecontainer.array.ShortArray;
+import mpicbg.imglib.container.cell.CachedCellContainer;
 import mpicbg.imglib.container.cell.CellContainer;
 import mpicbg.imglib.container.cell.CellContainerFactory;
 import mpicbg.imglib.image.Image;
@@ -55,7 +56,7 @@ public static Img< net.imglib2.type.numeric.real.FloatType > wrapFloatToImgLib2
 	{
 		if ( image.getContainer() instanceof Array ) 
 			return wrapArrayFloatToImgLib2( image );
-		if ( image.getContainer() instanceof CellContainer ) 
+		if ( image.getContainer() instanceof CellContainer && !( image.getContainer() instanceof CachedCellContainer ) ) 
 			return wrapCellFloatToImgLib2( image );
 		else
 			throw new RuntimeException( "Container " + image.getContainer().getClass().getCanonicalName() + " not supported." );
@@ -71,7 +72,7 @@ public static Img< net.imglib2.type.numeric.real.DoubleType > wrapDoubleToImgLib
 	{
 		if ( image.getContainer() instanceof Array ) 
 			return wrapArrayDoubleToImgLib2( image );
-		if ( image.getContainer() instanceof CellContainer ) 
+		if ( image.getContainer() instanceof CellContainer && !( image.getContainer() instanceof CachedCellContainer ) ) 
 			return wrapCellDoubleToImgLib2( image );
 		else
 			throw new RuntimeException( "Container " + image.getContainer().getClass().getCanonicalName() + " not supported." );
@@ -87,7 +88,7 @@ public static Img< net.imglib2.type.numeric.integer.LongType > wrapLongToImgLib2
 	{
 		if ( image.getContainer() instanceof Array ) 
 			return wrapArrayLongToImgLib2( image );
-		if ( image.getContainer() instanceof CellContainer ) 
+		if ( image.getContainer() instanceof CellContainer && !( image.getContainer() instanceof CachedCellContainer ) ) 
 			return wrapCellLongToImgLib2( image );
 		else
 			throw new RuntimeException( "Container " + image.getContainer().getClass().getCanonicalName() + " not supported." );
@@ -103,7 +104,7 @@ public static Img< net.imglib2.type.numeric.integer.IntType > wrapIntToImgLib2 (
 	{
 		if ( image.getContainer() instanceof Array ) 
 			return wrapArrayIntToImgLib2( image );
-		if ( image.getContainer() instanceof CellContainer ) 
+		if ( image.getContainer() instanceof CellContainer && !( image.getContainer() instanceof CachedCellContainer ) ) 
 			return wrapCellIntToImgLib2( image );
 		else
 			throw new RuntimeException( "Container " + image.getContainer().getClass().getCanonicalName() + " not supported." );
@@ -119,7 +120,7 @@ public static Img< net.imglib2.type.numeric.integer.UnsignedIntType > wrapUnsign
 	{
 		if ( image.getContainer() instanceof Array ) 
 			return wrapArrayUnsignedIntToImgLib2( image );
-		if ( image.getContainer() instanceof CellContainer ) 
+		if ( image.getContainer() instanceof CellContainer && !( image.getContainer() instanceof CachedCellContainer ) ) 
 			return wrapCellUnsignedIntToImgLib2( image );
 		else
 			throw new RuntimeException( "Container " + image.getContainer().getClass().getCanonicalName() + " not supported." );
@@ -135,7 +136,7 @@ public static Img< net.imglib2.type.numeric.integer.ShortType > wrapShortToImgLi
 	{
 		if ( image.getContainer() instanceof Array ) 
 			return wrapArrayShortToImgLib2( image );
-		if ( image.getContainer() instanceof CellContainer ) 
+		if ( image.getContainer() instanceof CellContainer && !( image.getContainer() instanceof CachedCellContainer ) ) 
 			return wrapCellShortToImgLib2( image );
 		else
 			throw new RuntimeException( "Container " + image.getContainer().getClass().getCanonicalName() + " not supported." );
@@ -151,7 +152,7 @@ public static Img< net.imglib2.type.numeric.integer.UnsignedShortType > wrapUnsi
 	{
 		if ( image.getContainer() instanceof Array ) 
 			return wrapArrayUnsignedShortToImgLib2( image );
-		if ( image.getContainer() instanceof CellContainer ) 
+		if ( image.getContainer() instanceof CellContainer && !( image.getContainer() instanceof CachedCellContainer ) ) 
 			return wrapCellUnsignedShortToImgLib2( image );
 		else
 			throw new RuntimeException( "Container " + image.getContainer().getClass().getCanonicalName() + " not supported." );
@@ -167,7 +168,7 @@ public static Img< net.imglib2.type.numeric.integer.ByteType > wrapByteToImgLib2
 	{
 		if ( image.getContainer() instanceof Array ) 
 			return wrapArrayByteToImgLib2( image );
-		if ( image.getContainer() instanceof CellContainer ) 
+		if ( image.getContainer() instanceof CellContainer && !( image.getContainer() instanceof CachedCellContainer ) ) 
 			return wrapCellByteToImgLib2( image );
 		else
 			throw new RuntimeException( "Container " + image.getContainer().getClass().getCanonicalName() + " not supported." );
@@ -183,7 +184,7 @@ public static Img< net.imglib2.type.numeric.integer.UnsignedByteType > wrapUnsig
 	{
 		if ( image.getContainer() instanceof Array ) 
 			return wrapArrayUnsignedByteToImgLib2( image );
-		if ( image.getContainer() instanceof CellContainer ) 
+		if ( image.getContainer() instanceof CellContainer && !( image.getContainer() instanceof CachedCellContainer ) ) 
 			return wrapCellUnsignedByteToImgLib2( image );
 		else
 			throw new RuntimeException( "Container " + image.getContainer().getClass().getCanonicalName() + " not supported." );
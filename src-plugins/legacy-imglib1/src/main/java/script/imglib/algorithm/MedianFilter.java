@@ -63,7 +63,6 @@ public MedianFilter(final IFunction fn, final float radius, final OutOfBoundsStr
 	static private final <S extends RealType<S>> Image<S> process(final Image<S> img, final float radius, final OutOfBoundsStrategyFactory<S> oobs) throws Exception {
 		final mpicbg.imglib.algorithm.roi.MedianFilter<S> mf =
 			new mpicbg.imglib.algorithm.roi.MedianFilter<S>(img, StructuringElement.createBall(img.getNumDimensions(), radius), oobs);
-		// TODO: mf.checkInput() returns false even if the image is processed fine.
 		if (!mf.process()) {
 			throw new Exception("MedianFilter: " + mf.getErrorMessage());
 		}
@@ -44,6 +44,8 @@
 import mpicbg.imglib.type.numeric.RealType;
 import mpicbg.imglib.type.numeric.real.DoubleType;
 import mpicbg.imglib.type.numeric.real.FloatType;
+import script.imglib.math.compile.CompiledFunction;
+import script.imglib.math.compile.FunctionCompiler;
 import script.imglib.math.fn.IFunction;
 import script.imglib.math.fn.ImageFunction;
 
@@ -70,6 +72,14 @@
  * the computation result in images that have unexpected data in chunks of them (for example,
  * when there is an {@link OutOfBoundsStrategy} that prevents an early error from occurring).
  * <p>
+ * When the result is a {@link FloatType} or {@link DoubleType} image, the {@link IFunction}
+ * is first handed to the {@link FunctionCompiler}, which turns it into a class with a single
+ * loop over the primitive arrays of the images. The compiled loop is used when all images
+ * are stored in {@link mpicbg.imglib.container.array.Array} or
+ * {@link mpicbg.imglib.container.planar.PlanarContainer} containers; otherwise, or when
+ * the {@link IFunction} contains functions that cannot be compiled, it is evaluated pixel
+ * by pixel as usual. See {@link Compute#setCompilationEnabled(boolean)}.
+ * <p>
  * An example program: correct the background illumination of an image, given the associated
  * brighfield and a darkfield images, and the mean value of the image:
  * <p>
@@ -98,6 +108,19 @@ public Image<FloatType> scriptCorrectIllumination(
  */
 public class Compute {
 
+	static private volatile boolean compilationEnabled = true;
+
+	/** Whether {@link IFunction} instances are compiled, when possible, before being
+	 * evaluated into {@link FloatType} or {@link DoubleType} images. Enabled by default. */
+	static public final void setCompilationEnabled(final boolean enabled) {
+		compilationEnabled = enabled;
+	}
+
+	/** @see #setCompilationEnabled(boolean) */
+	static public final boolean isCompilationEnabled() {
+		return compilationEnabled;
+	}
+
 	/** Ensure that the {@link Container} of each {@link Image} of @param images is compatible
 	 * with all the others. */
 	static public final void checkContainers(final Collection<Image<?>> images) throws Exception {
@@ -153,6 +176,11 @@ public Loop(final IFunction op, final R output, final int numThreads) throws Exc
 
 		public abstract void loop(final Cursor<R> resultCursor, final long loopSize, final IFunction fn);
 
+		/** Returns the compiled form of the operation, or null to evaluate it with {@link #loop}. */
+		protected CompiledFunction compile() {
+			return null;
+		}
+
 		protected void cleanupCursors() {
 			for (Cursor<?> c : this.cursors) {
 				c.close();
@@ -180,6 +208,11 @@ private final Image<R> innerRun() throws Exception {
 				final ImageFactory<R> factory = new ImageFactory<R>( output, first.getContainerFactory() );
 				final Image<R> result = factory.createImage( first.getDimensions(), "result" );
 
+				// Run the compiled operation if possible, in which case no cursors are used
+				final CompiledFunction compiled = compile();
+				if ( null != compiled && compiled.compute( result, numThreads ) )
+					return result;
+
 				final AtomicInteger ai = new AtomicInteger(0);
 
 				// Duplicate all: also sets a new cursor for each that has one, so it's unique and reset.
@@ -262,6 +295,10 @@ public final void loop(final Cursor<R> resultCursor, final long loopSize, final
 					resultCursor.getType().setReal( fn.eval() );
 				}
 			}
+
+			protected final CompiledFunction compile() {
+				return compilationEnabled ? FunctionCompiler.compile(op, output) : null;
+			}
 		};
 		return loop.run();
 	}
@@ -0,0 +1,307 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package script.imglib.math.compile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/** A minimal writer of Java class files, just enough to generate the
+ * {@link CompiledFunction.Kernel} subclasses of the {@link FunctionCompiler}:
+ * a public final class with a default constructor and a single method, whose
+ * code is appended instruction by instruction.
+ * <p>
+ * The class files are written in version 49 (Java 5), which does not require
+ * stack map frames, so that branches need no further bookkeeping. The maximum
+ * stack depth is tracked from the stack effect given for each instruction.
+ */
+final class ClassWriter
+{
+	static final int ILOAD = 0x15, DLOAD = 0x18, ALOAD = 0x19,
+		ISTORE = 0x36, DSTORE = 0x39, ASTORE = 0x3a,
+		IALOAD = 0x2e, LALOAD = 0x2f, FALOAD = 0x30, DALOAD = 0x31, AALOAD = 0x32, BALOAD = 0x33, SALOAD = 0x35,
+		FASTORE = 0x51, DASTORE = 0x52,
+		DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f,
+		IAND = 0x7e, LAND = 0x7f, IOR = 0x80, IXOR = 0x82,
+		I2L = 0x85, I2D = 0x87, L2D = 0x8a, F2D = 0x8d, D2I = 0x8e, D2F = 0x90,
+		IINC = 0x84, IF_ICMPGE = 0xa2, GOTO = 0xa7, RETURN = 0xb1,
+		INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, CHECKCAST = 0xc0;
+
+	static private final int ACC_PUBLIC = 0x0001, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+	private final String name, superName;
+
+	private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream pool = new DataOutputStream( poolBytes );
+	private final HashMap<String, Integer> poolIndices = new HashMap<String, Integer>();
+	private int poolCount = 1;
+
+	private byte[] code = new byte[ 256 ];
+	private int codeLength = 0;
+	private int stack = 0, maxStack = 0;
+
+	/** @param name The internal name of the class, such as "a/b/C".
+	 *  @param superName The internal name of its superclass, which must have a public no-arg constructor. */
+	ClassWriter( final String name, final String superName )
+	{
+		this.name = name;
+		this.superName = superName;
+	}
+
+	/* Constant pool */
+
+	private int constant( final String key, final int tag, final Object value ) throws IOException
+	{
+		final Integer index = poolIndices.get( key );
+		if ( null != index )
+			return index.intValue();
+
+		final int i = poolCount;
+		pool.writeByte( tag );
+		switch ( tag )
+		{
+			case 1: pool.writeUTF( ( String )value ); break;
+			case 3: pool.writeInt( ( ( Integer )value ).intValue() ); break;
+			case 5: pool.writeLong( ( ( Long )value ).longValue() ); break;
+			case 6: pool.writeDouble( ( ( Double )value ).doubleValue() ); break;
+			default:
+				final int[] refs = ( int[] )value;
+				for ( final int ref : refs )
+					pool.writeShort( ref );
+		}
+		// long and double constants take two entries
+		poolCount += ( tag == 5 || tag == 6 ) ? 2 : 1;
+		if ( poolCount > 0xffff )
+			throw new IOException( "Too many constants" );
+		poolIndices.put( key, i );
+		return i;
+	}
+
+	int utf8( final String s ) throws IOException { return constant( "U" + s, 1, s ); }
+
+	int classRef( final String internalName ) throws IOException
+	{
+		return constant( "C" + internalName, 7, new int[]{ utf8( internalName ) } );
+	}
+
+	int methodRef( final String owner, final String method, final String descriptor ) throws IOException
+	{
+		final int nameAndType = constant( "N" + method + ":" + descriptor, 12, new int[]{ utf8( method ), utf8( descriptor ) } );
+		return constant( "M" + owner + "." + method + ":" + descriptor, 10, new int[]{ classRef( owner ), nameAndType } );
+	}
+
+	/* Code */
+
+	private void put( final int b )
+	{
+		if ( codeLength == code.length )
+		{
+			final byte[] c = new byte[ code.length * 2 ];
+			System.arraycopy( code, 0, c, 0, codeLength );
+			code = c;
+		}
+		code[ codeLength++ ] = ( byte )b;
+	}
+
+	private void put2( final int s )
+	{
+		put( s >> 8 );
+		put( s );
+	}
+
+	private void adjustStack( final int delta )
+	{
+		stack += delta;
+		if ( stack > maxStack )
+			maxStack = stack;
+	}
+
+	/** Append an instruction without operands, which changes the stack depth by @param delta slots. */
+	void insn( final int opcode, final int delta )
+	{
+		put( opcode );
+		adjustStack( delta );
+	}
+
+	/** Append a load or store instruction of the local variable @param var. */
+	void varInsn( final int opcode, final int var, final int delta ) throws IOException
+	{
+		if ( var > 0xff )
+			throw new IOException( "Too many local variables" );
+		put( opcode );
+		put( var );
+		adjustStack( delta );
+	}
+
+	void iinc( final int var, final int increment ) throws IOException
+	{
+		if ( var > 0xff )
+			throw new IOException( "Too many local variables" );
+		put( IINC );
+		put( var );
+		put( increment );
+	}
+
+	void ldcInt( final int value ) throws IOException
+	{
+		put( 0x13 ); // ldc_w
+		put2( constant( "I" + value, 3, value ) );
+		adjustStack( 1 );
+	}
+
+	void ldcLong( final long value ) throws IOException
+	{
+		put( 0x14 ); // ldc2_w
+		put2( constant( "J" + value, 5, value ) );
+		adjustStack( 2 );
+	}
+
+	void ldcDouble( final double value ) throws IOException
+	{
+		put( 0x14 ); // ldc2_w
+		// Keyed by bits, so that -0.0 and each NaN keep their own entry
+		put2( constant( "D" + Double.doubleToRawLongBits( value ), 6, value ) );
+		adjustStack( 2 );
+	}
+
+	void checkcast( final String internalName ) throws IOException
+	{
+		put( CHECKCAST );
+		put2( classRef( internalName ) );
+	}
+
+	void invokeStatic( final String owner, final String method, final String descriptor, final int delta ) throws IOException
+	{
+		put( INVOKESTATIC );
+		put2( methodRef( owner, method, descriptor ) );
+		adjustStack( delta );
+	}
+
+	/** @return The current position in the code, to jump back to with {@link #jump(int, int)}. */
+	int position() { return codeLength; }
+
+	/** Append a jump instruction to the position @param target. */
+	void jump( final int opcode, final int target, final int delta )
+	{
+		final int at = codeLength;
+		put( opcode );
+		put2( target - at );
+		adjustStack( delta );
+	}
+
+	/** Append a forward jump instruction, whose target is set later with {@link #land(int)}.
+	 * @return The position of the instruction. */
+	int jumpForward( final int opcode, final int delta )
+	{
+		final int at = codeLength;
+		put( opcode );
+		put2( 0 );
+		adjustStack( delta );
+		return at;
+	}
+
+	/** Set the target of the forward jump appended at position @param at to the current position. */
+	void land( final int at )
+	{
+		final int offset = codeLength - at;
+		code[ at + 1 ] = ( byte )( offset >> 8 );
+		code[ at + 2 ] = ( byte )offset;
+	}
+
+	/** Write the class file, with a default constructor and a public method
+	 * with the code appended so far.
+	 *
+	 * @param method The name of the method.
+	 * @param descriptor The descriptor of the method.
+	 * @param maxLocals The number of local variable slots used by the method, including its parameters. */
+	byte[] toByteArray( final String method, final String descriptor, final int maxLocals ) throws IOException
+	{
+		if ( codeLength > 0xffff )
+			throw new IOException( "Method too large" );
+
+		final int thisClass = classRef( name );
+		final int superClass = classRef( superName );
+		final int init = utf8( "<init>" );
+		final int voidDescriptor = utf8( "()V" );
+		final int superInit = methodRef( superName, "<init>", "()V" );
+		final int methodName = utf8( method );
+		final int methodDescriptor = utf8( descriptor );
+		final int codeAttribute = utf8( "Code" );
+		pool.flush();
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream( 512 + poolBytes.size() + codeLength );
+		final DataOutputStream out = new DataOutputStream( bytes );
+		out.writeInt( 0xcafebabe );
+		out.writeShort( 0 );
+		out.writeShort( 49 );
+		out.writeShort( poolCount );
+		poolBytes.writeTo( out );
+		out.writeShort( ACC_PUBLIC | ACC_FINAL | ACC_SUPER );
+		out.writeShort( thisClass );
+		out.writeShort( superClass );
+		out.writeShort( 0 ); // interfaces
+		out.writeShort( 0 ); // fields
+		out.writeShort( 2 ); // methods
+
+		// public <init>() { super(); }
+		out.writeShort( ACC_PUBLIC );
+		out.writeShort( init );
+		out.writeShort( voidDescriptor );
+		out.writeShort( 1 );
+		out.writeShort( codeAttribute );
+		out.writeInt( 12 + 5 );
+		out.writeShort( 1 ); // max stack
+		out.writeShort( 1 ); // max locals
+		out.writeInt( 5 );
+		out.writeByte( 0x2a ); // aload_0
+		out.writeByte( INVOKESPECIAL );
+		out.writeShort( superInit );
+		out.writeByte( RETURN );
+		out.writeShort( 0 ); // exception table
+		out.writeShort( 0 ); // attributes
+
+		// the method
+		out.writeShort( ACC_PUBLIC );
+		out.writeShort( methodName );
+		out.writeShort( methodDescriptor );
+		out.writeShort( 1 );
+		out.writeShort( codeAttribute );
+		out.writeInt( 12 + codeLength );
+		out.writeShort( maxStack );
+		out.writeShort( maxLocals );
+		out.writeInt( codeLength );
+		out.write( code, 0, codeLength );
+		out.writeShort( 0 ); // exception table
+		out.writeShort( 0 ); // attributes
+
+		out.writeShort( 0 ); // class attributes
+		out.flush();
+		return bytes.toByteArray();
+	}
+}
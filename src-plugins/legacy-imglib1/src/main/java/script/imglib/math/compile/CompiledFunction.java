@@ -0,0 +1,199 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package script.imglib.math.compile;
+
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.imglib.container.Container;
+import mpicbg.imglib.container.DirectAccessContainer;
+import mpicbg.imglib.container.PixelGridContainer;
+import mpicbg.imglib.container.array.Array;
+import mpicbg.imglib.container.basictypecontainer.array.ArrayDataAccess;
+import mpicbg.imglib.container.basictypecontainer.array.ByteArray;
+import mpicbg.imglib.container.basictypecontainer.array.DoubleArray;
+import mpicbg.imglib.container.basictypecontainer.array.FloatArray;
+import mpicbg.imglib.container.basictypecontainer.array.IntArray;
+import mpicbg.imglib.container.basictypecontainer.array.LongArray;
+import mpicbg.imglib.container.basictypecontainer.array.ShortArray;
+import mpicbg.imglib.container.planar.PlanarContainer;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.multithreading.Chunk;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+import script.imglib.math.fn.IFunction;
+
+/** An {@link IFunction} tree compiled by the {@link FunctionCompiler} into a
+ * {@link Kernel}: a generated class whose single method loops over the
+ * primitive arrays that store the pixels of the images read by the function
+ * and of the result image.
+ * <p>
+ * A {@link CompiledFunction} can only run when all the images, including the
+ * result, store their pixels in heap arrays, that is, when they use an
+ * {@link Array} or a {@link PlanarContainer}. Otherwise
+ * {@link #compute(Image, int)} returns false, and the {@link IFunction} has to
+ * be evaluated as usual.
+ *
+ * @see FunctionCompiler
+ */
+public final class CompiledFunction
+{
+	/** The superclass of the classes generated by the {@link FunctionCompiler}. */
+	static public abstract class Kernel
+	{
+		/** Evaluate the function for the pixels from @param start (inclusive) to
+		 * @param end (exclusive) of the arrays @param inputs, one per image read
+		 * by the function, and store the results in the array @param output. */
+		public abstract void compute( Object[] inputs, Object output, int start, int end );
+	}
+
+	private final Kernel kernel;
+	private final Image<?>[] images;
+	private final Class<?>[] arrayClasses;
+	private final Class<?> outputArrayClass;
+
+	CompiledFunction( final Kernel kernel, final Image<?>[] images, final Class<?>[] arrayClasses, final Class<?> outputArrayClass )
+	{
+		this.kernel = kernel;
+		this.images = images;
+		this.arrayClasses = arrayClasses;
+		this.outputArrayClass = outputArrayClass;
+	}
+
+	/** Evaluate the function for every pixel and store the results in @param result,
+	 * which must have the same dimensions and container type as the images read by the function.
+	 *
+	 * @param numThreads The number of threads for parallel execution.
+	 * @return false if the pixels of any image are not stored in heap arrays, in which case
+	 * nothing was computed. */
+	public boolean compute( final Image<?> result, final int numThreads )
+	{
+		final Object[] outputs = getArrays( result, outputArrayClass );
+		if ( null == outputs )
+			return false;
+
+		final Object[][] inputs = new Object[ images.length ][];
+		for ( int i = 0; i < images.length; ++i )
+		{
+			inputs[ i ] = getArrays( images[ i ], arrayClasses[ i ] );
+			if ( null == inputs[ i ] || inputs[ i ].length != outputs.length )
+				return false;
+		}
+
+		// All the arrays have the same length: one plane, or the whole image
+		final int arrayLength = java.lang.reflect.Array.getLength( outputs[ 0 ] );
+		for ( int p = 0; p < outputs.length; ++p )
+		{
+			if ( java.lang.reflect.Array.getLength( outputs[ p ] ) != arrayLength )
+				return false;
+			for ( int i = 0; i < inputs.length; ++i )
+				if ( java.lang.reflect.Array.getLength( inputs[ i ][ p ] ) != arrayLength )
+					return false;
+		}
+
+		final long numPixels = ( long )outputs.length * arrayLength;
+		final int nThreads = ( int )Math.max( 1, Math.min( numThreads, numPixels ) );
+		final Vector<Chunk> chunks = SimpleMultiThreading.divideIntoChunks( numPixels, nThreads );
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Thread[] threads = SimpleMultiThreading.newThreads( nThreads );
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				public void run()
+				{
+					final Chunk chunk = chunks.get( ai.getAndIncrement() );
+					final long start = chunk.getStartPosition();
+					final long end = start + chunk.getLoopSize();
+					final Object[] in = new Object[ inputs.length ];
+
+					// Run the kernel on the part of each array that falls within the chunk
+					for ( int p = ( int )( start / arrayLength ); p < outputs.length && ( long )p * arrayLength < end; ++p )
+					{
+						final long offset = ( long )p * arrayLength;
+						for ( int i = 0; i < in.length; ++i )
+							in[ i ] = inputs[ i ][ p ];
+						kernel.compute( in, outputs[ p ], ( int )Math.max( 0, start - offset ), ( int )Math.min( arrayLength, end - offset ) );
+					}
+				}
+			});
+
+		SimpleMultiThreading.startAndJoin( threads );
+
+		return true;
+	}
+
+	/** Returns the arrays that store the pixels of @param img: one for an {@link Array},
+	 * or one per plane for a {@link PlanarContainer}; or null if the pixels are not stored
+	 * in heap arrays of class @param arrayClass. */
+	static Object[] getArrays( final Image<?> img, final Class<?> arrayClass )
+	{
+		final Container<?> container = img.getContainer();
+		if ( !( container instanceof PixelGridContainer ) || ( ( PixelGridContainer<?> )container ).getNumEntitiesPerPixel() != 1 )
+			return null;
+
+		final Object[] arrays;
+		if ( container instanceof PlanarContainer )
+		{
+			final PlanarContainer<?, ?> planar = ( PlanarContainer<?, ?> )container;
+			arrays = new Object[ planar.getSlices() ];
+			for ( int p = 0; p < arrays.length; ++p )
+			{
+				arrays[ p ] = getArray( planar.getPlane( p ), arrayClass );
+				if ( null == arrays[ p ] )
+					return null;
+			}
+		}
+		else if ( container instanceof Array )
+		{
+			final Object array = getArray( ( ( DirectAccessContainer<?, ?> )container ).update( null ), arrayClass );
+			if ( null == array )
+				return null;
+			arrays = new Object[]{ array };
+		}
+		else
+			return null;
+
+		return arrays;
+	}
+
+	/** Returns the array of @param access if it is one of the heap arrays, of class @param arrayClass.
+	 * Other accesses, such as the NIO ones, would copy their data. */
+	static private Object getArray( final Object access, final Class<?> arrayClass )
+	{
+		if ( null == access )
+			return null;
+
+		final Class<?> c = access.getClass();
+		if ( c != ByteArray.class && c != ShortArray.class && c != IntArray.class
+		  && c != LongArray.class && c != FloatArray.class && c != DoubleArray.class )
+			return null;
+
+		final Object array = ( ( ArrayDataAccess<?> )access ).getCurrentStorageArray();
+		return null != array && array.getClass() == arrayClass ? array : null;
+	}
+}
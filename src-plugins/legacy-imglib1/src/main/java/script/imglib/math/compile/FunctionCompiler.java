@@ -0,0 +1,531 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package script.imglib.math.compile;
+
+import ij.IJ;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.imglib.cursor.Cursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.type.numeric.RealType;
+import mpicbg.imglib.type.numeric.integer.ByteType;
+import mpicbg.imglib.type.numeric.integer.IntType;
+import mpicbg.imglib.type.numeric.integer.LongType;
+import mpicbg.imglib.type.numeric.integer.ShortType;
+import mpicbg.imglib.type.numeric.integer.UnsignedByteType;
+import mpicbg.imglib.type.numeric.integer.UnsignedIntType;
+import mpicbg.imglib.type.numeric.integer.UnsignedShortType;
+import mpicbg.imglib.type.numeric.real.DoubleType;
+import mpicbg.imglib.type.numeric.real.FloatType;
+import script.imglib.math.ACos;
+import script.imglib.math.ASin;
+import script.imglib.math.ATan;
+import script.imglib.math.ATan2;
+import script.imglib.math.Abs;
+import script.imglib.math.Add;
+import script.imglib.math.And;
+import script.imglib.math.Average;
+import script.imglib.math.Cbrt;
+import script.imglib.math.Ceil;
+import script.imglib.math.Cos;
+import script.imglib.math.Cosh;
+import script.imglib.math.Difference;
+import script.imglib.math.Divide;
+import script.imglib.math.Exp;
+import script.imglib.math.Expm1;
+import script.imglib.math.Floor;
+import script.imglib.math.Hypot;
+import script.imglib.math.IEEEremainder;
+import script.imglib.math.Log;
+import script.imglib.math.Log10;
+import script.imglib.math.Log1p;
+import script.imglib.math.Max;
+import script.imglib.math.Min;
+import script.imglib.math.Multiply;
+import script.imglib.math.Or;
+import script.imglib.math.Pow;
+import script.imglib.math.Rint;
+import script.imglib.math.Round;
+import script.imglib.math.Signum;
+import script.imglib.math.Sin;
+import script.imglib.math.Sinh;
+import script.imglib.math.Sqrt;
+import script.imglib.math.Subtract;
+import script.imglib.math.Tan;
+import script.imglib.math.Tanh;
+import script.imglib.math.ToDegrees;
+import script.imglib.math.ToRadians;
+import script.imglib.math.Xor;
+import script.imglib.math.fn.BinaryOperation;
+import script.imglib.math.fn.IFunction;
+import script.imglib.math.fn.ImageFunction;
+import script.imglib.math.fn.NumberFunction;
+import script.imglib.math.fn.UnaryOperation;
+
+/** Compiles an {@link IFunction} tree into a {@link CompiledFunction}: the whole
+ * tree becomes the body of a single loop over the primitive arrays that store
+ * the pixels, in a class generated at runtime. The just-in-time compiler then
+ * sees a straight sequence of array loads and arithmetic instead of a chain of
+ * virtual {@link IFunction#eval()} and {@link Cursor} calls per pixel.
+ * <p>
+ * Only trees made exclusively of {@link ImageFunction}, {@link NumberFunction}
+ * and the stateless functions of the {@code script.imglib.math} package can be
+ * compiled, reading images of the primitive {@link RealType}s ({@link ByteType},
+ * {@link UnsignedByteType}, {@link ShortType}, {@link UnsignedShortType}, {@link IntType},
+ * {@link UnsignedIntType}, {@link LongType}, {@link FloatType} and {@link DoubleType})
+ * into a result of {@link FloatType} or {@link DoubleType}. Subclasses of these
+ * functions are not compiled, since they may override {@link IFunction#eval()}.
+ * For anything else, {@link #compile(IFunction, RealType)} returns null and the
+ * {@link IFunction} has to be evaluated as usual.
+ * <p>
+ * The generated classes are cached by the structure of the tree, the types of
+ * its images and its constants, so that running the same expression on other
+ * images of the same types reuses the class.
+ *
+ * @see CompiledFunction
+ */
+public final class FunctionCompiler
+{
+	/** The maximum number of generated classes kept in the cache. */
+	static public final int CACHE_SIZE = 256;
+
+	static private final String KERNEL = CompiledFunction.Kernel.class.getName().replace( '.', '/' );
+	static private final String METHOD = "compute";
+	static private final String DESCRIPTOR = "([Ljava/lang/Object;Ljava/lang/Object;II)V";
+	static private final String MATH = "java/lang/Math";
+
+	/** How to read the pixels of an image of each type, as a double. */
+	static private enum Sample
+	{
+		BYTE( ByteType.class, byte[].class, ClassWriter.BALOAD, -1 ),
+		UNSIGNED_BYTE( UnsignedByteType.class, byte[].class, ClassWriter.BALOAD, -1 ) {
+			void convert( final ClassWriter w ) throws IOException {
+				w.ldcInt( 0xff );
+				w.insn( ClassWriter.IAND, -1 );
+				super.convert( w );
+			}
+		},
+		SHORT( ShortType.class, short[].class, ClassWriter.SALOAD, -1 ),
+		UNSIGNED_SHORT( UnsignedShortType.class, short[].class, ClassWriter.SALOAD, -1 ) {
+			void convert( final ClassWriter w ) throws IOException {
+				w.ldcInt( 0xffff );
+				w.insn( ClassWriter.IAND, -1 );
+				super.convert( w );
+			}
+		},
+		INT( IntType.class, int[].class, ClassWriter.IALOAD, -1 ),
+		UNSIGNED_INT( UnsignedIntType.class, int[].class, ClassWriter.IALOAD, -1 ) {
+			void convert( final ClassWriter w ) throws IOException {
+				w.insn( ClassWriter.I2L, 1 );
+				w.ldcLong( 0xffffffffL );
+				w.insn( ClassWriter.LAND, -2 );
+				w.insn( ClassWriter.L2D, 0 );
+			}
+		},
+		LONG( LongType.class, long[].class, ClassWriter.LALOAD, 0 ) {
+			void convert( final ClassWriter w ) { w.insn( ClassWriter.L2D, 0 ); }
+		},
+		FLOAT( FloatType.class, float[].class, ClassWriter.FALOAD, -1 ) {
+			void convert( final ClassWriter w ) { w.insn( ClassWriter.F2D, 1 ); }
+		},
+		DOUBLE( DoubleType.class, double[].class, ClassWriter.DALOAD, 0 ) {
+			void convert( final ClassWriter w ) {}
+		};
+
+		final Class<?> type, arrayClass;
+		final String arrayDescriptor;
+		final int load, loadDelta;
+
+		Sample( final Class<?> type, final Class<?> arrayClass, final int load, final int loadDelta )
+		{
+			this.type = type;
+			this.arrayClass = arrayClass;
+			this.arrayDescriptor = arrayClass.getName();
+			this.load = load;
+			this.loadDelta = loadDelta;
+		}
+
+		/** Convert the loaded array element on the stack to a double.
+		 * By default, from an int. */
+		void convert( final ClassWriter w ) throws IOException
+		{
+			w.insn( ClassWriter.I2D, 1 );
+		}
+
+		static Sample of( final Class<?> type )
+		{
+			for ( final Sample s : values() )
+				if ( s.type == type )
+					return s;
+			return null;
+		}
+	}
+
+	/** The {@link UnaryOperation}s that call a {@link Math} method of signature (D)D. */
+	static private final Map<Class<?>, String> UNARY = new HashMap<Class<?>, String>();
+	/** The {@link BinaryOperation}s that call a {@link Math} method of signature (DD)D. */
+	static private final Map<Class<?>, String> BINARY = new HashMap<Class<?>, String>();
+	/** The {@link BinaryOperation}s that are a single double or int instruction. */
+	static private final Map<Class<?>, Integer> ARITHMETIC = new HashMap<Class<?>, Integer>(),
+		BITWISE = new HashMap<Class<?>, Integer>();
+	static
+	{
+		UNARY.put( Abs.class, "abs" );
+		UNARY.put( ACos.class, "acos" );
+		UNARY.put( ASin.class, "asin" );
+		UNARY.put( ATan.class, "atan" );
+		UNARY.put( Cbrt.class, "cbrt" );
+		UNARY.put( Ceil.class, "ceil" );
+		UNARY.put( Cos.class, "cos" );
+		UNARY.put( Cosh.class, "cosh" );
+		UNARY.put( Exp.class, "exp" );
+		UNARY.put( Expm1.class, "expm1" );
+		UNARY.put( Floor.class, "floor" );
+		UNARY.put( Log.class, "log" );
+		UNARY.put( Log10.class, "log10" );
+		UNARY.put( Log1p.class, "log1p" );
+		UNARY.put( Rint.class, "rint" );
+		UNARY.put( Signum.class, "signum" );
+		UNARY.put( Sin.class, "sin" );
+		UNARY.put( Sinh.class, "sinh" );
+		UNARY.put( Sqrt.class, "sqrt" );
+		UNARY.put( Tan.class, "tan" );
+		UNARY.put( Tanh.class, "tanh" );
+		UNARY.put( ToDegrees.class, "toDegrees" );
+		UNARY.put( ToRadians.class, "toRadians" );
+
+		BINARY.put( ATan2.class, "atan2" );
+		BINARY.put( Hypot.class, "hypot" );
+		BINARY.put( IEEEremainder.class, "IEEEremainder" );
+		BINARY.put( Max.class, "max" );
+		BINARY.put( Min.class, "min" );
+		BINARY.put( Pow.class, "pow" );
+
+		ARITHMETIC.put( Add.class, ClassWriter.DADD );
+		ARITHMETIC.put( Subtract.class, ClassWriter.DSUB );
+		ARITHMETIC.put( Multiply.class, ClassWriter.DMUL );
+		ARITHMETIC.put( Divide.class, ClassWriter.DDIV );
+
+		BITWISE.put( And.class, ClassWriter.IAND );
+		BITWISE.put( Or.class, ClassWriter.IOR );
+		BITWISE.put( Xor.class, ClassWriter.IXOR );
+	}
+
+	/** The generated classes, by the key returned by {@link Tree#key}, least recently used first. */
+	static private final Map<String, Class<? extends CompiledFunction.Kernel>> cache =
+		Collections.synchronizedMap( new LinkedHashMap<String, Class<? extends CompiledFunction.Kernel>>( 16, 0.75f, true ) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry<String, Class<? extends CompiledFunction.Kernel>> eldest ) {
+				return size() > CACHE_SIZE;
+			}
+		});
+
+	static private final AtomicInteger counter = new AtomicInteger( 0 );
+
+	/** Each generated class gets its own loader, so that it can be unloaded
+	 * once evicted from the cache and no longer in use. */
+	static private final class KernelLoader extends ClassLoader
+	{
+		KernelLoader()
+		{
+			super( CompiledFunction.Kernel.class.getClassLoader() );
+		}
+
+		Class<?> define( final String name, final byte[] b )
+		{
+			return defineClass( name, b, 0, b.length );
+		}
+	}
+
+	private FunctionCompiler() {}
+
+	/** Compile @param op for a result image of the type of @param output.
+	 *
+	 * @return The {@link CompiledFunction}, or null if @param op or @param output
+	 * are not supported, or if @param op does not read any image. */
+	static public final CompiledFunction compile( final IFunction op, final RealType<?> output )
+	{
+		final Sample out = Sample.of( output.getClass() );
+		if ( out != Sample.FLOAT && out != Sample.DOUBLE )
+			return null;
+
+		final Tree tree = new Tree();
+		if ( !tree.scan( op ) || tree.images.isEmpty() )
+			return null;
+		tree.key.append( "->" ).append( out );
+		final String key = tree.key.toString();
+
+		try
+		{
+			Class<? extends CompiledFunction.Kernel> c = cache.get( key );
+			if ( null == c )
+			{
+				final String name = "script.imglib.math.compile.GeneratedKernel" + counter.incrementAndGet();
+				final byte[] bytes = tree.generate( name.replace( '.', '/' ), op, out );
+				c = new KernelLoader().define( name, bytes ).asSubclass( CompiledFunction.Kernel.class );
+				cache.put( key, c );
+			}
+
+			final int n = tree.images.size();
+			final Class<?>[] arrayClasses = new Class<?>[ n ];
+			for ( int i = 0; i < n; ++i )
+				arrayClasses[ i ] = tree.samples.get( i ).arrayClass;
+
+			return new CompiledFunction( c.newInstance(), tree.images.toArray( new Image<?>[ n ] ), arrayClasses, out.arrayClass );
+		}
+		catch ( final Throwable t )
+		{
+			// Generation, verification or instantiation failed: fall back to interpretation
+			if ( t instanceof VirtualMachineError )
+				throw ( VirtualMachineError )t;
+			if ( IJ.debugMode )
+				IJ.log( "Could not compile " + op.getClass().getSimpleName() + ", it will be interpreted:\n" + t );
+			return null;
+		}
+	}
+
+	/** The images of an {@link IFunction} tree, in order of appearance,
+	 * and the code generation for the tree. */
+	static private final class Tree
+	{
+		final ArrayList<Image<?>> images = new ArrayList<Image<?>>();
+		final ArrayList<Sample> samples = new ArrayList<Sample>();
+		final IdentityHashMap<Image<?>, Integer> indices = new IdentityHashMap<Image<?>, Integer>();
+		/** Describes the structure of the tree, with its image types and constants. */
+		final StringBuilder key = new StringBuilder();
+
+		ClassWriter w;
+		/** The local variable slots of the image arrays, of the result array and of the loop index. */
+		int firstArray, outArray, index;
+		/** The next free local variable slot, for temporary values. */
+		int nextLocal;
+
+		/** Collect the images of @param fn, and append its description to the key.
+		 * @return false if @param fn cannot be compiled. */
+		boolean scan( final IFunction fn )
+		{
+			final Class<?> c = fn.getClass();
+			if ( c == NumberFunction.class )
+			{
+				key.append( "N" ).append( Long.toHexString( Double.doubleToRawLongBits( fn.eval() ) ) );
+				return true;
+			}
+			if ( c == ImageFunction.class )
+			{
+				final Image<?> img = getImage( ( ImageFunction )fn );
+				if ( null == img )
+					return false;
+				Integer index = indices.get( img );
+				if ( null == index )
+				{
+					final Sample s = Sample.of( img.createType().getClass() );
+					if ( null == s )
+						return false;
+					index = images.size();
+					indices.put( img, index );
+					images.add( img );
+					samples.add( s );
+				}
+				key.append( "I" ).append( index ).append( samples.get( index ) );
+				return true;
+			}
+			if ( UNARY.containsKey( c ) || c == Round.class )
+			{
+				key.append( c.getSimpleName() ).append( "(" );
+				final boolean b = scan( ( ( UnaryOperation )fn ).a() );
+				key.append( ")" );
+				return b;
+			}
+			if ( BINARY.containsKey( c ) || ARITHMETIC.containsKey( c ) || BITWISE.containsKey( c )
+			  || c == Average.class || c == Difference.class )
+			{
+				final BinaryOperation op = ( BinaryOperation )fn;
+				key.append( c.getSimpleName() ).append( "(" );
+				final boolean b = scan( op.a() ) && scan( op.b() );
+				key.append( ")" );
+				return b;
+			}
+			return false;
+		}
+
+		/** Generate the class @param name, whose method computes, for each index i in [start, end):
+		 * <pre>
+		 * output[ i ] = op( input0[ i ], input1[ i ], ... );
+		 * </pre> */
+		byte[] generate( final String name, final IFunction op, final Sample out ) throws IOException
+		{
+			w = new ClassWriter( name, KERNEL );
+
+			// Locals: this, inputs, output, start, end, then the typed arrays and the index
+			firstArray = 5;
+			outArray = firstArray + images.size();
+			index = outArray + 1;
+			nextLocal = index + 1;
+
+			for ( int i = 0; i < images.size(); ++i )
+			{
+				w.varInsn( ClassWriter.ALOAD, 1, 1 );
+				w.ldcInt( i );
+				w.insn( ClassWriter.AALOAD, -1 );
+				w.checkcast( samples.get( i ).arrayDescriptor );
+				w.varInsn( ClassWriter.ASTORE, firstArray + i, -1 );
+			}
+			w.varInsn( ClassWriter.ALOAD, 2, 1 );
+			w.checkcast( out.arrayDescriptor );
+			w.varInsn( ClassWriter.ASTORE, outArray, -1 );
+			w.varInsn( ClassWriter.ILOAD, 3, 1 );
+			w.varInsn( ClassWriter.ISTORE, index, -1 );
+
+			// for ( ; index < end; ++index )
+			final int loop = w.position();
+			w.varInsn( ClassWriter.ILOAD, index, 1 );
+			w.varInsn( ClassWriter.ILOAD, 4, 1 );
+			final int exit = w.jumpForward( ClassWriter.IF_ICMPGE, -2 );
+
+			w.varInsn( ClassWriter.ALOAD, outArray, 1 );
+			w.varInsn( ClassWriter.ILOAD, index, 1 );
+			emit( op );
+			if ( out == Sample.FLOAT )
+			{
+				w.insn( ClassWriter.D2F, -1 );
+				w.insn( ClassWriter.FASTORE, -3 );
+			}
+			else
+				w.insn( ClassWriter.DASTORE, -4 );
+
+			w.iinc( index, 1 );
+			w.jump( ClassWriter.GOTO, loop, 0 );
+			w.land( exit );
+			w.insn( ClassWriter.RETURN, 0 );
+
+			return w.toByteArray( METHOD, DESCRIPTOR, nextLocal );
+		}
+
+		/** Append the code that leaves the value of @param fn on the stack, as a double. */
+		private void emit( final IFunction fn ) throws IOException
+		{
+			final Class<?> c = fn.getClass();
+			if ( c == NumberFunction.class )
+			{
+				w.ldcDouble( fn.eval() );
+			}
+			else if ( c == ImageFunction.class )
+			{
+				final int i = indices.get( getImage( ( ImageFunction )fn ) );
+				final Sample s = samples.get( i );
+				w.varInsn( ClassWriter.ALOAD, firstArray + i, 1 );
+				w.varInsn( ClassWriter.ILOAD, index, 1 );
+				w.insn( s.load, s.loadDelta );
+				s.convert( w );
+			}
+			else if ( c == Round.class )
+			{
+				emit( ( ( UnaryOperation )fn ).a() );
+				w.invokeStatic( MATH, "round", "(D)J", 0 );
+				w.insn( ClassWriter.L2D, 0 );
+			}
+			else if ( UNARY.containsKey( c ) )
+			{
+				emit( ( ( UnaryOperation )fn ).a() );
+				w.invokeStatic( MATH, UNARY.get( c ), "(D)D", 0 );
+			}
+			else
+			{
+				final BinaryOperation op = ( BinaryOperation )fn;
+				if ( BINARY.containsKey( c ) )
+				{
+					emit( op.a() );
+					emit( op.b() );
+					w.invokeStatic( MATH, BINARY.get( c ), "(DD)D", -2 );
+				}
+				else if ( ARITHMETIC.containsKey( c ) )
+				{
+					emit( op.a() );
+					emit( op.b() );
+					w.insn( ARITHMETIC.get( c ), -2 );
+				}
+				else if ( BITWISE.containsKey( c ) )
+				{
+					emit( op.a() );
+					w.insn( ClassWriter.D2I, -1 );
+					emit( op.b() );
+					w.insn( ClassWriter.D2I, -1 );
+					w.insn( BITWISE.get( c ), -1 );
+					w.insn( ClassWriter.I2D, 1 );
+				}
+				else if ( c == Average.class )
+				{
+					// a * 0.5 + b * 0.5
+					emit( op.a() );
+					w.ldcDouble( 0.5 );
+					w.insn( ClassWriter.DMUL, -2 );
+					emit( op.b() );
+					w.ldcDouble( 0.5 );
+					w.insn( ClassWriter.DMUL, -2 );
+					w.insn( ClassWriter.DADD, -2 );
+				}
+				else if ( c == Difference.class )
+				{
+					// max( a, b ) - min( a, b ), with a and b in temporary locals
+					final int a = nextLocal, b = nextLocal + 2;
+					nextLocal += 4;
+					emit( op.a() );
+					w.varInsn( ClassWriter.DSTORE, a, -2 );
+					emit( op.b() );
+					w.varInsn( ClassWriter.DSTORE, b, -2 );
+					w.varInsn( ClassWriter.DLOAD, a, 2 );
+					w.varInsn( ClassWriter.DLOAD, b, 2 );
+					w.invokeStatic( MATH, "max", "(DD)D", -2 );
+					w.varInsn( ClassWriter.DLOAD, a, 2 );
+					w.varInsn( ClassWriter.DLOAD, b, 2 );
+					w.invokeStatic( MATH, "min", "(DD)D", -2 );
+					w.insn( ClassWriter.DSUB, -2 );
+				}
+				else
+					throw new IOException( "Cannot compile " + c.getName() );
+			}
+		}
+
+		/** Returns the image read by @param fn, or null if it does not have a single cursor. */
+		static private Image<?> getImage( final ImageFunction fn )
+		{
+			final ArrayList<Cursor<?>> cursors = new ArrayList<Cursor<?>>( 1 );
+			fn.findCursors( cursors );
+			return cursors.size() == 1 ? cursors.get( 0 ).getImage() : null;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package mpicbg.imglib.algorithm.fft;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyMirrorFactory;
+import mpicbg.imglib.type.numeric.complex.ComplexFloatType;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link FFTPlan} and its use by {@link FourierConvolution}: the convolution must match
+ * a convolution in real space, kernel spectra are cached and the complex image is re-used.
+ */
+public class FFTPlanTest
+{
+	final static int[] imageSize = new int[] { 23, 17 };
+	final static int[] kernelSize = new int[] { 5, 3 };
+
+	final static ImageFactory<FloatType> factory = new ImageFactory<FloatType>( new FloatType(), new ArrayContainerFactory() );
+
+	protected static Image<FloatType> random( final int[] size, final long seed )
+	{
+		final Image<FloatType> image = factory.createImage( size );
+		final Random rnd = new Random( seed );
+
+		final LocalizableCursor<FloatType> cursor = image.createLocalizableCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.getType().set( rnd.nextFloat() );
+		}
+		cursor.close();
+
+		return image;
+	}
+
+	/**
+	 * Checks the convolution against a convolution in real space where the kernel does not leave the image
+	 */
+	protected static void assertConvolved( final Image<FloatType> image, final Image<FloatType> kernel, final Image<FloatType> convolved )
+	{
+		final LocalizableByDimCursor<FloatType> in = image.createLocalizableByDimCursor();
+		final LocalizableByDimCursor<FloatType> k = kernel.createLocalizableByDimCursor();
+		final LocalizableByDimCursor<FloatType> out = convolved.createLocalizableByDimCursor();
+
+		final int cx = kernelSize[ 0 ] / 2, cy = kernelSize[ 1 ] / 2;
+
+		for ( int y = cy; y < imageSize[ 1 ] - cy; ++y )
+			for ( int x = cx; x < imageSize[ 0 ] - cx; ++x )
+			{
+				double sum = 0;
+
+				for ( int ky = 0; ky < kernelSize[ 1 ]; ++ky )
+					for ( int kx = 0; kx < kernelSize[ 0 ]; ++kx )
+					{
+						in.setPosition( new int[] { x - kx + cx, y - ky + cy } );
+						k.setPosition( new int[] { kx, ky } );
+						sum += in.getType().get() * k.getType().get();
+					}
+
+				out.setPosition( new int[] { x, y } );
+				assertEquals( sum, out.getType().get(), 1e-4 );
+			}
+
+		in.close();
+		k.close();
+		out.close();
+	}
+
+	@Test
+	public void testConvolution()
+	{
+		final Image<FloatType> kernel = random( kernelSize, 1 );
+		final FourierConvolution<FloatType, FloatType> fftConvolution = new FourierConvolution<FloatType, FloatType>( random( imageSize, 2 ), kernel );
+		fftConvolution.setKeepImgFFT( false );
+
+		// the same instance convolves several images, re-using its plan
+		for ( int i = 0; i < 3; ++i )
+		{
+			final Image<FloatType> image = random( imageSize, 10 + i );
+			fftConvolution.replaceImage( image );
+
+			assertTrue( fftConvolution.checkInput() && fftConvolution.process() );
+			assertEquals( imageSize[ 0 ], fftConvolution.getResult().getDimension( 0 ) );
+			assertEquals( imageSize[ 1 ], fftConvolution.getResult().getDimension( 1 ) );
+			assertConvolved( image, kernel, fftConvolution.getResult() );
+		}
+
+		// a kernel with different content is not taken from the cache
+		final Image<FloatType> kernel2 = random( kernelSize, 3 );
+		fftConvolution.replaceKernel( kernel2 );
+		assertTrue( fftConvolution.process() );
+		assertConvolved( fftConvolution.getImage(), kernel2, fftConvolution.getResult() );
+
+		fftConvolution.close();
+	}
+
+	@Test
+	public void testCaches()
+	{
+		final FFTPlan plan = new FFTPlan( imageSize, kernelSize, new ArrayContainerFactory() );
+		final Image<FloatType> kernel = random( kernelSize, 1 );
+
+		final int[] paddedSize = plan.getPaddedSize();
+		final int[] complexSize = plan.getComplexSize();
+		assertEquals( paddedSize[ 0 ] / 2 + 1, complexSize[ 0 ] );
+
+		for ( int d = 0; d < imageSize.length; ++d )
+			assertTrue( paddedSize[ d ] >= imageSize[ d ] + kernelSize[ d ] - 1 );
+
+		final Image<ComplexFloatType> spectrum = plan.getKernelSpectrum( kernel );
+		assertSame( spectrum, plan.getKernelSpectrum( kernel ) );
+		assertTrue( plan.isKernelSpectrum( spectrum ) );
+		assertEquals( complexSize[ 0 ], spectrum.getDimension( 0 ) );
+		assertEquals( complexSize[ 1 ], spectrum.getDimension( 1 ) );
+
+		plan.removeKernelSpectrum( kernel );
+		assertNotSame( spectrum, plan.getKernelSpectrum( kernel ) );
+
+		final OutOfBoundsStrategyMirrorFactory<FloatType> strategy = new OutOfBoundsStrategyMirrorFactory<FloatType>();
+		final Image<ComplexFloatType> fft = plan.forward( random( imageSize, 2 ), strategy );
+		assertSame( fft, plan.forward( random( imageSize, 3 ), strategy ) );
+
+		plan.close();
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package mpicbg.imglib.algorithm.gauss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import mpicbg.imglib.algorithm.gauss.RecursiveGaussian.Derivative;
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyMirrorFactory;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyValueFactory;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link RecursiveGaussian} against sampled Gaussians and known derivatives,
+ * and its use by the {@link GaussianConvolution}.
+ */
+public class RecursiveGaussianTest
+{
+	final static ImageFactory<FloatType> factory = new ImageFactory<FloatType>( new FloatType(), new ArrayContainerFactory() );
+
+	@Test
+	public void testImpulseResponse()
+	{
+		for ( final double sigma : new double[] { 2, 5, 12 } )
+		{
+			final int size = (int)( 12 * sigma ) | 1;
+			final int center = size / 2;
+
+			final double[] line = new double[ size ];
+			line[ center ] = 1;
+
+			new RecursiveGaussian( sigma ).smooth( line );
+
+			final double peak = 1 / ( Math.sqrt( 2 * Math.PI ) * sigma );
+			double sum = 0;
+
+			for ( int x = 0; x < size; ++x )
+			{
+				final double d = x - center;
+				assertEquals( peak * Math.exp( -d * d / ( 2 * sigma * sigma ) ), line[ x ], 0.025 * peak );
+				sum += line[ x ];
+			}
+
+			assertEquals( 1, sum, 1e-3 );
+		}
+	}
+
+	@Test
+	public void testDerivatives()
+	{
+		final int size = 200;
+		final double sigma = 6;
+
+		final Image<FloatType> image = factory.createImage( new int[] { size, 3 } );
+		final LocalizableCursor<FloatType> cursor = image.createLocalizableCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			final double x = cursor.getPosition( 0 ) - size / 2;
+			cursor.getType().setReal( cursor.getPosition( 1 ) == 0 ? 3 * x : 0.01 * x * x );
+		}
+		cursor.close();
+
+		final Image<FloatType> first = image.createNewImage();
+		final Image<FloatType> second = image.createNewImage();
+		RecursiveGaussian.filter( image, first, new OutOfBoundsStrategyMirrorFactory<FloatType>(), 0, sigma, Derivative.FIRST, 2 );
+		RecursiveGaussian.filter( image, second, new OutOfBoundsStrategyMirrorFactory<FloatType>(), 0, sigma, Derivative.SECOND, 2 );
+
+		final LocalizableByDimCursor<FloatType> c1 = first.createLocalizableByDimCursor();
+		final LocalizableByDimCursor<FloatType> c2 = second.createLocalizableByDimCursor();
+
+		// far enough from the mirrored borders
+		for ( int x = 50; x < size - 50; ++x )
+		{
+			c1.setPosition( new int[] { x, 0 } );
+			assertEquals( 3, c1.getType().get(), 1e-3 );
+
+			c2.setPosition( new int[] { x, 1 } );
+			assertEquals( 0.02, c2.getType().get(), 1e-4 );
+		}
+
+		c1.close();
+		c2.close();
+	}
+
+	@Test
+	public void testGaussianConvolution()
+	{
+		final int[] dim = new int[] { 120, 90 };
+		final Image<FloatType> image = factory.createImage( dim );
+
+		// a smooth image with some structure
+		final LocalizableCursor<FloatType> cursor = image.createLocalizableCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.getType().set( (float)( 100 * Math.sin( cursor.getPosition( 0 ) / 7.0 ) * Math.cos( cursor.getPosition( 1 ) / 11.0 ) + 100 ) );
+		}
+		cursor.close();
+
+		final double[] sigma = new double[] { 8, 3 };
+
+		final GaussianConvolutionReal<FloatType> fir = new GaussianConvolutionReal<FloatType>( image, new OutOfBoundsStrategyValueFactory<FloatType>(), sigma );
+		assertTrue( fir.checkInput() && fir.process() );
+
+		final GaussianConvolutionReal<FloatType> iir = new GaussianConvolutionReal<FloatType>( image, new OutOfBoundsStrategyValueFactory<FloatType>(), sigma );
+		iir.setRecursiveSigma( 5 );
+		assertTrue( iir.checkInput() && iir.process() );
+
+		final LocalizableCursor<FloatType> c1 = fir.getResult().createLocalizableCursor();
+		final LocalizableByDimCursor<FloatType> c2 = iir.getResult().createLocalizableByDimCursor();
+
+		while ( c1.hasNext() )
+		{
+			c1.fwd();
+			c2.setPosition( c1 );
+			assertEquals( c1.getType().get(), c2.getType().get(), 1 );
+		}
+
+		c1.close();
+		c2.close();
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package mpicbg.imglib.algorithm.gauss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import mpicbg.imglib.container.ContainerFactory;
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.container.cell.CellContainerFactory;
+import mpicbg.imglib.container.imageplus.ImagePlusContainerFactory;
+import mpicbg.imglib.container.planar.PlanarContainerFactory;
+import mpicbg.imglib.cursor.Cursor;
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyMirrorFactory;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyValueFactory;
+import mpicbg.imglib.type.numeric.RealType;
+import mpicbg.imglib.type.numeric.integer.UnsignedByteType;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Tests that the Gaussian convolution computed line by line by {@link SeparableLineConvolution}
+ * gives the same result as the convolution with cursors, for all containers.
+ */
+public class SeparableLineConvolutionTest
+{
+	final static int[] dim = new int[] { 37, 21, 13 };
+	final static double[] sigma = new double[] { 2.5, 1.2, 3.1 };
+
+	final static ContainerFactory[] containerFactories = new ContainerFactory[] {
+		new ArrayContainerFactory(), new PlanarContainerFactory(), new CellContainerFactory( 8 ), new ImagePlusContainerFactory() };
+
+	protected static <T extends RealType<T>> Image<T> createImage( final T type, final ContainerFactory containerFactory, final float max )
+	{
+		final Image<T> image = new ImageFactory<T>( type, containerFactory ).createImage( dim );
+		final Random rnd = new Random( 1 );
+
+		final Cursor<T> cursor = image.createCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.getType().setReal( Math.round( rnd.nextFloat() * max ) );
+		}
+		cursor.close();
+
+		return image;
+	}
+
+	protected static <T extends RealType<T>> Image<T> gauss( final Image<T> image, final boolean useLineBuffers, final int numThreads )
+	{
+		final GaussianConvolutionReal<T> gauss = new GaussianConvolutionReal<T>( image, new OutOfBoundsStrategyMirrorFactory<T>(), sigma );
+		gauss.setUseLineBuffers( useLineBuffers );
+		gauss.setNumThreads( numThreads );
+
+		assertTrue( gauss.checkInput() && gauss.process() );
+
+		return gauss.getResult();
+	}
+
+	protected static <T extends RealType<T>> void assertImagesEqual( final Image<T> expected, final Image<T> actual, final double delta )
+	{
+		final LocalizableCursor<T> c1 = expected.createLocalizableCursor();
+		final LocalizableByDimCursor<T> c2 = actual.createLocalizableByDimCursor();
+
+		while ( c1.hasNext() )
+		{
+			c1.fwd();
+			c2.setPosition( c1 );
+			assertEquals( c1.getType().getRealDouble(), c2.getType().getRealDouble(), delta );
+		}
+
+		c1.close();
+		c2.close();
+	}
+
+	@Test
+	public void testFloat()
+	{
+		for ( final ContainerFactory containerFactory : containerFactories )
+		{
+			final Image<FloatType> image = createImage( new FloatType(), containerFactory, 1000 );
+			final Image<FloatType> expected = gauss( image, false, 1 );
+
+			for ( int numThreads = 1; numThreads <= 3; ++numThreads )
+				assertImagesEqual( expected, gauss( image, true, numThreads ), 1e-3 );
+		}
+	}
+
+	@Test
+	public void testUnsignedByte()
+	{
+		for ( final ContainerFactory containerFactory : containerFactories )
+		{
+			final Image<UnsignedByteType> image = createImage( new UnsignedByteType(), containerFactory, 255 );
+
+			// the summation order differs, so a value might be rounded differently
+			assertImagesEqual( gauss( image, false, 2 ), gauss( image, true, 2 ), 1 );
+		}
+	}
+
+	@Test
+	public void testAsymmetricKernel()
+	{
+		final Image<FloatType> image = createImage( new FloatType(), new ArrayContainerFactory(), 10 );
+		final Image<FloatType> convolved = image.createNewImage();
+		final double[] kernel = new double[] { 1, 2, 0, -1, 5 };
+
+		SeparableLineConvolution.convolve( image, convolved, new OutOfBoundsStrategyValueFactory<FloatType>(), 1, kernel, 2 );
+
+		final LocalizableByDimCursor<FloatType> in = image.createLocalizableByDimCursor( new OutOfBoundsStrategyValueFactory<FloatType>() );
+		final LocalizableCursor<FloatType> out = convolved.createLocalizableCursor();
+		final int[] position = new int[ dim.length ];
+
+		while ( out.hasNext() )
+		{
+			out.fwd();
+			out.getPosition( position );
+
+			double sum = 0;
+			final int y = position[ 1 ];
+
+			for ( int i = 0; i < kernel.length; ++i )
+			{
+				position[ 1 ] = y - kernel.length / 2 + i;
+				in.setPosition( position );
+				sum += in.getType().get() * kernel[ i ];
+			}
+
+			assertEquals( sum, out.getType().get(), 1e-4 );
+		}
+
+		in.close();
+		out.close();
+	}
+}
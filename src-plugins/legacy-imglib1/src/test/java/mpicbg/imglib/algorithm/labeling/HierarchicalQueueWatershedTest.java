@@ -0,0 +1,228 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package mpicbg.imglib.algorithm.labeling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.labeling.Labeling;
+import mpicbg.imglib.labeling.LabelingType;
+import mpicbg.imglib.type.numeric.RealType;
+import mpicbg.imglib.type.numeric.integer.UnsignedByteType;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Compares the {@link HierarchicalQueueWatershed} with the
+ * {@link Watershed} and checks that the parallel variant floods every
+ * pixel at its lowest level.
+ */
+public class HierarchicalQueueWatershedTest {
+	final static int [] dimensions = { 21, 17, 19 };
+	
+	static <T extends RealType<T>> Image<T> makeImage(T type, int nValues, long seed) {
+		Image<T> img = new ImageFactory<T>(type, new ArrayContainerFactory()).createImage(dimensions);
+		Random random = new Random(seed);
+		LocalizableCursor<T> c = img.createLocalizableCursor();
+		while (c.hasNext()) {
+			c.fwd();
+			c.getType().setReal(random.nextInt(nValues) + random.nextFloat() / 2);
+		}
+		c.close();
+		return img;
+	}
+	
+	static Labeling<Integer> makeLabeling() {
+		return new Labeling<Integer>(new ImageFactory<LabelingType<Integer>>(
+				new LabelingType<Integer>(), new ArrayContainerFactory()), dimensions, "Labeling");
+	}
+	
+	static Labeling<Integer> makeSeeds(int nSeeds, long seed) {
+		Labeling<Integer> seeds = makeLabeling();
+		Random random = new Random(seed);
+		LocalizableByDimCursor<LabelingType<Integer>> c = seeds.createLocalizableByDimCursor();
+		int [] position = new int [dimensions.length];
+		for (int i=0; i<nSeeds; i++) {
+			for (int d=0; d<dimensions.length; d++) {
+				position[d] = random.nextInt(dimensions[d]);
+			}
+			c.setPosition(position);
+			c.getType().setLabel(i + 1);
+		}
+		c.close();
+		return seeds;
+	}
+	
+	static void assertSameLabels(Labeling<Integer> expected, Labeling<Integer> actual) {
+		LocalizableCursor<LabelingType<Integer>> e = expected.createLocalizableCursor();
+		LocalizableByDimCursor<LabelingType<Integer>> a = actual.createLocalizableByDimCursor();
+		while (e.hasNext()) {
+			e.fwd();
+			a.setPosition(e);
+			assertEquals(e.getPositionAsString(), e.getType().getLabeling(), a.getType().getLabeling());
+		}
+		e.close();
+		a.close();
+	}
+	
+	<T extends RealType<T>> void compareWithWatershed(Image<T> image, int [][] structuringElement) {
+		Labeling<Integer> seeds = makeSeeds(12, 3);
+		Labeling<Integer> expected = makeLabeling();
+		Watershed.seededWatershed(image, seeds, structuringElement, expected);
+		Labeling<Integer> actual = makeLabeling();
+		HierarchicalQueueWatershed.seededWatershed(image, seeds, structuringElement, actual);
+		assertSameLabels(expected, actual);
+	}
+	
+	@Test
+	public void testIntegerImage() {
+		Image<UnsignedByteType> image = makeImage(new UnsignedByteType(), 8, 1);
+		assertEquals(true, new HierarchicalQueueWatershed.Levels(image).isExact());
+		compareWithWatershed(image, AllConnectedComponents.getStructuringElement(3, 6));
+		compareWithWatershed(image, AllConnectedComponents.getStructuringElement(3, 26));
+	}
+	
+	@Test
+	public void testFloatImage() {
+		Image<FloatType> image = makeImage(new FloatType(), 8, 2);
+		assertEquals(false, new HierarchicalQueueWatershed.Levels(image).isExact());
+		compareWithWatershed(image, AllConnectedComponents.getStructuringElement(3, 6));
+		compareWithWatershed(image, AllConnectedComponents.getStructuringElement(3, 26));
+	}
+	
+	/**
+	 * @return for every pixel, the lowest level at which it can be reached
+	 * from a seed. If restricted, only paths through pixels with the same
+	 * labeling as the seed are considered.
+	 */
+	static int [] getFloodLevels(int [] pixelLevels, Labeling<Integer> labeling, int [][] structuringElement, boolean restricted) {
+		int [] floodLevels = new int [pixelLevels.length];
+		Arrays.fill(floodLevels, Integer.MAX_VALUE);
+		@SuppressWarnings("unchecked")
+		List<Integer> [] labels = new List [pixelLevels.length];
+		/*
+		 * The level is in the upper, the index in the lower bits
+		 */
+		PriorityQueue<Long> queue = new PriorityQueue<Long>();
+		LocalizableCursor<LabelingType<Integer>> c = labeling.createLocalizableCursor();
+		int [] position = new int [dimensions.length];
+		while (c.hasNext()) {
+			c.fwd();
+			c.getPosition(position);
+			int index = (int)HierarchicalQueueWatershed.getIndex(position, dimensions);
+			labels[index] = c.getType().getLabeling();
+		}
+		c.close();
+		Labeling<Integer> seeds = makeSeeds(12, 3);
+		c = seeds.createLocalizableCursor();
+		while (c.hasNext()) {
+			c.fwd();
+			if (c.getType().getLabeling().isEmpty()) continue;
+			c.getPosition(position);
+			int index = (int)HierarchicalQueueWatershed.getIndex(position, dimensions);
+			floodLevels[index] = pixelLevels[index];
+			queue.add(((long)floodLevels[index] << 32) + index);
+		}
+		c.close();
+		int [] destPosition = new int [dimensions.length];
+		boolean [] done = new boolean [pixelLevels.length];
+		while (! queue.isEmpty()) {
+			int index = (int)(queue.remove() & 0xffffffffL);
+			if (done[index]) continue;
+			done[index] = true;
+			HierarchicalQueueWatershed.getPosition(index, dimensions, position);
+			for (int [] offset:structuringElement) {
+				for (int i=0; i<position.length; i++) {
+					destPosition[i] = position[i] + offset[i];
+				}
+				if (HierarchicalQueueWatershed.isOutOfBounds(destPosition, dimensions, dimensions)) continue;
+				int destIndex = (int)HierarchicalQueueWatershed.getIndex(destPosition, dimensions);
+				if (restricted && ! labels[destIndex].equals(labels[index])) continue;
+				int level = Math.max(floodLevels[index], pixelLevels[destIndex]);
+				if (level < floodLevels[destIndex]) {
+					floodLevels[destIndex] = level;
+					queue.add(((long)level << 32) + destIndex);
+				}
+			}
+		}
+		return floodLevels;
+	}
+	
+	<T extends RealType<T>> void checkParallel(Image<T> image, int [][] structuringElement, int numThreads) {
+		Labeling<Integer> actual = makeLabeling();
+		HierarchicalQueueWatershed.seededWatershed(image, makeSeeds(12, 3), structuringElement, actual, numThreads);
+		
+		HierarchicalQueueWatershed.Levels levels = new HierarchicalQueueWatershed.Levels(image);
+		int [] pixelLevels = new int [(int)image.getNumPixels()];
+		LocalizableCursor<T> c = image.createLocalizableCursor();
+		int [] position = new int [dimensions.length];
+		while (c.hasNext()) {
+			c.fwd();
+			c.getPosition(position);
+			pixelLevels[(int)HierarchicalQueueWatershed.getIndex(position, dimensions)] = 
+				levels.getLevel(c.getType().getRealDouble());
+		}
+		c.close();
+		
+		int [] expected = getFloodLevels(pixelLevels, actual, structuringElement, false);
+		int [] restricted = getFloodLevels(pixelLevels, actual, structuringElement, true);
+		LocalizableCursor<LabelingType<Integer>> lc = actual.createLocalizableCursor();
+		while (lc.hasNext()) {
+			lc.fwd();
+			assertFalse(lc.getPositionAsString(), lc.getType().getLabeling().isEmpty());
+		}
+		lc.close();
+		for (int i=0; i<expected.length; i++) {
+			assertEquals(expected[i], restricted[i]);
+		}
+	}
+	
+	@Test
+	public void testParallel() {
+		Image<UnsignedByteType> intImage = makeImage(new UnsignedByteType(), 16, 4);
+		Image<FloatType> floatImage = makeImage(new FloatType(), 16, 5);
+		for (int connectivity:new int [] { 6, 26 }) {
+			int [][] structuringElement = AllConnectedComponents.getStructuringElement(3, connectivity);
+			for (int numThreads:new int [] { 1, 3, 7 }) {
+				checkParallel(intImage, structuringElement, numThreads);
+				checkParallel(floatImage, structuringElement, numThreads);
+			}
+		}
+	}
+}
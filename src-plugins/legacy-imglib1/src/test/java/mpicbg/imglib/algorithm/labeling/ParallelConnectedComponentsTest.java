@@ -0,0 +1,182 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package mpicbg.imglib.algorithm.labeling;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import mpicbg.imglib.algorithm.labeling.ParallelConnectedComponents.ComponentStatistics;
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.labeling.Labeling;
+import mpicbg.imglib.labeling.LabelingType;
+import mpicbg.imglib.type.logic.BitType;
+
+import org.junit.Test;
+
+/**
+ * Compares the {@link ParallelConnectedComponents} with the flood fill of
+ * {@link AllConnectedComponents}.
+ */
+public class ParallelConnectedComponentsTest {
+	static Image<BitType> makeRandomImage(int [] dimensions, double density, long seed) {
+		Image<BitType> img = new ImageFactory<BitType>(new BitType(), new ArrayContainerFactory()).createImage(dimensions);
+		Random random = new Random(seed);
+		LocalizableCursor<BitType> c = img.createLocalizableCursor();
+		while (c.hasNext()) {
+			c.fwd();
+			c.getType().set(random.nextDouble() < density);
+		}
+		c.close();
+		return img;
+	}
+	
+	static Labeling<Integer> makeLabeling(int [] dimensions) {
+		return new Labeling<Integer>(new ImageFactory<LabelingType<Integer>>(
+				new LabelingType<Integer>(), new ArrayContainerFactory()), dimensions, "Labeling");
+	}
+	
+	static void compare(Image<BitType> img, int [][] structuringElement, int numThreads) {
+		int [] dimensions = img.getDimensions();
+		Labeling<Integer> expected = makeLabeling(dimensions);
+		AllConnectedComponents.labelAllConnectedComponents(expected, img, 
+				AllConnectedComponents.getIntegerNames(1), structuringElement);
+		Labeling<Integer> actual = makeLabeling(dimensions);
+		List<ComponentStatistics<Integer>> statistics = ParallelConnectedComponents.labelAllConnectedComponents(
+				actual, img, AllConnectedComponents.getIntegerNames(1), structuringElement, numThreads);
+		
+		Map<Integer, long []> sizes = new HashMap<Integer, long []>();
+		Map<Integer, int [][]> boxes = new HashMap<Integer, int [][]>();
+		LocalizableCursor<LabelingType<Integer>> e = expected.createLocalizableCursor();
+		LocalizableCursor<LabelingType<Integer>> a = actual.createLocalizableCursor();
+		int [] position = new int [dimensions.length];
+		while (e.hasNext()) {
+			e.fwd();
+			a.fwd();
+			List<Integer> labeling = e.getType().getLabeling();
+			assertEquals(labeling, a.getType().getLabeling());
+			if (labeling.isEmpty()) continue;
+			Integer label = labeling.get(0);
+			e.getPosition(position);
+			if (! sizes.containsKey(label)) {
+				sizes.put(label, new long [1]);
+				boxes.put(label, new int [][] { position.clone(), position.clone() });
+			}
+			sizes.get(label)[0]++;
+			int [][] box = boxes.get(label);
+			for (int i=0; i<position.length; i++) {
+				box[0][i] = Math.min(box[0][i], position[i]);
+				box[1][i] = Math.max(box[1][i], position[i] + 1);
+			}
+		}
+		e.close();
+		a.close();
+		
+		assertEquals(sizes.size(), statistics.size());
+		int [] min = new int [dimensions.length];
+		int [] max = new int [dimensions.length];
+		for (int i=0; i<statistics.size(); i++) {
+			ComponentStatistics<Integer> s = statistics.get(i);
+			assertEquals(Integer.valueOf(i+1), s.getLabel());
+			assertEquals(sizes.get(s.getLabel())[0], s.getSize());
+			s.getBoundingBox().getExtents(min, max);
+			assertArrayEquals(boxes.get(s.getLabel())[0], min);
+			assertArrayEquals(boxes.get(s.getLabel())[1], max);
+		}
+	}
+	
+	@Test
+	public void testStructuringElement() {
+		assertEquals(4, AllConnectedComponents.getStructuringElement(2, 4).length);
+		assertEquals(8, AllConnectedComponents.getStructuringElement(2, 8).length);
+		assertEquals(6, AllConnectedComponents.getStructuringElement(3, 6).length);
+		assertEquals(18, AllConnectedComponents.getStructuringElement(3, 18).length);
+		assertEquals(26, AllConnectedComponents.getStructuringElement(3, 26).length);
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testBadConnectivity() {
+		AllConnectedComponents.getStructuringElement(3, 8);
+	}
+	
+	@Test
+	public void testEmpty() {
+		Image<BitType> img = makeRandomImage(new int [] { 5, 6, 7 }, 0, 0);
+		compare(img, AllConnectedComponents.getStructuringElement(3), 3);
+	}
+	
+	@Test
+	public void test2D() {
+		Image<BitType> img = makeRandomImage(new int [] { 40, 33 }, 0.5, 1);
+		for (int connectivity:new int [] { 4, 8 }) {
+			for (int numThreads:new int [] { 1, 4 }) {
+				compare(img, AllConnectedComponents.getStructuringElement(2, connectivity), numThreads);
+			}
+		}
+	}
+	
+	@Test
+	public void test3D() {
+		for (double density:new double [] { 0.2, 0.4, 0.6 }) {
+			Image<BitType> img = makeRandomImage(new int [] { 23, 17, 31 }, density, 2);
+			for (int connectivity:new int [] { 6, 18, 26 }) {
+				for (int numThreads:new int [] { 1, 2, 5, 40 }) {
+					compare(img, AllConnectedComponents.getStructuringElement(3, connectivity), numThreads);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testLongReach() {
+		/*
+		 * Offsets of several planes connect pixels across more than one
+		 * slab boundary when the slabs are thin.
+		 */
+		int [][] structuringElement = {
+				{ -1, 0, 0 }, { 1, 0, 0 }, { 0, -1, 0 }, { 0, 1, 0 },
+				{ 0, 0, -3 }, { 0, 0, 3 }, { 1, -1, -2 }, { -1, 1, 2 } };
+		for (double density:new double [] { 0.1, 0.3 }) {
+			Image<BitType> img = makeRandomImage(new int [] { 19, 13, 31 }, density, 3);
+			for (int numThreads:new int [] { 1, 2, 5, 12, 31 }) {
+				compare(img, structuringElement, numThreads);
+			}
+		}
+		Image<BitType> img = makeRandomImage(new int [] { 37, 29 }, 0.3, 4);
+		for (int numThreads:new int [] { 1, 3, 29 }) {
+			compare(img, new int [][] { { -1, 0 }, { 1, 0 }, { 2, -2 }, { -2, 2 } }, numThreads);
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package mpicbg.imglib.algorithm.roi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import mpicbg.imglib.algorithm.roi.StatisticalOperation.StatisticsCollectionStrategy;
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.cursor.Cursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyFactory;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyMirrorFactory;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyPeriodicFactory;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyValueFactory;
+import mpicbg.imglib.type.numeric.RealType;
+import mpicbg.imglib.type.numeric.integer.ShortType;
+import mpicbg.imglib.type.numeric.integer.UnsignedByteType;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Tests that the line-wise {@link StatisticalOperation.HistogramRankStrategy} and
+ * {@link StatisticalOperation.SelectionRankStrategy} give the same result as the
+ * per-pixel {@link StatisticalOperation.SimpleCollectionStrategy}, for the median,
+ * dilation and erosion of byte, short and float images in 2d and 3d, with several
+ * out of bounds strategies.
+ */
+public class StatisticalOperationTest
+{
+	final static int[][] dims = new int[][] { { 23, 17 }, { 13, 11, 7 } };
+
+	final static int MEDIAN = 0, DILATE = 1, ERODE = 2;
+
+	@Test
+	public void testUnsignedByteType()
+	{
+		test( new UnsignedByteType(), 0, 255, true );
+	}
+
+	@Test
+	public void testShortType()
+	{
+		test( new ShortType(), -30000, 30000, true );
+	}
+
+	@Test
+	public void testFloatType()
+	{
+		test( new FloatType(), -1000, 1000, false );
+	}
+
+	@Test
+	public void testFewValues()
+	{
+		// many equal values, to test ties
+		test( new UnsignedByteType(), 10, 13, true );
+	}
+
+	protected < T extends RealType< T > > void test( final T type, final int min, final int max, final boolean isInteger )
+	{
+		final Random random = new Random( 4321 );
+		final ImageFactory< T > factory = new ImageFactory< T >( type, new ArrayContainerFactory() );
+
+		for ( final int[] dim : dims )
+		{
+			final int nd = dim.length;
+			final Image< T > image = factory.createImage( dim );
+			for ( final T t : image )
+				t.setReal( isInteger ? min + random.nextInt( max - min + 1 ) : min + random.nextFloat() * ( max - min ) );
+
+			final StructuringElement[] strels = new StructuringElement[] {
+					StructuringElement.createBall( nd, 2 ),
+					StructuringElement.createCube( nd, 3 ),
+					StructuringElement.createBar( nd, 4, nd - 1 ) };
+
+			for ( final StructuringElement strel : strels )
+				for ( int op = MEDIAN; op <= ERODE; ++op )
+					for ( int oob = 0; oob < 4; ++oob )
+					{
+						final String name = type.getClass().getSimpleName() + " " + nd + "d, " + strel.getName() + ", operation " + op + ", border " + oob;
+
+						final Image< T > expected = filter( image, strel, op, oob, 0 );
+
+						assertSame( name + ", selection", expected, filter( image, strel, op, oob, 1 ) );
+
+						if ( isInteger )
+							assertSame( name + ", histogram", expected, filter( image, strel, op, oob, 2 ) );
+
+						expected.close();
+					}
+		}
+	}
+
+	/**
+	 * @param strategy - 0 for the per-pixel list, 1 for selection, 2 for the histogram
+	 */
+	protected static < T extends RealType< T > > Image< T > filter( final Image< T > image, final StructuringElement strel, final int op, final int oob, final int strategy )
+	{
+		final OutOfBoundsStrategyFactory< T > outside;
+		switch ( oob )
+		{
+			case 0: outside = null; break;
+			case 1: outside = new OutOfBoundsStrategyMirrorFactory< T >(); break;
+			case 2: outside = new OutOfBoundsStrategyPeriodicFactory< T >(); break;
+			default:
+				final T value = image.createType();
+				value.setReal( 17 );
+				outside = new OutOfBoundsStrategyValueFactory< T >( value );
+		}
+
+		final StatisticalOperation< T > operation;
+		switch ( op )
+		{
+			case MEDIAN: operation = new MedianFilter< T >( image, strel, outside ); break;
+			case DILATE: operation = new MorphDilate< T >( image, strel, outside ); break;
+			default: operation = new MorphErode< T >( image, strel, outside );
+		}
+
+		final StatisticsCollectionStrategy< T > collection;
+		switch ( strategy )
+		{
+			case 0: collection = operation.new SimpleCollectionStrategy< T >(); break;
+			case 1: collection = operation.new SelectionRankStrategy< T >(); break;
+			default: collection = operation.new HistogramRankStrategy< T >();
+		}
+		operation.setStatisticsCollectionStrategy( collection );
+		operation.setNumThreads( 2 );
+
+		assertTrue( operation.getErrorMessage(), operation.checkInput() );
+		assertTrue( operation.getErrorMessage(), operation.process() );
+
+		return operation.getResult();
+	}
+
+	protected static < T extends RealType< T > > void assertSame( final String message, final Image< T > expected, final Image< T > actual )
+	{
+		final LocalizableCursor< T > c1 = expected.createLocalizableCursor();
+		final Cursor< T > c2 = actual.createCursor();
+
+		while ( c1.hasNext() )
+		{
+			c1.fwd();
+			c2.fwd();
+			assertEquals( message + " at " + Arrays.toString( c1.getPosition() ), c1.getType().getRealDouble(), c2.getType().getRealDouble(), 0 );
+		}
+
+		c1.close();
+		c2.close();
+		actual.close();
+	}
+}
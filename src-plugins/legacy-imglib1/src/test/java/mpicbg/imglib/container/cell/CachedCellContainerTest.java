@@ -0,0 +1,206 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package mpicbg.imglib.container.cell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import mpicbg.imglib.cursor.Cursor;
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link CachedCellContainer}: values written by cursors must survive
+ * the eviction of their cells, and the backing file must hold them once the
+ * container is closed.
+ */
+public class CachedCellContainerTest
+{
+	final static int[] dim = new int[] { 50, 40, 30 };
+	final static int[] cellSize = new int[] { 10, 10, 10 };
+	// room for 3 cells of 10x10x10 floats
+	final static long cacheSize = 3 * 1000 * 4;
+
+	protected static float value( final int[] pos ) { return pos[ 0 ] + 100 * pos[ 1 ] + 10000 * pos[ 2 ]; }
+
+	protected static void fill( final Image<FloatType> image )
+	{
+		final LocalizableCursor<FloatType> cursor = image.createLocalizableCursor();
+		final int[] pos = new int[ dim.length ];
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.getPosition( pos );
+			cursor.getType().set( value( pos ) );
+		}
+		cursor.close();
+	}
+
+	protected static void check( final Image<FloatType> image )
+	{
+		final LocalizableCursor<FloatType> cursor = image.createLocalizableCursor();
+		final int[] pos = new int[ dim.length ];
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.getPosition( pos );
+			assertEquals( value( pos ), cursor.getType().get(), 0 );
+		}
+		cursor.close();
+	}
+
+	@Test
+	public void testEviction()
+	{
+		final CachedCellContainerFactory factory = new CachedCellContainerFactory( cellSize, cacheSize );
+		final Image<FloatType> image = new ImageFactory<FloatType>( new FloatType(), factory ).createImage( dim );
+		final CachedCellContainer<?, ?> container = ( CachedCellContainer<?, ?> )image.getContainer();
+
+		fill( image );
+		assertTrue( container.getLoadedBytes() <= cacheSize );
+		check( image );
+
+		// random access, crossing cells along every dimension
+		final Random random = new Random( 1 );
+		final int[][] positions = new int[ 1000 ][ dim.length ];
+		for ( final int[] pos : positions )
+			for ( int d = 0; d < dim.length; ++d )
+				pos[ d ] = random.nextInt( dim[ d ] );
+
+		final LocalizableByDimCursor<FloatType> randomAccess = image.createLocalizableByDimCursor();
+		for ( final int[] pos : positions )
+		{
+			randomAccess.setPosition( pos );
+			assertEquals( value( pos ), randomAccess.getType().get(), 0 );
+		}
+		for ( final int[] pos : positions )
+		{
+			randomAccess.setPosition( pos );
+			randomAccess.getType().set( -value( pos ) );
+		}
+		randomAccess.close();
+
+		for ( final int[] pos : positions )
+		{
+			final LocalizableByDimCursor<FloatType> c = image.createLocalizableByDimCursor();
+			c.setPosition( pos );
+			assertEquals( -value( pos ), c.getType().get(), 0 );
+			c.close();
+		}
+		assertTrue( container.getLoadedBytes() <= cacheSize );
+
+		final File file = container.getFile();
+		image.close();
+		assertTrue( !file.exists() );
+	}
+
+	@Test
+	public void testBackingFile() throws IOException
+	{
+		final File file = File.createTempFile( "CachedCellContainerTest", ".raw" );
+		file.deleteOnExit();
+
+		final Image<FloatType> image = new ImageFactory<FloatType>( new FloatType(), new CachedCellContainerFactory( cellSize, cacheSize, file ) ).createImage( dim );
+		fill( image );
+		image.close();
+		assertEquals( ( long )dim[ 0 ] * dim[ 1 ] * dim[ 2 ] * 4, file.length() );
+
+		final CachedCellContainerFactory factory = new CachedCellContainerFactory( cellSize, cacheSize, file );
+		factory.setReadOnly( true );
+		final Image<FloatType> reopened = new ImageFactory<FloatType>( new FloatType(), factory ).createImage( dim );
+		check( reopened );
+
+		// two cursors at once keep their cells
+		final Cursor<FloatType> c1 = reopened.createCursor();
+		final Cursor<FloatType> c2 = reopened.createCursor();
+		float sum1 = 0, sum2 = 0;
+		while ( c1.hasNext() )
+		{
+			c1.fwd();
+			c2.fwd();
+			sum1 += c1.getType().get();
+			sum2 += c2.getType().get();
+		}
+		assertEquals( sum1, sum2, 0 );
+		reopened.close();
+		assertTrue( file.exists() );
+	}
+
+	@Test
+	public void testNewImageOfFileBackedImage() throws IOException
+	{
+		final File file = File.createTempFile( "CachedCellContainerTest", ".raw" );
+		file.deleteOnExit();
+
+		final Image<FloatType> image = new ImageFactory<FloatType>( new FloatType(), new CachedCellContainerFactory( cellSize, cacheSize, file ) ).createImage( dim );
+		fill( image );
+
+		// the factory travels with the image, but the file must not
+		final Image<FloatType> newImage = image.createNewImage();
+		final File newFile = ( ( CachedCellContainer<?, ?> )newImage.getContainer() ).getFile();
+		assertTrue( !file.equals( newFile ) );
+
+		final Cursor<FloatType> cursor = newImage.createCursor();
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.getType().set( -1 );
+		}
+		cursor.close();
+		newImage.close();
+		assertTrue( !newFile.exists() );
+
+		check( image );
+		image.close();
+
+		final CachedCellContainerFactory factory = new CachedCellContainerFactory( cellSize, cacheSize, file );
+		factory.setReadOnly( true );
+		final Image<FloatType> reopened = new ImageFactory<FloatType>( new FloatType(), factory ).createImage( dim );
+		check( reopened );
+		reopened.close();
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package script.imglib.math.compile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import mpicbg.imglib.container.ContainerFactory;
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.container.cell.CellContainerFactory;
+import mpicbg.imglib.container.planar.PlanarContainerFactory;
+import mpicbg.imglib.cursor.Cursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.type.numeric.RealType;
+import mpicbg.imglib.type.numeric.integer.UnsignedByteType;
+import mpicbg.imglib.type.numeric.integer.UnsignedIntType;
+import mpicbg.imglib.type.numeric.integer.UnsignedShortType;
+import mpicbg.imglib.type.numeric.real.DoubleType;
+import mpicbg.imglib.type.numeric.real.FloatType;
+import script.imglib.math.Add;
+import script.imglib.math.And;
+import script.imglib.math.Average;
+import script.imglib.math.Compute;
+import script.imglib.math.Difference;
+import script.imglib.math.Divide;
+import script.imglib.math.Max;
+import script.imglib.math.Multiply;
+import script.imglib.math.Pow;
+import script.imglib.math.Round;
+import script.imglib.math.Sin;
+import script.imglib.math.Sqrt;
+import script.imglib.math.Subtract;
+import script.imglib.math.fn.IFunction;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link FunctionCompiler}: compiled {@link IFunction}s must give
+ * exactly the same results as the interpreted ones, and fall back to the
+ * interpreter when they cannot run on primitive arrays.
+ */
+public class FunctionCompilerTest
+{
+	static private final int[] DIM = new int[]{ 37, 23, 5 };
+
+	static private < T extends RealType< T > > Image< T > createImage( final T type, final ContainerFactory containerFactory, final long seed )
+	{
+		final Image< T > img = new ImageFactory< T >( type, containerFactory ).createImage( DIM );
+		final Random random = new Random( seed );
+		final Cursor< T > c = img.createCursor();
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			c.getType().setReal( random.nextInt( ( int )Math.min( Integer.MAX_VALUE, c.getType().getMaxValue() ) ) );
+		}
+		c.close();
+		return img;
+	}
+
+	/** Creates a new instance of the function for each run, since its cursors are closed afterwards. */
+	static private abstract class Expression
+	{
+		abstract IFunction create() throws Exception;
+	}
+
+	static private void assertSameImage( final Image< ? extends RealType< ? > > expected, final Image< ? extends RealType< ? > > actual )
+	{
+		final Cursor< ? extends RealType< ? > > e = expected.createCursor(), a = actual.createCursor();
+		while ( e.hasNext() )
+		{
+			e.fwd();
+			a.fwd();
+			assertEquals( e.getType().getRealDouble(), a.getType().getRealDouble(), 0 );
+		}
+		e.close();
+		a.close();
+	}
+
+	static private void assertSameResults( final Expression expression ) throws Exception
+	{
+		final boolean enabled = Compute.isCompilationEnabled();
+		try
+		{
+			Compute.setCompilationEnabled( false );
+			final Image< FloatType > floats = Compute.inFloats( 3, expression.create() );
+			final Image< DoubleType > doubles = Compute.inDoubles( 3, expression.create() );
+			Compute.setCompilationEnabled( true );
+			assertSameImage( floats, Compute.inFloats( 3, expression.create() ) );
+			assertSameImage( doubles, Compute.inDoubles( 3, expression.create() ) );
+			assertSameImage( floats, Compute.inFloats( 1, expression.create() ) );
+		}
+		finally
+		{
+			Compute.setCompilationEnabled( enabled );
+		}
+	}
+
+	private void testExpressions( final ContainerFactory containerFactory ) throws Exception
+	{
+		final Image< UnsignedByteType > a = createImage( new UnsignedByteType(), containerFactory, 1 );
+		final Image< UnsignedShortType > b = createImage( new UnsignedShortType(), containerFactory, 2 );
+		final Image< FloatType > c = createImage( new FloatType(), containerFactory, 3 );
+		final Image< UnsignedIntType > d = createImage( new UnsignedIntType(), containerFactory, 4 );
+
+		assertSameResults( new Expression() {
+			IFunction create() { return new Multiply( new Divide( new Subtract( a, b ), new Subtract( b, c ) ), 12.5 ); }
+		});
+		assertSameResults( new Expression() {
+			IFunction create() { return new Sin( new Pow( new Sqrt( new Add( a, d ) ), 3 ) ); }
+		});
+		assertSameResults( new Expression() {
+			IFunction create() throws Exception { return new Add( new Difference( a, c ), new Average( b, d ), new Max( a, 100 ) ); }
+		});
+		assertSameResults( new Expression() {
+			IFunction create() { return new Round( new And( new Add( a, a ), b ) ); }
+		});
+	}
+
+	@Test
+	public void testArrayContainer() throws Exception
+	{
+		testExpressions( new ArrayContainerFactory() );
+	}
+
+	@Test
+	public void testPlanarContainer() throws Exception
+	{
+		testExpressions( new PlanarContainerFactory() );
+	}
+
+	@Test
+	public void testCompute()
+	{
+		final Image< UnsignedByteType > a = createImage( new UnsignedByteType(), new PlanarContainerFactory(), 1 );
+		final CompiledFunction compiled = FunctionCompiler.compile( new Multiply( a, 2 ), new FloatType() );
+		assertNotNull( compiled );
+		final Image< FloatType > result = new ImageFactory< FloatType >( new FloatType(), new PlanarContainerFactory() ).createImage( DIM );
+		assertTrue( compiled.compute( result, 4 ) );
+
+		final Cursor< UnsignedByteType > c = a.createCursor();
+		final Cursor< FloatType > r = result.createCursor();
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			r.fwd();
+			assertEquals( c.getType().get() * 2, r.getType().get(), 0 );
+		}
+		c.close();
+		r.close();
+	}
+
+	@Test
+	public void testCellContainerFallsBack() throws Exception
+	{
+		final Image< UnsignedByteType > a = createImage( new UnsignedByteType(), new CellContainerFactory( 8 ), 1 );
+		final IFunction fn = new Add( a, 1 );
+		final CompiledFunction compiled = FunctionCompiler.compile( fn, new FloatType() );
+		assertNotNull( compiled );
+		assertFalse( compiled.compute( a.createNewImage(), 1 ) );
+
+		testExpressions( new CellContainerFactory( 8 ) );
+	}
+
+	@Test
+	public void testUnsupportedFunctions()
+	{
+		final Image< UnsignedByteType > a = createImage( new UnsignedByteType(), new ArrayContainerFactory(), 1 );
+		// Not a compilable function
+		assertNull( FunctionCompiler.compile( new Add( a, new script.imglib.math.Random( 1 ) ), new FloatType() ) );
+		// Not a supported result type
+		assertNull( FunctionCompiler.compile( new Add( a, 1 ), new UnsignedByteType() ) );
+		// No images
+		assertNull( FunctionCompiler.compile( new Add( 1, 2 ), new FloatType() ) );
+		assertNotNull( FunctionCompiler.compile( new Add( a, 1 ), new FloatType() ) );
+		assertTrue( FunctionCompiler.CACHE_SIZE > 0 );
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package script.imglib.test;
+
+import java.util.Random;
+
+import mpicbg.imglib.container.ContainerFactory;
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.container.planar.PlanarContainerFactory;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.type.numeric.integer.UnsignedByteType;
+import mpicbg.imglib.type.numeric.real.FloatType;
+import script.imglib.math.ASin;
+import script.imglib.math.Abs;
+import script.imglib.math.Add;
+import script.imglib.math.Cbrt;
+import script.imglib.math.Compute;
+import script.imglib.math.Difference;
+import script.imglib.math.Divide;
+import script.imglib.math.Multiply;
+import script.imglib.math.Pow;
+import script.imglib.math.Sin;
+import script.imglib.math.Sqrt;
+import script.imglib.math.Subtract;
+import script.imglib.math.compile.FunctionCompiler;
+import script.imglib.math.fn.IFunction;
+
+/* Compares the per-pixel cost of interpreted and compiled {@link IFunction}s
+ * (see {@link FunctionCompiler}) on 2048x2048 8-bit images, single-threaded.
+ *
+ * Reports the best of several runs, in nanoseconds per pixel, including
+ * the allocation of the result image. On a recent JVM, with an
+ * {@link ArrayContainerFactory}:
+ *
+ArrayContainerFactory:
+  correct illumination   interpreted:   24.65 ns/px  compiled:    6.46 ns/px  speedup:   3.8x
+  heavy operations       interpreted:  304.40 ns/px  compiled:  241.96 ns/px  speedup:   1.3x
+  Difference             interpreted:   19.29 ns/px  compiled:    5.18 ns/px  speedup:   3.7x
+  Abs(Subtract)          interpreted:   10.75 ns/px  compiled:    1.95 ns/px  speedup:   5.5x
+  varargs Add            interpreted:   18.47 ns/px  compiled:    2.30 ns/px  speedup:   8.0x
+ *
+ * Simple arithmetic gets 4 to 8 times faster; expressions dominated by
+ * transcendental functions gain little, since the Math calls cost the same.
+ */
+public class CompileBenchmark {
+
+	static private final int WIDTH = 2048, HEIGHT = 2048, RUNS = 6;
+
+	static public final void p(String s) {
+		System.out.println(s);
+	}
+
+	/** Creates a new function for each run, since its cursors are closed afterwards. */
+	static private abstract class Expression {
+		final String name;
+		Expression(final String name) { this.name = name; }
+		abstract IFunction create() throws Exception;
+	}
+
+	static private Image<UnsignedByteType> createImage(final ContainerFactory containerFactory, final long seed) {
+		final Image<UnsignedByteType> img = new ImageFactory<UnsignedByteType>(new UnsignedByteType(), containerFactory)
+				.createImage(new int[]{WIDTH, HEIGHT});
+		final Random random = new Random(seed);
+		for (final UnsignedByteType t : img) t.set(random.nextInt(256));
+		return img;
+	}
+
+	static private double nsPerPixel(final Expression e, final boolean compiled) throws Exception {
+		Compute.setCompilationEnabled(compiled);
+		long best = Long.MAX_VALUE;
+		for (int i=0; i<RUNS; i++) {
+			final IFunction fn = e.create();
+			final long t0 = System.nanoTime();
+			Compute.inFloats(1, fn).close();
+			best = Math.min(best, System.nanoTime() - t0);
+		}
+		return best / (double)(WIDTH * HEIGHT);
+	}
+
+	static public void run(final ContainerFactory containerFactory) throws Exception {
+		final Image<UnsignedByteType> img = createImage(containerFactory, 1),
+									  brightfield = createImage(containerFactory, 2),
+									  darkfield = createImage(containerFactory, 3);
+		final double mean = 127.5;
+
+		final Expression[] expressions = new Expression[] {
+			new Expression("correct illumination") {
+				IFunction create() {
+					return new Multiply(new Divide(new Subtract(img, brightfield), new Subtract(brightfield, darkfield)), mean);
+				}
+			},
+			new Expression("heavy operations") {
+				IFunction create() {
+					return new Multiply(new ASin(new Sin(new Divide(new Pow(new Sqrt(img), 2), new Pow(new Cbrt(img), 3)))), img);
+				}
+			},
+			new Expression("Difference") {
+				IFunction create() { return new Difference(img, brightfield); }
+			},
+			new Expression("Abs(Subtract)") {
+				IFunction create() { return new Abs(new Subtract(img, brightfield)); }
+			},
+			new Expression("varargs Add") {
+				IFunction create() throws Exception { return new Add(img, brightfield, darkfield, img); }
+			}
+		};
+
+		p(containerFactory.getClass().getSimpleName() + ":");
+		for (final Expression e : expressions) {
+			final double interpreted = nsPerPixel(e, false),
+						 compiled = nsPerPixel(e, true);
+			p(String.format("  %-22s interpreted: %7.2f ns/px  compiled: %7.2f ns/px  speedup: %5.1fx",
+					e.name, interpreted, compiled, interpreted / compiled));
+		}
+	}
+
+	public static void main(String[] args) {
+		final boolean enabled = Compute.isCompilationEnabled();
+		try {
+			run(new ArrayContainerFactory());
+			run(new PlanarContainerFactory());
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			Compute.setCompilationEnabled(enabled);
+		}
+	}
+}